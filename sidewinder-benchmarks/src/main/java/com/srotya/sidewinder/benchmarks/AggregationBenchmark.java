@@ -0,0 +1,115 @@
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.aggregators.AggregationFunction;
+import com.srotya.sidewinder.core.aggregators.WindowAggregator;
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.MemStorageEngine;
+import com.srotya.sidewinder.core.storage.SeriesIterator;
+
+/**
+ * Windowed aggregation of every series of a {@link MemStorageEngine}, with
+ * the points read a block at a time and one at a time. Run with
+ * <code>-prof gc</code>, block reads should allocate nothing per point.
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregationBenchmark {
+
+	@Param({ "10000" })
+	private int series;
+	@Param({ "360" })
+	private int points;
+	@Param({ "SUM", "MAX" })
+	private AggregationFunction function;
+	private MemStorageEngine engine;
+	private List<List<String>> tags = new ArrayList<>();
+	private long start;
+	private long end;
+
+	@Setup
+	public void setup() throws IOException {
+		Map<String, String> conf = BenchmarkUtils.engineConf("aggregation");
+		conf.put("mem.max.mb", "1024");
+		engine = new MemStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		for (int i = 0; i < series; i++) {
+			tags.add(Arrays.asList("host" + i, "dc" + i % 10));
+		}
+		// a point every 10 seconds
+		end = System.currentTimeMillis();
+		start = end - points * 10000L;
+		List<DataPoint> batch = new ArrayList<>();
+		for (long ts = start; ts < end; ts += 10000) {
+			for (int i = 0; i < series; i++) {
+				batch.add(new DataPoint("cpu", tags.get(i), ts, 50 + Math.sin(ts / 1e6 + i) * 10));
+			}
+			engine.writeBatch(batch);
+			batch.clear();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		engine.disconnect();
+	}
+
+	private WindowAggregator aggregator() {
+		return new WindowAggregator(function, 60, (int) (start / 1000), (int) (end / 1000), 0);
+	}
+
+	@Benchmark
+	public int blocks() throws IOException {
+		int windows = 0;
+		for (List<String> t : tags) {
+			WindowAggregator aggregator = aggregator();
+			try (SeriesIterator itr = engine.queryRange("cpu", t, TimeUnit.MILLISECONDS, start, end)) {
+				aggregator.aggregate(itr, true);
+			}
+			windows += aggregator.result(t).getTimestamps().length;
+		}
+		return windows;
+	}
+
+	@Benchmark
+	public int points() throws IOException {
+		int windows = 0;
+		for (List<String> t : tags) {
+			WindowAggregator aggregator = aggregator();
+			try (SeriesIterator itr = engine.queryRange("cpu", t, TimeUnit.MILLISECONDS, start, end)) {
+				while (itr.next()) {
+					aggregator.add(itr.getTimestamp(), itr.getValueAsDouble());
+				}
+			}
+			windows += aggregator.result(t).getTimestamps().length;
+		}
+		return windows;
+	}
+
+}
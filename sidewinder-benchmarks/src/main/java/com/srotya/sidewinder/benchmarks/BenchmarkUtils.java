@@ -0,0 +1,60 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Helpers shared by the benchmarks
+ * 
+ * @author ambudsharma
+ */
+public class BenchmarkUtils {
+
+	public static final String BASE_DIRECTORY = "target/benchmarks/";
+
+	private BenchmarkUtils() {
+	}
+
+	/**
+	 * Storage engine configuration with all directories under a benchmark
+	 * specific directory
+	 * 
+	 * @param name
+	 *            of the benchmark
+	 * @return configuration
+	 * @throws IOException
+	 */
+	public static Map<String, String> engineConf(String name) throws IOException {
+		String base = BASE_DIRECTORY + name;
+		FileUtils.deleteDirectory(new File(base));
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.wal.directory", base + "/tsdbw");
+		conf.put("tsdb.mem.directory", base + "/tsdbm");
+		conf.put("idxdb.wal.directory", base + "/idxdbw");
+		conf.put("idxdb.mem.directory", base + "/idxdbm");
+		for (String directory : conf.values()) {
+			new File(directory).mkdirs();
+		}
+		return conf;
+	}
+
+}
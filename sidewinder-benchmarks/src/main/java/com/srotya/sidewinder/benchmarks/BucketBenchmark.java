@@ -0,0 +1,130 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.storage.BucketReader;
+import com.srotya.sidewinder.core.storage.TimeSeriesBucket;
+
+/**
+ * Serialization of a {@link TimeSeriesBucket}, a full bucket is a point per
+ * second. Run with <code>-prof gc</code>, the allocation per operation
+ * should stay proportional to the encoded size.
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BucketBenchmark {
+
+	@Param({ "4096" })
+	private int points;
+	private long[] timestamps;
+	private long[] values;
+	private byte[] encoded;
+	private byte[] merged;
+	private BucketReader reader;
+
+	@Setup
+	public void setup() throws IOException {
+		long start = System.currentTimeMillis();
+		timestamps = new long[points];
+		values = new long[points];
+		for (int i = 0; i < points; i++) {
+			timestamps[i] = start + i * 1000;
+			values[i] = Double.doubleToLongBits(50 + Math.sin(i / 100.0) * 10);
+		}
+		encoded = encode();
+		// an encoded half followed by the other half as merge operands
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		for (int i = 0; i < points / 2; i++) {
+			bucket.addDataPoint(timestamps[i], values[i]);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(bucket.toBytes());
+		for (int i = points / 2; i < points; i++) {
+			out.write(TimeSeriesBucket.MERGE_DELIMITER);
+			out.write(TimeSeriesBucket.encodeMergeOperand(timestamps[i], values[i]));
+		}
+		merged = out.toByteArray();
+		reader = new BucketReader();
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		for (int i = 0; i < points; i++) {
+			bucket.addDataPoint(timestamps[i], values[i]);
+		}
+		return bucket.toBytes();
+	}
+
+	@Benchmark
+	public TimeSeriesBucket decode() throws IOException {
+		return TimeSeriesBucket.fromBytes(encoded);
+	}
+
+	@Benchmark
+	public TimeSeriesBucket decodeMerged() throws IOException {
+		return TimeSeriesBucket.fromBytes(merged);
+	}
+
+	/**
+	 * Read every point in place
+	 */
+	@Benchmark
+	public long read() throws IOException {
+		TimeSeriesBucket.openReader(encoded, reader);
+		long sum = 0;
+		while (reader.next()) {
+			sum += reader.getValue();
+		}
+		return sum;
+	}
+
+	/**
+	 * Read every point of a bucket with merge operands in place
+	 */
+	@Benchmark
+	public long readMerged() throws IOException {
+		TimeSeriesBucket.openReader(merged, reader);
+		long sum = 0;
+		while (reader.next()) {
+			sum += reader.getValue();
+		}
+		return sum;
+	}
+
+}
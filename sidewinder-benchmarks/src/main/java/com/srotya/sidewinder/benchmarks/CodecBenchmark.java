@@ -0,0 +1,121 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.storage.AbstractStorageEngine;
+import com.srotya.sidewinder.core.utils.ByteUtils;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * {@link ByteUtils} codecs and the {@link TimeUtils} bucket arithmetic used
+ * on every write. The floor benchmarks check the claim in
+ * {@link TimeUtils#getWindowFlooredNaturalTime(int, int)} that shifting
+ * doesn't beat the division the JIT emits.
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+	private static final int BUCKET_SHIFT = Integer.numberOfTrailingZeros(AbstractStorageEngine.BUCKET_SIZE);
+	private int intValue;
+	private long longValue;
+	private double doubleValue;
+	private byte[] intBytes;
+	private byte[] longBytes;
+	private byte[] doubleBytes;
+	private long timestamp;
+	private int seconds;
+
+	@Setup
+	public void setup() {
+		timestamp = System.currentTimeMillis();
+		seconds = (int) (timestamp / 1000);
+		intValue = seconds;
+		longValue = timestamp;
+		doubleValue = timestamp * 1.1;
+		intBytes = ByteUtils.intToByteMSB(intValue);
+		longBytes = ByteUtils.longToBytes(longValue);
+		doubleBytes = ByteUtils.doubleToBytes(doubleValue);
+	}
+
+	@Benchmark
+	public byte[] intToByteMSB() {
+		return ByteUtils.intToByteMSB(intValue);
+	}
+
+	@Benchmark
+	public int bytesToIntMSB() {
+		return ByteUtils.bytesToIntMSB(intBytes);
+	}
+
+	@Benchmark
+	public byte[] longToBytes() {
+		return ByteUtils.longToBytes(longValue);
+	}
+
+	@Benchmark
+	public long byteToLong() {
+		return ByteUtils.byteToLong(longBytes);
+	}
+
+	@Benchmark
+	public byte[] doubleToBytes() {
+		return ByteUtils.doubleToBytes(doubleValue);
+	}
+
+	@Benchmark
+	public double bytesToDouble() {
+		return ByteUtils.bytesToDouble(doubleBytes);
+	}
+
+	@Benchmark
+	public int getTimeBucket() {
+		return TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, timestamp, AbstractStorageEngine.BUCKET_SIZE);
+	}
+
+	@Benchmark
+	public int floorDivision() {
+		return TimeUtils.getWindowFlooredNaturalTime(seconds, AbstractStorageEngine.BUCKET_SIZE);
+	}
+
+	/**
+	 * Only valid since the bucket size is a power of 2
+	 */
+	@Benchmark
+	public int floorShift() {
+		return (seconds >> BUCKET_SHIFT) << BUCKET_SHIFT;
+	}
+
+}
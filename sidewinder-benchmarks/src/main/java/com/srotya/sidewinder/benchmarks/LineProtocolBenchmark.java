@@ -0,0 +1,93 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.srotya.sidewinder.core.ingress.LineProtocolParser;
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+
+/**
+ * Points per second through the line protocol write path, a request body of
+ * {@value #LINES} lines with two fields each over {@value #SERIES} series
+ * keys, parsed alone and parsed into the storage engine
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineProtocolBenchmark {
+
+	private static final int LINES = 5000;
+	private static final int SERIES = 500;
+	private byte[] body;
+	private LineProtocolParser parser;
+	private RocksDBStorageEngine engine;
+
+	@Setup
+	public void setup() throws IOException {
+		StringBuilder builder = new StringBuilder();
+		long ts = System.currentTimeMillis() * 1000000;
+		for (int i = 0; i < LINES; i++) {
+			builder.append("cpu,host=host").append(i % SERIES).append(",dc=dc").append(i % 10).append(" user=")
+					.append(i * 0.25).append(",system=").append(i).append("i ").append(ts + i * 1000000L).append('\n');
+		}
+		body = builder.toString().getBytes(StandardCharsets.UTF_8);
+		parser = new LineProtocolParser(10000, 10000);
+		engine = new RocksDBStorageEngine();
+		engine.configure(BenchmarkUtils.engineConf("lineprotocol"));
+		engine.connect();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		engine.disconnect();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES * 2)
+	public long parse(Blackhole blackhole) throws IOException {
+		return parser.parse(new ByteArrayInputStream(body), TimeUnit.NANOSECONDS, blackhole::consume);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES * 2)
+	public long parseAndWrite() throws IOException {
+		return parser.parse(new ByteArrayInputStream(body), TimeUnit.NANOSECONDS, engine::writeBatch);
+	}
+
+}
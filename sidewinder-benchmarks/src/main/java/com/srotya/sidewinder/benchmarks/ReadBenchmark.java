@@ -0,0 +1,163 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.rocksdb.RocksDBException;
+
+import com.srotya.sidewinder.core.storage.BucketReader;
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+import com.srotya.sidewinder.core.storage.SeriesIterator;
+import com.srotya.sidewinder.core.storage.TimeSeriesBucket;
+
+/**
+ * Read latency with and without the prefix extractor and bloom filters. The
+ * series are written in rounds with a reconnect, which flushes the
+ * memtables, after each round so every SST file only holds some of the
+ * series.
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+
+	private static final int ROUNDS = 10;
+	@Param({ "true", "false" })
+	private boolean filters;
+	@Param({ "1000" })
+	private int series;
+	@Param({ "12" })
+	private int hours;
+	private RocksDBStorageEngine engine;
+	private Random random = new Random(0);
+	private BucketReader reader = new BucketReader();
+	private long now;
+
+	@Setup
+	public void setup() throws IOException {
+		Map<String, String> conf = BenchmarkUtils.engineConf("read");
+		conf.put("tsdb.prefix.extractor.enabled", String.valueOf(filters));
+		conf.put("tsdb.prefix.extractor.tags", "1");
+		conf.put("tsdb.bloom.bits.per.key", filters ? "10" : "0");
+		// keep the files of each round apart
+		conf.put("tsdb.level0.compaction.trigger", String.valueOf(ROUNDS * 2));
+		now = System.currentTimeMillis();
+		long start = now - TimeUnit.HOURS.toMillis(hours);
+		List<DataPoint> batch = new ArrayList<>();
+		for (int round = 0; round < ROUNDS; round++) {
+			engine = new RocksDBStorageEngine();
+			engine.configure(conf);
+			engine.connect();
+			for (long ts = start; ts < now; ts += 60000) {
+				for (int i = round; i < series; i += ROUNDS) {
+					batch.add(new DataPoint("cpu", tags(i), ts, (double) i));
+				}
+				engine.writeBatch(batch);
+				batch.clear();
+			}
+			engine.disconnect();
+		}
+		engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		engine.disconnect();
+	}
+
+	private static List<String> tags(int i) {
+		return Arrays.asList("host" + i, "dc" + i % 10);
+	}
+
+	/**
+	 * Range scan over the last hour of a series
+	 */
+	@Benchmark
+	public long queryRange() throws IOException {
+		long sum = 0;
+		try (SeriesIterator itr = engine.queryRange("cpu", tags(random.nextInt(series)), TimeUnit.MILLISECONDS,
+				now - 3600000, now)) {
+			while (itr.next()) {
+				sum += itr.getValue();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Point lookup of a bucket that exists
+	 */
+	@Benchmark
+	public TimeSeriesBucket getBucket() throws IOException, RocksDBException {
+		return engine.getBucketFromDS(
+				engine.buildRowKey("cpu", tags(random.nextInt(series)), TimeUnit.MILLISECONDS, now - 3600000));
+	}
+
+	/**
+	 * Point lookup of a bucket read in place, without decoding it into a
+	 * {@link TimeSeriesBucket}
+	 */
+	@Benchmark
+	public long readBucket() throws IOException {
+		long sum = 0;
+		if (engine.readBucket(
+				engine.buildRowKey("cpu", tags(random.nextInt(series)), TimeUnit.MILLISECONDS, now - 3600000),
+				reader)) {
+			while (reader.next()) {
+				sum += reader.getValue();
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Point lookup of a bucket that doesn't exist yet, the first write of
+	 * every bucket reads it
+	 */
+	@Benchmark
+	public TimeSeriesBucket getMissingBucket() throws IOException, RocksDBException {
+		return engine.getBucketFromDS(
+				engine.buildRowKey("cpu", tags(random.nextInt(series)), TimeUnit.MILLISECONDS, now + 3600000));
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.RecoveryStats;
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+
+/**
+ * Time to reopen an existing dataset. The dataset is written once per trial,
+ * scale it to several GB with <code>-p series=100000 -p hours=720</code>,
+ * the size on disk and the recovery stats of each restart are printed.
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecoveryBenchmark {
+
+	@Param({ "1000" })
+	private int series;
+	@Param({ "24" })
+	private int hours;
+	@Param({ "false", "true" })
+	private boolean verify;
+	private Map<String, String> conf;
+	private RecoveryStats stats;
+
+	@Setup
+	public void setup() throws IOException {
+		conf = BenchmarkUtils.engineConf("recovery");
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		long now = System.currentTimeMillis();
+		long start = now - TimeUnit.HOURS.toMillis(hours);
+		List<DataPoint> batch = new ArrayList<>(series);
+		// a point per series every 10 seconds
+		for (long ts = start; ts < now; ts += 10000) {
+			for (int i = 0; i < series; i++) {
+				batch.add(new DataPoint("cpu", Arrays.asList("host" + i, "dc" + i % 10), ts, (double) i));
+			}
+			engine.writeBatch(batch);
+			batch.clear();
+		}
+		engine.disconnect();
+		conf.put("tsdb.recovery.verify", String.valueOf(verify));
+		long size = FileUtils.sizeOfDirectory(new File(BenchmarkUtils.BASE_DIRECTORY + "recovery"));
+		System.out.println("\nDataset size:" + FileUtils.byteCountToDisplaySize(size));
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.out.println("\n" + stats);
+	}
+
+	@Benchmark
+	public RecoveryStats restart() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		stats = engine.getRecoveryStats();
+		engine.disconnect();
+		return stats;
+	}
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.storage.AbstractStorageEngine;
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+import com.srotya.sidewinder.core.utils.ByteUtils;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * Row key encoding, run with <code>-prof gc</code> to compare
+ * gc.alloc.rate.norm (bytes allocated per key) between the original
+ * implementation and the buffer based encoder.
+ * 
+ * @author ambudsharma
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowKeyBenchmark {
+
+	private RocksDBStorageEngine engine;
+	private List<String> tags;
+	private ByteBuffer buf;
+	private long timestamp;
+
+	@Setup
+	public void setup() throws IOException {
+		engine = new RocksDBStorageEngine();
+		engine.configure(BenchmarkUtils.engineConf("rowkey"));
+		engine.connect();
+		tags = Arrays.asList("host1", "app1", "dc1", "rack12", "cpu0");
+		buf = ByteBuffer.allocate(AbstractStorageEngine.rowKeyLength(tags));
+		timestamp = System.currentTimeMillis();
+		// register identifiers
+		engine.buildRowKey("cpu.user", tags, TimeUnit.MILLISECONDS, timestamp);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		engine.disconnect();
+	}
+
+	/**
+	 * The original implementation: one array per identifier, one for the
+	 * bucket and a sort of the tag list on every call
+	 */
+	@Benchmark
+	public byte[] legacyBuildRowKey() throws IOException {
+		List<String> tags = new ArrayList<>(this.tags);
+		byte[] rowKey = new byte[3 * (tags.size() + 1) + 4];
+		int bucket = TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, timestamp, AbstractStorageEngine.BUCKET_SIZE);
+		byte[] bucketBytes = ByteUtils.intToByteMSB(bucket);
+		byte[] seriesBytes = engine.indexIdentifier("cpu.user");
+		System.arraycopy(seriesBytes, 0, rowKey, 0, seriesBytes.length);
+		int pos = seriesBytes.length;
+		Collections.sort(tags);
+		for (String tag : tags) {
+			byte[] tagBytes = engine.indexIdentifier(tag);
+			System.arraycopy(tagBytes, 0, rowKey, pos, tagBytes.length);
+			pos += tagBytes.length;
+		}
+		System.arraycopy(bucketBytes, 0, rowKey, pos, bucketBytes.length);
+		return rowKey;
+	}
+
+	/**
+	 * Lookup of an identifier that's already registered, the common case of
+	 * every write
+	 */
+	@Benchmark
+	public byte[] indexIdentifier() throws IOException {
+		return engine.indexIdentifier("rack12");
+	}
+
+	@Benchmark
+	public byte[] buildRowKey() throws IOException {
+		return engine.buildRowKey("cpu.user", tags, TimeUnit.MILLISECONDS, timestamp);
+	}
+
+	@Benchmark
+	public ByteBuffer buildRowKeyIntoBuffer() throws IOException {
+		buf.clear();
+		engine.buildRowKey(buf, "cpu.user", tags, TimeUnit.MILLISECONDS, timestamp);
+		return buf;
+	}
+
+}
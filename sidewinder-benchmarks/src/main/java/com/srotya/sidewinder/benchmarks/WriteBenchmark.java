@@ -0,0 +1,146 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.srotya.sidewinder.core.storage.AbstractStorageEngine;
+import com.srotya.sidewinder.core.storage.MemStorageEngine;
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+
+/**
+ * Throughput of {@link RocksDBStorageEngine#writeSeries} for each write mode
+ * and of the {@link MemStorageEngine}, run with <code>-prof gc</code> to see
+ * the bytes allocated per point. Each thread writes its own series, one point per series per second, so buckets
+ * fill up and roll over the same way they do under a steady ingest.
+ *
+ * @author ambudsharma
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WriteBenchmark {
+
+	private static final int SERIES_PER_THREAD = 100;
+
+	@Param({ "put", "merge", "head", "memory" })
+	private String mode;
+	private AbstractStorageEngine engine;
+
+	@Setup
+	public void setup() throws IOException {
+		Map<String, String> conf = BenchmarkUtils.engineConf("write");
+		if ("memory".equals(mode)) {
+			engine = new MemStorageEngine();
+			engine.configure(conf);
+			engine.connect();
+			return;
+		}
+		if ("head".equals(mode)) {
+			conf.put("tsdb.head.enabled", "true");
+			conf.put("tsdb.head.wal.directory", BenchmarkUtils.BASE_DIRECTORY + "write/headw");
+		} else {
+			conf.put("tsdb.write.mode", mode);
+		}
+		engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		engine.disconnect();
+	}
+
+	/**
+	 * Series written by a single benchmark thread
+	 */
+	@State(Scope.Thread)
+	public static class Writer {
+
+		private static int threads;
+		private List<List<String>> tags;
+		private long timestamp;
+		private int series;
+
+		@Setup
+		public void setup() {
+			int thread;
+			synchronized (Writer.class) {
+				thread = threads++;
+			}
+			tags = new ArrayList<>(SERIES_PER_THREAD);
+			for (int i = 0; i < SERIES_PER_THREAD; i++) {
+				tags.add(Arrays.asList("host" + thread + "_" + i, "dc" + i % 10));
+			}
+			timestamp = System.currentTimeMillis();
+		}
+
+		private List<String> nextTags() {
+			if (++series == SERIES_PER_THREAD) {
+				series = 0;
+				timestamp += 1000;
+			}
+			return tags.get(series);
+		}
+
+	}
+
+	@Benchmark
+	public void writeLong(Writer writer) throws IOException {
+		engine.writeSeries("cpu", writer.nextTags(), TimeUnit.MILLISECONDS, writer.timestamp, writer.series);
+	}
+
+	@Benchmark
+	public void writeDouble(Writer writer) throws IOException {
+		engine.writeSeries("cpu", writer.nextTags(), TimeUnit.MILLISECONDS, writer.timestamp, writer.series * 1.1);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void writeLongConcurrent(Writer writer) throws IOException {
+		writeLong(writer);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void writeDoubleConcurrent(Writer writer) throws IOException {
+		writeDouble(writer);
+	}
+
+}
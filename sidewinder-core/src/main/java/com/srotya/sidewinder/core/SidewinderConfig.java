@@ -15,12 +15,30 @@
  */
 package com.srotya.sidewinder.core;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 import io.dropwizard.Configuration;
 
 /**
- * Simple dropwizard configuration wrapper for java properties based configuration
+ * Simple dropwizard configuration wrapper for java properties based configuration.
+ * Storage engine settings can be supplied in the properties file at
+ * <code>configPath</code> and in the <code>storage</code> map of the
+ * dropwizard configuration, the map takes precedence. <code>profile</code>
+ * selects a tuning profile, e.g. <code>write-heavy</code>. Setting
+ * <code>async.enabled</code> in the storage settings puts an
+ * {@link com.srotya.sidewinder.core.storage.AsyncStorageEngine} in front of
+ * the storage engine.
+ * <code>writeBatchSize</code> and <code>writeCacheSize</code> size the
+ * batches and the series key cache of the line protocol write endpoint and
+ * of the Graphite listener, which is enabled by setting
+ * <code>graphiteTcpPort</code> or <code>graphiteUdpPort</code>.
  * 
  * @author ambudsharma
  */
@@ -28,6 +46,24 @@ public class SidewinderConfig extends Configuration {
 	
 	@JsonProperty
 	private String configPath;
+	@JsonProperty
+	private String profile;
+	@JsonProperty
+	private Map<String, String> storage = new HashMap<>();
+	@JsonProperty
+	private int writeBatchSize = 10000;
+	@JsonProperty
+	private int writeCacheSize = 10000;
+	@JsonProperty
+	private int graphiteTcpPort;
+	@JsonProperty
+	private int graphiteUdpPort;
+	@JsonProperty
+	private int graphiteEventLoops = 2;
+	@JsonProperty
+	private int graphiteWriters = 2;
+	@JsonProperty
+	private int graphiteQueueSize = 16;
 
 	/**
 	 * @return the configPath
@@ -43,4 +79,156 @@ public class SidewinderConfig extends Configuration {
 		this.configPath = configPath;
 	}	
 
+	/**
+	 * @return the tuning profile
+	 */
+	public String getProfile() {
+		return profile;
+	}
+
+	/**
+	 * @param profile the tuning profile to set
+	 */
+	public void setProfile(String profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * @return the storage settings
+	 */
+	public Map<String, String> getStorage() {
+		return storage;
+	}
+
+	/**
+	 * @param storage the storage settings to set
+	 */
+	public void setStorage(Map<String, String> storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * @return number of points per batch written by the write endpoint
+	 */
+	public int getWriteBatchSize() {
+		return writeBatchSize;
+	}
+
+	/**
+	 * @param writeBatchSize the number of points per batch to set
+	 */
+	public void setWriteBatchSize(int writeBatchSize) {
+		this.writeBatchSize = writeBatchSize;
+	}
+
+	/**
+	 * @return number of series keys cached by each thread of the write
+	 *         endpoint
+	 */
+	public int getWriteCacheSize() {
+		return writeCacheSize;
+	}
+
+	/**
+	 * @param writeCacheSize the number of series keys to cache
+	 */
+	public void setWriteCacheSize(int writeCacheSize) {
+		this.writeCacheSize = writeCacheSize;
+	}
+
+	/**
+	 * @return Graphite TCP port, 0 if disabled
+	 */
+	public int getGraphiteTcpPort() {
+		return graphiteTcpPort;
+	}
+
+	/**
+	 * @param graphiteTcpPort the Graphite TCP port to set
+	 */
+	public void setGraphiteTcpPort(int graphiteTcpPort) {
+		this.graphiteTcpPort = graphiteTcpPort;
+	}
+
+	/**
+	 * @return Graphite UDP port, 0 if disabled
+	 */
+	public int getGraphiteUdpPort() {
+		return graphiteUdpPort;
+	}
+
+	/**
+	 * @param graphiteUdpPort the Graphite UDP port to set
+	 */
+	public void setGraphiteUdpPort(int graphiteUdpPort) {
+		this.graphiteUdpPort = graphiteUdpPort;
+	}
+
+	/**
+	 * @return number of Graphite event loop threads
+	 */
+	public int getGraphiteEventLoops() {
+		return graphiteEventLoops;
+	}
+
+	/**
+	 * @param graphiteEventLoops the number of event loop threads to set
+	 */
+	public void setGraphiteEventLoops(int graphiteEventLoops) {
+		this.graphiteEventLoops = graphiteEventLoops;
+	}
+
+	/**
+	 * @return number of threads writing Graphite batches to the engine
+	 */
+	public int getGraphiteWriters() {
+		return graphiteWriters;
+	}
+
+	/**
+	 * @param graphiteWriters the number of writer threads to set
+	 */
+	public void setGraphiteWriters(int graphiteWriters) {
+		this.graphiteWriters = graphiteWriters;
+	}
+
+	/**
+	 * @return number of Graphite batches queued before reads are paused
+	 */
+	public int getGraphiteQueueSize() {
+		return graphiteQueueSize;
+	}
+
+	/**
+	 * @param graphiteQueueSize the number of queued batches to set
+	 */
+	public void setGraphiteQueueSize(int graphiteQueueSize) {
+		this.graphiteQueueSize = graphiteQueueSize;
+	}
+
+	/**
+	 * @return storage engine configuration merged from the properties file,
+	 *         the storage map and the profile
+	 * @throws IOException
+	 */
+	public Map<String, String> getStorageConf() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		if (configPath != null) {
+			Properties props = new Properties();
+			try (InputStream in = new FileInputStream(configPath)) {
+				props.load(in);
+			}
+			for (String key : props.stringPropertyNames()) {
+				conf.put(key, props.getProperty(key));
+			}
+		}
+		if (storage != null) {
+			conf.putAll(storage);
+		}
+		if (profile != null) {
+			conf.put("tsdb.profile", profile);
+		}
+		return conf;
+	}
+
 }
@@ -15,7 +15,23 @@
  */
 package com.srotya.sidewinder.core;
 
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.srotya.sidewinder.core.aggregators.AggregationEngine;
+import com.srotya.sidewinder.core.api.QueryResource;
+import com.srotya.sidewinder.core.api.WriteResource;
+import com.srotya.sidewinder.core.ingress.GraphiteListener;
+import com.srotya.sidewinder.core.storage.AbstractStorageEngine;
+import com.srotya.sidewinder.core.storage.AsyncStorageEngine;
+import com.srotya.sidewinder.core.storage.MemStorageEngine;
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+
 import io.dropwizard.Application;
+import io.dropwizard.lifecycle.Managed;
 import io.dropwizard.setup.Environment;
 
 /**
@@ -26,6 +42,70 @@ public class SidewinderServer extends Application<SidewinderConfig>{
 
 	@Override
 	public void run(SidewinderConfig config, Environment env) throws Exception {
+		Map<String, String> storageConf = config.getStorageConf();
+		AbstractStorageEngine backend = backend(storageConf.getOrDefault("engine", "rocksdb"));
+		StorageEngine engine = Boolean.parseBoolean(storageConf.getOrDefault("async.enabled", "false"))
+				? instrument(new AsyncStorageEngine(backend), env.metrics()) : backend;
+		engine.configure(storageConf);
+		// served on the admin port with the jvm and jersey metrics
+		env.metrics().register("sidewinder.storage", backend.getMetrics().getRegistry());
+		env.lifecycle().manage(new Managed() {
+
+			@Override
+			public void start() throws Exception {
+				engine.connect();
+			}
+
+			@Override
+			public void stop() throws Exception {
+				engine.disconnect();
+			}
+		});
+		env.jersey().register(new WriteResource(engine, config.getWriteBatchSize(), config.getWriteCacheSize()));
+		env.jersey().register(new QueryResource(engine, new AggregationEngine(engine, ForkJoinPool.commonPool()),
+				env.metrics()));
+		if (config.getGraphiteTcpPort() > 0 || config.getGraphiteUdpPort() > 0) {
+			GraphiteListener graphite = new GraphiteListener(engine, config.getGraphiteTcpPort(),
+					config.getGraphiteUdpPort(), config.getGraphiteEventLoops(), config.getGraphiteWriters(),
+					config.getGraphiteQueueSize(), config.getWriteBatchSize(), config.getWriteCacheSize());
+			env.lifecycle().manage(new Managed() {
+
+				@Override
+				public void start() throws Exception {
+					graphite.start();
+				}
+
+				@Override
+				public void stop() throws Exception {
+					graphite.stop();
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * @param name
+	 *            <code>rocksdb</code> or <code>memory</code>
+	 * @return storage engine
+	 */
+	private static AbstractStorageEngine backend(String name) {
+		switch (name.toLowerCase()) {
+		case "rocksdb":
+			return new RocksDBStorageEngine();
+		case "memory":
+			return new MemStorageEngine();
+		default:
+			throw new IllegalArgumentException("Unknown storage engine " + name);
+		}
+	}
+
+	private static AsyncStorageEngine instrument(AsyncStorageEngine async, MetricRegistry metrics) {
+		metrics.register("sidewinder.async.queue.depth", (Gauge<Integer>) async::getQueueDepth);
+		metrics.register("sidewinder.async.committed", (Gauge<Long>) async::getCommitted);
+		metrics.register("sidewinder.async.failed", (Gauge<Long>) async::getFailed);
+		metrics.register("sidewinder.async.stalls", (Gauge<Long>) async::getStalls);
+		return async;
 	}
 	
 	/**
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+import java.util.List;
+
+/**
+ * Aggregated windows of a single series
+ * 
+ * @author ambudsharma
+ */
+public class AggregatedSeries {
+
+	private final List<String> tags;
+	private final long[] timestamps;
+	private final double[] values;
+
+	/**
+	 * @param tags
+	 * @param timestamps
+	 *            start of each window in milliseconds
+	 * @param values
+	 */
+	public AggregatedSeries(List<String> tags, long[] timestamps, double[] values) {
+		this.tags = tags;
+		this.timestamps = timestamps;
+		this.values = values;
+	}
+
+	/**
+	 * @return the tags of the series
+	 */
+	public List<String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * @return start of each window in milliseconds, only windows with points
+	 *         are returned
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * @return aggregated value of each window
+	 */
+	public double[] getValues() {
+		return values;
+	}
+
+	/**
+	 * @return number of windows
+	 */
+	public int size() {
+		return timestamps.length;
+	}
+
+}
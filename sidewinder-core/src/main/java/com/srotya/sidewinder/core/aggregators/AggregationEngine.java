@@ -0,0 +1,160 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import com.srotya.sidewinder.core.storage.SeriesIterator;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.SummaryIterator;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * Runs {@link AggregationQuery}s against a {@link StorageEngine}. Matching
+ * series are found with the tag index and each series is streamed and
+ * reduced by its own fork join task, so only the aggregated windows are
+ * ever held in memory.<br>
+ * <br>
+ * Functions that can be computed from summaries are planned against the
+ * coarsest rollup that divides the requested window.
+ * 
+ * @author ambudsharma
+ */
+public class AggregationEngine {
+
+	private final StorageEngine engine;
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param engine
+	 * @param pool
+	 *            used to aggregate series in parallel
+	 */
+	public AggregationEngine(StorageEngine engine, ForkJoinPool pool) {
+		this.engine = engine;
+		this.pool = pool;
+	}
+
+	/**
+	 * @param query
+	 * @return aggregated windows of every matching series
+	 * @throws IOException
+	 */
+	public List<AggregatedSeries> aggregate(AggregationQuery query) throws IOException {
+		List<List<String>> series = engine.findSeries(query.getSeriesName(), query.getFilter());
+		AggregatedSeries[] results = new AggregatedSeries[series.size()];
+		try {
+			pool.invoke(new AggregationTask(query, series, results, 0, series.size()));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * @param query
+	 * @param tags
+	 *            of the series to aggregate
+	 * @return aggregated windows of the series
+	 * @throws IOException
+	 */
+	public AggregatedSeries aggregate(AggregationQuery query, List<String> tags) throws IOException {
+		WindowAggregator aggregator = new WindowAggregator(query.getFunction(), query.getWindowSeconds(),
+				TimeUtils.timeToSeconds(query.getUnit(), query.getStartTime()),
+				TimeUtils.timeToSeconds(query.getUnit(), query.getEndTime()), query.getPercentile());
+		long startTime = query.getUnit().toMillis(query.getStartTime());
+		long endTime = query.getUnit().toMillis(query.getEndTime());
+		int rollupWindow = WindowAggregator.supportsSummaries(query.getFunction())
+				? engine.getRollupWindow(query.getWindowSeconds()) : 0;
+		if (rollupWindow > 0) {
+			// whole rollup windows inside the range are read from the rollup,
+			// only the partial windows at either end are read raw
+			long rollupMs = rollupWindow * 1000L;
+			long rollupStart = ((startTime + rollupMs - 1) / rollupMs) * rollupMs;
+			long rollupEnd = ((endTime + 1) / rollupMs) * rollupMs;
+			if (rollupStart < rollupEnd) {
+				if (startTime < rollupStart) {
+					aggregateRaw(aggregator, query, tags, startTime, rollupStart - 1);
+				}
+				try (SummaryIterator itr = engine.querySummaries(query.getSeriesName(), tags, rollupWindow,
+						TimeUnit.MILLISECONDS, rollupStart, rollupEnd - 1)) {
+					while (itr.next()) {
+						aggregator.add(itr.getTimestamp(), itr.getSummary());
+					}
+				}
+				if (rollupEnd <= endTime) {
+					aggregateRaw(aggregator, query, tags, rollupEnd, endTime);
+				}
+				return aggregator.result(tags);
+			}
+		}
+		aggregateRaw(aggregator, query, tags, startTime, endTime);
+		return aggregator.result(tags);
+	}
+
+	private void aggregateRaw(WindowAggregator aggregator, AggregationQuery query, List<String> tags,
+			long startTime, long endTime) throws IOException {
+		try (SeriesIterator itr = engine.queryRange(query.getSeriesName(), tags, TimeUnit.MILLISECONDS, startTime,
+				endTime)) {
+			aggregator.aggregate(itr, query.isFp());
+		}
+	}
+
+	/**
+	 * Splits the series in halves until a single series is left
+	 */
+	private class AggregationTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+		private final AggregationQuery query;
+		private final List<List<String>> series;
+		private final AggregatedSeries[] results;
+		private final int from;
+		private final int to;
+
+		private AggregationTask(AggregationQuery query, List<List<String>> series, AggregatedSeries[] results,
+				int from, int to) {
+			this.query = query;
+			this.series = series;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new AggregationTask(query, series, results, from, mid),
+						new AggregationTask(query, series, results, mid, to));
+			} else if (to > from) {
+				try {
+					results[from] = aggregate(query, series.get(from));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+/**
+ * Reduction applied to the points of each window
+ * 
+ * @author ambudsharma
+ */
+public enum AggregationFunction {
+
+	SUM, MIN, MAX, AVG, COUNT,
+	/**
+	 * Nearest rank percentile, the percentile is supplied with the query
+	 */
+	PERCENTILE,
+	/**
+	 * Per second rate of change between the first and the last point of the
+	 * window
+	 */
+	RATE
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+import java.util.concurrent.TimeUnit;
+
+import com.srotya.sidewinder.core.storage.TagFilter;
+
+/**
+ * Downsampling query over all series of a name that match a tag filter
+ * 
+ * @author ambudsharma
+ */
+public class AggregationQuery {
+
+	/**
+	 * Upper bound on the number of windows of a query so that the per window
+	 * state stays small
+	 */
+	public static final int MAX_WINDOWS = 1 << 20;
+
+	private final String seriesName;
+	private final TimeUnit unit;
+	private final long startTime;
+	private final long endTime;
+	private final int windowSeconds;
+	private final AggregationFunction function;
+	private TagFilter filter;
+	private boolean fp;
+	private double percentile = 50;
+
+	/**
+	 * @param seriesName
+	 * @param unit
+	 *            of the start and end time
+	 * @param startTime
+	 * @param endTime
+	 * @param windowSeconds
+	 * @param function
+	 */
+	public AggregationQuery(String seriesName, TimeUnit unit, long startTime, long endTime, int windowSeconds,
+			AggregationFunction function) {
+		if (windowSeconds <= 0) {
+			throw new IllegalArgumentException("Window must be at least a second");
+		}
+		if (endTime < startTime) {
+			throw new IllegalArgumentException("End time is before start time");
+		}
+		if (unit.toSeconds(endTime - startTime) / windowSeconds >= MAX_WINDOWS) {
+			throw new IllegalArgumentException("Query spans more than " + MAX_WINDOWS + " windows");
+		}
+		this.seriesName = seriesName;
+		this.unit = unit;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.windowSeconds = windowSeconds;
+		this.function = function;
+	}
+
+	/**
+	 * @return the seriesName
+	 */
+	public String getSeriesName() {
+		return seriesName;
+	}
+
+	/**
+	 * @return the unit of the start and end time
+	 */
+	public TimeUnit getUnit() {
+		return unit;
+	}
+
+	/**
+	 * @return the startTime
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	/**
+	 * @return the endTime
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	/**
+	 * @return the window size in seconds
+	 */
+	public int getWindowSeconds() {
+		return windowSeconds;
+	}
+
+	/**
+	 * @return the function
+	 */
+	public AggregationFunction getFunction() {
+		return function;
+	}
+
+	/**
+	 * @return the tag filter, null matches every series
+	 */
+	public TagFilter getFilter() {
+		return filter;
+	}
+
+	/**
+	 * @param filter
+	 *            the tag filter to set
+	 * @return this query
+	 */
+	public AggregationQuery setFilter(TagFilter filter) {
+		this.filter = filter;
+		return this;
+	}
+
+	/**
+	 * @return true if the stored values are doubles
+	 */
+	public boolean isFp() {
+		return fp;
+	}
+
+	/**
+	 * @param fp
+	 *            true if the stored values are doubles
+	 * @return this query
+	 */
+	public AggregationQuery setFp(boolean fp) {
+		this.fp = fp;
+		return this;
+	}
+
+	/**
+	 * @return the percentile used by {@link AggregationFunction#PERCENTILE}
+	 */
+	public double getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return this query
+	 */
+	public AggregationQuery setPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+		this.percentile = percentile;
+		return this;
+	}
+
+}
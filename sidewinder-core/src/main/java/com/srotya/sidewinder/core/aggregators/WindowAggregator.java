@@ -0,0 +1,345 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.srotya.sidewinder.core.storage.PointBlock;
+import com.srotya.sidewinder.core.storage.RollupSummary;
+import com.srotya.sidewinder.core.storage.SeriesIterator;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * Reduces the points of a series into fixed windows while they are being
+ * decoded, at most a block of raw points is held at a time. Windows are
+ * aligned using {@link TimeUtils#getWindowFlooredNaturalTime(int, int)} and
+ * state is kept per window, so points arriving out of order are still
+ * counted in the right window.<br>
+ * <br>
+ * Only percentiles need the values of a window, they are collected into a
+ * primitive array per window.<br>
+ * <br>
+ * Series are read a {@link PointBlock} at a time and each block is split
+ * into runs of points of the same window, so the function is dispatched
+ * once per run and reduced by a plain loop over the value column.
+ * 
+ * @author ambudsharma
+ */
+public class WindowAggregator {
+
+	private static final ThreadLocal<PointBlock> BLOCKS = ThreadLocal.withInitial(PointBlock::new);
+
+	private final AggregationFunction function;
+	private final int windowSeconds;
+	private final int firstWindow;
+	private final double percentile;
+	private final long[] counts;
+	private final double[] values;
+	private long[] firstTimestamps;
+	private long[] lastTimestamps;
+	private double[] lastValues;
+	private double[][] samples;
+
+	/**
+	 * @param function
+	 * @param windowSeconds
+	 * @param startSeconds
+	 *            first second of the range to aggregate
+	 * @param endSeconds
+	 *            last second of the range to aggregate
+	 * @param percentile
+	 *            used by {@link AggregationFunction#PERCENTILE}
+	 */
+	public WindowAggregator(AggregationFunction function, int windowSeconds, int startSeconds, int endSeconds,
+			double percentile) {
+		this.function = function;
+		this.windowSeconds = windowSeconds;
+		this.percentile = percentile;
+		this.firstWindow = TimeUtils.getWindowFlooredNaturalTime(startSeconds, windowSeconds);
+		int windows = (TimeUtils.getWindowFlooredNaturalTime(endSeconds, windowSeconds) - firstWindow)
+				/ windowSeconds + 1;
+		counts = new long[windows];
+		values = new double[windows];
+		switch (function) {
+		case RATE:
+			// values hold the first value of each window
+			firstTimestamps = new long[windows];
+			lastTimestamps = new long[windows];
+			lastValues = new double[windows];
+			break;
+		case PERCENTILE:
+			samples = new double[windows][];
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Drain the iterator into the windows
+	 * 
+	 * @param itr
+	 * @param fp
+	 *            true if the values are doubles
+	 * @throws IOException
+	 */
+	public void aggregate(SeriesIterator itr, boolean fp) throws IOException {
+		PointBlock block = BLOCKS.get();
+		while (itr.nextBlock(block) > 0) {
+			add(block, fp);
+		}
+	}
+
+	/**
+	 * @param block
+	 *            of points with timestamps in milliseconds
+	 * @param fp
+	 *            true if the values are doubles
+	 */
+	public void add(PointBlock block, boolean fp) {
+		long[] timestamps = block.getTimestamps();
+		double[] blockValues = block.getDoubles(fp);
+		int size = block.size();
+		long windowMs = windowSeconds * 1000L;
+		int from = 0;
+		while (from < size) {
+			long timestamp = timestamps[from];
+			int window = TimeUtils.getWindowFlooredNaturalTime(
+					TimeUtils.timeToSeconds(TimeUnit.MILLISECONDS, timestamp), windowSeconds);
+			int index = (window - firstWindow) / windowSeconds;
+			if (index < 0 || index >= counts.length) {
+				from++;
+				continue;
+			}
+			long windowStart = window * 1000L;
+			long windowEnd = windowStart + windowMs;
+			int to = from + 1;
+			while (to < size && timestamps[to] >= windowStart && timestamps[to] < windowEnd) {
+				to++;
+			}
+			addRun(index, timestamps, blockValues, from, to);
+			from = to;
+		}
+	}
+
+	/**
+	 * Reduce points of the same window, the result is the same as adding
+	 * them one at a time
+	 */
+	private void addRun(int index, long[] timestamps, double[] blockValues, int from, int to) {
+		long count = counts[index];
+		counts[index] = count + to - from;
+		switch (function) {
+		case SUM:
+		case AVG: {
+			double sum = values[index];
+			for (int i = from; i < to; i++) {
+				sum += blockValues[i];
+			}
+			values[index] = sum;
+			break;
+		}
+		case MIN: {
+			double min = count == 0 ? blockValues[from] : values[index];
+			for (int i = from; i < to; i++) {
+				min = Math.min(min, blockValues[i]);
+			}
+			values[index] = min;
+			break;
+		}
+		case MAX: {
+			double max = count == 0 ? blockValues[from] : values[index];
+			for (int i = from; i < to; i++) {
+				max = Math.max(max, blockValues[i]);
+			}
+			values[index] = max;
+			break;
+		}
+		case RATE:
+			for (int i = from; i < to; i++, count++) {
+				long timestamp = timestamps[i];
+				if (count == 0 || timestamp < firstTimestamps[index]) {
+					firstTimestamps[index] = timestamp;
+					values[index] = blockValues[i];
+				}
+				if (count == 0 || timestamp >= lastTimestamps[index]) {
+					lastTimestamps[index] = timestamp;
+					lastValues[index] = blockValues[i];
+				}
+			}
+			break;
+		case PERCENTILE:
+			double[] windowValues = samples[index];
+			int needed = (int) count + to - from;
+			if (windowValues == null || needed > windowValues.length) {
+				int length = windowValues == null ? 16 : windowValues.length;
+				while (length < needed) {
+					length *= 2;
+				}
+				windowValues = samples[index] = windowValues == null ? new double[length]
+						: Arrays.copyOf(windowValues, length);
+			}
+			System.arraycopy(blockValues, from, windowValues, (int) count, to - from);
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @param timestamp
+	 *            in milliseconds
+	 * @param value
+	 */
+	public void add(long timestamp, double value) {
+		int window = TimeUtils.getWindowFlooredNaturalTime(
+				TimeUtils.timeToSeconds(TimeUnit.MILLISECONDS, timestamp), windowSeconds);
+		int index = (window - firstWindow) / windowSeconds;
+		if (index < 0 || index >= counts.length) {
+			return;
+		}
+		long count = counts[index]++;
+		switch (function) {
+		case SUM:
+		case AVG:
+			values[index] += value;
+			break;
+		case MIN:
+			values[index] = count == 0 ? value : Math.min(values[index], value);
+			break;
+		case MAX:
+			values[index] = count == 0 ? value : Math.max(values[index], value);
+			break;
+		case RATE:
+			if (count == 0 || timestamp < firstTimestamps[index]) {
+				firstTimestamps[index] = timestamp;
+				values[index] = value;
+			}
+			if (count == 0 || timestamp >= lastTimestamps[index]) {
+				lastTimestamps[index] = timestamp;
+				lastValues[index] = value;
+			}
+			break;
+		case PERCENTILE:
+			double[] windowValues = samples[index];
+			if (windowValues == null) {
+				windowValues = samples[index] = new double[16];
+			} else if (count == windowValues.length) {
+				windowValues = samples[index] = Arrays.copyOf(windowValues, windowValues.length * 2);
+			}
+			windowValues[(int) count] = value;
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Add a pre-aggregated rollup window, the rollup window must not be
+	 * larger than the windows of this aggregator. Only
+	 * {@link #supportsSummaries(AggregationFunction)} functions can be
+	 * computed from summaries.
+	 * 
+	 * @param timestamp
+	 *            start of the rollup window in milliseconds
+	 * @param summary
+	 */
+	public void add(long timestamp, RollupSummary summary) {
+		if (!supportsSummaries(function)) {
+			throw new IllegalStateException(function + " can't be computed from rollups");
+		}
+		int window = TimeUtils.getWindowFlooredNaturalTime(
+				TimeUtils.timeToSeconds(TimeUnit.MILLISECONDS, timestamp), windowSeconds);
+		int index = (window - firstWindow) / windowSeconds;
+		if (index < 0 || index >= counts.length || summary.getCount() == 0) {
+			return;
+		}
+		long count = counts[index];
+		counts[index] += summary.getCount();
+		switch (function) {
+		case SUM:
+		case AVG:
+			values[index] += summary.getSum();
+			break;
+		case MIN:
+			values[index] = count == 0 ? summary.getMin() : Math.min(values[index], summary.getMin());
+			break;
+		case MAX:
+			values[index] = count == 0 ? summary.getMax() : Math.max(values[index], summary.getMax());
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * @param function
+	 * @return true if the function can be computed from rollup summaries
+	 */
+	public static boolean supportsSummaries(AggregationFunction function) {
+		return function != AggregationFunction.PERCENTILE && function != AggregationFunction.RATE;
+	}
+
+	/**
+	 * @param tags
+	 *            of the aggregated series
+	 * @return the windows that received points
+	 */
+	public AggregatedSeries result(List<String> tags) {
+		int size = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0 && !(function == AggregationFunction.RATE && counts[i] == 1)) {
+				size++;
+			}
+		}
+		long[] timestamps = new long[size];
+		double[] result = new double[size];
+		int pos = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] == 0 || (function == AggregationFunction.RATE && counts[i] == 1)) {
+				// a rate needs two points
+				continue;
+			}
+			timestamps[pos] = (firstWindow + (long) i * windowSeconds) * 1000;
+			result[pos++] = value(i);
+		}
+		return new AggregatedSeries(tags, timestamps, result);
+	}
+
+	private double value(int i) {
+		switch (function) {
+		case AVG:
+			return values[i] / counts[i];
+		case COUNT:
+			return counts[i];
+		case RATE:
+			long elapsed = lastTimestamps[i] - firstTimestamps[i];
+			return elapsed == 0 ? 0 : (lastValues[i] - values[i]) * 1000 / elapsed;
+		case PERCENTILE:
+			int count = (int) counts[i];
+			double[] sorted = samples[i];
+			Arrays.sort(sorted, 0, count);
+			int rank = (int) Math.ceil(percentile / 100 * count);
+			return sorted[Math.max(rank, 1) - 1];
+		default:
+			return values[i];
+		}
+	}
+
+}
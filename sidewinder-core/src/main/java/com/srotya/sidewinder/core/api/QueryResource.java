@@ -0,0 +1,191 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.api;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.srotya.sidewinder.core.aggregators.AggregatedSeries;
+import com.srotya.sidewinder.core.aggregators.AggregationEngine;
+import com.srotya.sidewinder.core.aggregators.AggregationFunction;
+import com.srotya.sidewinder.core.aggregators.AggregationQuery;
+import com.srotya.sidewinder.core.storage.SeriesIterator;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.storage.TagFilter;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * Range and aggregate queries. Times are in the unit given by
+ * <code>precision</code>, milliseconds by default, the range defaults to the
+ * last hour. Values are read as doubles unless <code>fp=false</code>.
+ *
+ * @author ambudsharma
+ */
+@Path("/query")
+@Produces(MediaType.APPLICATION_JSON)
+public class QueryResource {
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private final StorageEngine engine;
+	private final AggregationEngine aggregationEngine;
+	private final Timer ranges;
+
+	/**
+	 * @param engine
+	 * @param aggregationEngine
+	 * @param metrics
+	 *            registry of the range query timer, points are streamed after
+	 *            the resource method returns
+	 */
+	public QueryResource(StorageEngine engine, AggregationEngine aggregationEngine, MetricRegistry metrics) {
+		this.engine = engine;
+		this.aggregationEngine = aggregationEngine;
+		this.ranges = metrics.timer(MetricRegistry.name(QueryResource.class, "range"));
+	}
+
+	/**
+	 * Points of a single series, streamed as
+	 * <code>{"series":..., "tags":[...], "points":[[timestamp, value], ...]}</code>
+	 * with timestamps in milliseconds
+	 *
+	 * @param seriesName
+	 * @param tags
+	 *            of the series in the order they were written, the line
+	 *            protocol writes them sorted
+	 * @param precision
+	 * @param start
+	 * @param end
+	 * @param fp
+	 * @return points
+	 */
+	@GET
+	@Path("/range")
+	public StreamingOutput range(@QueryParam("series") String seriesName, @QueryParam("tag") List<String> tags,
+			@QueryParam("precision") @DefaultValue("ms") String precision, @QueryParam("start") Long start,
+			@QueryParam("end") Long end, @QueryParam("fp") @DefaultValue("true") boolean fp) {
+		if (seriesName == null) {
+			throw new BadRequestException("series is required");
+		}
+		TimeUnit unit = unit(precision);
+		long endTime = end != null ? end : unit.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		long startTime = start != null ? start : endTime - unit.convert(1, TimeUnit.HOURS);
+		return out -> {
+			Timer.Context time = ranges.time();
+			try (SeriesIterator itr = engine.queryRange(seriesName, tags, unit, startTime, endTime);
+					JsonGenerator json = JSON.createGenerator(out, JsonEncoding.UTF8)) {
+				json.writeStartObject();
+				json.writeStringField("series", seriesName);
+				json.writeArrayFieldStart("tags");
+				for (String tag : tags) {
+					json.writeString(tag);
+				}
+				json.writeEndArray();
+				json.writeArrayFieldStart("points");
+				while (itr.next()) {
+					json.writeStartArray();
+					json.writeNumber(itr.getTimestamp());
+					if (fp) {
+						json.writeNumber(itr.getValueAsDouble());
+					} else {
+						json.writeNumber(itr.getValue());
+					}
+					json.writeEndArray();
+				}
+				json.writeEndArray();
+				json.writeEndObject();
+			} finally {
+				time.stop();
+			}
+		};
+	}
+
+	/**
+	 * Windowed aggregate of every series of the name carrying all of the
+	 * tags
+	 *
+	 * @param seriesName
+	 * @param tags
+	 *            filter, all must match
+	 * @param precision
+	 * @param start
+	 * @param end
+	 * @param window
+	 *            in seconds
+	 * @param function
+	 *            e.g. <code>avg</code>
+	 * @param percentile
+	 * @param fp
+	 * @return aggregated series
+	 * @throws IOException
+	 */
+	@GET
+	@Path("/aggregate")
+	@Timed
+	public List<AggregatedSeries> aggregate(@QueryParam("series") String seriesName,
+			@QueryParam("tag") List<String> tags, @QueryParam("precision") @DefaultValue("ms") String precision,
+			@QueryParam("start") Long start, @QueryParam("end") Long end,
+			@QueryParam("window") @DefaultValue("60") int window,
+			@QueryParam("function") @DefaultValue("avg") String function,
+			@QueryParam("percentile") @DefaultValue("50") double percentile,
+			@QueryParam("fp") @DefaultValue("true") boolean fp) throws IOException {
+		if (seriesName == null) {
+			throw new BadRequestException("series is required");
+		}
+		TimeUnit unit = unit(precision);
+		long endTime = end != null ? end : unit.convert(System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		long startTime = start != null ? start : endTime - unit.convert(1, TimeUnit.HOURS);
+		AggregationQuery query;
+		try {
+			query = new AggregationQuery(seriesName, unit, startTime, endTime, window,
+					AggregationFunction.valueOf(function.trim().toUpperCase())).setFp(fp).setPercentile(percentile);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		if (!tags.isEmpty()) {
+			TagFilter[] filters = new TagFilter[tags.size()];
+			for (int i = 0; i < filters.length; i++) {
+				filters[i] = TagFilter.tag(tags.get(i));
+			}
+			query.setFilter(TagFilter.and(filters));
+		}
+		return aggregationEngine.aggregate(query);
+	}
+
+	private static TimeUnit unit(String precision) {
+		try {
+			return TimeUtils.parsePrecision(precision);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+	}
+
+}
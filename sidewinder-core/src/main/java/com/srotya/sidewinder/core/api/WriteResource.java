@@ -0,0 +1,102 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.BadRequestException;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import com.codahale.metrics.annotation.Timed;
+import com.srotya.sidewinder.core.ingress.LineProtocolParser;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * Bulk ingest of points in the InfluxDB line protocol, see
+ * {@link LineProtocolParser}. The body is parsed as it is read and written
+ * to the storage engine in batches. Responds with 204, or 400 naming the
+ * first malformed line if any were skipped, the rest of the body is still
+ * written.
+ *
+ * @author ambudsharma
+ */
+@Path("/write")
+@Produces(MediaType.APPLICATION_JSON)
+public class WriteResource {
+
+	private final StorageEngine engine;
+	private final ThreadLocal<LineProtocolParser> parsers;
+
+	/**
+	 * @param engine
+	 * @param batchSize
+	 *            points per batch written to the engine
+	 * @param cacheSize
+	 *            series keys cached by the parser of each request thread
+	 */
+	public WriteResource(StorageEngine engine, int batchSize, int cacheSize) {
+		this.engine = engine;
+		this.parsers = ThreadLocal.withInitial(() -> new LineProtocolParser(batchSize, cacheSize));
+	}
+
+	/**
+	 * @param precision
+	 *            of the timestamps
+	 * @param in
+	 *            body
+	 * @return response
+	 * @throws IOException
+	 */
+	@POST
+	@Timed
+	public Response write(@QueryParam("precision") @DefaultValue("n") String precision, InputStream in)
+			throws IOException {
+		TimeUnit unit;
+		try {
+			unit = TimeUtils.parsePrecision(precision);
+		} catch (IllegalArgumentException e) {
+			throw new BadRequestException(e.getMessage());
+		}
+		LineProtocolParser parser = parsers.get();
+		try {
+			parser.parse(in, unit, engine::writeBatch);
+		} catch (IllegalArgumentException e) {
+			// rejected by the storage engine, e.g. too few tags
+			return error(e.getMessage());
+		}
+		if (parser.getRejected() > 0) {
+			return error("partial write, " + parser.getRejected() + " lines rejected, first at "
+					+ parser.getFirstRejected());
+		}
+		return Response.noContent().build();
+	}
+
+	private static Response error(String message) {
+		return Response.status(Status.BAD_REQUEST).entity(Collections.singletonMap("error", message)).build();
+	}
+
+}
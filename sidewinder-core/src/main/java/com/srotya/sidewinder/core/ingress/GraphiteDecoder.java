@@ -0,0 +1,183 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+
+/**
+ * Decoder for the Graphite plaintext protocol:
+ *
+ * <pre>
+ * metric.path[;tag=value...] value [timestamp]
+ * </pre>
+ *
+ * The metric path is the series name and the tags are sorted, timestamps are
+ * in seconds and a missing or negative one means now. Values are written as
+ * floating point.<br>
+ * <br>
+ * Lines are found in the supplied buffer, which may be direct, and copied
+ * one at a time into a reused array for parsing. Series keys are cached as
+ * in {@link LineProtocolParser}. Not thread safe.
+ *
+ * @author ambudsharma
+ */
+public class GraphiteDecoder {
+
+	private final SeriesKeyCache cache;
+	private final SeriesKeyCache.Decoder keyDecoder = GraphiteDecoder::decodeKey;
+	private byte[] line = new byte[256];
+
+	/**
+	 * @param cacheSize
+	 *            number of series keys to cache
+	 */
+	public GraphiteDecoder(int cacheSize) {
+		this.cache = new SeriesKeyCache(cacheSize);
+	}
+
+	/**
+	 * Decode the complete lines between the position and the limit of the
+	 * buffer, the position is left at the start of the incomplete last line
+	 *
+	 * @param buf
+	 * @param endOfInput
+	 *            if a last line without a newline is complete
+	 * @param points
+	 *            decoded points are added to this list
+	 * @return number of malformed lines skipped
+	 */
+	public int decode(ByteBuffer buf, boolean endOfInput, List<DataPoint> points) {
+		long now = System.currentTimeMillis();
+		int rejected = 0;
+		int pos = buf.position();
+		int limit = buf.limit();
+		for (int i = pos; i < limit; i++) {
+			if (buf.get(i) == '\n') {
+				if (!decodeLine(buf, pos, i, now, points)) {
+					rejected++;
+				}
+				pos = i + 1;
+			}
+		}
+		if (endOfInput && pos < limit) {
+			if (!decodeLine(buf, pos, limit, now, points)) {
+				rejected++;
+			}
+			pos = limit;
+		}
+		buf.position(pos);
+		return rejected;
+	}
+
+	private boolean decodeLine(ByteBuffer buf, int from, int to, long now, List<DataPoint> points) {
+		int length = to - from;
+		if (line.length < length) {
+			line = new byte[Integer.highestOneBit(length) * 2];
+		}
+		byte[] b = line;
+		buf.position(from);
+		buf.get(b, 0, length);
+		int start = 0;
+		int end = length;
+		while (start < end && isSpace(b[start])) {
+			start++;
+		}
+		while (end > start && (isSpace(b[end - 1]) || b[end - 1] == '\r')) {
+			end--;
+		}
+		if (start == end) {
+			return true;
+		}
+		int pathEnd = next(b, start, end);
+		int valueStart = skip(b, pathEnd, end);
+		int valueEnd = next(b, valueStart, end);
+		int tsStart = skip(b, valueEnd, end);
+		int tsEnd = next(b, tsStart, end);
+		if (valueStart == end || tsEnd != end) {
+			return false;
+		}
+		SeriesKey series = cache.get(b, start, pathEnd, keyDecoder);
+		if (series == null) {
+			return false;
+		}
+		try {
+			double value = LineProtocolParser.parseDouble(b, valueStart, valueEnd);
+			long timestamp = now;
+			if (tsStart < end) {
+				double seconds = LineProtocolParser.parseDouble(b, tsStart, tsEnd);
+				if (seconds >= 0) {
+					timestamp = Math.round(seconds * 1000);
+				}
+			}
+			points.add(new DataPoint(series.name, series.tags, timestamp, value));
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private static SeriesKey decodeKey(byte[] b, int from, int to) {
+		int end = indexOf(b, from, to, ';');
+		if (end == from) {
+			return null;
+		}
+		String name = new String(b, from, end - from, StandardCharsets.UTF_8);
+		List<String> tags = new ArrayList<>();
+		while (end < to) {
+			int start = end + 1;
+			end = indexOf(b, start, to, ';');
+			int eq = indexOf(b, start, end, '=');
+			if (eq == start || eq + 1 >= end) {
+				return null;
+			}
+			tags.add(new String(b, start, end - start, StandardCharsets.UTF_8));
+		}
+		Collections.sort(tags);
+		return new SeriesKey(name, Collections.unmodifiableList(tags));
+	}
+
+	private static int indexOf(byte[] b, int from, int to, char c) {
+		while (from < to && b[from] != c) {
+			from++;
+		}
+		return from;
+	}
+
+	private static int next(byte[] b, int from, int to) {
+		while (from < to && !isSpace(b[from])) {
+			from++;
+		}
+		return from;
+	}
+
+	private static int skip(byte[] b, int from, int to) {
+		while (from < to && isSpace(b[from])) {
+			from++;
+		}
+		return from;
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t';
+	}
+
+}
@@ -0,0 +1,371 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+
+/**
+ * Graphite plaintext ingest over TCP and UDP on non-blocking NIO event
+ * loops. Each loop owns a selector, a direct read buffer and a
+ * {@link GraphiteDecoder}; connections are spread over the loops round
+ * robin. Decoded points are handed to writer threads in batches through a
+ * bounded queue. When the queue is full an event loop waits for room
+ * instead of reading, so TCP senders are throttled by flow control, UDP
+ * datagrams beyond the socket buffer are dropped by the kernel.
+ *
+ * @author ambudsharma
+ */
+public class GraphiteListener {
+
+	private static final Logger logger = Logger.getLogger(GraphiteListener.class.getName());
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_DATAGRAMS_PER_READ = 64;
+	private static final long POLL_MILLIS = 100;
+	private final StorageEngine engine;
+	private final int tcpPort;
+	private final int udpPort;
+	private final int batchSize;
+	private final int cacheSize;
+	private final BlockingQueue<List<DataPoint>> queue;
+	private final EventLoop[] loops;
+	private final Thread[] writers;
+	private final AtomicLong points = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong stalls = new AtomicLong();
+	private volatile boolean running;
+	private volatile boolean writing;
+	private ServerSocketChannel server;
+	private DatagramChannel udp;
+	private int nextLoop;
+
+	/**
+	 * @param engine
+	 * @param tcpPort
+	 *            0 to disable TCP
+	 * @param udpPort
+	 *            0 to disable UDP
+	 * @param eventLoops
+	 *            number of event loop threads
+	 * @param writers
+	 *            number of threads writing batches to the engine
+	 * @param queueSize
+	 *            number of batches waiting to be written before the event
+	 *            loops stop reading
+	 * @param batchSize
+	 *            points per batch
+	 * @param cacheSize
+	 *            series keys cached by each event loop
+	 */
+	public GraphiteListener(StorageEngine engine, int tcpPort, int udpPort, int eventLoops, int writers,
+			int queueSize, int batchSize, int cacheSize) {
+		this.engine = engine;
+		this.tcpPort = tcpPort;
+		this.udpPort = udpPort;
+		this.batchSize = batchSize;
+		this.cacheSize = cacheSize;
+		this.queue = new ArrayBlockingQueue<>(queueSize);
+		this.loops = new EventLoop[eventLoops];
+		this.writers = new Thread[writers];
+	}
+
+	/**
+	 * Bind the sockets and start the threads
+	 *
+	 * @throws IOException
+	 */
+	public void start() throws IOException {
+		running = true;
+		writing = true;
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(i);
+		}
+		if (tcpPort > 0) {
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(tcpPort));
+			server.configureBlocking(false);
+			server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+		}
+		if (udpPort > 0) {
+			udp = DatagramChannel.open();
+			udp.bind(new InetSocketAddress(udpPort));
+			udp.configureBlocking(false);
+			udp.register(loops[loops.length - 1].selector, SelectionKey.OP_READ);
+		}
+		for (int i = 0; i < writers.length; i++) {
+			writers[i] = new Thread(this::write, "graphite-writer-" + i);
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+		for (EventLoop loop : loops) {
+			loop.thread.start();
+		}
+		logger.info("Graphite listener started, tcp:" + tcpPort + " udp:" + udpPort);
+	}
+
+	/**
+	 * Close the sockets and write the points already read
+	 *
+	 * @throws IOException
+	 */
+	public void stop() throws IOException {
+		running = false;
+		try {
+			for (EventLoop loop : loops) {
+				loop.selector.wakeup();
+				loop.thread.join();
+			}
+			writing = false;
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		if (server != null) {
+			server.close();
+		}
+		if (udp != null) {
+			udp.close();
+		}
+		logger.info("Graphite listener stopped, points:" + points + " rejected:" + rejected + " failed:" + failed
+				+ " stalls:" + stalls);
+	}
+
+	/**
+	 * @return local port of the TCP socket, 0 if disabled
+	 * @throws IOException
+	 */
+	public int getTcpPort() throws IOException {
+		return server != null ? ((InetSocketAddress) server.getLocalAddress()).getPort() : 0;
+	}
+
+	/**
+	 * @return number of points written
+	 */
+	public long getPoints() {
+		return points.get();
+	}
+
+	/**
+	 * @return number of malformed lines skipped
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return number of points the engine failed to write
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return number of times an event loop waited for room in the queue
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+
+	private void write() {
+		while (writing || !queue.isEmpty()) {
+			List<DataPoint> batch;
+			try {
+				batch = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				return;
+			}
+			if (batch == null) {
+				continue;
+			}
+			try {
+				engine.writeBatch(batch);
+				points.addAndGet(batch.size());
+			} catch (IOException | RuntimeException e) {
+				failed.addAndGet(batch.size());
+				logger.log(Level.WARNING, "Failed to write " + batch.size() + " points", e);
+			}
+		}
+	}
+
+	/**
+	 * Partial last line of a TCP connection carried over to the next read
+	 */
+	private static final class Connection {
+
+		private byte[] carry = new byte[0];
+		private int length;
+
+	}
+
+	private final class EventLoop implements Runnable {
+
+		private final Selector selector;
+		private final Thread thread;
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		private final GraphiteDecoder decoder = new GraphiteDecoder(cacheSize);
+		private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+		private List<DataPoint> batch = new ArrayList<>(batchSize);
+
+		private EventLoop(int id) throws IOException {
+			this.selector = Selector.open();
+			this.thread = new Thread(this, "graphite-loop-" + id);
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					selector.select();
+					SocketChannel channel;
+					while ((channel = accepted.poll()) != null) {
+						channel.register(selector, SelectionKey.OP_READ, new Connection());
+					}
+					for (SelectionKey key : selector.selectedKeys()) {
+						try {
+							if (!key.isValid()) {
+								continue;
+							}
+							if (key.isAcceptable()) {
+								accept();
+							} else if (key.channel() instanceof DatagramChannel) {
+								receive((DatagramChannel) key.channel());
+							} else {
+								read(key);
+							}
+						} catch (IOException e) {
+							logger.log(Level.FINE, "Closing connection", e);
+							close(key);
+						}
+					}
+					selector.selectedKeys().clear();
+					handoff();
+				}
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Graphite event loop failed", e);
+			} finally {
+				for (SelectionKey key : selector.keys()) {
+					if (key.channel() instanceof SocketChannel) {
+						close(key);
+					}
+				}
+				handoff();
+				try {
+					selector.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+
+		private void accept() throws IOException {
+			SocketChannel channel;
+			while ((channel = server.accept()) != null) {
+				channel.configureBlocking(false);
+				EventLoop loop = loops[nextLoop++ % loops.length];
+				loop.accepted.add(channel);
+				loop.selector.wakeup();
+			}
+		}
+
+		private void read(SelectionKey key) throws IOException {
+			SocketChannel channel = (SocketChannel) key.channel();
+			Connection connection = (Connection) key.attachment();
+			buffer.clear();
+			buffer.put(connection.carry, 0, connection.length);
+			int read = channel.read(buffer);
+			buffer.flip();
+			rejected.addAndGet(decoder.decode(buffer, read < 0, batch));
+			if (read < 0) {
+				close(key);
+				return;
+			}
+			int remaining = buffer.remaining();
+			if (remaining == buffer.capacity()) {
+				throw new IOException("Line longer than " + READ_BUFFER_SIZE + " bytes");
+			}
+			if (connection.carry.length < remaining) {
+				connection.carry = new byte[Math.max(remaining, connection.carry.length * 2)];
+			}
+			buffer.get(connection.carry, 0, remaining);
+			connection.length = remaining;
+			if (batch.size() >= batchSize) {
+				handoff();
+			}
+		}
+
+		private void receive(DatagramChannel channel) throws IOException {
+			for (int i = 0; i < MAX_DATAGRAMS_PER_READ; i++) {
+				buffer.clear();
+				if (channel.receive(buffer) == null) {
+					break;
+				}
+				buffer.flip();
+				rejected.addAndGet(decoder.decode(buffer, true, batch));
+				if (batch.size() >= batchSize) {
+					handoff();
+				}
+			}
+		}
+
+		private void handoff() {
+			if (batch.isEmpty()) {
+				return;
+			}
+			try {
+				while (!queue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+					stalls.incrementAndGet();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failed.addAndGet(batch.size());
+			}
+			batch = new ArrayList<>(batchSize);
+		}
+
+		private void close(SelectionKey key) {
+			key.cancel();
+			try {
+				key.channel().close();
+			} catch (IOException e) {
+			}
+		}
+
+	}
+
+}
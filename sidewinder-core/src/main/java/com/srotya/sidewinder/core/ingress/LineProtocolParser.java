@@ -0,0 +1,451 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+
+/**
+ * Streaming parser for the InfluxDB line protocol:
+ *
+ * <pre>
+ * measurement[,tag_key=tag_value...] field_key=field_value[,field_key=field_value...] [timestamp]
+ * </pre>
+ *
+ * Each field becomes a point of the series
+ * <code>measurement.field_key</code>, or <code>measurement</code> for a field
+ * named <code>value</code>, tagged with <code>tag_key=tag_value</code> for
+ * every tag sorted. Floats are written as floating point, integers
+ * (<code>1i</code>) and booleans (as 0 and 1) as longs, string fields are
+ * skipped.<br>
+ * <br>
+ * Lines are parsed in place from a reused read buffer. The measurement and
+ * tags of recently seen series keys are cached, so lines of a known series
+ * only allocate their points. Malformed lines are skipped and counted.
+ * Instances are not thread safe.
+ *
+ * @author ambudsharma
+ */
+public class LineProtocolParser {
+
+	/**
+	 * Receives the parsed points
+	 */
+	public interface BatchWriter {
+
+		/**
+		 * @param points
+		 *            reused by the parser once the call returns
+		 * @throws IOException
+		 */
+		void write(List<DataPoint> points) throws IOException;
+
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_LINE_LENGTH = 1024 * 1024;
+	private static final int MAX_FAST_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	private final int batchSize;
+	private final List<DataPoint> batch;
+	private final SeriesKeyCache cache;
+	private final SeriesKeyCache.Decoder keyDecoder = this::decodeKey;
+	private byte[] buf = new byte[BUFFER_SIZE];
+	private String error;
+	private long rejected;
+	private String firstRejected;
+
+	/**
+	 * @param batchSize
+	 *            number of points handed to the writer at a time
+	 * @param cacheSize
+	 *            number of series keys to cache
+	 */
+	public LineProtocolParser(int batchSize, int cacheSize) {
+		this.batchSize = batchSize;
+		this.batch = new ArrayList<>(batchSize);
+		this.cache = new SeriesKeyCache(cacheSize);
+	}
+
+	/**
+	 * Parse the stream until it ends, writing the points in batches
+	 *
+	 * @param in
+	 * @param precision
+	 *            of the timestamps, lines without one are written at the
+	 *            time parsing started
+	 * @param writer
+	 * @return number of points written
+	 * @throws IOException
+	 */
+	public long parse(InputStream in, TimeUnit precision, BatchWriter writer) throws IOException {
+		rejected = 0;
+		firstRejected = null;
+		batch.clear();
+		long now = System.currentTimeMillis();
+		long points = 0;
+		int lineNumber = 0;
+		// unparsed bytes are buf[pos, limit), buf[pos, scan) has no newline
+		int pos = 0;
+		int scan = 0;
+		int limit = 0;
+		boolean eof = false;
+		while (true) {
+			int eol = scan;
+			while (eol < limit && buf[eol] != '\n') {
+				eol++;
+			}
+			if (eol == limit) {
+				if (eof) {
+					if (pos < limit) {
+						points += parseLine(++lineNumber, pos, limit, now, precision, writer);
+					}
+					break;
+				}
+				if (pos > 0) {
+					System.arraycopy(buf, pos, buf, 0, limit - pos);
+					limit -= pos;
+					pos = 0;
+				}
+				if (limit == buf.length) {
+					if (buf.length >= MAX_LINE_LENGTH) {
+						throw new IOException("Line " + (lineNumber + 1) + " is longer than " + MAX_LINE_LENGTH
+								+ " bytes");
+					}
+					buf = Arrays.copyOf(buf, buf.length * 2);
+				}
+				scan = limit;
+				int read = in.read(buf, limit, buf.length - limit);
+				if (read < 0) {
+					eof = true;
+				} else {
+					limit += read;
+				}
+				continue;
+			}
+			points += parseLine(++lineNumber, pos, eol, now, precision, writer);
+			pos = eol + 1;
+			scan = pos;
+		}
+		if (!batch.isEmpty()) {
+			writer.write(batch);
+			batch.clear();
+		}
+		return points;
+	}
+
+	/**
+	 * @return number of lines skipped by the last parse
+	 */
+	public long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return line number and reason of the first line skipped by the last
+	 *         parse, null if none were
+	 */
+	public String getFirstRejected() {
+		return firstRejected;
+	}
+
+	private int parseLine(int lineNumber, int from, int to, long now, TimeUnit precision, BatchWriter writer)
+			throws IOException {
+		byte[] b = buf;
+		while (from < to && (b[from] == ' ' || b[from] == '\t')) {
+			from++;
+		}
+		while (to > from && (b[to - 1] == '\r' || b[to - 1] == ' ' || b[to - 1] == '\t')) {
+			to--;
+		}
+		if (from == to || b[from] == '#') {
+			return 0;
+		}
+		int keyEnd = indexOf(b, from, to, ' ');
+		int fieldsStart = keyEnd + 1;
+		if (fieldsStart >= to) {
+			return reject(lineNumber, "missing fields");
+		}
+		SeriesKey series = cache.get(b, from, keyEnd, keyDecoder);
+		if (series == null) {
+			return reject(lineNumber, error);
+		}
+		int fieldsEnd = fieldsEnd(b, fieldsStart, to);
+		long timestamp = now;
+		if (fieldsEnd < to) {
+			int tsStart = fieldsEnd + 1;
+			while (tsStart < to && b[tsStart] == ' ') {
+				tsStart++;
+			}
+			try {
+				timestamp = precision.toMillis(parseLong(b, tsStart, to));
+			} catch (NumberFormatException e) {
+				return reject(lineNumber, "invalid timestamp");
+			}
+		}
+		int mark = batch.size();
+		int p = fieldsStart;
+		while (p < fieldsEnd) {
+			int eq = indexOf(b, p, fieldsEnd, '=');
+			if (eq == p || eq + 1 >= fieldsEnd) {
+				return rollback(lineNumber, mark, "invalid field");
+			}
+			int valueStart = eq + 1;
+			int valueEnd;
+			if (b[valueStart] == '"') {
+				valueEnd = valueStart + 1;
+				while (valueEnd < fieldsEnd && b[valueEnd] != '"') {
+					valueEnd += b[valueEnd] == '\\' ? 2 : 1;
+				}
+				if (++valueEnd > fieldsEnd || (valueEnd < fieldsEnd && b[valueEnd] != ',')) {
+					return rollback(lineNumber, mark, "invalid string field");
+				}
+				p = valueEnd + 1;
+				continue;
+			}
+			valueEnd = indexOf(b, valueStart, fieldsEnd, ',');
+			if (valueEnd == valueStart) {
+				return rollback(lineNumber, mark, "invalid field");
+			}
+			String name = series.fieldName(b, p, eq);
+			DataPoint dp;
+			try {
+				byte last = b[valueEnd - 1];
+				if (last == 'i' || last == 'u') {
+					dp = new DataPoint(name, series.tags, timestamp, parseLong(b, valueStart, valueEnd - 1));
+				} else if (isBoolean(b, valueStart, valueEnd, true)) {
+					dp = new DataPoint(name, series.tags, timestamp, 1L);
+				} else if (isBoolean(b, valueStart, valueEnd, false)) {
+					dp = new DataPoint(name, series.tags, timestamp, 0L);
+				} else {
+					dp = new DataPoint(name, series.tags, timestamp, parseDouble(b, valueStart, valueEnd));
+				}
+			} catch (NumberFormatException e) {
+				return rollback(lineNumber, mark, "invalid value");
+			}
+			batch.add(dp);
+			p = valueEnd + 1;
+		}
+		int count = batch.size() - mark;
+		if (batch.size() >= batchSize) {
+			writer.write(batch);
+			batch.clear();
+		}
+		return count;
+	}
+
+	private int rollback(int lineNumber, int mark, String reason) {
+		batch.subList(mark, batch.size()).clear();
+		return reject(lineNumber, reason);
+	}
+
+	private int reject(int lineNumber, String reason) {
+		if (rejected++ == 0) {
+			firstRejected = "line " + lineNumber + ": " + reason;
+		}
+		return 0;
+	}
+
+	private SeriesKey decodeKey(byte[] b, int from, int to) {
+		int end = indexOf(b, from, to, ',');
+		if (end == from) {
+			error = "missing measurement";
+			return null;
+		}
+		String measurement = unescape(b, from, end);
+		List<String> tags = new ArrayList<>();
+		while (end < to) {
+			int start = end + 1;
+			end = indexOf(b, start, to, ',');
+			int eq = indexOf(b, start, end, '=');
+			if (eq == start || eq + 1 >= end) {
+				error = "invalid tag";
+				return null;
+			}
+			tags.add(unescape(b, start, eq) + "=" + unescape(b, eq + 1, end));
+		}
+		Collections.sort(tags);
+		return new SeriesKey(measurement, Collections.unmodifiableList(tags));
+	}
+
+	/**
+	 * @return index of the first occurrence of the character that isn't
+	 *         escaped, or the end
+	 */
+	private static int indexOf(byte[] b, int from, int to, char c) {
+		for (int i = from; i < to; i++) {
+			if (b[i] == '\\') {
+				i++;
+			} else if (b[i] == c) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * @return index of the first space that isn't escaped or inside a quoted
+	 *         string, or the end
+	 */
+	private static int fieldsEnd(byte[] b, int from, int to) {
+		boolean quoted = false;
+		for (int i = from; i < to; i++) {
+			if (b[i] == '\\') {
+				i++;
+			} else if (b[i] == '"') {
+				quoted = !quoted;
+			} else if (b[i] == ' ' && !quoted) {
+				return i;
+			}
+		}
+		return to;
+	}
+
+	static String unescape(byte[] b, int from, int to) {
+		int first = from;
+		while (first < to && b[first] != '\\') {
+			first++;
+		}
+		if (first == to) {
+			return new String(b, from, to - from, StandardCharsets.UTF_8);
+		}
+		byte[] out = new byte[to - from];
+		int length = 0;
+		for (int i = from; i < to; i++) {
+			if (b[i] == '\\' && i + 1 < to) {
+				byte next = b[i + 1];
+				if (next == ',' || next == ' ' || next == '=' || next == '"' || next == '\\') {
+					i++;
+				}
+			}
+			out[length++] = b[i];
+		}
+		return new String(out, 0, length, StandardCharsets.UTF_8);
+	}
+
+	private static boolean isBoolean(byte[] b, int from, int to, boolean value) {
+		int length = to - from;
+		if (length == 1) {
+			return value ? (b[from] == 't' || b[from] == 'T') : (b[from] == 'f' || b[from] == 'F');
+		}
+		String word = value ? "true" : "false";
+		if (length != word.length()) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if ((b[from + i] | 0x20) != word.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	static long parseLong(byte[] b, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (b[i] == '-' || b[i] == '+')) {
+			negative = b[i++] == '-';
+		}
+		if (i == to) {
+			throw new NumberFormatException();
+		}
+		long value = 0;
+		for (; i < to; i++) {
+			int digit = b[i] - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException();
+			}
+			// accumulate negatively so that Long.MIN_VALUE fits
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException();
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException();
+			}
+			value = -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Decimals of up to 15 significant digits with a small exponent are
+	 * exact as a long and a power of ten, so a single multiplication or
+	 * division rounds correctly. Anything else falls back to
+	 * {@link Double#parseDouble(String)}.
+	 */
+	static double parseDouble(byte[] b, int from, int to) {
+		int i = from;
+		boolean negative = false;
+		if (i < to && (b[i] == '-' || b[i] == '+')) {
+			negative = b[i++] == '-';
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		boolean fraction = false;
+		for (; i < to; i++) {
+			if (b[i] == '.' && !fraction) {
+				fraction = true;
+				continue;
+			}
+			int digit = b[i] - '0';
+			if (digit < 0 || digit > 9) {
+				break;
+			}
+			any = true;
+			if (mantissa == 0 && digit == 0) {
+				if (fraction) {
+					exponent--;
+				}
+			} else if (++digits <= MAX_FAST_DIGITS) {
+				mantissa = mantissa * 10 + digit;
+				if (fraction) {
+					exponent--;
+				}
+			}
+		}
+		if (any && i < to && (b[i] == 'e' || b[i] == 'E')) {
+			try {
+				long e = parseLong(b, i + 1, to);
+				if (e >= -1000 && e <= 1000) {
+					exponent += (int) e;
+					i = to;
+				}
+			} catch (NumberFormatException e) {
+				// left to the slow path
+			}
+		}
+		if (!any || i != to || digits > MAX_FAST_DIGITS || exponent < -22 || exponent > 22) {
+			return Double.parseDouble(new String(b, from, to - from, StandardCharsets.US_ASCII));
+		}
+		double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Series name and tags decoded from the raw bytes of a series key, with the
+ * series names of the fields seen with it
+ *
+ * @author ambudsharma
+ */
+final class SeriesKey {
+
+	final String name;
+	final List<String> tags;
+	byte[] key;
+	int hash;
+	private byte[][] fields = new byte[1][];
+	private String[] fieldNames = new String[1];
+	private int size;
+
+	/**
+	 * @param name
+	 * @param tags
+	 *            shared by every point of the series
+	 */
+	SeriesKey(String name, List<String> tags) {
+		this.name = name;
+		this.tags = tags;
+	}
+
+	boolean matches(byte[] b, int from, int to) {
+		return equals(key, b, from, to);
+	}
+
+	/**
+	 * @return <code>name.field</code>, or the name for a field named
+	 *         <code>value</code>
+	 */
+	String fieldName(byte[] b, int from, int to) {
+		for (int i = 0; i < size; i++) {
+			if (equals(fields[i], b, from, to)) {
+				return fieldNames[i];
+			}
+		}
+		String field = LineProtocolParser.unescape(b, from, to);
+		String fieldName = field.equals("value") ? name : name + "." + field;
+		if (size == fields.length) {
+			fields = Arrays.copyOf(fields, size * 2);
+			fieldNames = Arrays.copyOf(fieldNames, size * 2);
+		}
+		fields[size] = Arrays.copyOfRange(b, from, to);
+		fieldNames[size++] = fieldName;
+		return fieldName;
+	}
+
+	private static boolean equals(byte[] key, byte[] b, int from, int to) {
+		if (key.length != to - from) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (key[i] != b[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
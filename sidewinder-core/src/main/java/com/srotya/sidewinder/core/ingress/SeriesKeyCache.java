@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing table from the raw bytes of a series key to its decoded
+ * {@link SeriesKey}, looked up without allocating. The table is cleared once
+ * it holds the configured number of keys. Not thread safe.
+ *
+ * @author ambudsharma
+ */
+final class SeriesKeyCache {
+
+	/**
+	 * Decodes a series key that isn't cached
+	 */
+	interface Decoder {
+
+		/**
+		 * @return the series key, null if it is malformed
+		 */
+		SeriesKey decode(byte[] b, int from, int to);
+
+	}
+
+	private final SeriesKey[] table;
+	private final int size;
+	private int count;
+
+	/**
+	 * @param size
+	 *            number of keys to cache
+	 */
+	SeriesKeyCache(int size) {
+		this.size = Math.max(size, 1);
+		this.table = new SeriesKey[Integer.highestOneBit(this.size) * 4];
+	}
+
+	SeriesKey get(byte[] b, int from, int to, Decoder decoder) {
+		int hash = 1;
+		for (int i = from; i < to; i++) {
+			hash = 31 * hash + b[i];
+		}
+		int mask = table.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		for (SeriesKey s = table[slot]; s != null; s = table[slot]) {
+			if (s.hash == hash && s.matches(b, from, to)) {
+				return s;
+			}
+			slot = (slot + 1) & mask;
+		}
+		SeriesKey series = decoder.decode(b, from, to);
+		if (series == null) {
+			return null;
+		}
+		series.key = Arrays.copyOfRange(b, from, to);
+		series.hash = hash;
+		if (count == size) {
+			Arrays.fill(table, null);
+			count = 0;
+			slot = (hash ^ (hash >>> 16)) & mask;
+		}
+		table[slot] = series;
+		count++;
+		return series;
+	}
+
+}
@@ -16,11 +16,15 @@
 package com.srotya.sidewinder.core.storage;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
-import com.srotya.sidewinder.core.utils.ByteUtils;
 import com.srotya.sidewinder.core.utils.TimeUtils;
 
 /**
@@ -30,46 +34,313 @@ import com.srotya.sidewinder.core.utils.TimeUtils;
 public abstract class AbstractStorageEngine implements StorageEngine {
 
 	public static final int BUCKET_SIZE = 4096;
+	/**
+	 * Number of slots in the tag cache, must be a power of 2
+	 */
+	public static final int TAG_CACHE_SIZE = 1 << 17;
+	private static final ThreadLocal<ByteBuffer> ROW_KEY_BUFFER = new ThreadLocal<ByteBuffer>() {
+		@Override
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(256);
+		}
+	};
+	/**
+	 * Direct mapped cache of encoded tag ids, in sorted tag order, for each
+	 * distinct tag list. Tag lists are hashed and compared by index so that
+	 * hits don't allocate, a colliding tag list replaces the slot.
+	 */
+	private final AtomicReferenceArray<TagSet> tagCache = new AtomicReferenceArray<>(TAG_CACHE_SIZE);
+	protected final StorageMetrics metrics = new StorageMetrics();
+
+	protected static final SeriesIterator EMPTY_ITERATOR = new SeriesIterator() {
+
+		@Override
+		public boolean next() {
+			return false;
+		}
+
+		@Override
+		public long getTimestamp() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public long getValue() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void close() {
+		}
+
+	};
+
+	protected static final SummaryIterator EMPTY_SUMMARY_ITERATOR = new SummaryIterator() {
+
+		@Override
+		public boolean next() {
+			return false;
+		}
+
+		@Override
+		public long getTimestamp() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public RollupSummary getSummary() {
+			throw new IllegalStateException();
+		}
+
+		@Override
+		public void close() {
+		}
+
+	};
 
 	public abstract byte[] indexIdentifier(String identifier) throws IOException;
 	
+	/**
+	 * Build the row key for a point. The supplied tag list is not modified.
+	 * 
+	 * @param seriesName
+	 * @param tags
+	 * @param unit
+	 * @param timestamp
+	 * @return row key
+	 * @throws IOException
+	 */
 	public byte[] buildRowKey(String seriesName, List<String> tags, TimeUnit unit, long timestamp) throws IOException {
-		/**
-		 * 3 bytes for each tag, 3 bytes for series name and 4 bytes for the
-		 * time bucket
-		 */
-		byte[] rowKey = new byte[3 * (tags.size() + 1) + 4];
-		int bucket = TimeUtils.getTimeBucket(unit, timestamp, BUCKET_SIZE);
-		byte[] bucketBytes = ByteUtils.intToByteMSB(bucket);
-		byte[] seriesBytes = indexIdentifier(seriesName);
-		System.arraycopy(seriesBytes, 0, rowKey, 0, seriesBytes.length);
+		ByteBuffer buf = ROW_KEY_BUFFER.get();
+		int length = rowKeyLength(tags);
+		if (buf.capacity() < length) {
+			buf = ByteBuffer.allocate(length * 2);
+			ROW_KEY_BUFFER.set(buf);
+		}
+		buf.clear();
+		buildRowKey(buf, seriesName, tags, unit, timestamp);
+		return Arrays.copyOf(buf.array(), length);
+	}
+
+	/**
+	 * Write the row key for a point at the current position of the supplied
+	 * buffer. Once the series and the tag list have been seen, no objects
+	 * are allocated.
+	 * 
+	 * @param buf
+	 *            must have at least {@link #rowKeyLength(List)} bytes
+	 *            remaining
+	 * @param seriesName
+	 * @param tags
+	 * @param unit
+	 * @param timestamp
+	 * @throws IOException
+	 */
+	public void buildRowKey(ByteBuffer buf, String seriesName, List<String> tags, TimeUnit unit, long timestamp)
+			throws IOException {
+		buf.put(indexIdentifier(seriesName));
+		buf.put(encodeTags(tags));
+		buf.putInt(TimeUtils.getTimeBucket(unit, timestamp, BUCKET_SIZE));
+	}
+
+	/**
+	 * Build the row key prefix (series and tags) for a series without
+	 * registering any new identifiers
+	 * 
+	 * @param seriesName
+	 * @param tags
+	 * @return prefix or null if the series or any of the tags is unknown
+	 * @throws IOException
+	 */
+	public byte[] buildRowPrefix(String seriesName, List<String> tags) throws IOException {
+		List<String> sorted = new ArrayList<>(tags);
+		Collections.sort(sorted);
+		byte[] prefix = new byte[3 * (sorted.size() + 1)];
+		byte[] seriesBytes = lookupIdentifier(seriesName);
+		if (seriesBytes == null) {
+			return null;
+		}
+		System.arraycopy(seriesBytes, 0, prefix, 0, seriesBytes.length);
 		int pos = seriesBytes.length;
-		Collections.sort(tags);
-		for (String tag : tags) {
+		for (String tag : sorted) {
+			byte[] tagBytes = lookupIdentifier(tag);
+			if (tagBytes == null) {
+				return null;
+			}
+			System.arraycopy(tagBytes, 0, prefix, pos, tagBytes.length);
+			pos += tagBytes.length;
+		}
+		return prefix;
+	}
+
+	/**
+	 * Lookup the id of an identifier without registering it, engines that
+	 * can't tell known identifiers apart register them
+	 * 
+	 * @param identifier
+	 * @return id or null if the identifier is unknown
+	 * @throws IOException
+	 */
+	public byte[] lookupIdentifier(String identifier) throws IOException {
+		return indexIdentifier(identifier);
+	}
+
+	/**
+	 * 3 bytes for each tag, 3 bytes for series name and 4 bytes for the time
+	 * bucket
+	 * 
+	 * @param tags
+	 * @return length of the row key
+	 */
+	public static int rowKeyLength(List<String> tags) {
+		return 3 * (tags.size() + 1) + 4;
+	}
+
+	/**
+	 * @param tags
+	 * @return ids of the tags in sorted tag order
+	 * @throws IOException
+	 */
+	protected byte[] encodeTags(List<String> tags) throws IOException {
+		int hash = hash(tags);
+		int slot = hash & (TAG_CACHE_SIZE - 1);
+		TagSet cached = tagCache.get(slot);
+		if (cached != null && cached.matches(hash, tags)) {
+			return cached.encoded;
+		}
+		List<String> sorted = new ArrayList<>(tags);
+		Collections.sort(sorted);
+		byte[] encoded = new byte[3 * sorted.size()];
+		int pos = 0;
+		for (String tag : sorted) {
 			byte[] tagBytes = indexIdentifier(tag);
-			System.arraycopy(tagBytes, 0, rowKey, pos, tagBytes.length);
+			System.arraycopy(tagBytes, 0, encoded, pos, tagBytes.length);
 			pos += tagBytes.length;
 		}
-		System.arraycopy(bucketBytes, 0, rowKey, pos, bucketBytes.length);
-		return rowKey;
+		tagCache.set(slot, new TagSet(hash, tags.toArray(new String[tags.size()]), encoded));
+		return encoded;
+	}
+
+	private static int hash(List<String> tags) {
+		int h = 1;
+		for (int i = 0; i < tags.size(); i++) {
+			h = 31 * h + tags.get(i).hashCode();
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static final class TagSet {
+
+		private final int hash;
+		private final String[] tags;
+		private final byte[] encoded;
+
+		private TagSet(int hash, String[] tags, byte[] encoded) {
+			this.hash = hash;
+			this.tags = tags;
+			this.encoded = encoded;
+		}
+
+		private boolean matches(int hash, List<String> tags) {
+			if (this.hash != hash || this.tags.length != tags.size()) {
+				return false;
+			}
+			for (int i = 0; i < this.tags.length; i++) {
+				if (!this.tags[i].equals(tags.get(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
 	}
 
 	@Override
 	public void writeSeries(String seriesName, List<String> tags, TimeUnit unit, long timestamp, 
 			long value) throws IOException {
 		byte[] rowKey = buildRowKey(seriesName, tags, unit, timestamp);
-		byte[] valueBytes = ByteUtils.longToBytes(value);
-		writeSeriesPoint(rowKey, timestamp, valueBytes);
+		writeSeriesPoint(rowKey, unit.toMillis(timestamp), value, false);
 	}
 
 	@Override
 	public void writeSeries(String seriesName, List<String> tags, TimeUnit unit, long timestamp, 
 			double value) throws IOException {
 		byte[] rowKey = buildRowKey(seriesName, tags, unit, timestamp);
-		byte[] valueBytes = ByteUtils.doubleToBytes(value);
-		writeSeriesPoint(rowKey, timestamp, valueBytes);
+		writeSeriesPoint(rowKey, unit.toMillis(timestamp), Double.doubleToLongBits(value), true);
 	}
 	
-	public abstract void writeSeriesPoint(byte[] rowKey, long timestamp, byte[] value) throws IOException;
+	@Override
+	public void writeBatch(Collection<DataPoint> points) throws IOException {
+		for (DataPoint dp : points) {
+			byte[] rowKey = buildRowKey(dp.getSeriesName(), dp.getTags(), TimeUnit.MILLISECONDS, dp.getTimestamp());
+			writeSeriesPoint(rowKey, dp.getTimestamp(), dp.getValue(), dp.isFp());
+		}
+	}
+
+	@Override
+	public SeriesIterator queryRange(String seriesName, List<String> tags, TimeUnit unit, long startTime,
+			long endTime) throws IOException {
+		byte[] prefix = buildRowPrefix(seriesName, tags);
+		if (prefix == null) {
+			return EMPTY_ITERATOR;
+		}
+		int startBucket = TimeUtils.getTimeBucket(unit, startTime, BUCKET_SIZE);
+		int endBucket = TimeUtils.getTimeBucket(unit, endTime, BUCKET_SIZE);
+		return queryRows(prefix, startBucket, endBucket, unit.toMillis(startTime), unit.toMillis(endTime));
+	}
+
+	/**
+	 * @return instrumentation of this engine
+	 */
+	public StorageMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Engines without rollups always return 0
+	 */
+	@Override
+	public int getRollupWindow(int windowSeconds) {
+		return 0;
+	}
+
+	@Override
+	public SummaryIterator querySummaries(String seriesName, List<String> tags, int rollupWindow, TimeUnit unit,
+			long startTime, long endTime) throws IOException {
+		throw new IllegalArgumentException("No rollup with a " + rollupWindow + " second window");
+	}
+
+	/**
+	 * Stream the points of the rows with the supplied prefix from the start
+	 * bucket to the end bucket (inclusive), only returning points between
+	 * the start and end time
+	 * 
+	 * @param prefix
+	 * @param startBucket
+	 * @param endBucket
+	 * @param startTime
+	 *            in milliseconds
+	 * @param endTime
+	 *            in milliseconds
+	 * @return iterator
+	 * @throws IOException
+	 */
+	public abstract SeriesIterator queryRows(byte[] prefix, int startBucket, int endBucket, long startTime,
+			long endTime) throws IOException;
+
+	/**
+	 * Append a point to the bucket identified by the row key
+	 * 
+	 * @param rowKey
+	 * @param timestamp
+	 *            in milliseconds
+	 * @param value
+	 *            raw 64 bits of the value
+	 * @param fp
+	 *            true if the value is a double
+	 * @throws IOException
+	 */
+	public abstract void writeSeriesPoint(byte[] rowKey, long timestamp, long value, boolean fp)
+			throws IOException;
 
 }
@@ -0,0 +1,408 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous front for a {@link StorageEngine}. Writes are published to
+ * lock-free ring buffers, one per writer thread, and return without waiting
+ * for storage. Points are sharded by series, so every bucket of a series is
+ * written by the same thread and in order. Each writer drains up to a batch
+ * of points and hands them to {@link StorageEngine#writeBatch(Collection)} of
+ * the underlying engine, which commits every bucket once per batch.<br>
+ * <br>
+ * Configuration:
+ * <ul>
+ * <li><code>async.writers</code> number of writer threads, default 2</li>
+ * <li><code>async.ring.size</code> points buffered per writer, a power of
+ * two, default 65536; producers wait while it's full</li>
+ * <li><code>async.batch.size</code> points per batch, default 10000</li>
+ * <li><code>async.ack</code> <code>none</code> to return once a point is
+ * buffered, <code>commit</code> to wait until its batch is committed,
+ * default none</li>
+ * </ul>
+ * With <code>none</code>, points are visible to queries only once committed
+ * and failed writes are logged and counted. With <code>commit</code>, a
+ * writer that waits through more failed batches than are remembered fails
+ * rather than report a commit it can't confirm. Tag lists are kept until the
+ * point is written and must not be modified by the caller.
+ *
+ * @author ambudsharma
+ */
+public class AsyncStorageEngine implements StorageEngine {
+
+	/**
+	 * When a write is acknowledged
+	 */
+	public static enum Ack {
+		/**
+		 * Once the point is buffered
+		 */
+		NONE,
+		/**
+		 * Once the batch holding the point is committed by the underlying
+		 * engine
+		 */
+		COMMIT
+	}
+
+	private static final Logger logger = Logger.getLogger(AsyncStorageEngine.class.getName());
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+	private static final int SPINS = 100;
+	private static final int MAX_FAILURES = 1024;
+	private final StorageEngine engine;
+	private final AtomicLong stalls = new AtomicLong();
+	private final AtomicLong committed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private int writers;
+	private int ringSize;
+	private int batchSize;
+	private Ack ack;
+	private Shard[] shards;
+	private volatile boolean running;
+
+	/**
+	 * @param engine
+	 *            written to by the writer threads
+	 */
+	public AsyncStorageEngine(StorageEngine engine) {
+		this.engine = engine;
+	}
+
+	@Override
+	public void configure(Map<String, String> conf) throws IOException {
+		engine.configure(conf);
+		writers = Integer.parseInt(conf.getOrDefault("async.writers", "2"));
+		ringSize = Integer.parseInt(conf.getOrDefault("async.ring.size", "65536"));
+		batchSize = Integer.parseInt(conf.getOrDefault("async.batch.size", "10000"));
+		ack = Ack.valueOf(conf.getOrDefault("async.ack", Ack.NONE.name()).trim().toUpperCase());
+		if (writers <= 0 || batchSize <= 0) {
+			throw new IllegalArgumentException("Writers and batch size must be positive");
+		}
+	}
+
+	@Override
+	public void connect() throws IOException {
+		engine.connect();
+		running = true;
+		shards = new Shard[writers];
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard(i);
+		}
+		for (Shard shard : shards) {
+			shard.writer.start();
+		}
+	}
+
+	/**
+	 * Write the buffered points and disconnect the underlying engine. Writes
+	 * must have returned before disconnecting.
+	 */
+	@Override
+	public void disconnect() throws IOException {
+		running = false;
+		if (shards != null) {
+			for (Shard shard : shards) {
+				LockSupport.unpark(shard.writer);
+			}
+			try {
+				for (Shard shard : shards) {
+					shard.writer.join();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+		}
+		engine.disconnect();
+	}
+
+	@Override
+	public void writeSeries(String seriesName, List<String> tags, TimeUnit unit, long timestamp, long value)
+			throws IOException {
+		write(new DataPoint(seriesName, tags, unit.toMillis(timestamp), value));
+	}
+
+	@Override
+	public void writeSeries(String seriesName, List<String> tags, TimeUnit unit, long timestamp, double value)
+			throws IOException {
+		write(new DataPoint(seriesName, tags, unit.toMillis(timestamp), value));
+	}
+
+	private void write(DataPoint dp) throws IOException {
+		Shard shard = shardFor(dp);
+		long pos = shard.publish(dp);
+		if (ack == Ack.COMMIT) {
+			shard.await(pos);
+		}
+	}
+
+	@Override
+	public void writeBatch(Collection<DataPoint> points) throws IOException {
+		if (ack == Ack.NONE) {
+			for (DataPoint dp : points) {
+				shardFor(dp).publish(dp);
+			}
+			return;
+		}
+		// wait for the last point published to each shard
+		long[] last = new long[shards.length];
+		Arrays.fill(last, -1);
+		for (DataPoint dp : points) {
+			Shard shard = shardFor(dp);
+			last[shard.id] = shard.publish(dp);
+		}
+		// every shard is waited for, so the batch is settled when this fails
+		IOException failure = null;
+		for (int i = 0; i < last.length; i++) {
+			if (last[i] >= 0) {
+				try {
+					shards[i].await(last[i]);
+				} catch (IOException e) {
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private Shard shardFor(DataPoint dp) {
+		int hash = dp.getSeriesName().hashCode() * 31 + dp.getTags().hashCode();
+		return shards[((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.length];
+	}
+
+	@Override
+	public SeriesIterator queryRange(String seriesName, List<String> tags, TimeUnit unit, long startTime,
+			long endTime) throws IOException {
+		return engine.queryRange(seriesName, tags, unit, startTime, endTime);
+	}
+
+	@Override
+	public List<List<String>> findSeries(String seriesName, TagFilter filter) throws IOException {
+		return engine.findSeries(seriesName, filter);
+	}
+
+	@Override
+	public int getRollupWindow(int windowSeconds) {
+		return engine.getRollupWindow(windowSeconds);
+	}
+
+	@Override
+	public SummaryIterator querySummaries(String seriesName, List<String> tags, int rollupWindow, TimeUnit unit,
+			long startTime, long endTime) throws IOException {
+		return engine.querySummaries(seriesName, tags, rollupWindow, unit, startTime, endTime);
+	}
+
+	/**
+	 * @return the underlying engine
+	 */
+	public StorageEngine getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return acknowledgement mode
+	 */
+	public Ack getAck() {
+		return ack;
+	}
+
+	/**
+	 * @return number of points buffered and not written yet
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Shard shard : shards) {
+			depth += shard.ring.size();
+		}
+		return depth;
+	}
+
+	/**
+	 * @return number of points buffered for each writer
+	 */
+	public int[] getQueueDepths() {
+		int[] depths = new int[shards.length];
+		for (int i = 0; i < depths.length; i++) {
+			depths[i] = shards[i].ring.size();
+		}
+		return depths;
+	}
+
+	/**
+	 * @return number of points committed by the underlying engine
+	 */
+	public long getCommitted() {
+		return committed.get();
+	}
+
+	/**
+	 * @return number of points the underlying engine failed to write
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return number of times a producer found a ring buffer full
+	 */
+	public long getStalls() {
+		return stalls.get();
+	}
+
+	/**
+	 * A range of positions of a shard whose batch failed
+	 */
+	private static final class Failure {
+
+		private final long end;
+		private final Exception cause;
+
+		private Failure(long end, Exception cause) {
+			this.end = end;
+			this.cause = cause;
+		}
+
+	}
+
+	private final class Shard implements Runnable {
+
+		private final int id;
+		private final MpscRingBuffer<DataPoint> ring;
+		private final Thread writer;
+		private final ConcurrentSkipListMap<Long, Failure> failures = new ConcurrentSkipListMap<>();
+		/**
+		 * Failures of positions below have been trimmed, a waiter on them
+		 * can't tell whether its batch was committed
+		 */
+		private volatile long trimmedThrough;
+		/**
+		 * Every position below has been written
+		 */
+		private volatile long done;
+		private volatile boolean sleeping;
+
+		private Shard(int id) {
+			this.id = id;
+			this.ring = new MpscRingBuffer<>(ringSize);
+			this.writer = new Thread(this, "sidewinder-async-writer-" + id);
+			this.writer.setDaemon(true);
+		}
+
+		private long publish(DataPoint dp) throws IOException {
+			long pos;
+			int spins = 0;
+			while ((pos = ring.offer(dp)) < 0) {
+				if (!running) {
+					throw new IOException("Storage engine is disconnected");
+				}
+				if (spins++ == 0) {
+					stalls.incrementAndGet();
+				}
+				if (spins < SPINS) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(WAIT_NANOS);
+				}
+			}
+			if (sleeping) {
+				LockSupport.unpark(writer);
+			}
+			return pos;
+		}
+
+		private void await(long pos) throws IOException {
+			int spins = 0;
+			while (done <= pos) {
+				if (!writer.isAlive()) {
+					throw new IOException("Storage engine is disconnected");
+				}
+				if (spins++ < SPINS) {
+					Thread.yield();
+				} else {
+					LockSupport.parkNanos(WAIT_NANOS);
+				}
+			}
+			Entry<Long, Failure> failure = failures.floorEntry(pos);
+			if (failure != null && pos < failure.getValue().end) {
+				throw new IOException(failure.getValue().cause);
+			}
+			// read after the failures, a failure is trimmed only once the
+			// watermark covers it
+			if (pos < trimmedThrough) {
+				throw new IOException("Outcome of the write is unknown, over " + MAX_FAILURES
+						+ " batches failed while waiting for it");
+			}
+		}
+
+		@Override
+		public void run() {
+			List<DataPoint> batch = new ArrayList<>(batchSize);
+			while (true) {
+				long start = ring.getHead();
+				int count = ring.drain(batch, batchSize);
+				if (count == 0) {
+					if (!running) {
+						break;
+					}
+					// a point published while going to sleep is picked up
+					// after at most one park
+					sleeping = true;
+					if (ring.size() == 0) {
+						LockSupport.parkNanos(PARK_NANOS);
+					}
+					sleeping = false;
+					continue;
+				}
+				try {
+					engine.writeBatch(batch);
+					committed.addAndGet(count);
+				} catch (IOException | RuntimeException e) {
+					failed.addAndGet(count);
+					failures.put(start, new Failure(start + count, e));
+					if (failures.size() > MAX_FAILURES) {
+						Entry<Long, Failure> oldest = failures.firstEntry();
+						trimmedThrough = oldest.getValue().end;
+						failures.remove(oldest.getKey());
+					}
+					logger.log(Level.WARNING, "Failed to write " + count + " points", e);
+				}
+				done = start + count;
+				batch.clear();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.nio.ByteBuffer;
+
+import com.srotya.sidewinder.core.storage.compression.BitReader;
+
+/**
+ * Cursor over the points encoded in a {@link TimeSeriesBucket}. Points are
+ * decoded one at a time, no objects are created per point. Merge operands
+ * that follow the encoded points are read where they are, heap and direct
+ * buffers are read the same way.
+ *
+ * @author ambudsharma
+ */
+public class BucketReader {
+
+	private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+	private final BitReader reader = new BitReader();
+	private ByteBuffer buf;
+	private ByteBuffer scratch;
+	private int count;
+	private int operand;
+	private int end;
+	private int position;
+	private long timestamp;
+	private long delta;
+	private long value;
+	private int leading;
+	private int trailing;
+
+	public BucketReader() {
+	}
+
+	/**
+	 * @param buf
+	 *            containing the bit stream
+	 * @param offset
+	 *            of the bit stream in the buffer
+	 * @param count
+	 *            of points in the bit stream
+	 */
+	public BucketReader(ByteBuffer buf, int offset, int count) {
+		reset(buf, offset, count);
+	}
+
+	/**
+	 * Point this cursor at another bucket
+	 *
+	 * @param buf
+	 * @param offset
+	 * @param count
+	 */
+	public void reset(ByteBuffer buf, int offset, int count) {
+		reset(buf, offset, count, 0, 0);
+	}
+
+	/**
+	 * Point this cursor at a bucket followed by merge operands
+	 *
+	 * @param buf
+	 * @param offset
+	 *            of the bit stream
+	 * @param count
+	 *            of points in the bit stream
+	 * @param operands
+	 *            offset of the first merge operand
+	 * @param end
+	 *            offset after the last merge operand
+	 */
+	public void reset(ByteBuffer buf, int offset, int count, int operands, int end) {
+		reader.reset(buf, offset);
+		this.buf = buf;
+		this.count = count;
+		this.operand = operands;
+		this.end = end;
+		this.position = 0;
+		this.delta = 0;
+		this.leading = 0;
+		this.trailing = 0;
+	}
+
+	/**
+	 * Advance to the next point
+	 *
+	 * @return false if there are no more points
+	 */
+	public boolean next() {
+		if (position >= count) {
+			if (operand >= end) {
+				return false;
+			}
+			timestamp = buf.getLong(operand + 1);
+			value = buf.getLong(operand + 9);
+			// skip the delimiter of the next operand
+			operand += TimeSeriesBucket.OPERAND_SIZE + 1;
+			return true;
+		}
+		if (position == 0) {
+			timestamp = reader.readBits(64);
+			value = reader.readBits(64);
+		} else {
+			delta += readTimestampDelta();
+			timestamp += delta;
+			value ^= readValue();
+		}
+		position++;
+		return true;
+	}
+
+	private long readTimestampDelta() {
+		if (!reader.readBit()) {
+			return 0;
+		} else if (!reader.readBit()) {
+			return signExtend(reader.readBits(7), 7);
+		} else if (!reader.readBit()) {
+			return signExtend(reader.readBits(9), 9);
+		} else if (!reader.readBit()) {
+			return signExtend(reader.readBits(12), 12);
+		} else {
+			return reader.readBits(64);
+		}
+	}
+
+	private long readValue() {
+		if (!reader.readBit()) {
+			return 0;
+		}
+		if (reader.readBit()) {
+			leading = (int) reader.readBits(5);
+			int significant = (int) reader.readBits(6);
+			if (significant == 0) {
+				significant = 64;
+			}
+			trailing = 64 - leading - significant;
+		}
+		return reader.readBits(64 - leading - trailing) << trailing;
+	}
+
+	private static long signExtend(long value, int bits) {
+		int shift = 64 - bits;
+		return (value << shift) >> shift;
+	}
+
+	/**
+	 * @return timestamp of the current point
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return raw 64 bit value of the current point
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * @return value of the current point interpreted as a double
+	 */
+	public double getValueAsDouble() {
+		return Double.longBitsToDouble(value);
+	}
+
+	/**
+	 * @return number of points remaining
+	 */
+	public int remaining() {
+		return count - position + Math.max(0, end - operand + 1) / (TimeSeriesBucket.OPERAND_SIZE + 1);
+	}
+
+	/**
+	 * Buffer owned by this cursor that serialized buckets can be read into,
+	 * its contents are only valid until the next call
+	 *
+	 * @param length
+	 *            minimum capacity
+	 * @return heap buffer, grown if it's smaller than the length
+	 */
+	public ByteBuffer buffer(int length) {
+		if (scratch == null) {
+			scratch = ByteBuffer.allocate(Math.max(length, INITIAL_BUFFER_SIZE));
+		} else if (scratch.capacity() < length) {
+			scratch = ByteBuffer.allocate(Math.max(length, scratch.capacity() * 2));
+		}
+		return scratch;
+	}
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A single point of a series used for batched writes
+ *
+ * @author ambudsharma
+ */
+public class DataPoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private String seriesName;
+	private List<String> tags;
+	private long timestamp;
+	private long value;
+	private boolean fp;
+
+	public DataPoint() {
+	}
+
+	/**
+	 * @param seriesName
+	 * @param tags
+	 * @param timestamp
+	 *            in milliseconds
+	 * @param value
+	 */
+	public DataPoint(String seriesName, List<String> tags, long timestamp, long value) {
+		this.seriesName = seriesName;
+		this.tags = tags;
+		this.timestamp = timestamp;
+		this.value = value;
+	}
+
+	/**
+	 * @param seriesName
+	 * @param tags
+	 * @param timestamp
+	 *            in milliseconds
+	 * @param value
+	 */
+	public DataPoint(String seriesName, List<String> tags, long timestamp, double value) {
+		this(seriesName, tags, timestamp, Double.doubleToLongBits(value));
+		this.fp = true;
+	}
+
+	/**
+	 * @return the seriesName
+	 */
+	public String getSeriesName() {
+		return seriesName;
+	}
+
+	/**
+	 * @param seriesName
+	 *            the seriesName to set
+	 */
+	public void setSeriesName(String seriesName) {
+		this.seriesName = seriesName;
+	}
+
+	/**
+	 * @return the tags
+	 */
+	public List<String> getTags() {
+		return tags;
+	}
+
+	/**
+	 * @param tags
+	 *            the tags to set
+	 */
+	public void setTags(List<String> tags) {
+		this.tags = tags;
+	}
+
+	/**
+	 * @return the timestamp in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @param timestamp
+	 *            the timestamp in milliseconds to set
+	 */
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return raw 64 bits of the value
+	 */
+	public long getValue() {
+		return value;
+	}
+
+	/**
+	 * @param value
+	 *            raw 64 bits of the value to set
+	 */
+	public void setValue(long value) {
+		this.value = value;
+	}
+
+	/**
+	 * @return true if the value is a double
+	 */
+	public boolean isFp() {
+		return fp;
+	}
+
+	/**
+	 * @param fp
+	 *            true if the value is a double
+	 */
+	public void setFp(boolean fp) {
+		this.fp = fp;
+	}
+
+}
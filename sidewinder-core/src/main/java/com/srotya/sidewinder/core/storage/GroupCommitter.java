@@ -0,0 +1,201 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges batches from concurrent writers into a single commit. The first
+ * pending batch opens a window that is closed either after
+ * <code>windowMs</code> or once <code>maxPoints</code> have been collected,
+ * all batches in the window are then committed together. Writers block until
+ * the commit containing their points completes. If the merged commit fails
+ * each batch of the window is committed alone, so a writer only sees the
+ * failure of its own points.
+ *
+ * @author ambudsharma
+ */
+public class GroupCommitter implements AutoCloseable {
+
+	/**
+	 * Writes a merged batch to storage, either every point of the batch is
+	 * committed or none is
+	 */
+	public static interface BatchWriter {
+
+		void commit(Collection<DataPoint> points) throws IOException;
+
+	}
+
+	private final LinkedBlockingQueue<PendingBatch> queue = new LinkedBlockingQueue<>();
+	private final BatchWriter writer;
+	private final long windowNanos;
+	private final int maxPoints;
+	private final Thread committer;
+	private volatile boolean running = true;
+
+	/**
+	 * @param writer
+	 * @param windowMs
+	 * @param maxPoints
+	 */
+	public GroupCommitter(BatchWriter writer, long windowMs, int maxPoints) {
+		this.writer = writer;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+		this.maxPoints = maxPoints;
+		this.committer = new Thread(this::run, "sidewinder-group-commit");
+		this.committer.setDaemon(true);
+		this.committer.start();
+	}
+
+	/**
+	 * Queue the points for the next group commit and wait for it to complete
+	 *
+	 * @param points
+	 * @throws IOException
+	 * @throws RuntimeException
+	 *             thrown by the {@link BatchWriter} for these points
+	 */
+	public void write(Collection<DataPoint> points) throws IOException {
+		if (!running) {
+			throw new IOException("Group committer is closed");
+		}
+		PendingBatch batch = new PendingBatch(points);
+		queue.add(batch);
+		if (!committer.isAlive() && queue.remove(batch)) {
+			throw new IOException("Group committer is closed");
+		}
+		try {
+			batch.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			} else if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private void run() {
+		List<PendingBatch> window = new ArrayList<>();
+		List<DataPoint> points = new ArrayList<>();
+		while (running || !queue.isEmpty()) {
+			try {
+				PendingBatch first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				window.add(first);
+				points.addAll(first.points);
+				long deadline = System.nanoTime() + windowNanos;
+				while (points.size() < maxPoints) {
+					long remaining = deadline - System.nanoTime();
+					PendingBatch next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+					if (next == null) {
+						break;
+					}
+					window.add(next);
+					points.addAll(next.points);
+				}
+				commit(window, points);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			window.clear();
+			points.clear();
+		}
+		IOException closed = new IOException("Group committer is closed");
+		for (PendingBatch batch : window) {
+			batch.future.completeExceptionally(closed);
+		}
+		failPending(closed);
+	}
+
+	private void failPending(IOException closed) {
+		PendingBatch batch;
+		while ((batch = queue.poll()) != null) {
+			batch.future.completeExceptionally(closed);
+		}
+	}
+
+	private void commit(List<PendingBatch> window, List<DataPoint> points) {
+		try {
+			writer.commit(points);
+		} catch (Throwable e) {
+			if (window.size() == 1) {
+				window.get(0).future.completeExceptionally(e);
+				return;
+			}
+			// nothing was committed, find the batches that failed it
+			for (PendingBatch batch : window) {
+				try {
+					writer.commit(batch.points);
+					batch.future.complete(null);
+				} catch (Throwable batchError) {
+					batch.future.completeExceptionally(batchError);
+				}
+			}
+			return;
+		}
+		for (PendingBatch batch : window) {
+			batch.future.complete(null);
+		}
+	}
+
+	/**
+	 * Commit pending batches and stop the committer thread, batches queued
+	 * after its last poll fail
+	 * 
+	 * @throws IOException
+	 *             if interrupted while waiting for the committer thread
+	 */
+	@Override
+	public void close() throws IOException {
+		running = false;
+		try {
+			committer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+		// writers that saw the committer alive wait on these
+		failPending(new IOException("Group committer is closed"));
+	}
+
+	private static class PendingBatch {
+
+		private final Collection<DataPoint> points;
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+		private PendingBatch(Collection<DataPoint> points) {
+			this.points = points;
+		}
+
+	}
+
+}
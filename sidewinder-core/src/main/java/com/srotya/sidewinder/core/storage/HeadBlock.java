@@ -0,0 +1,403 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Points of the recently written buckets of each series, held in memory in
+ * primitive arrays until they are flushed to the tsdb. Every point is
+ * appended to the {@link HeadWal} before it's added.<br>
+ * <br>
+ * Each bucket of a series is a {@link Chunk}. A chunk being flushed is
+ * closed, points that arrive for its bucket go to a new chunk that links
+ * to the closed one so queries keep seeing both until the flush completes.
+ * Chunks are only flushed by a single thread.
+ *
+ * @author ambudsharma
+ */
+public class HeadBlock {
+
+	private static final int INITIAL_CAPACITY = 32;
+	private final ConcurrentHashMap<String, ConcurrentSkipListMap<Integer, Chunk>> series = new ConcurrentHashMap<>();
+	private final LongAdder points = new LongAdder();
+	private final HeadWal wal;
+
+	/**
+	 * @param wal
+	 *            null if points aren't logged
+	 */
+	public HeadBlock(HeadWal wal) {
+		this.wal = wal;
+	}
+
+	/**
+	 * Log and add a point
+	 *
+	 * @param rowKey
+	 * @param timestamp
+	 * @param value
+	 * @param fp
+	 * @throws IOException
+	 */
+	public void append(byte[] rowKey, long timestamp, long value, boolean fp) throws IOException {
+		add(rowKey, -1, timestamp, value, fp);
+	}
+
+	/**
+	 * Add a point read back from the log
+	 *
+	 * @param rowKey
+	 * @param seq
+	 *            of the log record
+	 * @param timestamp
+	 * @param value
+	 * @param fp
+	 * @throws IOException
+	 */
+	public void replay(byte[] rowKey, long seq, long timestamp, long value, boolean fp) throws IOException {
+		add(rowKey, seq, timestamp, value, fp);
+	}
+
+	private void add(byte[] rowKey, long seq, long timestamp, long value, boolean fp) throws IOException {
+		int bucket = RocksDBSeriesIterator.readBucket(rowKey, rowKey.length - 4);
+		String key = prefix(rowKey, rowKey.length - 4);
+		ConcurrentSkipListMap<Integer, Chunk> chunks = series.get(key);
+		while (true) {
+			if (chunks == null) {
+				chunks = series.computeIfAbsent(key, (k) -> new ConcurrentSkipListMap<>(Integer::compareUnsigned));
+			}
+			Chunk chunk = chunks.get(bucket);
+			if (chunk == null) {
+				chunk = new Chunk(rowKey, bucket, null);
+				synchronized (chunks) {
+					if (series.get(key) != chunks) {
+						// dropped once its last chunk was flushed
+						chunks = null;
+						continue;
+					}
+					Chunk existing = chunks.putIfAbsent(bucket, chunk);
+					if (existing != null) {
+						chunk = existing;
+					}
+				}
+			}
+			synchronized (chunk) {
+				if (chunk.closed) {
+					chunks.replace(bucket, chunk, new Chunk(rowKey, bucket, chunk));
+					continue;
+				}
+				if (seq < 0 && wal != null) {
+					seq = wal.append(rowKey, timestamp, value, fp);
+				}
+				chunk.add(seq, timestamp, value, fp);
+			}
+			points.increment();
+			return;
+		}
+	}
+
+	private static String prefix(byte[] rowKey, int length) {
+		return new String(rowKey, 0, length, StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * @param prefix
+	 *            of the series
+	 * @param startBucket
+	 * @param endBucket
+	 *            inclusive, unsigned
+	 * @return points of the buckets in the range, in bucket order, closed
+	 *         chunks of a bucket before the open one
+	 */
+	public List<Points> snapshot(byte[] prefix, int startBucket, int endBucket) {
+		ConcurrentSkipListMap<Integer, Chunk> chunks = series.get(prefix(prefix, prefix.length));
+		if (chunks == null) {
+			return Collections.emptyList();
+		}
+		List<Points> snapshot = new ArrayList<>();
+		for (Chunk chunk : chunks.subMap(startBucket, true, endBucket, true).values()) {
+			int start = snapshot.size();
+			for (Chunk c = chunk; c != null; c = c.previous) {
+				snapshot.add(c.snapshot());
+			}
+			Collections.reverse(snapshot.subList(start, snapshot.size()));
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param closedBefore
+	 *            buckets ending before, in seconds, are flushed
+	 * @param maxPoints
+	 *            the oldest buckets are flushed until at most 3/4 of this
+	 *            number of points are left
+	 * @return chunks to flush, closed chunks left over by a failed flush
+	 *         are always included
+	 */
+	public List<Chunk> select(long closedBefore, long maxPoints) {
+		List<Chunk> selected = new ArrayList<>();
+		List<Chunk> open = new ArrayList<>();
+		long left = points.sum();
+		for (ConcurrentSkipListMap<Integer, Chunk> chunks : series.values()) {
+			for (Chunk chunk : chunks.values()) {
+				List<Chunk> chain = new ArrayList<>();
+				for (Chunk c = chunk; c != null; c = c.previous) {
+					chain.add(c);
+				}
+				// oldest first so points of a bucket are flushed in arrival order
+				Collections.reverse(chain);
+				for (Chunk c : chain) {
+					if (c.isClosed() || (c.bucket & 0xffffffffL) + AbstractStorageEngine.BUCKET_SIZE <= closedBefore) {
+						selected.add(c);
+						left -= c.size();
+					} else {
+						open.add(c);
+					}
+				}
+			}
+		}
+		if (left > maxPoints) {
+			Collections.sort(open, Comparator.comparingLong((Chunk c) -> c.bucket & 0xffffffffL)
+					.thenComparing(Comparator.comparingInt(Chunk::size).reversed()));
+			for (int i = 0; i < open.size() && left > maxPoints / 4 * 3; i++) {
+				selected.add(open.get(i));
+				left -= open.get(i).size();
+			}
+		}
+		return selected;
+	}
+
+	/**
+	 * Drop a flushed chunk, the tsdb must already hold its points. A series
+	 * left without chunks is dropped too, chunks are only added to a series
+	 * that is still held.
+	 *
+	 * @param chunk
+	 */
+	public void remove(Chunk chunk) {
+		String key = prefix(chunk.rowKey, chunk.rowKey.length - 4);
+		ConcurrentSkipListMap<Integer, Chunk> chunks = series.get(key);
+		if (!chunks.remove(chunk.bucket, chunk)) {
+			for (Chunk c = chunks.get(chunk.bucket); c != null; c = c.previous) {
+				if (c.previous == chunk) {
+					c.previous = chunk.previous;
+					break;
+				}
+			}
+		}
+		points.add(-chunk.size());
+		if (chunks.isEmpty()) {
+			synchronized (chunks) {
+				if (chunks.isEmpty()) {
+					series.remove(key, chunks);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return sequence number of the oldest logged point held,
+	 *         {@link Long#MAX_VALUE} if there are none
+	 */
+	public long getFirstSeq() {
+		long first = Long.MAX_VALUE;
+		for (ConcurrentSkipListMap<Integer, Chunk> chunks : series.values()) {
+			for (Chunk chunk : chunks.values()) {
+				for (Chunk c = chunk; c != null; c = c.previous) {
+					first = Math.min(first, c.getFirstSeq());
+				}
+			}
+		}
+		return first;
+	}
+
+	/**
+	 * @return number of points held
+	 */
+	public long getPoints() {
+		return points.sum();
+	}
+
+	/**
+	 * @return number of series with points held
+	 */
+	public int getSeries() {
+		return series.size();
+	}
+
+	/**
+	 * Points of a single bucket of a series, appended under the lock of the
+	 * chunk. Arrays are replaced when they grow, the slots below the count
+	 * are never written again, so a snapshot is the arrays and the count.
+	 */
+	public static final class Chunk {
+
+		private final byte[] rowKey;
+		private final int bucket;
+		private volatile Chunk previous;
+		private long[] timestamps = new long[INITIAL_CAPACITY];
+		private long[] values = new long[INITIAL_CAPACITY];
+		private long[] fp = new long[(INITIAL_CAPACITY + 63) / 64];
+		private int count;
+		private long firstSeq = Long.MAX_VALUE;
+		private long lastSeq = -1;
+		private boolean closed;
+
+		private Chunk(byte[] rowKey, int bucket, Chunk previous) {
+			this.rowKey = rowKey;
+			this.bucket = bucket;
+			this.previous = previous;
+		}
+
+		private void add(long seq, long timestamp, long value, boolean isFp) {
+			if (count == timestamps.length) {
+				timestamps = Arrays.copyOf(timestamps, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+				fp = Arrays.copyOf(fp, (count * 2 + 63) / 64);
+			}
+			timestamps[count] = timestamp;
+			values[count] = value;
+			if (isFp) {
+				fp[count >>> 6] |= 1L << count;
+			}
+			count++;
+			if (seq >= 0) {
+				firstSeq = Math.min(firstSeq, seq);
+				lastSeq = Math.max(lastSeq, seq);
+			}
+		}
+
+		private synchronized Points snapshot() {
+			return new Points(bucket, timestamps, values, fp, count);
+		}
+
+		/**
+		 * Stop appends to this chunk, later points of the bucket go to a new
+		 * chunk
+		 *
+		 * @return every point of the chunk
+		 */
+		public synchronized Points close() {
+			closed = true;
+			return snapshot();
+		}
+
+		private synchronized boolean isClosed() {
+			return closed;
+		}
+
+		/**
+		 * @return row key of the bucket
+		 */
+		public byte[] getRowKey() {
+			return rowKey;
+		}
+
+		/**
+		 * @return number of points
+		 */
+		public synchronized int size() {
+			return count;
+		}
+
+		/**
+		 * @return sequence number of the oldest logged point,
+		 *         {@link Long#MAX_VALUE} if none were logged
+		 */
+		public synchronized long getFirstSeq() {
+			return firstSeq;
+		}
+
+		/**
+		 * @return sequence number of the newest logged point, -1 if none
+		 *         were logged
+		 */
+		public synchronized long getLastSeq() {
+			return lastSeq;
+		}
+
+	}
+
+	/**
+	 * Read only view of the points of a chunk
+	 */
+	public static final class Points {
+
+		private final int bucket;
+		private final long[] timestamps;
+		private final long[] values;
+		private final long[] fp;
+		private final int count;
+
+		private Points(int bucket, long[] timestamps, long[] values, long[] fp, int count) {
+			this.bucket = bucket;
+			this.timestamps = timestamps;
+			this.values = values;
+			this.fp = fp;
+			this.count = count;
+		}
+
+		/**
+		 * @return bucket of the points
+		 */
+		public int getBucket() {
+			return bucket;
+		}
+
+		/**
+		 * @return number of points
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @param i
+		 * @return timestamp of the point in milliseconds
+		 */
+		public long getTimestamp(int i) {
+			return timestamps[i];
+		}
+
+		/**
+		 * @param i
+		 * @return raw 64 bits of the value of the point
+		 */
+		public long getValue(int i) {
+			return values[i];
+		}
+
+		/**
+		 * @param i
+		 * @return true if the value of the point is a double
+		 */
+		public boolean isFp(int i) {
+			return (fp[i >>> 6] & (1L << i)) != 0;
+		}
+
+	}
+
+}
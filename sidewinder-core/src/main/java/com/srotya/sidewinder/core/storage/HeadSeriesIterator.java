@@ -0,0 +1,111 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.srotya.sidewinder.core.storage.HeadBlock.Points;
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * Merges the points of a series held in the {@link HeadBlock} with the
+ * points read from the tsdb. Within a bucket the flushed points were written
+ * first, so they are returned before the points of the head.
+ *
+ * @author ambudsharma
+ */
+public class HeadSeriesIterator implements SeriesIterator {
+
+	private final SeriesIterator disk;
+	private final List<Points> head;
+	private final long startTime;
+	private final long endTime;
+	private final Runnable release;
+	private int chunk;
+	private int point = -1;
+	private boolean diskReady;
+	private boolean diskDone;
+	private boolean fromDisk;
+
+	/**
+	 * @param disk
+	 *            closed with this iterator
+	 * @param head
+	 *            points of the head in bucket order
+	 * @param startTime
+	 * @param endTime
+	 * @param release
+	 *            called on close
+	 */
+	public HeadSeriesIterator(SeriesIterator disk, List<Points> head, long startTime, long endTime,
+			Runnable release) {
+		this.disk = disk;
+		this.head = head;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.release = release;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (!diskReady && !diskDone) {
+			diskReady = disk.next();
+			diskDone = !diskReady;
+		}
+		int diskBucket = diskReady ? TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, disk.getTimestamp(),
+				AbstractStorageEngine.BUCKET_SIZE) : 0;
+		while (chunk < head.size()) {
+			Points points = head.get(chunk);
+			if (diskReady && Integer.compareUnsigned(diskBucket, points.getBucket()) <= 0) {
+				break;
+			}
+			while (++point < points.getCount()) {
+				long ts = points.getTimestamp(point);
+				if (ts >= startTime && ts <= endTime) {
+					fromDisk = false;
+					return true;
+				}
+			}
+			chunk++;
+			point = -1;
+		}
+		fromDisk = diskReady;
+		diskReady = false;
+		return fromDisk;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return fromDisk ? disk.getTimestamp() : head.get(chunk).getTimestamp(point);
+	}
+
+	@Override
+	public long getValue() {
+		return fromDisk ? disk.getValue() : head.get(chunk).getValue(point);
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			disk.close();
+		} finally {
+			release.run();
+		}
+	}
+
+}
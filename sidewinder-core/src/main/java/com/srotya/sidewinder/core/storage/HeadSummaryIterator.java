@@ -0,0 +1,124 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import com.srotya.sidewinder.core.storage.HeadBlock.Points;
+
+/**
+ * Merges the rollup windows read from the tsdb with summaries of the points
+ * of a series held in the {@link HeadBlock}. The head only holds a few
+ * buckets, so its windows are summarized up front.
+ *
+ * @author ambudsharma
+ */
+public class HeadSummaryIterator implements SummaryIterator {
+
+	private final SummaryIterator disk;
+	private final Iterator<Entry<Long, RollupSummary>> head;
+	private final Runnable release;
+	private Entry<Long, RollupSummary> headWindow;
+	private boolean diskReady;
+	private boolean diskDone;
+	private long timestamp;
+	private RollupSummary summary;
+
+	/**
+	 * @param disk
+	 *            closed with this iterator
+	 * @param points
+	 *            points of the head
+	 * @param tier
+	 *            of the rollup
+	 * @param startWindow
+	 *            in seconds
+	 * @param endWindow
+	 *            in seconds
+	 * @param release
+	 *            called on close
+	 */
+	public HeadSummaryIterator(SummaryIterator disk, List<Points> points, RollupTier tier, int startWindow,
+			int endWindow, Runnable release) {
+		this.disk = disk;
+		this.release = release;
+		TreeMap<Long, RollupSummary> windows = new TreeMap<>();
+		for (Points p : points) {
+			for (int i = 0; i < p.getCount(); i++) {
+				int window = tier.window(p.getTimestamp(i));
+				if (Integer.compareUnsigned(window, startWindow) < 0
+						|| Integer.compareUnsigned(window, endWindow) > 0) {
+					continue;
+				}
+				RollupSummary summary = windows.computeIfAbsent((window & 0xffffffffL) * 1000,
+						(k) -> new RollupSummary());
+				summary.add(p.isFp(i) ? Double.longBitsToDouble(p.getValue(i)) : p.getValue(i));
+			}
+		}
+		this.head = windows.entrySet().iterator();
+		this.headWindow = head.hasNext() ? head.next() : null;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (!diskReady && !diskDone) {
+			diskReady = disk.next();
+			diskDone = !diskReady;
+		}
+		if (diskReady && (headWindow == null || disk.getTimestamp() < headWindow.getKey())) {
+			timestamp = disk.getTimestamp();
+			summary = disk.getSummary();
+			diskReady = false;
+			return true;
+		}
+		if (headWindow == null) {
+			return false;
+		}
+		timestamp = headWindow.getKey();
+		summary = headWindow.getValue();
+		if (diskReady && disk.getTimestamp() == timestamp) {
+			// the window has points on both sides of a flush
+			summary.merge(disk.getSummary());
+			diskReady = false;
+		}
+		headWindow = head.hasNext() ? head.next() : null;
+		return true;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public RollupSummary getSummary() {
+		return summary;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			disk.close();
+		} finally {
+			release.run();
+		}
+	}
+
+}
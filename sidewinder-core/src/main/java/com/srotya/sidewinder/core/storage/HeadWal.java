@@ -0,0 +1,286 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Write ahead log of the points held by the {@link HeadBlock}. The log is a
+ * sequence of segment files named after the sequence number of their first
+ * record, every record is implicitly numbered by its position. Records are:
+ *
+ * <pre>
+ * | crc (4) | key length (2) | row key | timestamp (8) | value (8) | fp (1) |
+ * </pre>
+ *
+ * The checksum covers the rest of the record, a truncated or corrupt record
+ * ends the replay of its segment. Segments are deleted once every point they
+ * hold has been flushed to the tsdb.
+ *
+ * @author ambudsharma
+ */
+public class HeadWal implements Closeable {
+
+	/**
+	 * Receives the records of the log in order
+	 */
+	public interface Replayer {
+
+		/**
+		 * @param seq
+		 * @param rowKey
+		 * @param timestamp
+		 * @param value
+		 * @param fp
+		 * @throws IOException
+		 */
+		void replay(long seq, byte[] rowKey, long timestamp, long value, boolean fp) throws IOException;
+
+	}
+
+	private static final Logger logger = Logger.getLogger(HeadWal.class.getName());
+	private static final String PREFIX = "head-";
+	private static final String SUFFIX = ".wal";
+	private static final int RECORD_OVERHEAD = 4 + 2 + 8 + 8 + 1;
+	private static final int BUFFER_SIZE = 65536;
+	/**
+	 * A record must fit in the append buffer
+	 */
+	public static final int MAX_KEY_LENGTH = BUFFER_SIZE - RECORD_OVERHEAD;
+	private final File directory;
+	private final long segmentBytes;
+	private final boolean sync;
+	private final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+	private final CRC32 crc = new CRC32();
+	private final TreeMap<Long, File> segments = new TreeMap<>();
+	private FileChannel channel;
+	private long segment;
+	private long segmentSize;
+	private long nextSeq;
+
+	/**
+	 * @param directory
+	 * @param segmentBytes
+	 *            size after which a new segment is started
+	 * @param sync
+	 *            true to fsync each {@link #flush()}
+	 * @throws IOException
+	 */
+	public HeadWal(String directory, long segmentBytes, boolean sync) throws IOException {
+		this.directory = new File(directory);
+		this.segmentBytes = segmentBytes;
+		this.sync = sync;
+		if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+			throw new IOException("Can't create head wal directory " + directory);
+		}
+		File[] files = this.directory.listFiles();
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(PREFIX) && name.endsWith(SUFFIX)) {
+				try {
+					segments.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())),
+							file);
+				} catch (NumberFormatException e) {
+					logger.warning("Ignoring " + file);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read every record of the existing segments, must be called before
+	 * {@link #open()}
+	 *
+	 * @param replayer
+	 * @return number of records replayed
+	 * @throws IOException
+	 */
+	public long replay(Replayer replayer) throws IOException {
+		long records = 0;
+		for (Map.Entry<Long, File> entry : segments.entrySet()) {
+			long seq = entry.getKey();
+			ByteBuffer data;
+			try (FileChannel in = FileChannel.open(entry.getValue().toPath(), StandardOpenOption.READ)) {
+				data = ByteBuffer.allocate((int) in.size());
+				while (data.hasRemaining() && in.read(data) >= 0) {
+				}
+				data.flip();
+			}
+			byte[] record = new byte[256 + RECORD_OVERHEAD];
+			while (data.remaining() >= RECORD_OVERHEAD) {
+				int keyLength = data.getShort(data.position() + 4) & 0xffff;
+				int length = RECORD_OVERHEAD + keyLength;
+				if (data.remaining() < length) {
+					break;
+				}
+				if (record.length < length) {
+					record = new byte[length];
+				}
+				data.get(record, 0, length);
+				crc.reset();
+				crc.update(record, 4, length - 4);
+				ByteBuffer r = ByteBuffer.wrap(record, 0, length);
+				if (r.getInt() != (int) crc.getValue()) {
+					break;
+				}
+				byte[] rowKey = new byte[r.getShort() & 0xffff];
+				r.get(rowKey);
+				replayer.replay(seq++, rowKey, r.getLong(), r.getLong(), r.get() != 0);
+				records++;
+			}
+			if (data.hasRemaining()) {
+				logger.warning("Ignoring " + data.remaining() + " bytes of a torn record in " + entry.getValue());
+			}
+			nextSeq = Math.max(nextSeq, seq);
+		}
+		return records;
+	}
+
+	/**
+	 * Start a new segment for appends
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void open() throws IOException {
+		segment = nextSeq;
+		segmentSize = 0;
+		File file = new File(directory, String.format("%s%020d%s", PREFIX, segment, SUFFIX));
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		segments.put(segment, file);
+	}
+
+	/**
+	 * Buffer a record, see {@link #flush()}
+	 *
+	 * @param rowKey
+	 * @param timestamp
+	 * @param value
+	 * @param fp
+	 * @return sequence number of the record
+	 * @throws IOException
+	 * @throws IllegalArgumentException
+	 *             if the row key is too long to be logged
+	 */
+	public synchronized long append(byte[] rowKey, long timestamp, long value, boolean fp) throws IOException {
+		if (rowKey.length > MAX_KEY_LENGTH) {
+			throw new IllegalArgumentException("Row key of " + rowKey.length + " bytes is too long for the head wal");
+		}
+		int length = RECORD_OVERHEAD + rowKey.length;
+		if (buf.remaining() < length) {
+			write();
+		}
+		if (segmentSize >= segmentBytes) {
+			roll();
+		}
+		int start = buf.position();
+		buf.position(start + 4);
+		buf.putShort((short) rowKey.length).put(rowKey).putLong(timestamp).putLong(value).put((byte) (fp ? 1 : 0));
+		crc.reset();
+		crc.update(buf.array(), start + 4, length - 4);
+		buf.putInt(start, (int) crc.getValue());
+		segmentSize += length;
+		return nextSeq++;
+	}
+
+	/**
+	 * Write the buffered records to the current segment
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void flush() throws IOException {
+		if (buf.position() > 0) {
+			write();
+			if (sync) {
+				channel.force(false);
+			}
+		}
+	}
+
+	private void write() throws IOException {
+		buf.flip();
+		while (buf.hasRemaining()) {
+			channel.write(buf);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * Delete the segments that only hold records before the sequence number,
+	 * the current segment is kept
+	 *
+	 * @param seq
+	 * @return sequence number of the first record of the oldest segment left
+	 */
+	public synchronized long deleteBefore(long seq) {
+		while (segments.size() > 1) {
+			Map.Entry<Long, File> oldest = segments.firstEntry();
+			if (segments.higherKey(oldest.getKey()) > seq) {
+				break;
+			}
+			if (!oldest.getValue().delete()) {
+				logger.warning("Failed to delete " + oldest.getValue());
+				break;
+			}
+			segments.pollFirstEntry();
+		}
+		return segments.firstKey();
+	}
+
+	/**
+	 * Start a new segment, sequence numbers keep increasing across segments
+	 * so older segments can be deleted without losing track of them
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void roll() throws IOException {
+		write();
+		channel.close();
+		open();
+	}
+
+	/**
+	 * @return sequence number of the next record
+	 */
+	public synchronized long getNextSeq() {
+		return nextSeq;
+	}
+
+	/**
+	 * @return number of segments
+	 */
+	public synchronized int getSegments() {
+		return segments.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null && channel.isOpen()) {
+			flush();
+			channel.close();
+		}
+	}
+
+}
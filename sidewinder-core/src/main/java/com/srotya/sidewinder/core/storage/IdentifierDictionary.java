@@ -0,0 +1,283 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Maps series names and tags to dense sequential 3 byte ids. Both directions
+ * of the mapping are stored in the indexdb:
+ *
+ * <pre>
+ * 'f' + identifier -> id
+ * 'r' + id -> identifier
+ * </pre>
+ *
+ * Ids are never reused, so unlike hashed ids two identifiers can't share a
+ * row key. Lookups are served from a bounded cache, only first time
+ * registrations take a lock. The cache is direct mapped so that hits don't
+ * allocate, an identifier evicts whichever identifier held its slot.
+ *
+ * @author ambudsharma
+ */
+public class IdentifierDictionary {
+
+	public static final byte FORWARD_PREFIX = 'f';
+	public static final byte REVERSE_PREFIX = 'r';
+	public static final int ID_SIZE = 3;
+	public static final int MAX_ID = (1 << 24) - 1;
+	private static final Charset CHARSET = Charset.forName("utf-8");
+
+	private final RocksDB indexdb;
+	private final WriteOptions writeOptions;
+	private final AtomicReferenceArray<Entry> cache;
+	private final int mask;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final StripedLocks registrationLocks = new StripedLocks(64);
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	/**
+	 * @param indexdb
+	 * @param writeOptions
+	 * @param cacheSize
+	 *            slots of the cache, rounded up to the next power of 2
+	 */
+	public IdentifierDictionary(RocksDB indexdb, WriteOptions writeOptions, int cacheSize) {
+		this.indexdb = indexdb;
+		this.writeOptions = writeOptions;
+		int size = cacheSize <= 1 ? 1 : Integer.highestOneBit(cacheSize - 1) << 1;
+		this.cache = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Restore the id sequence and warm the cache from the indexdb
+	 */
+	public void load() {
+		try (RocksIterator itr = indexdb.newIterator()) {
+			int loaded = 0;
+			for (itr.seek(new byte[] { FORWARD_PREFIX }); itr.isValid() && loaded <= mask; itr.next()) {
+				byte[] key = itr.key();
+				if (key[0] != FORWARD_PREFIX) {
+					break;
+				}
+				String identifier = new String(key, 1, key.length - 1, CHARSET);
+				cache.set(slot(identifier), new Entry(identifier, itr.value()));
+				loaded++;
+			}
+			byte[] last = reverseKey(MAX_ID);
+			itr.seek(last);
+			if (!itr.isValid()) {
+				itr.seekToLast();
+			} else if (!Arrays.equals(last, itr.key())) {
+				itr.prev();
+			}
+			if (itr.isValid() && itr.key()[0] == REVERSE_PREFIX) {
+				sequence.set(toId(itr.key(), 1));
+			}
+		}
+	}
+
+	/**
+	 * @param identifier
+	 * @return id of the identifier, a new id is allocated if the identifier
+	 *         has not been seen before
+	 * @throws IOException
+	 */
+	public byte[] getOrAllocate(String identifier) throws IOException {
+		byte[] val = lookup(identifier);
+		if (val != null) {
+			return val;
+		}
+		byte[] key = forwardKey(identifier);
+		try {
+			val = indexdb.get(key);
+			if (val == null) {
+				ReentrantLock lock = registrationLocks.getLock(key);
+				lock.lock();
+				try {
+					// another thread may have registered the identifier
+					val = indexdb.get(key);
+					if (val == null) {
+						val = allocate(key);
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+		admit(identifier, val);
+		return val;
+	}
+
+	/**
+	 * @param identifier
+	 * @return id of the identifier or null if it has not been registered
+	 * @throws IOException
+	 */
+	public byte[] get(String identifier) throws IOException {
+		byte[] val = lookup(identifier);
+		if (val != null) {
+			return val;
+		}
+		try {
+			val = indexdb.get(forwardKey(identifier));
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+		if (val != null) {
+			admit(identifier, val);
+		}
+		return val;
+	}
+
+	/**
+	 * @param identifier
+	 * @return cached id of the identifier, null on a miss
+	 */
+	private byte[] lookup(String identifier) {
+		Entry entry = cache.get(slot(identifier));
+		if (entry != null && entry.identifier.equals(identifier)) {
+			hits.increment();
+			return entry.id;
+		}
+		misses.increment();
+		return null;
+	}
+
+	private void admit(String identifier, byte[] id) {
+		Entry previous = cache.getAndSet(slot(identifier), new Entry(identifier, id));
+		if (previous != null && !previous.identifier.equals(identifier)) {
+			evictions.increment();
+		}
+	}
+
+	private int slot(String identifier) {
+		int h = identifier.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private byte[] allocate(byte[] key) throws RocksDBException, IOException {
+		int id = sequence.incrementAndGet();
+		if (id > MAX_ID) {
+			sequence.decrementAndGet();
+			throw new IOException("Identifier space exhausted, " + MAX_ID + " ids allocated");
+		}
+		byte[] val = toBytes(id);
+		try (WriteBatch batch = new WriteBatch()) {
+			batch.put(key, val);
+			batch.put(reverseKey(id), Arrays.copyOfRange(key, 1, key.length));
+			indexdb.write(writeOptions, batch);
+		}
+		return val;
+	}
+
+	/**
+	 * @param id
+	 * @return identifier for the id or null if it is not registered
+	 * @throws IOException
+	 */
+	public String getIdentifier(int id) throws IOException {
+		try {
+			byte[] val = indexdb.get(reverseKey(id));
+			return val != null ? new String(val, CHARSET) : null;
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * @return number of ids allocated so far
+	 */
+	public int size() {
+		return sequence.get();
+	}
+
+	/**
+	 * @return hit and miss counts of the cache
+	 */
+	public CacheStats getCacheStats() {
+		return new CacheStats(hits.sum(), misses.sum(), 0, 0, 0, evictions.sum());
+	}
+
+	private static byte[] forwardKey(String identifier) {
+		byte[] bytes = identifier.getBytes(CHARSET);
+		byte[] key = new byte[bytes.length + 1];
+		key[0] = FORWARD_PREFIX;
+		System.arraycopy(bytes, 0, key, 1, bytes.length);
+		return key;
+	}
+
+	private static byte[] reverseKey(int id) {
+		byte[] key = new byte[ID_SIZE + 1];
+		key[0] = REVERSE_PREFIX;
+		key[1] = (byte) (id >>> 16);
+		key[2] = (byte) (id >>> 8);
+		key[3] = (byte) id;
+		return key;
+	}
+
+	/**
+	 * Cached mapping of an identifier to its id
+	 */
+	private static final class Entry {
+
+		private final String identifier;
+		private final byte[] id;
+
+		private Entry(String identifier, byte[] id) {
+			this.identifier = identifier;
+			this.id = id;
+		}
+
+	}
+
+	/**
+	 * @param id
+	 * @return 3 byte MSB encoding of the id
+	 */
+	public static byte[] toBytes(int id) {
+		return new byte[] { (byte) (id >>> 16), (byte) (id >>> 8), (byte) id };
+	}
+
+	/**
+	 * @param bytes
+	 * @param offset
+	 * @return id decoded from 3 bytes at the offset
+	 */
+	public static int toId(byte[] bytes, int offset) {
+		return ((bytes[offset] & 0xff) << 16) | ((bytes[offset + 1] & 0xff) << 8) | (bytes[offset + 2] & 0xff);
+	}
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.nio.ByteBuffer;
+
+import com.srotya.sidewinder.core.storage.MemStorageEngine.Chunk;
+
+/**
+ * Reads the points of a series straight from the buffers of the chunks of
+ * a {@link MemStorageEngine}. Points appended to a chunk after the iterator
+ * reaches it aren't returned.
+ *
+ * @author ambudsharma
+ */
+public class MemSeriesIterator implements SeriesIterator {
+
+	private final Chunk[] chunks;
+	private final int to;
+	private final long startTime;
+	private final long endTime;
+	private int chunk;
+	private ByteBuffer[] blocks;
+	private ByteBuffer block;
+	private int blockIndex;
+	private int remaining;
+	private int offset;
+	private long timestamp;
+	private long value;
+
+	/**
+	 * @param chunks
+	 *            of the series in bucket order
+	 * @param from
+	 *            index of the first chunk
+	 * @param to
+	 *            index after the last chunk
+	 * @param startTime
+	 * @param endTime
+	 */
+	MemSeriesIterator(Chunk[] chunks, int from, int to, long startTime, long endTime) {
+		this.chunks = chunks;
+		this.chunk = from - 1;
+		this.to = to;
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	@Override
+	public boolean next() {
+		while (true) {
+			while (remaining > 0) {
+				if (offset == block.capacity()) {
+					block = blocks[++blockIndex];
+					offset = 0;
+				}
+				long ts = block.getLong(offset);
+				offset += MemStorageEngine.POINT_BYTES;
+				remaining--;
+				if (ts >= startTime && ts <= endTime) {
+					timestamp = ts;
+					value = block.getLong(offset - 8);
+					return true;
+				}
+			}
+			if (++chunk >= to) {
+				return false;
+			}
+			remaining = chunks[chunk].getCount();
+			blocks = chunks[chunk].getBlocks();
+			blockIndex = 0;
+			block = remaining > 0 ? blocks[0] : null;
+			offset = 0;
+		}
+	}
+
+	@Override
+	public int nextBlock(PointBlock points) {
+		long[] timestamps = points.getTimestamps();
+		long[] values = points.getValues();
+		int capacity = points.capacity();
+		int size = 0;
+		while (size < capacity) {
+			while (remaining > 0 && size < capacity) {
+				if (offset == block.capacity()) {
+					block = blocks[++blockIndex];
+					offset = 0;
+				}
+				long ts = block.getLong(offset);
+				offset += MemStorageEngine.POINT_BYTES;
+				remaining--;
+				if (ts >= startTime && ts <= endTime) {
+					timestamps[size] = ts;
+					values[size++] = block.getLong(offset - 8);
+				}
+			}
+			if (size == capacity || ++chunk >= to) {
+				break;
+			}
+			remaining = chunks[chunk].getCount();
+			blocks = chunks[chunk].getBlocks();
+			blockIndex = 0;
+			block = remaining > 0 ? blocks[0] : null;
+			offset = 0;
+		}
+		points.setSize(size);
+		return size;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public long getValue() {
+		return value;
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,546 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Storage engine holding every bucket in off heap memory, for short lived
+ * high rate series that don't need to survive a restart. Nothing is written
+ * to disk and buckets are released on disconnect.<br>
+ * <br>
+ * Each series maps its buckets to a {@link Chunk} with an array of chunks
+ * sorted by bucket, replaced copy on write when a bucket is added or
+ * evicted. A chunk is an append-only list of direct buffers of
+ * {@link #POINT_BYTES} per point, buffers double in size up to
+ * {@link #MAX_BLOCK_POINTS} points and are never copied, so readers only
+ * need the count of points to see a consistent chunk.<br>
+ * <br>
+ * Once the buffers allocated exceed <code>mem.max.mb</code> the oldest bucket
+ * is dropped from every series until they fit again, points later written
+ * to a dropped bucket are discarded. The newest bucket of a series is kept,
+ * so a spike of new series can push the buffers over the limit but never
+ * drops live data. Dropped buffers are freed by the
+ * garbage collector, the direct memory limit of the JVM must leave room for
+ * them.
+ *
+ * @author ambudsharma
+ */
+public class MemStorageEngine extends AbstractStorageEngine {
+
+	/**
+	 * Timestamp followed by the raw value, both in native byte order
+	 */
+	public static final int POINT_BYTES = 16;
+	public static final int MIN_BLOCK_POINTS = 64;
+	public static final int MAX_BLOCK_POINTS = 1024;
+	/**
+	 * Single byte charset used to map row key prefixes to map keys without
+	 * losing any bytes
+	 */
+	private static final Charset KEY_CHARSET = Charset.forName("ISO-8859-1");
+	private static final Logger logger = Logger.getLogger(MemStorageEngine.class.getName());
+	private static final Chunk[] NO_CHUNKS = new Chunk[0];
+	private static final ByteBuffer[] NO_BLOCKS = new ByteBuffer[0];
+	private static final RoaringBitmap EMPTY = new RoaringBitmap();
+	private long maxBytes;
+	private AtomicReferenceArray<Series> knownSeries;
+	private int mask;
+	private final ConcurrentHashMap<String, byte[]> identifiers = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Series> series = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, Series> seriesById = new ConcurrentHashMap<>();
+	/**
+	 * Postings of series names and of tags, kept apart as both share one id
+	 * space
+	 */
+	private final ConcurrentHashMap<Integer, RoaringBitmap> namePostings = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, RoaringBitmap> postings = new ConcurrentHashMap<>();
+	/**
+	 * Held to allocate identifier and series ids
+	 */
+	private final ReentrantLock registrationLock = new ReentrantLock();
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	private int identifierSequence;
+	private int seriesSequence;
+	private final LongAdder allocated = new LongAdder();
+	private final LongAdder evictedBuckets = new LongAdder();
+	private final LongAdder droppedPoints = new LongAdder();
+	private final LongAdder overflows = new LongAdder();
+	/**
+	 * Buckets up to this one, unsigned, have been evicted, -1 if none
+	 */
+	private volatile long evictedThrough = -1;
+
+	@Override
+	public void configure(Map<String, String> conf) throws IOException {
+		maxBytes = Long.parseLong(conf.getOrDefault("mem.max.mb", "1024")) * 1024 * 1024;
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Invalid memory limit of " + maxBytes + " bytes");
+		}
+		int cacheSize = Integer.parseInt(conf.getOrDefault("mem.series.cache.size", "1048576"));
+		int size = cacheSize <= 1 ? 1 : Integer.highestOneBit(cacheSize - 1) << 1;
+		knownSeries = new AtomicReferenceArray<>(size);
+		mask = size - 1;
+		metrics.gauge("mem.allocated.bytes", this::getAllocatedBytes);
+		metrics.gauge("mem.series", series::size);
+		metrics.gauge("mem.buckets.evicted", this::getEvictedBuckets);
+		metrics.gauge("mem.points.dropped", this::getDroppedPoints);
+		metrics.gauge("mem.overflows", this::getOverflows);
+	}
+
+	@Override
+	public void connect() throws IOException {
+	}
+
+	/**
+	 * Release every bucket, identifiers and series stay registered so the
+	 * engine can be connected again
+	 */
+	@Override
+	public void disconnect() throws IOException {
+		evictionLock.lock();
+		try {
+			for (Series s : series.values()) {
+				allocated.add(-s.evict(Long.MAX_VALUE, false));
+			}
+			evictedThrough = -1;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	@Override
+	public byte[] indexIdentifier(String identifier) throws IOException {
+		byte[] id = identifiers.get(identifier);
+		if (id != null) {
+			return id;
+		}
+		registrationLock.lock();
+		try {
+			// another thread may have registered the identifier
+			id = identifiers.get(identifier);
+			if (id == null) {
+				if (identifierSequence == IdentifierDictionary.MAX_ID) {
+					throw new IOException(
+							"Identifier space exhausted, " + IdentifierDictionary.MAX_ID + " ids allocated");
+				}
+				int next = ++identifierSequence;
+				id = IdentifierDictionary.toBytes(next);
+				names.put(next, identifier);
+				identifiers.put(identifier, id);
+			}
+			return id;
+		} finally {
+			registrationLock.unlock();
+		}
+	}
+
+	@Override
+	public byte[] lookupIdentifier(String identifier) throws IOException {
+		return identifiers.get(identifier);
+	}
+
+	@Override
+	public void writeSeriesPoint(byte[] rowKey, long timestamp, long value, boolean fp) throws IOException {
+		long start = metrics.startPoint();
+		int bytes;
+		try {
+			int prefixLength = rowKey.length - 4;
+			int bucket = RocksDBSeriesIterator.readBucket(rowKey, prefixLength);
+			bytes = lookupSeries(rowKey, prefixLength, true).append(bucket, timestamp, value);
+		} finally {
+			metrics.pointWritten(start);
+		}
+		if (bytes < 0) {
+			droppedPoints.increment();
+		} else if (bytes > 0) {
+			allocated.add(bytes);
+			if (allocated.sum() > maxBytes) {
+				evict();
+			}
+		}
+	}
+
+	/**
+	 * Drop the oldest closed bucket of every series until the allocated
+	 * buffers fit the limit. The newest bucket of a series is never evicted,
+	 * if only those are left the limit is exceeded and counted as an
+	 * overflow. Writers that find another thread evicting carry on.
+	 */
+	private void evict() {
+		if (!evictionLock.tryLock()) {
+			return;
+		}
+		try {
+			while (allocated.sum() > maxBytes) {
+				long oldest = Long.MAX_VALUE;
+				for (Series s : series.values()) {
+					oldest = Math.min(oldest, s.oldestClosed());
+				}
+				if (oldest == Long.MAX_VALUE) {
+					overflows.increment();
+					return;
+				}
+				// set before the sweep so the bucket can't be created again,
+				// newest buckets kept by an earlier sweep may be older
+				evictedThrough = Math.max(evictedThrough, oldest);
+				for (Series s : series.values()) {
+					allocated.add(-s.evict(oldest, true));
+				}
+				evictedBuckets.increment();
+				logger.info("Evicted bucket " + oldest + ", " + allocated.sum() + " bytes allocated");
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * @param rowKey
+	 * @param prefixLength
+	 *            length of the series name and tag ids in the row key
+	 * @param register
+	 *            true to register the series if it's unknown
+	 * @return series or null if it's unknown and not registered
+	 */
+	private Series lookupSeries(byte[] rowKey, int prefixLength, boolean register) {
+		int slot = hash(rowKey, prefixLength) & mask;
+		Series known = knownSeries.get(slot);
+		if (known != null && known.matches(rowKey, prefixLength)) {
+			return known;
+		}
+		String key = new String(rowKey, 0, prefixLength, KEY_CHARSET);
+		Series s = series.get(key);
+		if (s == null) {
+			if (!register) {
+				return null;
+			}
+			registrationLock.lock();
+			try {
+				s = series.get(key);
+				if (s == null) {
+					s = register(key, Arrays.copyOf(rowKey, prefixLength));
+				}
+			} finally {
+				registrationLock.unlock();
+			}
+		}
+		knownSeries.set(slot, s);
+		return s;
+	}
+
+	private Series register(String key, byte[] prefix) {
+		Series s = new Series(++seriesSequence, prefix);
+		for (int i = 0; i < prefix.length; i += IdentifierDictionary.ID_SIZE) {
+			// the leading id is the series name, the rest are tags
+			ConcurrentHashMap<Integer, RoaringBitmap> target = i == 0 ? namePostings : postings;
+			int identifier = IdentifierDictionary.toId(prefix, i);
+			RoaringBitmap bitmap = target.getOrDefault(identifier, EMPTY).clone();
+			bitmap.add(s.id);
+			bitmap.runOptimize();
+			target.put(identifier, bitmap);
+		}
+		seriesById.put(s.id, s);
+		series.put(key, s);
+		return s;
+	}
+
+	private RoaringBitmap getPostings(String tag) {
+		return lookupPostings(postings, tag);
+	}
+
+	private RoaringBitmap lookupPostings(ConcurrentHashMap<Integer, RoaringBitmap> postings, String identifier) {
+		byte[] id = identifiers.get(identifier);
+		if (id == null) {
+			return EMPTY;
+		}
+		return postings.getOrDefault(IdentifierDictionary.toId(id, 0), EMPTY);
+	}
+
+	@Override
+	public SeriesIterator queryRows(byte[] prefix, int startBucket, int endBucket, long startTime, long endTime)
+			throws IOException {
+		Series s = lookupSeries(prefix, prefix.length, false);
+		if (s == null) {
+			return EMPTY_ITERATOR;
+		}
+		Chunk[] chunks = s.chunks;
+		int from = search(chunks, startBucket);
+		if (from < 0) {
+			from = -from - 1;
+		}
+		int to = search(chunks, endBucket);
+		to = to < 0 ? -to - 1 : to + 1;
+		if (from >= to) {
+			return EMPTY_ITERATOR;
+		}
+		return new MemSeriesIterator(chunks, from, to, startTime, endTime);
+	}
+
+	@Override
+	public List<List<String>> findSeries(String seriesName, TagFilter filter) throws IOException {
+		RoaringBitmap ids = lookupPostings(namePostings, seriesName);
+		if (filter != null && !ids.isEmpty()) {
+			ids = RoaringBitmap.and(ids, filter.evaluate(this::getPostings));
+		}
+		List<List<String>> result = new ArrayList<>(ids.getCardinality());
+		for (IntIterator itr = ids.getIntIterator(); itr.hasNext();) {
+			byte[] prefix = seriesById.get(itr.next()).prefix;
+			List<String> tags = new ArrayList<>();
+			for (int i = IdentifierDictionary.ID_SIZE; i < prefix.length; i += IdentifierDictionary.ID_SIZE) {
+				tags.add(names.get(IdentifierDictionary.toId(prefix, i)));
+			}
+			result.add(tags);
+		}
+		return result;
+	}
+
+	/**
+	 * @return bytes of the buffers held by buckets
+	 */
+	public long getAllocatedBytes() {
+		return allocated.sum();
+	}
+
+	/**
+	 * @return number of buckets evicted to stay under the memory limit
+	 */
+	public long getEvictedBuckets() {
+		return evictedBuckets.sum();
+	}
+
+	/**
+	 * @return number of points discarded since their bucket was evicted
+	 */
+	public long getDroppedPoints() {
+		return droppedPoints.sum();
+	}
+
+	/**
+	 * @return number of times the limit was exceeded with only the newest
+	 *         bucket of each series left to evict
+	 */
+	public long getOverflows() {
+		return overflows.sum();
+	}
+
+	/**
+	 * @param chunks
+	 *            sorted by bucket
+	 * @param bucket
+	 * @return index of the chunk of the bucket, or (-(insertion point) - 1)
+	 */
+	private static int search(Chunk[] chunks, int bucket) {
+		int low = 0;
+		int high = chunks.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = Integer.compareUnsigned(chunks[mid].bucket, bucket);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private static int hash(byte[] key, int length) {
+		int h = 1;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + key[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Buckets of a series, chunks are added and evicted under the lock of
+	 * the series
+	 */
+	private final class Series {
+
+		private final int id;
+		private final byte[] prefix;
+		private volatile Chunk[] chunks = NO_CHUNKS;
+
+		private Series(int id, byte[] prefix) {
+			this.id = id;
+			this.prefix = prefix;
+		}
+
+		private boolean matches(byte[] key, int length) {
+			if (prefix.length != length) {
+				return false;
+			}
+			for (int i = 0; i < length; i++) {
+				if (prefix[i] != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return bytes allocated for the point, -1 if the bucket was
+		 *         evicted
+		 */
+		private int append(int bucket, long timestamp, long value) {
+			Chunk[] current = chunks;
+			int i = search(current, bucket);
+			Chunk chunk = i >= 0 ? current[i] : create(bucket);
+			return chunk == null ? -1 : chunk.add(timestamp, value);
+		}
+
+		private synchronized Chunk create(int bucket) {
+			Chunk[] current = chunks;
+			int i = search(current, bucket);
+			if (i >= 0) {
+				return current[i];
+			}
+			if ((bucket & 0xffffffffL) <= evictedThrough) {
+				return null;
+			}
+			i = -i - 1;
+			Chunk chunk = new Chunk(bucket);
+			Chunk[] updated = new Chunk[current.length + 1];
+			System.arraycopy(current, 0, updated, 0, i);
+			updated[i] = chunk;
+			System.arraycopy(current, i, updated, i + 1, current.length - i);
+			chunks = updated;
+			return chunk;
+		}
+
+		/**
+		 * @return oldest bucket other than the newest, unsigned,
+		 *         {@link Long#MAX_VALUE} if there are none
+		 */
+		private long oldestClosed() {
+			Chunk[] current = chunks;
+			return current.length < 2 ? Long.MAX_VALUE : current[0].bucket & 0xffffffffL;
+		}
+
+		/**
+		 * @param through
+		 *            buckets up to this one, unsigned, are evicted
+		 * @param keepNewest
+		 *            true to never evict the newest bucket
+		 * @return bytes released
+		 */
+		private synchronized long evict(long through, boolean keepNewest) {
+			Chunk[] current = chunks;
+			int limit = keepNewest ? current.length - 1 : current.length;
+			long released = 0;
+			int n = 0;
+			while (n < limit && (current[n].bucket & 0xffffffffL) <= through) {
+				released += current[n].evict();
+				n++;
+			}
+			if (n > 0) {
+				chunks = Arrays.copyOfRange(current, n, current.length);
+			}
+			return released;
+		}
+
+	}
+
+	/**
+	 * Points of a single bucket of a series, appended under the lock of the
+	 * chunk. Slots below the count are never written again and the list of
+	 * buffers is published before the count, so reading the count then the
+	 * buffers gives a consistent view without locking.
+	 */
+	static final class Chunk {
+
+		private final int bucket;
+		private volatile ByteBuffer[] blocks = NO_BLOCKS;
+		private volatile int count;
+		private int capacity;
+		private boolean evicted;
+
+		private Chunk(int bucket) {
+			this.bucket = bucket;
+		}
+
+		/**
+		 * @return bytes allocated for the point, -1 if the chunk was evicted
+		 */
+		private synchronized int add(long timestamp, long value) {
+			if (evicted) {
+				return -1;
+			}
+			ByteBuffer[] current = blocks;
+			int allocated = 0;
+			if (count == capacity) {
+				int points = current.length == 0 ? MIN_BLOCK_POINTS
+						: Math.min(current[current.length - 1].capacity() / POINT_BYTES * 2, MAX_BLOCK_POINTS);
+				current = Arrays.copyOf(current, current.length + 1);
+				current[current.length - 1] = ByteBuffer.allocateDirect(points * POINT_BYTES)
+						.order(ByteOrder.nativeOrder());
+				blocks = current;
+				capacity += points;
+				allocated = points * POINT_BYTES;
+			}
+			ByteBuffer block = current[current.length - 1];
+			int offset = block.capacity() - (capacity - count) * POINT_BYTES;
+			block.putLong(offset, timestamp);
+			block.putLong(offset + 8, value);
+			count++;
+			return allocated;
+		}
+
+		/**
+		 * @return bytes released
+		 */
+		private synchronized long evict() {
+			evicted = true;
+			return (long) capacity * POINT_BYTES;
+		}
+
+		/**
+		 * @return number of points, read before {@link #getBlocks()}
+		 */
+		int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return buffers holding the points, each full except the last
+		 */
+		ByteBuffer[] getBlocks() {
+			return blocks;
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free ring buffer for many producers and a single consumer.
+ * Producers claim a position with a CAS on the tail, every slot carries a
+ * sequence that tells whether it is free for the position being claimed or
+ * holds a published element, so producers never wait on each other once a
+ * position is claimed. Positions increase monotonically and identify the
+ * element for as long as the caller needs.
+ *
+ * @author ambudsharma
+ */
+public class MpscRingBuffer<E> {
+
+	private final int capacity;
+	private final int mask;
+	private final Object[] elements;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	/**
+	 * @param capacity
+	 *            a power of two
+	 */
+	public MpscRingBuffer(int capacity) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of two, was " + capacity);
+		}
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.elements = new Object[capacity];
+		this.sequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * @param element
+	 * @return position of the element, -1 if the buffer is full
+	 */
+	public long offer(E element) {
+		long pos = tail.get();
+		while (true) {
+			int index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) {
+					elements[index] = element;
+					// publishes the element to the consumer
+					sequences.lazySet(index, pos + 1);
+					return pos;
+				}
+				pos = tail.get();
+			} else if (diff < 0) {
+				// the slot still holds the element of the previous lap
+				return -1;
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Move published elements to the collection, only a single thread may
+	 * drain
+	 *
+	 * @param to
+	 * @param max
+	 *            number of elements to move
+	 * @return number of elements moved
+	 */
+	@SuppressWarnings("unchecked")
+	public int drain(Collection<? super E> to, int max) {
+		long pos = head;
+		int count = 0;
+		while (count < max) {
+			int index = (int) pos & mask;
+			if (sequences.get(index) != pos + 1) {
+				break;
+			}
+			to.add((E) elements[index]);
+			elements[index] = null;
+			sequences.lazySet(index, pos + capacity);
+			pos++;
+			count++;
+		}
+		head = pos;
+		return count;
+	}
+
+	/**
+	 * @return position of the next element to be drained
+	 */
+	public long getHead() {
+		return head;
+	}
+
+	/**
+	 * @return number of elements claimed but not drained yet, may be stale
+	 */
+	public int size() {
+		return (int) Math.max(0, tail.get() - head);
+	}
+
+	/**
+	 * @return capacity
+	 */
+	public int capacity() {
+		return capacity;
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ReadOptions;
+import org.rocksdb.RocksDB;
+
+/**
+ * Walks a series across time partitions in order. Partitions don't overlap
+ * so the points come out sorted, only one partition iterator is open at a
+ * time.
+ *
+ * @author ambudsharma
+ */
+public class PartitionedSeriesIterator implements SeriesIterator {
+
+	private final RocksDB db;
+	private final ReadOptions options;
+	private final List<ColumnFamilyHandle> partitions;
+	private final byte[] prefix;
+	private final int startBucket;
+	private final int endBucket;
+	private final long startTime;
+	private final long endTime;
+	private int partition;
+	private RocksDBSeriesIterator current;
+
+	/**
+	 * @param db
+	 * @param options
+	 *            used to read every partition
+	 * @param partitions
+	 *            column families of the partitions, oldest first
+	 * @param prefix
+	 * @param startBucket
+	 * @param endBucket
+	 * @param startTime
+	 * @param endTime
+	 */
+	public PartitionedSeriesIterator(RocksDB db, ReadOptions options, List<ColumnFamilyHandle> partitions,
+			byte[] prefix, int startBucket, int endBucket, long startTime, long endTime) {
+		this.db = db;
+		this.options = options;
+		this.partitions = partitions;
+		this.prefix = prefix;
+		this.startBucket = startBucket;
+		this.endBucket = endBucket;
+		this.startTime = startTime;
+		this.endTime = endTime;
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		while (true) {
+			if (current != null) {
+				if (current.next()) {
+					return true;
+				}
+				current.close();
+				current = null;
+			}
+			if (partition == partitions.size()) {
+				return false;
+			}
+			current = new RocksDBSeriesIterator(db.newIterator(partitions.get(partition++), options), prefix, startBucket,
+					endBucket, startTime, endTime);
+		}
+	}
+
+	@Override
+	public long getTimestamp() {
+		return current.getTimestamp();
+	}
+
+	@Override
+	public long getValue() {
+		return current.getValue();
+	}
+
+	@Override
+	public void close() {
+		if (current != null) {
+			current.close();
+			current = null;
+		}
+		partition = partitions.size();
+	}
+
+}
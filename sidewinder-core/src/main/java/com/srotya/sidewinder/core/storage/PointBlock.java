@@ -0,0 +1,107 @@
+package com.srotya.sidewinder.core.storage;
+
+/**
+ * Columnar block of points, timestamps and raw values in parallel primitive
+ * arrays. Blocks are filled by {@link SeriesIterator#nextBlock(PointBlock)}
+ * and meant to be reused across series so reading a range allocates nothing
+ * per point or per block.
+ *
+ * @author ambudsharma
+ */
+public class PointBlock {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	private final long[] timestamps;
+	private final long[] values;
+	private final double[] doubles;
+	private int size;
+
+	public PointBlock() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            maximum number of points in the block
+	 */
+	public PointBlock(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		timestamps = new long[capacity];
+		values = new long[capacity];
+		doubles = new double[capacity];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Append a point, the block must not be full
+	 *
+	 * @param timestamp
+	 * @param value
+	 */
+	public void add(long timestamp, long value) {
+		timestamps[size] = timestamp;
+		values[size++] = value;
+	}
+
+	/**
+	 * @param size
+	 *            number of points written directly into the arrays
+	 */
+	void setSize(int size) {
+		this.size = size;
+	}
+
+	public boolean isFull() {
+		return size == timestamps.length;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return timestamps.length;
+	}
+
+	/**
+	 * @return timestamps in milliseconds, valid up to {@link #size()}
+	 */
+	public long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * @return raw 64 bits of the values, valid up to {@link #size()}
+	 */
+	public long[] getValues() {
+		return values;
+	}
+
+	/**
+	 * Convert the values of the block to doubles, the array is reused and
+	 * overwritten by the next call
+	 *
+	 * @param fp
+	 *            true if the raw values are doubles, false if they are
+	 *            longs
+	 * @return values, valid up to {@link #size()}
+	 */
+	public double[] getDoubles(boolean fp) {
+		if (fp) {
+			for (int i = 0; i < size; i++) {
+				doubles[i] = Double.longBitsToDouble(values[i]);
+			}
+		} else {
+			for (int i = 0; i < size; i++) {
+				doubles[i] = values[i];
+			}
+		}
+		return doubles;
+	}
+
+}
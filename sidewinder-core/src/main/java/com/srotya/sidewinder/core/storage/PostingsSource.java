@@ -0,0 +1,38 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Postings of an index of series, what a {@link TagFilter} is evaluated
+ * against
+ * 
+ * @author ambudsharma
+ */
+public interface PostingsSource {
+
+	/**
+	 * @param identifier
+	 *            series name or tag
+	 * @return ids of the series carrying the identifier, must not be modified
+	 * @throws IOException
+	 */
+	RoaringBitmap getPostings(String identifier) throws IOException;
+
+}
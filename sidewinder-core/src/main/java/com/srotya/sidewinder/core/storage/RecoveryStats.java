@@ -0,0 +1,178 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+/**
+ * What the storage engine found on disk when it was connected
+ *
+ * @author ambudsharma
+ */
+public class RecoveryStats {
+
+	private long startupMillis;
+	private int walFiles;
+	private long walBytes;
+	private long walBatches;
+	private long walEntries;
+	private int identifiers;
+	private int series;
+	private int partitions;
+	private int warmedBuckets;
+	private long verifiedBuckets;
+	private long corruptBuckets;
+	private long headPoints;
+	private long headSkipped;
+
+	/**
+	 * @return time taken to open the databases and rebuild the caches
+	 */
+	public long getStartupMillis() {
+		return startupMillis;
+	}
+
+	void setStartupMillis(long startupMillis) {
+		this.startupMillis = startupMillis;
+	}
+
+	/**
+	 * @return number of write ahead log files replayed
+	 */
+	public int getWalFiles() {
+		return walFiles;
+	}
+
+	/**
+	 * @return size of the write ahead log files replayed
+	 */
+	public long getWalBytes() {
+		return walBytes;
+	}
+
+	/**
+	 * @return number of write batches in the replayed logs
+	 */
+	public long getWalBatches() {
+		return walBatches;
+	}
+
+	/**
+	 * @return number of puts, merges and deletes in the replayed logs
+	 */
+	public long getWalEntries() {
+		return walEntries;
+	}
+
+	void addWal(int files, long bytes, long batches, long entries) {
+		walFiles += files;
+		walBytes += bytes;
+		walBatches += batches;
+		walEntries += entries;
+	}
+
+	/**
+	 * @return number of identifiers in the dictionary
+	 */
+	public int getIdentifiers() {
+		return identifiers;
+	}
+
+	void setIdentifiers(int identifiers) {
+		this.identifiers = identifiers;
+	}
+
+	/**
+	 * @return number of series in the tag index
+	 */
+	public int getSeries() {
+		return series;
+	}
+
+	void setSeries(int series) {
+		this.series = series;
+	}
+
+	/**
+	 * @return number of time partitions opened
+	 */
+	public int getPartitions() {
+		return partitions;
+	}
+
+	void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	/**
+	 * @return number of current buckets loaded into the bucket cache
+	 */
+	public int getWarmedBuckets() {
+		return warmedBuckets;
+	}
+
+	void setWarmedBuckets(int warmedBuckets) {
+		this.warmedBuckets = warmedBuckets;
+	}
+
+	/**
+	 * @return number of buckets read and decoded, 0 unless verification is
+	 *         enabled
+	 */
+	public long getVerifiedBuckets() {
+		return verifiedBuckets;
+	}
+
+	/**
+	 * @return number of buckets that failed to decode
+	 */
+	public long getCorruptBuckets() {
+		return corruptBuckets;
+	}
+
+	void addVerified(long verified, long corrupt) {
+		verifiedBuckets += verified;
+		corruptBuckets += corrupt;
+	}
+
+	/**
+	 * @return number of points replayed into the head block
+	 */
+	public long getHeadPoints() {
+		return headPoints;
+	}
+
+	/**
+	 * @return number of logged points skipped since they were already
+	 *         flushed
+	 */
+	public long getHeadSkipped() {
+		return headSkipped;
+	}
+
+	void setHeadPoints(long headPoints, long headSkipped) {
+		this.headPoints = headPoints;
+		this.headSkipped = headSkipped;
+	}
+
+	@Override
+	public String toString() {
+		return "RecoveryStats [startupMillis=" + startupMillis + ", walFiles=" + walFiles + ", walBytes=" + walBytes
+				+ ", walBatches=" + walBatches + ", walEntries=" + walEntries + ", identifiers=" + identifiers
+				+ ", series=" + series + ", partitions=" + partitions + ", warmedBuckets=" + warmedBuckets
+				+ ", verifiedBuckets=" + verifiedBuckets + ", corruptBuckets=" + corruptBuckets + ", headPoints="
+				+ headPoints + ", headSkipped=" + headSkipped + "]";
+	}
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long points are kept. A default retention applies to every series
+ * name, it can be overridden for individual series names with
+ * <code>tsdb.retention.hours.&lt;series name&gt;</code>. A retention of 0
+ * keeps points forever.
+ * 
+ * @author ambudsharma
+ */
+public class RetentionPolicy {
+
+	public static final String RETENTION_HOURS = "tsdb.retention.hours";
+	public static final String ROLLUP_RETENTION_HOURS = "tsdb.rollup.retention.hours";
+
+	private final long defaultRetention;
+	private final long rollupRetention;
+	private final Map<String, Long> seriesRetention;
+
+	/**
+	 * @param defaultRetention
+	 *            in milliseconds
+	 * @param rollupRetention
+	 *            in milliseconds
+	 * @param seriesRetention
+	 *            in milliseconds for each series name
+	 */
+	public RetentionPolicy(long defaultRetention, long rollupRetention, Map<String, Long> seriesRetention) {
+		this.defaultRetention = defaultRetention;
+		this.rollupRetention = rollupRetention;
+		this.seriesRetention = seriesRetention;
+	}
+
+	/**
+	 * @param conf
+	 * @return retention policy of the configuration
+	 */
+	public static RetentionPolicy fromConf(Map<String, String> conf) {
+		Map<String, Long> seriesRetention = new HashMap<>();
+		for (Entry<String, String> entry : conf.entrySet()) {
+			if (entry.getKey().startsWith(RETENTION_HOURS + ".")) {
+				seriesRetention.put(entry.getKey().substring(RETENTION_HOURS.length() + 1),
+						toMillis(entry.getValue()));
+			}
+		}
+		return new RetentionPolicy(toMillis(conf.getOrDefault(RETENTION_HOURS, "0")),
+				toMillis(conf.getOrDefault(ROLLUP_RETENTION_HOURS, "0")), seriesRetention);
+	}
+
+	private static long toMillis(String hours) {
+		long retention = Long.parseLong(hours.trim());
+		if (retention < 0) {
+			throw new IllegalArgumentException("Invalid retention of " + hours + " hours");
+		}
+		return TimeUnit.HOURS.toMillis(retention);
+	}
+
+	/**
+	 * @param seriesName
+	 * @return retention of the raw points of the series in milliseconds, 0
+	 *         if they are kept forever
+	 */
+	public long getRetention(String seriesName) {
+		Long retention = seriesRetention.get(seriesName);
+		return retention != null ? retention : defaultRetention;
+	}
+
+	/**
+	 * @return retention of rollup windows in milliseconds, 0 if they are kept
+	 *         forever
+	 */
+	public long getRollupRetention() {
+		return rollupRetention;
+	}
+
+	/**
+	 * @return the longest retention of raw points across all series names in
+	 *         milliseconds, 0 if points of some series are kept forever
+	 */
+	public long getMaxRetention() {
+		if (defaultRetention == 0) {
+			return 0;
+		}
+		long max = defaultRetention;
+		for (long retention : seriesRetention.values()) {
+			if (retention == 0) {
+				return 0;
+			}
+			max = Math.max(max, retention);
+		}
+		return max;
+	}
+
+	/**
+	 * @return true if anything expires
+	 */
+	public boolean isEnabled() {
+		if (defaultRetention > 0 || rollupRetention > 0) {
+			return true;
+		}
+		for (long retention : seriesRetention.values()) {
+			if (retention > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
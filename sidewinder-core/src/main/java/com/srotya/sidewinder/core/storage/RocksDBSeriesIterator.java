@@ -0,0 +1,189 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+
+import org.rocksdb.RocksIterator;
+
+/**
+ * Walks the buckets of a single series using a RocksDB iterator seeked to
+ * the series prefix and the start bucket. Only one bucket is decoded at a
+ * time so memory use doesn't depend on the length of the range.
+ * 
+ * @author ambudsharma
+ */
+public class RocksDBSeriesIterator implements SeriesIterator {
+
+	private final RocksIterator itr;
+	private final byte[] prefix;
+	private final int endBucket;
+	private final long startTime;
+	private final long endTime;
+	private final BucketReader reader = new BucketReader();
+	private boolean bucketOpen;
+	private boolean exhausted;
+
+	/**
+	 * @param itr
+	 *            closed with this iterator
+	 * @param prefix
+	 * @param startBucket
+	 * @param endBucket
+	 * @param startTime
+	 * @param endTime
+	 */
+	public RocksDBSeriesIterator(RocksIterator itr, byte[] prefix, int startBucket, int endBucket, long startTime,
+			long endTime) {
+		this.itr = itr;
+		this.prefix = prefix;
+		this.endBucket = endBucket;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		itr.seek(seekKey(prefix, startBucket));
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		while (!exhausted) {
+			if (bucketOpen) {
+				while (reader.next()) {
+					long ts = reader.getTimestamp();
+					if (ts >= startTime && ts <= endTime) {
+						return true;
+					}
+				}
+				bucketOpen = false;
+				itr.next();
+			}
+			openNextBucket();
+		}
+		return false;
+	}
+
+	@Override
+	public int nextBlock(PointBlock block) throws IOException {
+		long[] timestamps = block.getTimestamps();
+		long[] values = block.getValues();
+		int capacity = block.capacity();
+		int size = 0;
+		while (size < capacity) {
+			if (bucketOpen) {
+				while (size < capacity && reader.next()) {
+					long ts = reader.getTimestamp();
+					if (ts >= startTime && ts <= endTime) {
+						timestamps[size] = ts;
+						values[size++] = reader.getValue();
+					}
+				}
+				if (size == capacity) {
+					break;
+				}
+				bucketOpen = false;
+				itr.next();
+			}
+			if (exhausted) {
+				break;
+			}
+			openNextBucket();
+		}
+		block.setSize(size);
+		return size;
+	}
+
+	/**
+	 * Position the reader on the next row of this series within the bucket
+	 * range. Rows of other series that share the prefix (series with more
+	 * tags) are skipped.
+	 * 
+	 * @throws IOException
+	 */
+	private void openNextBucket() throws IOException {
+		for (; itr.isValid(); itr.next()) {
+			byte[] key = itr.key();
+			if (!startsWith(key, prefix)) {
+				break;
+			}
+			if (key.length < prefix.length + 4) {
+				continue;
+			}
+			int bucket = readBucket(key, prefix.length);
+			if (Integer.compareUnsigned(bucket, endBucket) > 0) {
+				// every following key of this series sorts after the end
+				// bucket, this holds for longer keys of other series too
+				break;
+			}
+			if (key.length == prefix.length + 4) {
+				TimeSeriesBucket.openReader(itr.value(), reader);
+				bucketOpen = true;
+				return;
+			}
+		}
+		exhausted = true;
+	}
+
+	static boolean startsWith(byte[] key, byte[] prefix) {
+		if (key.length < prefix.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (key[i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param prefix
+	 * @param bucket
+	 * @return key of the bucket, the prefix followed by the MSB bucket
+	 */
+	static byte[] seekKey(byte[] prefix, int bucket) {
+		byte[] key = new byte[prefix.length + 4];
+		System.arraycopy(prefix, 0, key, 0, prefix.length);
+		writeBucket(key, prefix.length, bucket);
+		return key;
+	}
+
+	static void writeBucket(byte[] key, int offset, int bucket) {
+		key[offset] = (byte) (bucket >>> 24);
+		key[offset + 1] = (byte) (bucket >>> 16);
+		key[offset + 2] = (byte) (bucket >>> 8);
+		key[offset + 3] = (byte) bucket;
+	}
+
+	static int readBucket(byte[] key, int offset) {
+		return ((key[offset] & 0xff) << 24) | ((key[offset + 1] & 0xff) << 16) | ((key[offset + 2] & 0xff) << 8)
+				| (key[offset + 3] & 0xff);
+	}
+
+	@Override
+	public long getTimestamp() {
+		return reader.getTimestamp();
+	}
+
+	@Override
+	public long getValue() {
+		return reader.getValue();
+	}
+
+	@Override
+	public void close() {
+		itr.close();
+	}
+
+}
@@ -15,56 +15,190 @@
  */
 package com.srotya.sidewinder.core.storage;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Map.Entry;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-import org.rocksdb.CompactionStyle;
-import org.rocksdb.CompressionType;
+import org.roaringbitmap.IntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.rocksdb.ColumnFamilyDescriptor;
+import org.rocksdb.ColumnFamilyHandle;
+import org.rocksdb.ColumnFamilyOptions;
+import org.rocksdb.DBOptions;
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
 import org.rocksdb.Options;
+import org.rocksdb.ReadOptions;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.Snapshot;
+import org.rocksdb.Statistics;
+import org.rocksdb.StringAppendOperator;
+import org.rocksdb.TickerType;
+import org.rocksdb.WriteBatch;
 import org.rocksdb.WriteOptions;
-import org.rocksdb.util.SizeUnit;
 
-import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.io.Input;
-import com.esotericsoftware.kryo.io.Output;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
-import com.srotya.sidewinder.core.utils.ByteUtils;
-
-import io.symcpe.wraith.MurmurHash;
+import com.srotya.sidewinder.core.utils.TimeUtils;
 
 /**
  * @author ambudsharma
  */
 public class RocksDBStorageEngine extends AbstractStorageEngine {
 
-	private static final Charset CHARSET = Charset.forName("utf-8");
-	private LoadingCache<String, TreeMap<Long, byte[]>> seriesLookup;
+	/**
+	 * How points are written to the tsdb
+	 */
+	public static enum WriteMode {
+		/**
+		 * Read-modify-write of the encoded bucket under a lock
+		 */
+		PUT,
+		/**
+		 * Blind write of each point as a merge operand, operands are folded
+		 * into the bucket when it's read. Until a bucket is closed and
+		 * folded back, see {@link RocksDBStorageEngine#foldBuckets(long)},
+		 * every point takes 18 bytes on disk instead of the few bytes of the
+		 * encoded bucket, and reads decode every operand.
+		 */
+		MERGE
+	}
+
+	/**
+	 * Single byte charset used to map row keys to cache keys without losing
+	 * any bytes
+	 */
+	private static final Charset KEY_CHARSET = Charset.forName("ISO-8859-1");
+	/**
+	 * Column family name prefix of time partitions, followed by the start of
+	 * the partition in seconds
+	 */
+	public static final String PARTITION_PREFIX = "tsdb_";
+	/**
+	 * Column family holding, for each row key flushed from the head block,
+	 * the sequence number of the last point flushed
+	 */
+	public static final byte[] HEAD_COLUMN_FAMILY = "head".getBytes(KEY_CHARSET);
+	private static final Logger logger = Logger.getLogger(RocksDBStorageEngine.class.getName());
+	private LoadingCache<String, TimeSeriesBucket> seriesLookup;
+	private LoadingCache<String, RollupSummary> rollupLookup;
+	private int rollupCacheSize;
+	private RollupTier[] rollupTiers;
+	private List<ColumnFamilyHandle> columnFamilyHandles;
+	private IdentifierDictionary dictionary;
+	private int identifierCacheSize;
+	private SeriesIndex seriesIndex;
+	private int seriesCacheSize;
 	private RocksDB indexdb;
 	private Options indexdbOptions;
 	private RocksDB tsdb;
-	private Options tsdbOptions;
+	private DBOptions tsdbOptions;
+	private ColumnFamilyOptions tsdbColumnOptions;
+	private ColumnFamilyOptions rollupColumnOptions;
+	private ColumnFamilyOptions coldColumnOptions;
+	private ColumnFamilyHandle defaultHandle;
+	private int partitionSeconds;
+	private long coldAfterSeconds;
+	private int prefixLength;
+	private final ConcurrentSkipListMap<Integer, ColumnFamilyHandle> partitions = new ConcurrentSkipListMap<>();
+	private final List<ColumnFamilyHandle> droppedPartitions = new ArrayList<>();
+	private final ReentrantLock partitionLock = new ReentrantLock();
 	private WriteOptions writeOptions;
 	private String tsdbWalDirectory;
 	private String tsdbMemDirectory;
 	private String indexdbMemDirectory;
 	private String indexdbWalDirectory;
-	private static final ThreadLocal<Kryo> kryoThreadLocal = new ThreadLocal<Kryo>() {
-		@Override
-		protected Kryo initialValue() {
-			Kryo kryo = new Kryo();
-			return kryo;
-		}
-	};
+	private WriteMode writeMode;
+	private StripedLocks rowLocks;
+	private boolean groupCommit;
+	private long groupCommitWindowMs;
+	private int groupCommitMaxPoints;
+	private GroupCommitter groupCommitter;
+	private RetentionPolicy retentionPolicy;
+	private long retentionIntervalSeconds;
+	private ScheduledExecutorService retentionExecutor;
+	private long foldIntervalSeconds;
+	private long foldGraceSeconds;
+	private ScheduledExecutorService foldExecutor;
+	/**
+	 * Buckets ending at or before this time, in seconds, have been folded,
+	 * merges into them hold the row lock so a fold doesn't overwrite them
+	 */
+	private volatile long foldedBefore;
+	/**
+	 * Row keys merged into after their bucket was folded, folded again by
+	 * the next run
+	 */
+	private final Set<String> lateRows = ConcurrentHashMap.newKeySet();
+	private int bucketCacheSize;
+	private boolean warmCache;
+	private boolean verifyOnStart;
+	private RecoveryStats recoveryStats;
+	private boolean headEnabled;
+	private String headWalDirectory;
+	private long headWalSegmentBytes;
+	private boolean headWalSync;
+	private long headMaxPoints;
+	private long headFlushIntervalMs;
+	private long headFlushGraceSeconds;
+	private int headFlushBatchPoints;
+	private boolean headFlushOnDisconnect;
+	private ColumnFamilyOptions headColumnOptions;
+	private ColumnFamilyHandle headHandle;
+	private HeadBlock head;
+	private HeadWal headWal;
+	private long headMarkersBefore;
+	private ScheduledExecutorService headExecutor;
+	private final AtomicBoolean headFlushRequested = new AtomicBoolean();
+	/**
+	 * Held exclusively while flushed points move from the head block to the
+	 * tsdb, so queries never see them in both or in neither
+	 */
+	private final ReentrantReadWriteLock headLock = new ReentrantReadWriteLock();
+	private ReadOptions readOptions;
+	private Statistics tsdbStatistics;
+	private Statistics indexdbStatistics;
+	/**
+	 * Held shared by writes to the databases and exclusively while the
+	 * databases are opened or closed, so no write runs against a closed
+	 * database
+	 */
+	private final ReentrantReadWriteLock openLock = new ReentrantReadWriteLock();
+	/**
+	 * Changed holding both the open lock and the partition lock, read
+	 * holding either. Gauges only read the databases while they are open,
+	 * writes fail once they are closed.
+	 */
+	private boolean open;
 
 	static {
 		RocksDB.loadLibrary();
@@ -73,34 +207,136 @@ public class RocksDBStorageEngine extends AbstractStorageEngine {
 	@SuppressWarnings("resource")
 	@Override
 	public void configure(Map<String, String> conf) throws IOException {
+		conf = RocksDBTuning.resolve(conf);
 		tsdbWalDirectory = conf.getOrDefault("tsdb.wal.directory", "target/tsdbw");
 		tsdbMemDirectory = conf.getOrDefault("tsdb.mem.directory", "target/tsdbm");
 
 		indexdbWalDirectory = conf.getOrDefault("idxdb.wal.directory", "target/idxdbw");
 		indexdbMemDirectory = conf.getOrDefault("idxdb.mem.directory", "target/idxdbm");
+		writeMode = WriteMode.valueOf(conf.getOrDefault("tsdb.write.mode", WriteMode.PUT.name()).toUpperCase());
+		identifierCacheSize = Integer.parseInt(conf.getOrDefault("idxdb.cache.size", "100000"));
+		seriesCacheSize = Integer.parseInt(conf.getOrDefault("idxdb.series.cache.size", "1048576"));
+		rowLocks = new StripedLocks(Integer.parseInt(conf.getOrDefault("tsdb.lock.stripes", "1024")));
+		groupCommit = Boolean.parseBoolean(conf.getOrDefault("tsdb.group.commit.enabled", "false"));
+		groupCommitWindowMs = Long.parseLong(conf.getOrDefault("tsdb.group.commit.window.ms", "2"));
+		groupCommitMaxPoints = Integer.parseInt(conf.getOrDefault("tsdb.group.commit.max.points", "10000"));
+		// tiers are opt-in, every point written with a tier is a
+		// read-modify-write of its summaries
+		rollupTiers = parseRollupTiers(conf.getOrDefault("tsdb.rollup.windows", ""));
+		rollupCacheSize = Integer.parseInt(conf.getOrDefault("tsdb.rollup.cache.size", "10000"));
+		retentionPolicy = RetentionPolicy.fromConf(conf);
+		retentionIntervalSeconds = Long.parseLong(conf.getOrDefault("tsdb.retention.interval.seconds", "3600"));
+		foldIntervalSeconds = Long.parseLong(conf.getOrDefault("tsdb.merge.fold.interval.seconds", "600"));
+		foldGraceSeconds = Long.parseLong(conf.getOrDefault("tsdb.merge.fold.grace.seconds", "600"));
+		partitionSeconds = (int) TimeUnit.HOURS.toSeconds(Integer.parseInt(conf.getOrDefault("tsdb.partition.hours", "168")));
+		if (partitionSeconds < 0) {
+			throw new IllegalArgumentException("Invalid partition of " + partitionSeconds + " seconds");
+		}
+		bucketCacheSize = Integer.parseInt(conf.getOrDefault("tsdb.bucket.cache.size", "1000"));
+		warmCache = Boolean.parseBoolean(conf.getOrDefault("tsdb.recovery.warm.cache", "true"));
+		verifyOnStart = Boolean.parseBoolean(conf.getOrDefault("tsdb.recovery.verify", "false"));
+		// archived logs aren't needed for recovery, only logs that haven't
+		// been flushed are replayed
+		long walTtlSeconds = Long.parseLong(conf.getOrDefault("tsdb.wal.ttl.seconds", "60"));
+		boolean walSync = Boolean.parseBoolean(conf.getOrDefault("tsdb.wal.sync", "false"));
+		coldAfterSeconds = TimeUnit.HOURS.toSeconds(Long.parseLong(conf.getOrDefault("tsdb.partition.cold.after.hours", "336")));
+		headEnabled = Boolean.parseBoolean(conf.getOrDefault("tsdb.head.enabled", "false"));
+		headWalDirectory = conf.getOrDefault("tsdb.head.wal.directory", "target/headw");
+		headWalSegmentBytes = Long.parseLong(conf.getOrDefault("tsdb.head.wal.segment.mb", "64")) * 1024 * 1024;
+		headWalSync = Boolean.parseBoolean(conf.getOrDefault("tsdb.head.wal.sync", String.valueOf(walSync)));
+		headMaxPoints = Long.parseLong(conf.getOrDefault("tsdb.head.max.points", "10000000"));
+		headFlushIntervalMs = Long.parseLong(conf.getOrDefault("tsdb.head.flush.interval.ms", "1000"));
+		headFlushGraceSeconds = Long.parseLong(conf.getOrDefault("tsdb.head.flush.grace.seconds", "60"));
+		headFlushBatchPoints = Integer.parseInt(conf.getOrDefault("tsdb.head.flush.batch.points", "100000"));
+		headFlushOnDisconnect = Boolean.parseBoolean(conf.getOrDefault("tsdb.head.flush.on.disconnect", "true"));
 
-		if (true) {
+		if (Boolean.parseBoolean(conf.getOrDefault("tsdb.wipe.on.start", "false"))) {
 			wipeDirectory(tsdbWalDirectory);
 			wipeDirectory(tsdbMemDirectory);
 			wipeDirectory(indexdbWalDirectory);
 			wipeDirectory(indexdbMemDirectory);
+			wipeDirectory(headWalDirectory);
 		}
-		tsdbOptions = new Options().setCreateIfMissing(true).setAllowMmapReads(true).setAllowMmapWrites(true)
-				.setIncreaseParallelism(2).setFilterDeletes(true).setMaxBackgroundCompactions(10)
-				.setMaxBackgroundFlushes(10).setDisableDataSync(false).setUseFsync(false).setUseAdaptiveMutex(false)
-				.setWriteBufferSize(1 * SizeUnit.MB).setCompactionStyle(CompactionStyle.UNIVERSAL)
-				.setCompressionType(CompressionType.SNAPPY_COMPRESSION).setMaxWriteBufferNumber(6).setWalTtlSeconds(60)
-				.setWalSizeLimitMB(512).setMaxTotalWalSize(1024 * SizeUnit.MB).setErrorIfExists(false)
-				.setAllowOsBuffer(true).setWalDir(tsdbWalDirectory).setOptimizeFiltersForHits(false);
+		tsdbOptions = new DBOptions().setCreateIfMissing(true).setCreateMissingColumnFamilies(true)
+				.setDisableDataSync(false).setUseFsync(false).setUseAdaptiveMutex(false).setWalTtlSeconds(walTtlSeconds)
+				.setErrorIfExists(false).setAllowOsBuffer(true).setWalDir(tsdbWalDirectory);
+		RocksDBTuning.applyDBOptions(tsdbOptions, conf, "tsdb");
+		tsdbColumnOptions = new ColumnFamilyOptions().setFilterDeletes(true).setMergeOperator(new StringAppendOperator());
+		RocksDBTuning.applyColumnOptions(tsdbColumnOptions, conf, "tsdb");
+		coldColumnOptions = new ColumnFamilyOptions().setFilterDeletes(true).setMergeOperator(new StringAppendOperator());
+		RocksDBTuning.applyColumnOptions(coldColumnOptions, conf, "tsdb.cold");
+		// rollup rows are small fixed size summaries that are overwritten
+		rollupColumnOptions = new ColumnFamilyOptions().setFilterDeletes(true);
+		RocksDBTuning.applyColumnOptions(rollupColumnOptions, conf, "tsdb.rollup");
+		// flush markers are scanned in full on connect
+		headColumnOptions = new ColumnFamilyOptions();
+		// seeks only see keys that share the extracted prefix of the seek key,
+		// RocksJava 4.9 can't opt out with a total order seek. Row keys of a
+		// series share its series and tag ids but not the bucket, so every
+		// series must have at least as many tags as the prefix covers.
+		prefixLength = 0;
+		if (Boolean.parseBoolean(conf.get("tsdb.prefix.extractor.enabled"))) {
+			int prefixTags = Integer.parseInt(conf.get("tsdb.prefix.extractor.tags"));
+			if (prefixTags < 0) {
+				throw new IllegalArgumentException("Invalid prefix extractor tag count " + prefixTags);
+			}
+			prefixLength = IdentifierDictionary.ID_SIZE * (1 + prefixTags);
+			int memtableBloomBits = Integer.parseInt(conf.get("tsdb.memtable.prefix.bloom.bits"));
+			for (ColumnFamilyOptions options : Arrays.asList(tsdbColumnOptions, coldColumnOptions,
+					rollupColumnOptions)) {
+				options.useFixedLengthPrefixExtractor(prefixLength);
+				options.setMemtablePrefixBloomBits(memtableBloomBits);
+			}
+		}
+
+		indexdbOptions = new Options().setCreateIfMissing(true).setFilterDeletes(true).setDisableDataSync(false)
+				.setUseFsync(false).setUseAdaptiveMutex(false).setWalTtlSeconds(walTtlSeconds).setErrorIfExists(false)
+				.setAllowOsBuffer(true).setWalDir(indexdbWalDirectory);
+		RocksDBTuning.applyDBOptions(indexdbOptions, conf, "idxdb");
+		RocksDBTuning.applyColumnOptions(indexdbOptions, conf, "idxdb");
+		writeOptions = new WriteOptions().setDisableWAL(false).setSync(walSync);
+		readOptions = new ReadOptions();
+		tsdbStatistics = Boolean.parseBoolean(conf.get("tsdb.statistics")) ? tsdbOptions.statisticsPtr() : null;
+		indexdbStatistics = Boolean.parseBoolean(conf.get("idxdb.statistics")) ? indexdbOptions.statisticsPtr()
+				: null;
+		registerMetrics();
+	}
 
-		indexdbOptions = new Options().setCreateIfMissing(true).setAllowMmapReads(true).setAllowMmapWrites(true)
-				.setIncreaseParallelism(2).setFilterDeletes(true).setMaxBackgroundCompactions(10)
-				.setMaxBackgroundFlushes(10).setDisableDataSync(false).setUseFsync(false).setUseAdaptiveMutex(false)
-				.setWriteBufferSize(1 * SizeUnit.MB).setCompactionStyle(CompactionStyle.UNIVERSAL)
-				.setCompressionType(CompressionType.SNAPPY_COMPRESSION).setMaxWriteBufferNumber(6).setWalTtlSeconds(60)
-				.setWalSizeLimitMB(512).setMaxTotalWalSize(1024 * SizeUnit.MB).setErrorIfExists(false)
-				.setAllowOsBuffer(true).setWalDir(indexdbWalDirectory).setOptimizeFiltersForHits(false);
-		writeOptions = new WriteOptions().setDisableWAL(false).setSync(false);
+	private void registerMetrics() {
+		metrics.gauge("cache.bucket.hit.rate", () -> seriesLookup == null ? 0 : seriesLookup.stats().hitRate());
+		metrics.gauge("cache.rollup.hit.rate", () -> rollupLookup == null ? 0 : rollupLookup.stats().hitRate());
+		metrics.gauge("cache.identifier.hit.rate",
+				() -> dictionary == null ? 0 : dictionary.getCacheStats().hitRate());
+		metrics.gauge("locks.contended", rowLocks::getContended);
+		metrics.gauge("locks.wait.ms", () -> TimeUnit.NANOSECONDS.toMillis(rowLocks.getWaitNanos()));
+		metrics.gauge("head.points", () -> head == null ? 0 : head.getPoints());
+		metrics.gauge("head.series", () -> head == null ? 0 : head.getSeries());
+		metrics.register("tsdb", new DatabaseMetrics(false));
+		metrics.register("idxdb", new DatabaseMetrics(true));
+	}
+
+	/**
+	 * @param windows
+	 *            comma separated rollup windows in seconds
+	 * @return tiers sorted from the finest to the coarsest window
+	 */
+	private static RollupTier[] parseRollupTiers(String windows) {
+		List<Integer> sizes = new ArrayList<>();
+		for (String window : windows.split(",")) {
+			window = window.trim();
+			if (!window.isEmpty() && !sizes.contains(Integer.parseInt(window))) {
+				sizes.add(Integer.parseInt(window));
+			}
+		}
+		Collections.sort(sizes);
+		RollupTier[] tiers = new RollupTier[sizes.size()];
+		for (int i = 0; i < tiers.length; i++) {
+			if (sizes.get(i) <= 0) {
+				throw new IllegalArgumentException("Invalid rollup window " + sizes.get(i));
+			}
+			tiers[i] = new RollupTier(sizes.get(i));
+		}
+		return tiers;
 	}
 
 	private void wipeDirectory(String directory) {
@@ -114,27 +350,494 @@ public class RocksDBStorageEngine extends AbstractStorageEngine {
 		}
 	}
 
+	/**
+	 * Open the existing databases, RocksDB replays the write ahead logs that
+	 * haven't been flushed. The identifier dictionary and the tag index are
+	 * then reloaded and the current bucket of each series is loaded into the
+	 * bucket cache. Optionally every bucket is read back with block
+	 * checksums verified and decoded, see {@link #getRecoveryStats()}.
+	 */
 	@Override
 	public void connect() throws IOException {
+		long start = System.nanoTime();
+		recoveryStats = new RecoveryStats();
+		WalScanner.scan(tsdbWalDirectory, recoveryStats);
+		WalScanner.scan(indexdbWalDirectory, recoveryStats);
 		try {
-			tsdb = RocksDB.open(tsdbOptions, tsdbMemDirectory);
+			List<ColumnFamilyDescriptor> descriptors = new ArrayList<>();
+			descriptors.add(new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, tsdbColumnOptions));
+			for (RollupTier tier : rollupTiers) {
+				descriptors.add(new ColumnFamilyDescriptor(tier.getColumnFamily(), rollupColumnOptions));
+			}
+			if (headEnabled) {
+				descriptors.add(new ColumnFamilyDescriptor(HEAD_COLUMN_FAMILY, headColumnOptions));
+			}
+			// every existing column family must be opened, including tiers
+			// that are no longer configured
+			for (byte[] name : listColumnFamilies(tsdbMemDirectory)) {
+				boolean configured = false;
+				for (ColumnFamilyDescriptor descriptor : descriptors) {
+					configured |= Arrays.equals(name, descriptor.columnFamilyName());
+				}
+				if (configured) {
+					continue;
+				}
+				Integer partition = parsePartition(name);
+				if (partition != null) {
+					// options of a partition can only change when it's opened,
+					// partitions that turned cold since the last open pick up
+					// the cold options here
+					descriptors.add(new ColumnFamilyDescriptor(name, partitionOptions(partition)));
+				} else if (Arrays.equals(name, HEAD_COLUMN_FAMILY)) {
+					descriptors.add(new ColumnFamilyDescriptor(name, headColumnOptions));
+				} else {
+					descriptors.add(new ColumnFamilyDescriptor(name, rollupColumnOptions));
+				}
+			}
+			columnFamilyHandles = new ArrayList<>();
+			tsdb = RocksDB.open(tsdbOptions, tsdbMemDirectory, descriptors, columnFamilyHandles);
+			defaultHandle = columnFamilyHandles.get(0);
+			for (int i = 0; i < rollupTiers.length; i++) {
+				rollupTiers[i].setHandle(columnFamilyHandles.get(i + 1));
+			}
+			for (int i = rollupTiers.length + 1; i < descriptors.size(); i++) {
+				Integer partition = parsePartition(descriptors.get(i).columnFamilyName());
+				if (partition != null) {
+					partitions.put(partition, columnFamilyHandles.get(i));
+				} else if (Arrays.equals(descriptors.get(i).columnFamilyName(), HEAD_COLUMN_FAMILY)) {
+					headHandle = columnFamilyHandles.get(i);
+				}
+			}
 			indexdb = RocksDB.open(indexdbOptions, indexdbMemDirectory);
-			seriesLookup = CacheBuilder.newBuilder().maximumSize(1000)
-					.build(new CacheLoader<String, TreeMap<Long, byte[]>>() {
+			dictionary = new IdentifierDictionary(indexdb, writeOptions, identifierCacheSize);
+			dictionary.load();
+			seriesIndex = new SeriesIndex(indexdb, writeOptions, dictionary, seriesCacheSize);
+			seriesIndex.load();
+			seriesLookup = CacheBuilder.newBuilder().maximumSize(bucketCacheSize).recordStats()
+					.build(new CacheLoader<String, TimeSeriesBucket>() {
+
+						@Override
+						public TimeSeriesBucket load(String key) throws Exception {
+							return getBucketFromDS(key);
+						}
+
+					});
+			rollupLookup = CacheBuilder.newBuilder().maximumSize(rollupCacheSize).recordStats()
+					.build(new CacheLoader<String, RollupSummary>() {
 
 						@Override
-						public TreeMap<Long, byte[]> load(String key) throws Exception {
-							return getTreeFromDS(key);
+						public RollupSummary load(String key) throws Exception {
+							RollupTier tier = rollupTiers[key.charAt(0)];
+							byte[] val = tsdb.get(tier.getHandle(), key.substring(1).getBytes(KEY_CHARSET));
+							RollupSummary summary = new RollupSummary();
+							return val != null ? summary.reset(val) : summary;
 						}
 
 					});
+			recoveryStats.setIdentifiers(dictionary.size());
+			recoveryStats.setSeries(seriesIndex.size());
+			recoveryStats.setPartitions(partitions.size());
+			if (warmCache) {
+				recoveryStats.setWarmedBuckets(warmBuckets());
+			}
+			if (verifyOnStart) {
+				verifyBuckets(recoveryStats);
+			}
+			if (headEnabled) {
+				openHead(recoveryStats);
+			}
+			recoveryStats.setStartupMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			logger.info("Recovered " + recoveryStats);
+			foldedBefore = 0;
+			lateRows.clear();
+			openLock.writeLock().lock();
+			partitionLock.lock();
+			try {
+				open = true;
+			} finally {
+				partitionLock.unlock();
+				openLock.writeLock().unlock();
+			}
+			if (groupCommit) {
+				groupCommitter = new GroupCommitter(this::commitBatch, groupCommitWindowMs, groupCommitMaxPoints);
+			}
+			if (retentionPolicy.isEnabled()) {
+				retentionExecutor = Executors.newSingleThreadScheduledExecutor((r) -> {
+					Thread thread = new Thread(r, "sidewinder-retention");
+					thread.setDaemon(true);
+					return thread;
+				});
+				retentionExecutor.scheduleWithFixedDelay(() -> {
+					try {
+						enforceRetention(System.currentTimeMillis());
+					} catch (IOException e) {
+						logger.log(Level.SEVERE, "Failed to enforce retention", e);
+					}
+				}, retentionIntervalSeconds, retentionIntervalSeconds, TimeUnit.SECONDS);
+			}
+			if (writeMode == WriteMode.MERGE && foldIntervalSeconds > 0) {
+				foldExecutor = Executors.newSingleThreadScheduledExecutor((r) -> {
+					Thread thread = new Thread(r, "sidewinder-fold");
+					thread.setDaemon(true);
+					return thread;
+				});
+				foldExecutor.scheduleWithFixedDelay(() -> {
+					try {
+						foldBuckets(System.currentTimeMillis());
+					} catch (IOException e) {
+						logger.log(Level.SEVERE, "Failed to fold merged buckets", e);
+					}
+				}, foldIntervalSeconds, foldIntervalSeconds, TimeUnit.SECONDS);
+			}
+			if (headEnabled) {
+				headExecutor = Executors.newSingleThreadScheduledExecutor((r) -> {
+					Thread thread = new Thread(r, "sidewinder-head-flush");
+					thread.setDaemon(true);
+					return thread;
+				});
+				headExecutor.scheduleWithFixedDelay(this::runHeadFlush, headFlushIntervalMs, headFlushIntervalMs,
+						TimeUnit.MILLISECONDS);
+			}
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Replay the head write ahead log, points already flushed to the tsdb
+	 * are skipped using the flush markers
+	 * 
+	 * @param stats
+	 * @throws IOException
+	 */
+	private void openHead(RecoveryStats stats) throws IOException {
+		Map<String, Long> flushed = new HashMap<>();
+		try (RocksIterator itr = tsdb.newIterator(headHandle)) {
+			for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+				flushed.put(new String(itr.key(), KEY_CHARSET), ByteBuffer.wrap(itr.value()).getLong());
+			}
+		}
+		headWal = new HeadWal(headWalDirectory, headWalSegmentBytes, headWalSync);
+		head = new HeadBlock(headWal);
+		long[] skipped = new long[1];
+		long replayed = headWal.replay((seq, rowKey, timestamp, value, fp) -> {
+			Long marker = flushed.get(new String(rowKey, KEY_CHARSET));
+			if (marker != null && seq <= marker) {
+				skipped[0]++;
+			} else {
+				head.replay(rowKey, seq, timestamp, value, fp);
+			}
+		});
+		headWal.open();
+		headMarkersBefore = 0;
+		stats.setHeadPoints(replayed - skipped[0], skipped[0]);
+	}
+
+	private static List<byte[]> listColumnFamilies(String directory) throws RocksDBException {
+		if (!new File(directory, "CURRENT").exists()) {
+			return Collections.emptyList();
+		}
+		try (Options options = new Options()) {
+			return RocksDB.listColumnFamilies(options, directory);
+		}
+	}
+
+	private static Integer parsePartition(byte[] name) {
+		String columnFamily = new String(name, KEY_CHARSET);
+		if (!columnFamily.startsWith(PARTITION_PREFIX)) {
+			return null;
+		}
+		try {
+			return Integer.parseInt(columnFamily.substring(PARTITION_PREFIX.length()));
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param partition
+	 *            start of the partition in seconds
+	 * @return cold options once the whole partition is older than
+	 *         <code>tsdb.partition.cold.after.hours</code>
+	 */
+	private ColumnFamilyOptions partitionOptions(int partition) {
+		long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+		if (coldAfterSeconds > 0 && partitionEnd(partition) <= now - coldAfterSeconds) {
+			return coldColumnOptions;
+		}
+		return tsdbColumnOptions;
+	}
+
+	/**
+	 * A bucket belongs to the partition its start falls in, so points of the
+	 * last bucket of a partition can extend past the partition start plus
+	 * the partition size.
+	 * 
+	 * @param partition
+	 * @return end of the newest point the partition may hold, in seconds
+	 */
+	private long partitionEnd(int partition) {
+		return (long) partition + partitionSeconds + BUCKET_SIZE;
+	}
+
+	/**
+	 * @param rowKey
+	 * @return column family the row is stored in, the partition is created
+	 *         if this is its first row
+	 * @throws RocksDBException
+	 *             if the partition has to be created and the engine is
+	 *             disconnected
+	 */
+	private ColumnFamilyHandle partitionFor(byte[] rowKey) throws RocksDBException {
+		if (partitionSeconds == 0) {
+			return defaultHandle;
+		}
+		int partition = partitionOf(rowKey);
+		ColumnFamilyHandle handle = partitions.get(partition);
+		if (handle == null) {
+			partitionLock.lock();
+			try {
+				handle = partitions.get(partition);
+				if (handle == null) {
+					if (!open) {
+						throw new RocksDBException("Storage engine is closed");
+					}
+					handle = tsdb.createColumnFamily(new ColumnFamilyDescriptor(
+							(PARTITION_PREFIX + partition).getBytes(KEY_CHARSET), partitionOptions(partition)));
+					partitions.put(partition, handle);
+				}
+			} finally {
+				partitionLock.unlock();
+			}
+		}
+		return handle;
+	}
+
+	/**
+	 * @param rowKey
+	 * @return start, in seconds, of the partition the row belongs to
+	 */
+	private int partitionOf(byte[] rowKey) {
+		int bucket = RocksDBSeriesIterator.readBucket(rowKey, rowKey.length - 4);
+		return TimeUtils.getWindowFlooredNaturalTime(bucket, partitionSeconds);
+	}
+
+	/**
+	 * @param startBucket
+	 * @param endBucket
+	 *            unsigned
+	 * @return column families of the partitions that may hold buckets of the
+	 *         range, oldest first
+	 */
+	private List<ColumnFamilyHandle> partitionsFor(int startBucket, int endBucket) {
+		if (partitionSeconds == 0) {
+			return Collections.singletonList(defaultHandle);
+		}
+		Integer first = partitions.floorKey(startBucket);
+		int from = first != null ? first : startBucket;
+		if (endBucket < 0) {
+			return new ArrayList<>(partitions.tailMap(from, true).values());
+		} else if (from > endBucket) {
+			return Collections.emptyList();
+		}
+		return new ArrayList<>(partitions.subMap(from, true, endBucket, true).values());
+	}
+
+	/**
+	 * @return start, in seconds, of every time partition
+	 */
+	public NavigableSet<Integer> getPartitions() {
+		return partitions.keySet();
+	}
+
+	/**
+	 * Drop every row of a time partition by dropping its column family. The
+	 * handle stays open until disconnect since queries may still be reading
+	 * the partition. Points written into the partition after the drop create
+	 * it again, retention drops it again once it has expired.
+	 * 
+	 * @param partition
+	 *            start of the partition in seconds
+	 * @return true if the partition existed
+	 * @throws IOException
+	 */
+	public boolean dropPartition(int partition) throws IOException {
+		partitionLock.lock();
+		try {
+			if (!open) {
+				throw new IOException("Storage engine is closed");
+			}
+			ColumnFamilyHandle handle = partitions.remove(partition);
+			if (handle == null) {
+				return false;
+			}
+			droppedPartitions.add(handle);
+			tsdb.dropColumnFamily(handle);
 		} catch (RocksDBException e) {
 			throw new IOException(e);
+		} finally {
+			partitionLock.unlock();
+		}
+		// cached buckets of the partition can't be told apart cheaply
+		seriesLookup.invalidateAll();
+		return true;
+	}
+
+	/**
+	 * Load the current bucket of each series into the bucket cache so the
+	 * first write of a series after a restart doesn't read its bucket
+	 * 
+	 * @return number of buckets loaded
+	 * @throws IOException
+	 */
+	private int warmBuckets() throws IOException {
+		if (writeMode != WriteMode.PUT) {
+			return 0;
+		}
+		int bucket = TimeUtils.getTimeBucket(TimeUnit.MILLISECONDS, System.currentTimeMillis(), BUCKET_SIZE);
+		ColumnFamilyHandle handle = partitionSeconds == 0 ? defaultHandle
+				: partitions.get(TimeUtils.getWindowFlooredNaturalTime(bucket, partitionSeconds));
+		if (handle == null) {
+			return 0;
+		}
+		int[] warmed = new int[1];
+		seriesIndex.forEachSeries((id, prefix) -> {
+			if (warmed[0] >= bucketCacheSize) {
+				return;
+			}
+			byte[] rowKey = RocksDBSeriesIterator.seekKey(prefix, bucket);
+			try {
+				byte[] value = tsdb.get(handle, rowKey);
+				if (value != null) {
+					seriesLookup.put(new String(rowKey, KEY_CHARSET), TimeSeriesBucket.fromBytes(value));
+					warmed[0]++;
+				}
+			} catch (RocksDBException e) {
+				throw new IOException(e);
+			}
+		});
+		return warmed[0];
+	}
+
+	/**
+	 * Read back every raw bucket with block checksums verified and decode
+	 * its points. Buckets that don't decode, or hold points outside of the
+	 * bucket, are counted and logged, a checksum mismatch fails the
+	 * verification.
+	 * 
+	 * @param stats
+	 * @throws IOException
+	 */
+	private void verifyBuckets(RecoveryStats stats) throws IOException {
+		BucketReader reader = new BucketReader();
+		try (ReadOptions options = new ReadOptions().setVerifyChecksums(true).setFillCache(false)) {
+			for (ColumnFamilyHandle handle : partitionsFor(0, -1)) {
+				long verified = 0;
+				long corrupt = 0;
+				try (RocksIterator itr = tsdb.newIterator(handle, options)) {
+					for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+						byte[] key = itr.key();
+						verified++;
+						if (!verifyBucket(key, itr.value(), reader)) {
+							logger.warning("Corrupt bucket " + Arrays.toString(key));
+							corrupt++;
+						}
+					}
+					itr.status();
+				}
+				stats.addVerified(verified, corrupt);
+			}
+		} catch (RocksDBException e) {
+			throw new IOException("Bucket verification failed", e);
 		}
 	}
 
+	private static boolean verifyBucket(byte[] key, byte[] value, BucketReader reader) {
+		if (key.length < IdentifierDictionary.ID_SIZE + 4) {
+			return false;
+		}
+		long start = (RocksDBSeriesIterator.readBucket(key, key.length - 4) & 0xffffffffL) * 1000;
+		long end = start + BUCKET_SIZE * 1000L;
+		try {
+			TimeSeriesBucket.openReader(value, reader);
+			while (reader.next()) {
+				if (reader.getTimestamp() < start || reader.getTimestamp() >= end) {
+					return false;
+				}
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return what was recovered by the last {@link #connect()}
+	 */
+	public RecoveryStats getRecoveryStats() {
+		return recoveryStats;
+	}
+
+	/**
+	 * @return the write mode
+	 */
+	public WriteMode getWriteMode() {
+		return writeMode;
+	}
+
 	@Override
 	public void disconnect() throws IOException {
+		awaitShutdown(retentionExecutor);
+		retentionExecutor = null;
+		awaitShutdown(foldExecutor);
+		foldExecutor = null;
+		closeHead();
+		if (groupCommitter != null) {
+			groupCommitter.close();
+			groupCommitter = null;
+		}
+		// waits for running writes, later ones fail
+		openLock.writeLock().lock();
+		try {
+			closeDatabases();
+		} finally {
+			openLock.writeLock().unlock();
+		}
+	}
+
+	private static void awaitShutdown(ExecutorService executor) throws IOException {
+		if (executor == null) {
+			return;
+		}
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		}
+	}
+
+	private void closeDatabases() {
+		partitionLock.lock();
+		try {
+			open = false;
+			List<ColumnFamilyHandle> handles = new ArrayList<>(droppedPartitions);
+			handles.addAll(partitions.values());
+			if (columnFamilyHandles != null) {
+				// partitions created after connect aren't in the opened handles
+				handles.removeAll(columnFamilyHandles);
+				handles.addAll(columnFamilyHandles);
+				columnFamilyHandles = null;
+			}
+			for (ColumnFamilyHandle handle : handles) {
+				handle.close();
+			}
+			partitions.clear();
+			droppedPartitions.clear();
+		} finally {
+			partitionLock.unlock();
+		}
 		if (tsdb != null) {
 			tsdb.close();
 		}
@@ -150,54 +853,1008 @@ public class RocksDBStorageEngine extends AbstractStorageEngine {
 		if (tsdbOptions != null) {
 			tsdbOptions.close();
 		}
+		if (tsdbColumnOptions != null) {
+			tsdbColumnOptions.close();
+		}
+		if (rollupColumnOptions != null) {
+			rollupColumnOptions.close();
+		}
+		if (coldColumnOptions != null) {
+			coldColumnOptions.close();
+		}
+		if (headColumnOptions != null) {
+			headColumnOptions.close();
+		}
+		if (readOptions != null) {
+			readOptions.close();
+		}
+	}
+
+	/**
+	 * Stop flushing the head block, then flush every point it holds unless
+	 * <code>tsdb.head.flush.on.disconnect</code> is false, in which case the
+	 * points are replayed from its log on the next connect
+	 * 
+	 * @throws IOException
+	 */
+	private void closeHead() throws IOException {
+		if (headExecutor != null) {
+			headExecutor.shutdown();
+			try {
+				headExecutor.awaitTermination(1, TimeUnit.MINUTES);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException(e);
+			}
+			headExecutor = null;
+		}
+		if (head == null) {
+			return;
+		}
+		if (headFlushOnDisconnect) {
+			flushHead(System.currentTimeMillis(), true);
+		}
+		if (head.getPoints() == 0) {
+			// start over with an empty log, no marker is needed anymore
+			headWal.roll();
+			expireHeadMarkers(headWal.deleteBefore(Long.MAX_VALUE));
+		}
+		headWal.close();
+		head = null;
+		headWal = null;
+	}
+
+	private void runHeadFlush() {
+		try {
+			flushHead(System.currentTimeMillis(), false);
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.SEVERE, "Failed to flush the head block", e);
+		}
+	}
+
+	/**
+	 * Flush the head block in the background once it holds more than
+	 * <code>tsdb.head.max.points</code>
+	 */
+	private void requestHeadFlush() {
+		if (head.getPoints() > headMaxPoints && headFlushRequested.compareAndSet(false, true)) {
+			headExecutor.execute(() -> {
+				headFlushRequested.set(false);
+				runHeadFlush();
+			});
+		}
+	}
+
+	/**
+	 * Move points from the head block to the tsdb. Buckets that ended more
+	 * than <code>tsdb.head.flush.grace.seconds</code> ago are flushed, the
+	 * oldest buckets are flushed too while the head holds more than
+	 * <code>tsdb.head.max.points</code>. Each batch of chunks is committed
+	 * in a single {@link WriteBatch} together with their flush markers, log
+	 * segments no longer holding unflushed points are then deleted.<br>
+	 * <br>
+	 * Runs every <code>tsdb.head.flush.interval.ms</code>.
+	 * 
+	 * @param now
+	 *            in milliseconds
+	 * @param all
+	 *            true to flush every point
+	 * @return number of points flushed
+	 * @throws IOException
+	 */
+	public synchronized long flushHead(long now, boolean all) throws IOException {
+		if (head == null) {
+			return 0;
+		}
+		acquireOpen();
+		try {
+			return flushHeadChunks(now, all);
+		} finally {
+			openLock.readLock().unlock();
+		}
+	}
+
+	private long flushHeadChunks(long now, boolean all) throws IOException {
+		// later appends can only land in the current segment or later ones
+		long nextSeq = headWal.getNextSeq();
+		List<HeadBlock.Chunk> chunks = head.select(
+				all ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toSeconds(now) - headFlushGraceSeconds,
+				all ? 0 : headMaxPoints);
+		long flushed = 0;
+		int next = 0;
+		while (next < chunks.size()) {
+			List<HeadBlock.Chunk> group = new ArrayList<>();
+			List<byte[]> rowKeys = new ArrayList<>();
+			List<DataPoint> points = new ArrayList<>();
+			Map<String, Long> markers = new HashMap<>();
+			while (next < chunks.size() && (group.isEmpty() || points.size() < headFlushBatchPoints)) {
+				HeadBlock.Chunk chunk = chunks.get(next++);
+				HeadBlock.Points chunkPoints = chunk.close();
+				for (int i = 0; i < chunkPoints.getCount(); i++) {
+					DataPoint dp = new DataPoint(null, null, chunkPoints.getTimestamp(i), chunkPoints.getValue(i));
+					dp.setFp(chunkPoints.isFp(i));
+					rowKeys.add(chunk.getRowKey());
+					points.add(dp);
+				}
+				if (chunk.getLastSeq() >= 0) {
+					markers.merge(new String(chunk.getRowKey(), KEY_CHARSET), chunk.getLastSeq(), Math::max);
+				}
+				group.add(chunk);
+			}
+			headLock.writeLock().lock();
+			try (WriteBatch batch = new WriteBatch()) {
+				for (Entry<String, Long> marker : markers.entrySet()) {
+					batch.put(headHandle, marker.getKey().getBytes(KEY_CHARSET),
+							ByteBuffer.allocate(8).putLong(marker.getValue()).array());
+				}
+				commitRows(rowKeys, points, batch);
+				for (HeadBlock.Chunk chunk : group) {
+					head.remove(chunk);
+				}
+			} finally {
+				headLock.writeLock().unlock();
+			}
+			flushed += points.size();
+		}
+		long oldest = headWal.deleteBefore(Math.min(head.getFirstSeq(), nextSeq));
+		if (oldest > headMarkersBefore) {
+			expireHeadMarkers(oldest);
+		}
+		return flushed;
+	}
+
+	/**
+	 * Delete the flush markers that no log segment left needs
+	 * 
+	 * @param before
+	 *            sequence number of the oldest record logged
+	 * @throws IOException
+	 */
+	private void expireHeadMarkers(long before) throws IOException {
+		try (RocksIterator itr = tsdb.newIterator(headHandle); WriteBatch batch = new WriteBatch()) {
+			for (itr.seekToFirst(); itr.isValid(); itr.next()) {
+				if (ByteBuffer.wrap(itr.value()).getLong() < before) {
+					batch.remove(headHandle, itr.key());
+				}
+			}
+			tsdb.write(writeOptions, batch);
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+		headMarkersBefore = before;
+	}
+
+	/**
+	 * @return the head block, null unless <code>tsdb.head.enabled</code>
+	 */
+	public HeadBlock getHead() {
+		return head;
 	}
 
 	@Override
 	public byte[] indexIdentifier(String identifier) throws IOException {
+		acquireOpen();
 		try {
-			byte[] key = identifier.getBytes(CHARSET);
-			byte[] val = indexdb.get(key);
-			if (val == null) {
-				val = ByteUtils.intToByteMSBTruncated(MurmurHash.hash32(identifier));
-				indexdb.put(key, val);
+			return dictionary.getOrAllocate(identifier);
+		} finally {
+			openLock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public byte[] lookupIdentifier(String identifier) throws IOException {
+		return dictionary.get(identifier);
+	}
+
+	@Override
+	public SeriesIterator queryRows(byte[] prefix, int startBucket, int endBucket, long startTime, long endTime)
+			throws IOException {
+		if (prefix.length < prefixLength) {
+			// can't have been written
+			return EMPTY_ITERATOR;
+		}
+		if (head == null) {
+			return queryRows(readOptions, prefix, startBucket, endBucket, startTime, endTime);
+		}
+		List<HeadBlock.Points> points;
+		Snapshot snapshot;
+		headLock.readLock().lock();
+		try {
+			points = head.snapshot(prefix, startBucket, endBucket);
+			if (points.isEmpty()) {
+				return queryRows(readOptions, prefix, startBucket, endBucket, startTime, endTime);
 			}
-			return val;
+			// points flushed after this can't be seen twice
+			snapshot = tsdb.getSnapshot();
+		} finally {
+			headLock.readLock().unlock();
+		}
+		ReadOptions options = new ReadOptions().setSnapshot(snapshot);
+		return new HeadSeriesIterator(queryRows(options, prefix, startBucket, endBucket, startTime, endTime), points,
+				startTime, endTime, () -> release(options, snapshot));
+	}
+
+	private SeriesIterator queryRows(ReadOptions options, byte[] prefix, int startBucket, int endBucket,
+			long startTime, long endTime) {
+		List<ColumnFamilyHandle> handles = partitionsFor(startBucket, endBucket);
+		if (handles.size() == 1) {
+			return new RocksDBSeriesIterator(tsdb.newIterator(handles.get(0), options), prefix, startBucket,
+					endBucket, startTime, endTime);
+		}
+		return new PartitionedSeriesIterator(tsdb, options, handles, prefix, startBucket, endBucket, startTime,
+				endTime);
+	}
+
+	private void release(ReadOptions options, Snapshot snapshot) {
+		tsdb.releaseSnapshot(snapshot);
+		options.close();
+	}
+
+	@Override
+	public List<List<String>> findSeries(String seriesName, TagFilter filter) throws IOException {
+		List<List<String>> series = new ArrayList<>();
+		for (byte[] prefix : selectSeries(seriesName, filter)) {
+			List<String> tags = new ArrayList<>();
+			for (int i = IdentifierDictionary.ID_SIZE; i < prefix.length; i += IdentifierDictionary.ID_SIZE) {
+				tags.add(dictionary.getIdentifier(IdentifierDictionary.toId(prefix, i)));
+			}
+			series.add(tags);
+		}
+		return series;
+	}
+
+	/**
+	 * Select series using the tag index, only the postings of the series
+	 * name and the tags in the filter are read.
+	 * 
+	 * @param seriesName
+	 * @param filter
+	 *            null to match every series with the name
+	 * @return row key prefixes of the matching series, usable with
+	 *         {@link #queryRows(byte[], int, int, long, long)}
+	 * @throws IOException
+	 */
+	public List<byte[]> selectSeries(String seriesName, TagFilter filter) throws IOException {
+		RoaringBitmap ids = seriesIndex.getSeriesPostings(seriesName);
+		if (filter != null && !ids.isEmpty()) {
+			ids = RoaringBitmap.and(ids, filter.evaluate(seriesIndex));
+		}
+		List<byte[]> prefixes = new ArrayList<>(ids.getCardinality());
+		for (IntIterator itr = ids.getIntIterator(); itr.hasNext();) {
+			byte[] prefix = seriesIndex.getSeriesPrefix(itr.next());
+			if (prefix != null) {
+				prefixes.add(prefix);
+			}
+		}
+		return prefixes;
+	}
+
+	@Override
+	public int getRollupWindow(int windowSeconds) {
+		for (int i = rollupTiers.length - 1; i >= 0; i--) {
+			if (windowSeconds % rollupTiers[i].getWindowSeconds() == 0) {
+				return rollupTiers[i].getWindowSeconds();
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public SummaryIterator querySummaries(String seriesName, List<String> tags, int rollupWindow, TimeUnit unit,
+			long startTime, long endTime) throws IOException {
+		for (RollupTier tier : rollupTiers) {
+			if (tier.getWindowSeconds() != rollupWindow) {
+				continue;
+			}
+			byte[] prefix = buildRowPrefix(seriesName, tags);
+			if (prefix == null || prefix.length < prefixLength) {
+				return EMPTY_SUMMARY_ITERATOR;
+			}
+			// windows that start within the range
+			long windowMs = rollupWindow * 1000L;
+			int startWindow = (int) ((unit.toMillis(startTime) + windowMs - 1) / windowMs * rollupWindow);
+			int endWindow = (int) (unit.toMillis(endTime) / windowMs * rollupWindow);
+			if (head == null) {
+				return new RocksDBSummaryIterator(tsdb.newIterator(tier.getHandle()), prefix, startWindow, endWindow);
+			}
+			List<HeadBlock.Points> points;
+			Snapshot snapshot;
+			headLock.readLock().lock();
+			try {
+				points = head.snapshot(prefix, 0, -1);
+				if (points.isEmpty()) {
+					return new RocksDBSummaryIterator(tsdb.newIterator(tier.getHandle()), prefix, startWindow,
+							endWindow);
+				}
+				snapshot = tsdb.getSnapshot();
+			} finally {
+				headLock.readLock().unlock();
+			}
+			ReadOptions options = new ReadOptions().setSnapshot(snapshot);
+			return new HeadSummaryIterator(
+					new RocksDBSummaryIterator(tsdb.newIterator(tier.getHandle(), options), prefix, startWindow,
+							endWindow),
+					points, tier, startWindow, endWindow, () -> release(options, snapshot));
+		}
+		return super.querySummaries(seriesName, tags, rollupWindow, unit, startTime, endTime);
+	}
+
+	/**
+	 * Delete the buckets and rollup windows that have fully expired. Time
+	 * partitions that have expired for every series name are dropped
+	 * whole, the remaining expired rows are deleted per series. Series are
+	 * enumerated from the tag index and each series is seeked directly
+	 * to its oldest row, the scan of a series stops at the first row that
+	 * hasn't expired so only expired rows are read.<br>
+	 * <br>
+	 * Runs periodically, every <code>tsdb.retention.interval.seconds</code>,
+	 * when a retention is configured.
+	 * 
+	 * @param now
+	 *            in milliseconds
+	 * @return number of rows deleted
+	 * @throws IOException
+	 */
+	public long enforceRetention(long now) throws IOException {
+		dropExpiredPartitions(now);
+		Map<Integer, Long> retentions = new HashMap<>();
+		long[] deleted = new long[1];
+		long rollupCutoff = retentionPolicy.getRollupRetention() > 0
+				? (now - retentionPolicy.getRollupRetention()) / 1000 : -1;
+		seriesIndex.forEachSeries((id, prefix) -> {
+			int seriesId = IdentifierDictionary.toId(prefix, 0);
+			Long retention = retentions.get(seriesId);
+			if (retention == null) {
+				retention = retentionPolicy.getRetention(dictionary.getIdentifier(seriesId));
+				retentions.put(seriesId, retention);
+			}
+			if (retention > 0) {
+				long cutoff = (now - retention) / 1000;
+				for (ColumnFamilyHandle handle : partitionsFor(0, (int) cutoff)) {
+					deleted[0] += expire(handle, -1, prefix, cutoff, BUCKET_SIZE);
+				}
+			}
+			if (rollupCutoff >= 0) {
+				for (int t = 0; t < rollupTiers.length; t++) {
+					deleted[0] += expire(rollupTiers[t].getHandle(), t, prefix, rollupCutoff,
+							rollupTiers[t].getWindowSeconds());
+				}
+			}
+		});
+		return deleted[0];
+	}
+
+	/**
+	 * @param now
+	 *            in milliseconds
+	 * @return number of partitions dropped
+	 * @throws IOException
+	 */
+	private int dropExpiredPartitions(long now) throws IOException {
+		long retention = retentionPolicy.getMaxRetention();
+		if (partitionSeconds == 0 || retention == 0) {
+			return 0;
+		}
+		long cutoff = (now - retention) / 1000;
+		int dropped = 0;
+		for (Integer partition : new ArrayList<>(partitions.keySet())) {
+			if (partitionEnd(partition) > cutoff) {
+				break;
+			}
+			if (dropPartition(partition)) {
+				logger.info("Dropped expired partition " + PARTITION_PREFIX + partition);
+				dropped++;
+			}
+		}
+		return dropped;
+	}
+
+	/**
+	 * @param handle
+	 *            column family to expire rows from
+	 * @param tier
+	 *            index of the rollup tier, -1 for raw buckets
+	 * @param prefix
+	 *            of the series
+	 * @param cutoff
+	 *            in seconds, rows ending before the cutoff are deleted
+	 * @param windowSeconds
+	 *            time covered by each row
+	 * @return number of rows deleted
+	 * @throws IOException
+	 */
+	private int expire(ColumnFamilyHandle handle, int tier, byte[] prefix, long cutoff, int windowSeconds)
+			throws IOException {
+		int deleted = 0;
+		try (RocksIterator itr = tsdb.newIterator(handle); WriteBatch batch = new WriteBatch()) {
+			for (itr.seek(RocksDBSeriesIterator.seekKey(prefix, 0)); itr.isValid(); itr.next()) {
+				byte[] key = itr.key();
+				if (!RocksDBSeriesIterator.startsWith(key, prefix)) {
+					break;
+				}
+				if (key.length < prefix.length + 4) {
+					continue;
+				}
+				long window = RocksDBSeriesIterator.readBucket(key, prefix.length) & 0xffffffffL;
+				if (window + windowSeconds > cutoff) {
+					break;
+				}
+				if (key.length == prefix.length + 4) {
+					batch.remove(handle, key);
+					String encodedKey = new String(key, KEY_CHARSET);
+					if (tier < 0) {
+						seriesLookup.invalidate(encodedKey);
+					} else {
+						rollupLookup.invalidate((char) tier + encodedKey);
+					}
+					deleted++;
+				}
+			}
+			if (deleted > 0) {
+				tsdb.write(writeOptions, batch);
+			}
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+		return deleted;
+	}
+
+	/**
+	 * Write back the buckets that merge operands were appended to as
+	 * encoded buckets, so closed buckets are stored compressed and reads
+	 * don't fold their operands again. Buckets that ended more than
+	 * <code>tsdb.merge.fold.grace.seconds</code> ago are folded once, merges
+	 * into them from then on hold the row lock and their rows are folded
+	 * again by the next run.<br>
+	 * <br>
+	 * Runs every <code>tsdb.merge.fold.interval.seconds</code> in
+	 * {@link WriteMode#MERGE}.
+	 * 
+	 * @param now
+	 *            in milliseconds
+	 * @return number of buckets folded
+	 * @throws IOException
+	 */
+	public long foldBuckets(long now) throws IOException {
+		if (writeMode != WriteMode.MERGE) {
+			return 0;
+		}
+		long from = foldedBefore;
+		long before = TimeUnit.MILLISECONDS.toSeconds(now) - foldGraceSeconds;
+		if (before > from) {
+			foldedBefore = before;
+			// merges that didn't see the new horizon hold the open lock
+			openLock.writeLock().lock();
+			openLock.writeLock().unlock();
+		}
+		long[] folded = new long[1];
+		acquireOpen();
+		try {
+			for (String key : lateRows) {
+				lateRows.remove(key);
+				try {
+					if (foldBucket(key.getBytes(KEY_CHARSET))) {
+						folded[0]++;
+					}
+				} catch (IOException e) {
+					lateRows.add(key);
+					throw e;
+				}
+			}
+			if (before > from) {
+				int start = (int) Math.max(0, from - BUCKET_SIZE + 1);
+				List<ColumnFamilyHandle> handles = partitionsFor(start, (int) before);
+				seriesIndex.forEachSeries((id, prefix) -> {
+					for (ColumnFamilyHandle handle : handles) {
+						folded[0] += fold(handle, prefix, start, before);
+					}
+				});
+			}
+		} finally {
+			openLock.readLock().unlock();
+		}
+		return folded[0];
+	}
+
+	/**
+	 * @param handle
+	 * @param prefix
+	 *            of the series
+	 * @param start
+	 *            first bucket to fold
+	 * @param before
+	 *            in seconds, buckets ending after it aren't folded
+	 * @return number of buckets folded
+	 * @throws IOException
+	 */
+	private int fold(ColumnFamilyHandle handle, byte[] prefix, int start, long before) throws IOException {
+		int folded = 0;
+		try (RocksIterator itr = tsdb.newIterator(handle)) {
+			for (itr.seek(RocksDBSeriesIterator.seekKey(prefix, start)); itr.isValid(); itr.next()) {
+				byte[] key = itr.key();
+				if (!RocksDBSeriesIterator.startsWith(key, prefix)) {
+					break;
+				}
+				if (key.length != prefix.length + 4) {
+					continue;
+				}
+				if ((RocksDBSeriesIterator.readBucket(key, prefix.length) & 0xffffffffL) + BUCKET_SIZE > before) {
+					break;
+				}
+				if (TimeSeriesBucket.hasMergeOperands(itr.value()) && foldBucket(key)) {
+					folded++;
+				}
+			}
+		}
+		return folded;
+	}
+
+	/**
+	 * Replace the operands of a bucket with its encoded form, under the row
+	 * lock so no merge lands between the read and the write
+	 * 
+	 * @param rowKey
+	 * @return true if the bucket was rewritten
+	 * @throws IOException
+	 */
+	private boolean foldBucket(byte[] rowKey) throws IOException {
+		ColumnFamilyHandle handle = partitionSeconds == 0 ? defaultHandle : partitions.get(partitionOf(rowKey));
+		if (handle == null) {
+			return false;
+		}
+		ReentrantLock lock = rowLocks.lock(rowKey);
+		try {
+			byte[] value = tsdb.get(handle, rowKey);
+			if (value == null || !TimeSeriesBucket.hasMergeOperands(value)) {
+				return false;
+			}
+			TimeSeriesBucket bucket;
+			try {
+				bucket = TimeSeriesBucket.fromBytes(value);
+			} catch (IOException e) {
+				logger.warning("Not folding corrupt bucket " + Arrays.toString(rowKey) + ": " + e.getMessage());
+				return false;
+			}
+			tsdb.put(handle, writeOptions, rowKey, bucket.toBytes());
+			return true;
 		} catch (RocksDBException e) {
 			throw new IOException(e);
+		} finally {
+			lock.unlock();
 		}
 	}
 
-	public TreeMap<Long, byte[]> getTreeFromDS(String rowKey) throws RocksDBException {
-		return getTreeFromDS(rowKey.getBytes());
+	/**
+	 * @param rowKey
+	 * @return true if merges into the bucket of the row must hold the row
+	 *         lock since it may be folded
+	 */
+	private boolean isFolded(byte[] rowKey) {
+		return (RocksDBSeriesIterator.readBucket(rowKey, rowKey.length - 4) & 0xffffffffL)
+				+ BUCKET_SIZE <= foldedBefore;
+	}
+
+	/**
+	 * @return the retention policy
+	 */
+	public RetentionPolicy getRetentionPolicy() {
+		return retentionPolicy;
+	}
+
+	/**
+	 * @return the configured rollup tiers, from the finest to the coarsest
+	 */
+	public RollupTier[] getRollupTiers() {
+		return rollupTiers;
+	}
+
+	/**
+	 * @return the tag index
+	 */
+	public SeriesIndex getSeriesIndex() {
+		return seriesIndex;
+	}
+
+	/**
+	 * @return the identifier dictionary
+	 */
+	public IdentifierDictionary getDictionary() {
+		return dictionary;
 	}
 
-	@SuppressWarnings("unchecked")
-	public TreeMap<Long, byte[]> getTreeFromDS(byte[] rowKey) throws RocksDBException {
-		byte[] ds = tsdb.get(rowKey);
-		TreeMap<Long, byte[]> map;
+	/**
+	 * @return hit and miss counts of the identifier cache
+	 */
+	public CacheStats getIdentifierCacheStats() {
+		return dictionary.getCacheStats();
+	}
+
+	/**
+	 * Position a reader over a bucket in the tsdb, the bucket is read into
+	 * the buffer of the reader instead of a new array and decoded in place.
+	 * Points still in the head block aren't seen.
+	 * 
+	 * @param rowKey
+	 * @param reader
+	 * @return false if the bucket doesn't exist
+	 * @throws IOException
+	 */
+	public boolean readBucket(byte[] rowKey, BucketReader reader) throws IOException {
+		ColumnFamilyHandle handle = partitionSeconds == 0 ? defaultHandle : partitions.get(partitionOf(rowKey));
+		if (handle == null) {
+			// never written or dropped, reads don't create partitions
+			return false;
+		}
+		ByteBuffer buf = reader.buffer(0);
+		try {
+			int length;
+			// the bucket may grow between reads
+			while ((length = tsdb.get(handle, readOptions, rowKey, buf.array())) > buf.capacity()) {
+				buf = reader.buffer(length);
+			}
+			if (length == RocksDB.NOT_FOUND) {
+				return false;
+			}
+			TimeSeriesBucket.openReader(buf, length, reader);
+			return true;
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	public TimeSeriesBucket getBucketFromDS(String rowKey) throws RocksDBException, IOException {
+		return getBucketFromDS(rowKey.getBytes(KEY_CHARSET));
+	}
+
+	public TimeSeriesBucket getBucketFromDS(byte[] rowKey) throws RocksDBException, IOException {
+		byte[] ds = tsdb.get(partitionFor(rowKey), rowKey);
+		TimeSeriesBucket bucket;
 		if (ds != null) {
-			map = kryoThreadLocal.get().readObject(new Input(ds), TreeMap.class);
+			bucket = TimeSeriesBucket.fromBytes(ds);
 		} else {
-			map = new TreeMap<>();
+			bucket = new TimeSeriesBucket();
 		}
-		return map;
+		return bucket;
 	}
 
 	@Override
-	public void writeSeriesPoint(byte[] rowKey, long timestamp, byte[] value) throws IOException {
-		String encodedKey = new String(rowKey);
-		synchronized (encodedKey.intern()) {
+	public void writeSeriesPoint(byte[] rowKey, long timestamp, long value, boolean fp) throws IOException {
+		long start = metrics.startPoint();
+		acquireOpen();
+		try {
+			writePoint(rowKey, timestamp, value, fp);
+		} finally {
+			openLock.readLock().unlock();
+			metrics.pointWritten(start);
+		}
+	}
+
+	/**
+	 * Take the open lock shared, it must be released by the caller
+	 * 
+	 * @throws IOException
+	 *             if the engine is disconnected
+	 */
+	private void acquireOpen() throws IOException {
+		openLock.readLock().lock();
+		if (!open) {
+			openLock.readLock().unlock();
+			throw new IOException("Storage engine is closed");
+		}
+	}
+
+	private void writePoint(byte[] rowKey, long timestamp, long value, boolean fp) throws IOException {
+		checkPrefix(rowKey);
+		seriesIndex.index(rowKey, rowKey.length - 4);
+		if (head != null) {
+			head.append(rowKey, timestamp, value, fp);
+			headWal.flush();
+			requestHeadFlush();
+			return;
+		}
+		if (rollupTiers.length > 0) {
+			// the raw bucket and the rollups are committed together
+			DataPoint dp = new DataPoint(null, null, timestamp, value);
+			dp.setFp(fp);
+			try (WriteBatch batch = new WriteBatch()) {
+				commitRows(Collections.singletonList(rowKey), Collections.singletonList(dp), batch);
+			}
+			return;
+		}
+		if (writeMode == WriteMode.MERGE) {
+			// blind write unless the bucket may be folded concurrently
+			ReentrantLock lock = isFolded(rowKey) ? rowLocks.lock(rowKey) : null;
 			try {
-				TreeMap<Long, byte[]> map = seriesLookup.get(encodedKey);
-				ByteArrayOutputStream stream = new ByteArrayOutputStream((map.size() + 1) * 20);
-				Output output = new Output(stream);
-				kryoThreadLocal.get().writeObject(output, map);
-				output.close();
-				tsdb.put(rowKey, stream.toByteArray());
-			} catch (RocksDBException | ExecutionException e) {
+				tsdb.merge(partitionFor(rowKey), writeOptions, rowKey,
+						TimeSeriesBucket.encodeMergeOperand(timestamp, value));
+				if (lock != null) {
+					lateRows.add(new String(rowKey, KEY_CHARSET));
+				}
+			} catch (RocksDBException e) {
 				throw new IOException(e);
+			} finally {
+				if (lock != null) {
+					lock.unlock();
+				}
+			}
+			return;
+		}
+		ReentrantLock lock = rowLocks.lock(rowKey);
+		try {
+			TimeSeriesBucket bucket = seriesLookup.get(new String(rowKey, KEY_CHARSET));
+			bucket.addDataPoint(timestamp, value);
+			tsdb.put(partitionFor(rowKey), writeOptions, rowKey, bucket.toBytes());
+		} catch (RocksDBException | ExecutionException e) {
+			throw new IOException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @param rowKey
+	 * @throws IllegalArgumentException
+	 *             if the series has fewer tags than the prefix extractor
+	 *             covers
+	 */
+	private void checkPrefix(byte[] rowKey) {
+		if (rowKey.length - 4 < prefixLength) {
+			throw new IllegalArgumentException("Series must have at least "
+					+ (prefixLength / IdentifierDictionary.ID_SIZE - 1) + " tags, see tsdb.prefix.extractor.tags");
+		}
+	}
+
+	@Override
+	public void writeBatch(Collection<DataPoint> points) throws IOException {
+		long start = System.nanoTime();
+		try {
+			write(points);
+		} finally {
+			metrics.batchWritten(points.size(), System.nanoTime() - start);
+		}
+	}
+
+	private void write(Collection<DataPoint> points) throws IOException {
+		if (head != null) {
+			acquireOpen();
+			try {
+				for (DataPoint dp : points) {
+					byte[] rowKey = buildRowKey(dp.getSeriesName(), dp.getTags(), TimeUnit.MILLISECONDS,
+							dp.getTimestamp());
+					checkPrefix(rowKey);
+					seriesIndex.index(rowKey, rowKey.length - 4);
+					head.append(rowKey, dp.getTimestamp(), dp.getValue(), dp.isFp());
+				}
+				headWal.flush();
+				requestHeadFlush();
+			} finally {
+				openLock.readLock().unlock();
 			}
+		} else if (groupCommitter != null) {
+			groupCommitter.write(points);
+		} else {
+			commitBatch(points);
 		}
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Group the points by row key, encode each bucket once and commit all
+	 * buckets in a single {@link WriteBatch}
+	 * 
+	 * @param points
+	 * @throws IOException
+	 */
+	protected void commitBatch(Collection<DataPoint> points) throws IOException {
+		List<byte[]> rowKeys = new ArrayList<>(points.size());
+		List<DataPoint> rowPoints = new ArrayList<>(points);
+		acquireOpen();
+		try (WriteBatch batch = new WriteBatch()) {
+			for (DataPoint dp : rowPoints) {
+				byte[] rowKey = buildRowKey(dp.getSeriesName(), dp.getTags(), TimeUnit.MILLISECONDS,
+						dp.getTimestamp());
+				checkPrefix(rowKey);
+				seriesIndex.index(rowKey, rowKey.length - 4);
+				rowKeys.add(rowKey);
+			}
+			commitRows(rowKeys, rowPoints, batch);
+		} finally {
+			openLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Commit points, and the rollup windows they update, in a single
+	 * {@link WriteBatch}. Every stripe touched by a read-modify-write is
+	 * locked in ascending order for the duration of the commit.
+	 * 
+	 * @param rowKeys
+	 *            raw row key of each point
+	 * @param points
+	 * @param batch
+	 *            committed with the points
+	 * @throws IOException
+	 */
+	private void commitRows(List<byte[]> rowKeys, List<DataPoint> points, WriteBatch batch) throws IOException {
+		Map<String, byte[]> keys = new HashMap<>();
+		Map<String, List<DataPoint>> rows = new HashMap<>();
+		Set<String> late = new HashSet<>();
+		List<Map<String, List<DataPoint>>> rollups = new ArrayList<>(rollupTiers.length);
+		for (int t = 0; t < rollupTiers.length; t++) {
+			rollups.add(new HashMap<>());
+		}
+		for (int i = 0; i < points.size(); i++) {
+			byte[] rowKey = rowKeys.get(i);
+			DataPoint dp = points.get(i);
+			if (writeMode == WriteMode.PUT) {
+				group(keys, rows, rowKey, dp);
+			} else if (isFolded(rowKey)) {
+				String encodedKey = new String(rowKey, KEY_CHARSET);
+				keys.put(encodedKey, rowKey);
+				late.add(encodedKey);
+			}
+			for (int t = 0; t < rollupTiers.length; t++) {
+				group(keys, rollups.get(t), rollupTiers[t].rollupKey(rowKey, dp.getTimestamp()), dp);
+			}
+		}
+		// lock every stripe touched by the batch in ascending order
+		int[] stripes = new int[keys.size()];
+		int length = 0;
+		for (byte[] key : keys.values()) {
+			stripes[length++] = rowLocks.stripe(key);
+		}
+		Arrays.sort(stripes);
+		length = distinct(stripes);
+		rowLocks.lockAll(stripes, length);
+		try {
+			if (writeMode == WriteMode.MERGE) {
+				for (int i = 0; i < points.size(); i++) {
+					DataPoint dp = points.get(i);
+					byte[] rowKey = rowKeys.get(i);
+					batch.merge(partitionFor(rowKey), rowKey,
+							TimeSeriesBucket.encodeMergeOperand(dp.getTimestamp(), dp.getValue()));
+				}
+			}
+			for (Entry<String, List<DataPoint>> entry : rows.entrySet()) {
+				TimeSeriesBucket bucket = seriesLookup.get(entry.getKey());
+				for (DataPoint dp : entry.getValue()) {
+					bucket.addDataPoint(dp.getTimestamp(), dp.getValue());
+				}
+				byte[] rowKey = keys.get(entry.getKey());
+				batch.put(partitionFor(rowKey), rowKey, bucket.toBytes());
+			}
+			for (int t = 0; t < rollupTiers.length; t++) {
+				for (Entry<String, List<DataPoint>> entry : rollups.get(t).entrySet()) {
+					RollupSummary summary = rollupLookup.get((char) t + entry.getKey());
+					for (DataPoint dp : entry.getValue()) {
+						summary.add(dp.isFp() ? Double.longBitsToDouble(dp.getValue()) : dp.getValue());
+					}
+					batch.put(rollupTiers[t].getHandle(), keys.get(entry.getKey()), summary.toBytes());
+				}
+			}
+			tsdb.write(writeOptions, batch);
+			lateRows.addAll(late);
+		} catch (RocksDBException | ExecutionException e) {
+			// cached buckets and summaries may hold points that were never
+			// committed
+			seriesLookup.invalidateAll(rows.keySet());
+			for (int t = 0; t < rollupTiers.length; t++) {
+				for (String key : rollups.get(t).keySet()) {
+					rollupLookup.invalidate((char) t + key);
+				}
+			}
+			throw new IOException(e);
+		} finally {
+			rowLocks.unlockAll(stripes, length);
+		}
+	}
+
+	private static void group(Map<String, byte[]> keys, Map<String, List<DataPoint>> rows, byte[] key,
+			DataPoint dp) {
+		String encodedKey = new String(key, KEY_CHARSET);
+		List<DataPoint> row = rows.get(encodedKey);
+		if (row == null) {
+			row = new ArrayList<>();
+			rows.put(encodedKey, row);
+			keys.put(encodedKey, key);
+		}
+		row.add(dp);
+	}
+
+	private static int distinct(int[] sorted) {
+		int length = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (length == 0 || sorted[length - 1] != sorted[i]) {
+				sorted[length++] = sorted[i];
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Reads the properties and statistics of the tsdb or the indexdb for the
+	 * gauges, databases are only read while they are open
+	 */
+	private class DatabaseMetrics implements StorageMetrics.Source {
+
+		private final boolean index;
+
+		private DatabaseMetrics(boolean index) {
+			this.index = index;
+		}
+
+		/**
+		 * @return column families of the tsdb, must be called with the
+		 *         partition lock held
+		 */
+		private Set<ColumnFamilyHandle> handles() {
+			Set<ColumnFamilyHandle> handles = new LinkedHashSet<>(columnFamilyHandles);
+			handles.addAll(partitions.values());
+			handles.removeAll(droppedPartitions);
+			return handles;
+		}
+
+		@Override
+		public long getLongProperty(String property) throws RocksDBException {
+			partitionLock.lock();
+			try {
+				if (!open) {
+					return -1;
+				}
+				if (index) {
+					return indexdb.getLongProperty(property);
+				}
+				long sum = 0;
+				for (ColumnFamilyHandle handle : handles()) {
+					sum += tsdb.getLongProperty(handle, property);
+				}
+				return sum;
+			} finally {
+				partitionLock.unlock();
+			}
+		}
+
+		@Override
+		public String getProperty(String property) throws RocksDBException {
+			partitionLock.lock();
+			try {
+				if (!open) {
+					return null;
+				}
+				if (index) {
+					return indexdb.getProperty(property);
+				}
+				StringBuilder builder = new StringBuilder();
+				for (ColumnFamilyHandle handle : handles()) {
+					builder.append(tsdb.getProperty(handle, property));
+				}
+				return builder.toString();
+			} finally {
+				partitionLock.unlock();
+			}
+		}
+
+		@Override
+		public long getTickerCount(TickerType ticker) {
+			partitionLock.lock();
+			try {
+				Statistics statistics = index ? indexdbStatistics : tsdbStatistics;
+				return open && statistics != null ? statistics.getTickerCount(ticker) : -1;
+			} finally {
+				partitionLock.unlock();
+			}
+		}
+
+		@Override
+		public HistogramData getHistogramData(HistogramType histogram) {
+			partitionLock.lock();
+			try {
+				Statistics statistics = index ? indexdbStatistics : tsdbStatistics;
+				return open && statistics != null ? statistics.getHistogramData(histogram) : null;
+			} finally {
+				partitionLock.unlock();
+			}
+		}
+
+	}
+
+}
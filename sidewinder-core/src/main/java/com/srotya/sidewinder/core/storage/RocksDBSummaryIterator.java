@@ -0,0 +1,95 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+
+import org.rocksdb.RocksIterator;
+
+/**
+ * Walks the windows of a single series in a rollup column family, keys are
+ * checked the same way as in {@link RocksDBSeriesIterator}.
+ * 
+ * @author ambudsharma
+ */
+public class RocksDBSummaryIterator implements SummaryIterator {
+
+	private final RocksIterator itr;
+	private final byte[] prefix;
+	private final int endWindow;
+	private final RollupSummary summary = new RollupSummary();
+	private boolean started;
+	private long timestamp;
+
+	/**
+	 * @param itr
+	 *            over the rollup column family, closed with this iterator
+	 * @param prefix
+	 * @param startWindow
+	 *            in seconds
+	 * @param endWindow
+	 *            in seconds
+	 */
+	public RocksDBSummaryIterator(RocksIterator itr, byte[] prefix, int startWindow, int endWindow) {
+		this.itr = itr;
+		this.prefix = prefix;
+		this.endWindow = endWindow;
+		itr.seek(RocksDBSeriesIterator.seekKey(prefix, startWindow));
+	}
+
+	@Override
+	public boolean next() throws IOException {
+		if (started) {
+			itr.next();
+		}
+		started = true;
+		for (; itr.isValid(); itr.next()) {
+			byte[] key = itr.key();
+			if (!RocksDBSeriesIterator.startsWith(key, prefix)) {
+				return false;
+			}
+			if (key.length < prefix.length + 4) {
+				continue;
+			}
+			int window = RocksDBSeriesIterator.readBucket(key, prefix.length);
+			if (Integer.compareUnsigned(window, endWindow) > 0) {
+				return false;
+			}
+			if (key.length == prefix.length + 4) {
+				summary.reset(itr.value());
+				timestamp = (window & 0xffffffffL) * 1000;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public RollupSummary getSummary() {
+		return summary;
+	}
+
+	@Override
+	public void close() {
+		itr.close();
+	}
+
+}
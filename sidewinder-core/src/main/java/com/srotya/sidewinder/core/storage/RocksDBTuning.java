@@ -0,0 +1,189 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.ColumnFamilyOptionsInterface;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.DBOptionsInterface;
+import org.rocksdb.util.SizeUnit;
+
+/**
+ * Maps configuration keys to RocksDB options. Database wide options are
+ * read for the <code>tsdb</code> and <code>idxdb</code> prefixes:
+ *
+ * <pre>
+ * .parallelism, .max.background.compactions, .max.background.flushes,
+ * .mmap.reads, .mmap.writes, .max.open.files, .wal.size.limit.mb,
+ * .max.total.wal.size.mb, .statistics
+ * </pre>
+ *
+ * column family options for the <code>tsdb</code> (hot partitions),
+ * <code>tsdb.cold</code>, <code>tsdb.rollup</code> and <code>idxdb</code>
+ * prefixes:
+ *
+ * <pre>
+ * .write.buffer.mb, .max.write.buffers, .min.write.buffers.to.merge,
+ * .compaction.style, .compression, .level0.compaction.trigger,
+ * .target.file.size.mb, .optimize.filters.for.hits, .block.cache.mb,
+ * .block.size.kb, .bloom.bits.per.key, .whole.key.filtering,
+ * .cache.index.and.filter.blocks
+ * </pre>
+ *
+ * Settings are resolved from the defaults below, then the
+ * {@link TuningProfile} named by <code>tsdb.profile</code>, then the
+ * configuration itself. Each column family option set gets its own block
+ * cache, column families opened with the same options share it.
+ *
+ * @author ambudsharma
+ */
+public class RocksDBTuning {
+
+	public static final String PROFILE = "tsdb.profile";
+	private static final Map<String, String> DEFAULTS = new HashMap<>();
+
+	static {
+		for (String db : new String[] { "tsdb", "idxdb" }) {
+			DEFAULTS.put(db + ".parallelism", "2");
+			DEFAULTS.put(db + ".max.background.compactions", "10");
+			DEFAULTS.put(db + ".max.background.flushes", "10");
+			DEFAULTS.put(db + ".mmap.reads", "true");
+			DEFAULTS.put(db + ".mmap.writes", "true");
+			DEFAULTS.put(db + ".max.open.files", "-1");
+			DEFAULTS.put(db + ".wal.size.limit.mb", "512");
+			DEFAULTS.put(db + ".max.total.wal.size.mb", "1024");
+			DEFAULTS.put(db + ".statistics", "true");
+		}
+		for (String cf : new String[] { "tsdb", "tsdb.cold", "tsdb.rollup", "idxdb" }) {
+			DEFAULTS.put(cf + ".write.buffer.mb", "1");
+			DEFAULTS.put(cf + ".max.write.buffers", "6");
+			DEFAULTS.put(cf + ".min.write.buffers.to.merge", "1");
+			DEFAULTS.put(cf + ".compaction.style", "universal");
+			DEFAULTS.put(cf + ".compression", "snappy");
+			DEFAULTS.put(cf + ".level0.compaction.trigger", "4");
+			DEFAULTS.put(cf + ".target.file.size.mb", "64");
+			DEFAULTS.put(cf + ".optimize.filters.for.hits", "false");
+			DEFAULTS.put(cf + ".block.cache.mb", "8");
+			DEFAULTS.put(cf + ".block.size.kb", "4");
+			DEFAULTS.put(cf + ".bloom.bits.per.key", "10");
+			DEFAULTS.put(cf + ".whole.key.filtering", "true");
+			DEFAULTS.put(cf + ".cache.index.and.filter.blocks", "false");
+		}
+		// partitions that no longer receive writes trade write amplification
+		// for size
+		DEFAULTS.put("tsdb.cold.max.write.buffers", "2");
+		DEFAULTS.put("tsdb.cold.compaction.style", "level");
+		DEFAULTS.put("tsdb.cold.compression", "zlib");
+		DEFAULTS.put("tsdb.cold.optimize.filters.for.hits", "true");
+		DEFAULTS.put("tsdb.prefix.extractor.enabled", "true");
+		DEFAULTS.put("tsdb.prefix.extractor.tags", "0");
+		DEFAULTS.put("tsdb.memtable.prefix.bloom.bits", "1048576");
+	}
+
+	private RocksDBTuning() {
+	}
+
+	/**
+	 * @param conf
+	 * @return the configuration layered over the settings of its profile and
+	 *         the defaults
+	 */
+	public static Map<String, String> resolve(Map<String, String> conf) {
+		Map<String, String> resolved = new HashMap<>(DEFAULTS);
+		resolved.putAll(TuningProfile.fromName(conf.getOrDefault(PROFILE, "default")).getSettings());
+		resolved.putAll(conf);
+		return resolved;
+	}
+
+	/**
+	 * @param options
+	 * @param conf
+	 *            resolved configuration
+	 * @param prefix
+	 *            of the keys
+	 */
+	public static void applyDBOptions(DBOptionsInterface options, Map<String, String> conf, String prefix) {
+		options.setIncreaseParallelism(getInt(conf, prefix, ".parallelism"));
+		options.setMaxBackgroundCompactions(getInt(conf, prefix, ".max.background.compactions"));
+		options.setMaxBackgroundFlushes(getInt(conf, prefix, ".max.background.flushes"));
+		options.setAllowMmapReads(getBoolean(conf, prefix, ".mmap.reads"));
+		options.setAllowMmapWrites(getBoolean(conf, prefix, ".mmap.writes"));
+		options.setMaxOpenFiles(getInt(conf, prefix, ".max.open.files"));
+		options.setWalSizeLimitMB(getInt(conf, prefix, ".wal.size.limit.mb"));
+		options.setMaxTotalWalSize(getInt(conf, prefix, ".max.total.wal.size.mb") * SizeUnit.MB);
+		if (getBoolean(conf, prefix, ".statistics")) {
+			options.createStatistics();
+		}
+	}
+
+	/**
+	 * @param options
+	 * @param conf
+	 *            resolved configuration
+	 * @param prefix
+	 *            of the keys
+	 */
+	public static void applyColumnOptions(ColumnFamilyOptionsInterface options, Map<String, String> conf,
+			String prefix) {
+		options.setWriteBufferSize(getInt(conf, prefix, ".write.buffer.mb") * SizeUnit.MB);
+		options.setMaxWriteBufferNumber(getInt(conf, prefix, ".max.write.buffers"));
+		options.setMinWriteBufferNumberToMerge(getInt(conf, prefix, ".min.write.buffers.to.merge"));
+		options.setCompactionStyle(
+				CompactionStyle.valueOf(conf.get(prefix + ".compaction.style").trim().toUpperCase()));
+		options.setCompressionType(compressionType(conf.get(prefix + ".compression")));
+		options.setLevelZeroFileNumCompactionTrigger(getInt(conf, prefix, ".level0.compaction.trigger"));
+		options.setTargetFileSizeBase(getInt(conf, prefix, ".target.file.size.mb") * SizeUnit.MB);
+		options.setOptimizeFiltersForHits(getBoolean(conf, prefix, ".optimize.filters.for.hits"));
+		BlockBasedTableConfig table = new BlockBasedTableConfig()
+				.setBlockCacheSize(getInt(conf, prefix, ".block.cache.mb") * SizeUnit.MB)
+				.setBlockSize(getInt(conf, prefix, ".block.size.kb") * SizeUnit.KB)
+				.setCacheIndexAndFilterBlocks(getBoolean(conf, prefix, ".cache.index.and.filter.blocks"))
+				.setWholeKeyFiltering(getBoolean(conf, prefix, ".whole.key.filtering"));
+		int bloomBits = getInt(conf, prefix, ".bloom.bits.per.key");
+		if (bloomBits > 0) {
+			table.setFilter(new BloomFilter(bloomBits, false));
+		}
+		options.setTableFormatConfig(table);
+	}
+
+	/**
+	 * @param name
+	 *            e.g. <code>snappy</code>, <code>lz4</code> or
+	 *            <code>none</code>
+	 * @return compression type
+	 */
+	public static CompressionType compressionType(String name) {
+		name = name.trim().toUpperCase();
+		if (name.equals("NONE") || name.equals("NO")) {
+			return CompressionType.NO_COMPRESSION;
+		}
+		return CompressionType.valueOf(name.endsWith("_COMPRESSION") ? name : name + "_COMPRESSION");
+	}
+
+	private static int getInt(Map<String, String> conf, String prefix, String key) {
+		return Integer.parseInt(conf.get(prefix + key).trim());
+	}
+
+	private static boolean getBoolean(Map<String, String> conf, String prefix, String key) {
+		return Boolean.parseBoolean(conf.get(prefix + key).trim());
+	}
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Count, sum, min and max of the points of a rollup window. Values are kept
+ * as doubles, long values are converted when they are added.
+ * 
+ * @author ambudsharma
+ */
+public class RollupSummary {
+
+	public static final int SIZE = 32;
+
+	private long count;
+	private double sum;
+	private double min;
+	private double max;
+
+	public RollupSummary() {
+	}
+
+	/**
+	 * @param value
+	 */
+	public void add(double value) {
+		if (count == 0) {
+			min = value;
+			max = value;
+		} else {
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		sum += value;
+		count++;
+	}
+
+	/**
+	 * Add the points of another summary
+	 * 
+	 * @param other
+	 * @return this summary
+	 */
+	public RollupSummary merge(RollupSummary other) {
+		if (other.count == 0) {
+			return this;
+		}
+		if (count == 0) {
+			min = other.min;
+			max = other.max;
+		} else {
+			min = Math.min(min, other.min);
+			max = Math.max(max, other.max);
+		}
+		sum += other.sum;
+		count += other.count;
+		return this;
+	}
+
+	/**
+	 * @return bytes of the summary
+	 */
+	public byte[] toBytes() {
+		return ByteBuffer.allocate(SIZE).putLong(count).putDouble(sum).putDouble(min).putDouble(max).array();
+	}
+
+	/**
+	 * @param bytes
+	 * @return this summary
+	 * @throws IOException
+	 */
+	public RollupSummary reset(byte[] bytes) throws IOException {
+		if (bytes.length != SIZE) {
+			throw new IOException("Invalid rollup summary of " + bytes.length + " bytes");
+		}
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		count = buf.getLong();
+		sum = buf.getDouble();
+		min = buf.getDouble();
+		max = buf.getDouble();
+		return this;
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return sum of the points
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return smallest point
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * @return largest point
+	 */
+	public double getMax() {
+		return max;
+	}
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import org.rocksdb.ColumnFamilyHandle;
+
+import com.srotya.sidewinder.core.utils.TimeUtils;
+
+/**
+ * A rollup of fixed windows kept in its own column family of the tsdb.
+ * Rollup rows use the same layout as the raw buckets, the row key prefix of
+ * the series followed by the MSB start of the window in seconds.
+ * 
+ * @author ambudsharma
+ */
+public class RollupTier {
+
+	private static final Charset CHARSET = Charset.forName("utf-8");
+	private final int windowSeconds;
+	private final byte[] columnFamily;
+	private ColumnFamilyHandle handle;
+
+	/**
+	 * @param windowSeconds
+	 */
+	public RollupTier(int windowSeconds) {
+		this.windowSeconds = windowSeconds;
+		this.columnFamily = ("rollup_" + windowSeconds).getBytes(CHARSET);
+	}
+
+	/**
+	 * @param timestamp
+	 *            in milliseconds
+	 * @return start of the window of the timestamp in seconds
+	 */
+	public int window(long timestamp) {
+		return TimeUtils.getWindowFlooredNaturalTime(TimeUtils.timeToSeconds(TimeUnit.MILLISECONDS, timestamp),
+				windowSeconds);
+	}
+
+	/**
+	 * @param rowKey
+	 *            raw row key of the point
+	 * @param timestamp
+	 *            in milliseconds
+	 * @return key of the rollup row the point belongs to
+	 */
+	public byte[] rollupKey(byte[] rowKey, long timestamp) {
+		byte[] key = rowKey.clone();
+		RocksDBSeriesIterator.writeBucket(key, key.length - 4, window(timestamp));
+		return key;
+	}
+
+	/**
+	 * @return the window size in seconds
+	 */
+	public int getWindowSeconds() {
+		return windowSeconds;
+	}
+
+	/**
+	 * @return name of the column family
+	 */
+	public byte[] getColumnFamily() {
+		return columnFamily;
+	}
+
+	/**
+	 * @return the column family handle, set once the tsdb is open
+	 */
+	public ColumnFamilyHandle getHandle() {
+		return handle;
+	}
+
+	/**
+	 * @param handle
+	 *            the column family handle to set
+	 */
+	public void setHandle(ColumnFamilyHandle handle) {
+		this.handle = handle;
+	}
+
+}
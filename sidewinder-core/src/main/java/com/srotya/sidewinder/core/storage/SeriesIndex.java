@@ -0,0 +1,326 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.rocksdb.WriteBatch;
+import org.rocksdb.WriteOptions;
+
+/**
+ * Inverted index from series names and tags to the series that carry them.
+ * Each distinct row key prefix (series name and tag ids) is given a dense
+ * int id and the postings of the series name and of every tag are stored as
+ * compressed bitmaps of those ids in the indexdb:
+ *
+ * <pre>
+ * 's' + row key prefix -> series key id
+ * 'i' + series key id -> row key prefix
+ * 'n' + series name id -> bitmap of series key ids
+ * 'p' + tag id -> bitmap of series key ids
+ * </pre>
+ *
+ * Selecting series by tags is then a matter of intersecting or unioning a
+ * few bitmaps, see {@link TagFilter}, instead of scanning the tsdb. Series
+ * names and tags share one identifier space so their postings are kept
+ * apart, a series named like a tag of another series doesn't match a filter
+ * on that tag.<br>
+ * <br>
+ * Postings are replaced copy on write when a series is registered, readers
+ * always see an immutable snapshot and must not modify it. Row key prefixes
+ * that have already been indexed are remembered in a direct mapped cache so
+ * the write path doesn't allocate or touch the indexdb once a series is
+ * known.
+ *
+ * @author ambudsharma
+ */
+public class SeriesIndex implements PostingsSource {
+
+	/**
+	 * Callback for {@link SeriesIndex#forEachSeries(SeriesVisitor)}
+	 */
+	public static interface SeriesVisitor {
+
+		void visit(int id, byte[] prefix) throws IOException;
+
+	}
+
+	public static final byte SERIES_PREFIX = 's';
+	public static final byte SERIES_ID_PREFIX = 'i';
+	public static final byte NAME_POSTINGS_PREFIX = 'n';
+	public static final byte POSTINGS_PREFIX = 'p';
+	private static final RoaringBitmap EMPTY = new RoaringBitmap();
+
+	private final RocksDB indexdb;
+	private final WriteOptions writeOptions;
+	private final IdentifierDictionary dictionary;
+	private final AtomicReferenceArray<byte[]> knownSeries;
+	private final int mask;
+	private final ConcurrentHashMap<Integer, RoaringBitmap> namePostings = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, RoaringBitmap> postings = new ConcurrentHashMap<>();
+	private final ReentrantLock registrationLock = new ReentrantLock();
+	private final AtomicInteger sequence = new AtomicInteger();
+
+	/**
+	 * @param indexdb
+	 * @param writeOptions
+	 * @param dictionary
+	 *            used to resolve identifiers to ids
+	 * @param cacheSize
+	 *            slots of the known series cache, rounded up to the next
+	 *            power of 2
+	 */
+	public SeriesIndex(RocksDB indexdb, WriteOptions writeOptions, IdentifierDictionary dictionary, int cacheSize) {
+		this.indexdb = indexdb;
+		this.writeOptions = writeOptions;
+		this.dictionary = dictionary;
+		int size = cacheSize <= 1 ? 1 : Integer.highestOneBit(cacheSize - 1) << 1;
+		this.knownSeries = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Restore the series key id sequence from the indexdb
+	 */
+	public void load() {
+		try (RocksIterator itr = indexdb.newIterator()) {
+			byte[] last = seriesIdKey(-1);
+			itr.seek(last);
+			if (!itr.isValid()) {
+				itr.seekToLast();
+			} else if (!Arrays.equals(last, itr.key())) {
+				itr.prev();
+			}
+			if (itr.isValid() && itr.key()[0] == SERIES_ID_PREFIX) {
+				sequence.set(ByteBuffer.wrap(itr.key()).getInt(1));
+			}
+		}
+	}
+
+	/**
+	 * Make sure the series of the row key is indexed
+	 * 
+	 * @param rowKey
+	 * @param prefixLength
+	 *            length of the series name and tag ids in the row key
+	 * @throws IOException
+	 */
+	public void index(byte[] rowKey, int prefixLength) throws IOException {
+		int hash = hash(rowKey, prefixLength);
+		int slot = hash & mask;
+		byte[] known = knownSeries.get(slot);
+		if (known != null && matches(known, rowKey, prefixLength)) {
+			return;
+		}
+		byte[] prefix = Arrays.copyOf(rowKey, prefixLength);
+		byte[] key = seriesKey(prefix);
+		try {
+			if (indexdb.get(key) == null) {
+				registrationLock.lock();
+				try {
+					if (indexdb.get(key) == null) {
+						register(key, prefix);
+					}
+				} finally {
+					registrationLock.unlock();
+				}
+			}
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+		knownSeries.set(slot, prefix);
+	}
+
+	private void register(byte[] key, byte[] prefix) throws RocksDBException, IOException {
+		int id = sequence.incrementAndGet();
+		RoaringBitmap[] updated = new RoaringBitmap[prefix.length / IdentifierDictionary.ID_SIZE];
+		try (WriteBatch batch = new WriteBatch()) {
+			batch.put(key, toBytes(id));
+			batch.put(seriesIdKey(id), prefix);
+			for (int i = 0; i < updated.length; i++) {
+				// the leading id is the series name, the rest are tags
+				byte type = i == 0 ? NAME_POSTINGS_PREFIX : POSTINGS_PREFIX;
+				int identifier = IdentifierDictionary.toId(prefix, i * IdentifierDictionary.ID_SIZE);
+				RoaringBitmap bitmap = loadPostings(type, identifier).clone();
+				bitmap.add(id);
+				bitmap.runOptimize();
+				updated[i] = bitmap;
+				batch.put(postingsKey(type, identifier), serialize(bitmap));
+			}
+			indexdb.write(writeOptions, batch);
+		} catch (RocksDBException | IOException e) {
+			sequence.compareAndSet(id, id - 1);
+			throw e;
+		}
+		for (int i = 0; i < updated.length; i++) {
+			postingsOf(i == 0 ? NAME_POSTINGS_PREFIX : POSTINGS_PREFIX)
+					.put(IdentifierDictionary.toId(prefix, i * IdentifierDictionary.ID_SIZE), updated[i]);
+		}
+	}
+
+	/**
+	 * @param seriesName
+	 * @return ids of the series with the name, must not be modified
+	 * @throws IOException
+	 */
+	public RoaringBitmap getSeriesPostings(String seriesName) throws IOException {
+		return lookupPostings(NAME_POSTINGS_PREFIX, seriesName);
+	}
+
+	@Override
+	public RoaringBitmap getPostings(String tag) throws IOException {
+		return lookupPostings(POSTINGS_PREFIX, tag);
+	}
+
+	private RoaringBitmap lookupPostings(byte type, String identifier) throws IOException {
+		byte[] id = dictionary.get(identifier);
+		if (id == null) {
+			return EMPTY;
+		}
+		return loadPostings(type, IdentifierDictionary.toId(id, 0));
+	}
+
+	private ConcurrentHashMap<Integer, RoaringBitmap> postingsOf(byte type) {
+		return type == NAME_POSTINGS_PREFIX ? namePostings : postings;
+	}
+
+	private RoaringBitmap loadPostings(byte type, int identifier) throws IOException {
+		ConcurrentHashMap<Integer, RoaringBitmap> postings = postingsOf(type);
+		RoaringBitmap bitmap = postings.get(identifier);
+		if (bitmap != null) {
+			return bitmap;
+		}
+		try {
+			byte[] val = indexdb.get(postingsKey(type, identifier));
+			bitmap = val != null ? deserialize(val) : EMPTY;
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+		RoaringBitmap existing = postings.putIfAbsent(identifier, bitmap);
+		return existing != null ? existing : bitmap;
+	}
+
+	/**
+	 * @param id
+	 *            series key id
+	 * @return row key prefix of the series or null if the id is unknown
+	 * @throws IOException
+	 */
+	public byte[] getSeriesPrefix(int id) throws IOException {
+		try {
+			return indexdb.get(seriesIdKey(id));
+		} catch (RocksDBException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Visit every indexed series in id order, only the series entries of the
+	 * indexdb are read
+	 * 
+	 * @param visitor
+	 * @throws IOException
+	 */
+	public void forEachSeries(SeriesVisitor visitor) throws IOException {
+		try (RocksIterator itr = indexdb.newIterator()) {
+			for (itr.seek(new byte[] { SERIES_ID_PREFIX }); itr.isValid(); itr.next()) {
+				byte[] key = itr.key();
+				if (key[0] != SERIES_ID_PREFIX) {
+					break;
+				}
+				visitor.visit(ByteBuffer.wrap(key).getInt(1), itr.value());
+			}
+		}
+	}
+
+	/**
+	 * @return number of series indexed
+	 */
+	public int size() {
+		return sequence.get();
+	}
+
+	private static int hash(byte[] key, int length) {
+		int h = 1;
+		for (int i = 0; i < length; i++) {
+			h = 31 * h + key[i];
+		}
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(byte[] known, byte[] key, int length) {
+		if (known.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (known[i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] serialize(RoaringBitmap bitmap) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(bitmap.serializedSizeInBytes());
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			bitmap.serialize(out);
+		}
+		return bytes.toByteArray();
+	}
+
+	private static RoaringBitmap deserialize(byte[] bytes) throws IOException {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		bitmap.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+		return bitmap;
+	}
+
+	private static byte[] toBytes(int id) {
+		return ByteBuffer.allocate(4).putInt(id).array();
+	}
+
+	private static byte[] seriesKey(byte[] prefix) {
+		byte[] key = new byte[prefix.length + 1];
+		key[0] = SERIES_PREFIX;
+		System.arraycopy(prefix, 0, key, 1, prefix.length);
+		return key;
+	}
+
+	private static byte[] seriesIdKey(int id) {
+		return ByteBuffer.allocate(5).put(SERIES_ID_PREFIX).putInt(id).array();
+	}
+
+	private static byte[] postingsKey(byte type, int identifier) {
+		byte[] key = new byte[IdentifierDictionary.ID_SIZE + 1];
+		key[0] = type;
+		System.arraycopy(IdentifierDictionary.toBytes(identifier), 0, key, 1, IdentifierDictionary.ID_SIZE);
+		return key;
+	}
+
+}
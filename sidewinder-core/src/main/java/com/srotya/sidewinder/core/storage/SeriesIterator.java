@@ -0,0 +1,76 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streaming cursor over the points of a series. Points are decoded lazily
+ * and no objects are created per point; the accessors return the values of
+ * the point the cursor is positioned at.<br>
+ * <br>
+ * Buckets are visited in time order, points within a bucket are returned in
+ * the order they were written. Points can also be read a
+ * {@link PointBlock} at a time, reads of both kinds may be mixed.
+ * 
+ * @author ambudsharma
+ */
+public interface SeriesIterator extends Closeable {
+
+	/**
+	 * Advance to the next point
+	 * 
+	 * @return false once there are no more points
+	 * @throws IOException
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return timestamp of the current point in milliseconds
+	 */
+	long getTimestamp();
+
+	/**
+	 * @return raw 64 bits of the value of the current point
+	 */
+	long getValue();
+
+	/**
+	 * @return value of the current point interpreted as a double
+	 */
+	default double getValueAsDouble() {
+		return Double.longBitsToDouble(getValue());
+	}
+
+	/**
+	 * Replace the contents of the block with the following points, the
+	 * accessors aren't defined after a block read. Iterators override this
+	 * to copy points without a call per point.
+	 * 
+	 * @param block
+	 * @return number of points copied, 0 once there are no more points
+	 * @throws IOException
+	 */
+	default int nextBlock(PointBlock block) throws IOException {
+		block.clear();
+		while (!block.isFull() && next()) {
+			block.add(getTimestamp(), getValue());
+		}
+		return block.size();
+	}
+
+}
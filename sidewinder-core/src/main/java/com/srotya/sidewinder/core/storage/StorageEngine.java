@@ -16,6 +16,7 @@
 package com.srotya.sidewinder.core.storage;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -63,5 +64,68 @@ public interface StorageEngine {
 	 * @throws IOException
 	 */
 	void writeSeries(String seriesName, List<String> tags,  TimeUnit unit, long timestamp, double value) throws IOException;
+	
+	/**
+	 * Write a batch of points, points may belong to any number of series
+	 * 
+	 * @param points
+	 * @throws IOException
+	 */
+	void writeBatch(Collection<DataPoint> points) throws IOException;
+	
+	/**
+	 * Stream the points of a series that fall between the start and end time
+	 * (inclusive). The returned iterator must be closed.
+	 * 
+	 * @param seriesName
+	 * @param tags
+	 * @param unit
+	 *            of the start and end time
+	 * @param startTime
+	 * @param endTime
+	 * @return iterator over the points, timestamps are in milliseconds
+	 * @throws IOException
+	 */
+	SeriesIterator queryRange(String seriesName, List<String> tags, TimeUnit unit, long startTime, long endTime)
+			throws IOException;
+
+	/**
+	 * Find the series with the supplied name whose tags match the filter
+	 * 
+	 * @param seriesName
+	 * @param filter
+	 *            null to match every series with the name
+	 * @return tags of each matching series
+	 * @throws IOException
+	 */
+	List<List<String>> findSeries(String seriesName, TagFilter filter) throws IOException;
+
+	/**
+	 * Pick the coarsest rollup that can be used to aggregate windows of the
+	 * supplied size
+	 * 
+	 * @param windowSeconds
+	 *            requested resolution
+	 * @return window of the rollup in seconds or 0 if no rollup divides the
+	 *         requested window
+	 */
+	int getRollupWindow(int windowSeconds);
+
+	/**
+	 * Stream the pre-aggregated windows of a series from a rollup. Only
+	 * windows that start between the start and end time are returned.
+	 * 
+	 * @param seriesName
+	 * @param tags
+	 * @param rollupWindow
+	 *            as returned by {@link #getRollupWindow(int)}
+	 * @param unit
+	 * @param startTime
+	 * @param endTime
+	 * @return iterator over the windows
+	 * @throws IOException
+	 */
+	SummaryIterator querySummaries(String seriesName, List<String> tags, int rollupWindow, TimeUnit unit,
+			long startTime, long endTime) throws IOException;
 
 }
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.rocksdb.HistogramData;
+import org.rocksdb.HistogramType;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.TickerType;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+/**
+ * Instrumentation of a storage engine. Metrics are kept in a registry of
+ * their own that the server registers under a prefix, the engine works the
+ * same without a server.<br>
+ * <br>
+ * Hot path metrics are updated by the engine, single point writes are timed
+ * on a sample since the timer costs about as much as a write to the head
+ * block. Everything else is a gauge
+ * read when the metrics are reported, including the RocksDB properties and
+ * statistics of a {@link Source}. Write stalls are read from the compaction
+ * and database stats, RocksJava 4.9 has no properties for them.
+ *
+ * @author ambudsharma
+ */
+public class StorageMetrics {
+
+	/**
+	 * Long valued RocksDB properties, summed over the column families of a
+	 * database
+	 */
+	public static final String[] PROPERTIES = new String[] { "rocksdb.cur-size-all-mem-tables",
+			"rocksdb.num-immutable-mem-table", "rocksdb.mem-table-flush-pending", "rocksdb.compaction-pending",
+			"rocksdb.estimate-pending-compaction-bytes", "rocksdb.num-running-compactions",
+			"rocksdb.num-running-flushes", "rocksdb.background-errors", "rocksdb.estimate-num-keys",
+			"rocksdb.estimate-table-readers-mem", "rocksdb.total-sst-files-size" };
+	/**
+	 * RocksDB statistics counters. The ids RocksJava 4.9 passes for the later
+	 * tickers don't match the native library, only the leading ones are read.
+	 */
+	public static final TickerType[] TICKERS = new TickerType[] { TickerType.BLOCK_CACHE_HIT,
+			TickerType.BLOCK_CACHE_MISS, TickerType.BLOCK_CACHE_ADD };
+	/**
+	 * RocksDB statistics histograms, in microseconds, see {@link #TICKERS}
+	 */
+	public static final HistogramType[] HISTOGRAMS = new HistogramType[] { HistogramType.DB_GET,
+			HistogramType.DB_WRITE, HistogramType.COMPACTION_TIME };
+	/**
+	 * One in this many single point writes is timed
+	 */
+	public static final int POINT_SAMPLE = 32;
+	private static final long NOT_SAMPLED = Long.MIN_VALUE;
+	private static final Pattern STALLS = Pattern.compile("Stalls\\(count\\):(.*?)interval");
+	private static final Pattern STALL_COUNT = Pattern.compile("(\\d+) [a-z]");
+	private static final Pattern STALL_PERCENT = Pattern.compile("Cumulative stall: \\S+ H:M:S, ([0-9.]+) percent");
+
+	/**
+	 * Reads the properties and statistics of a RocksDB database
+	 */
+	public interface Source {
+
+		/**
+		 * @param property
+		 * @return value of the property summed over the column families, -1
+		 *         if the database isn't open
+		 * @throws RocksDBException
+		 *             if the property isn't supported
+		 */
+		long getLongProperty(String property) throws RocksDBException;
+
+		/**
+		 * @param property
+		 * @return value of the property for each column family, concatenated,
+		 *         null if the database isn't open
+		 * @throws RocksDBException
+		 *             if the property isn't supported
+		 */
+		String getProperty(String property) throws RocksDBException;
+
+		/**
+		 * @param ticker
+		 * @return count, -1 if statistics aren't collected or the database
+		 *         isn't open
+		 */
+		long getTickerCount(TickerType ticker);
+
+		/**
+		 * @param histogram
+		 * @return histogram, null if statistics aren't collected or the
+		 *         database isn't open
+		 */
+		HistogramData getHistogramData(HistogramType histogram);
+
+	}
+
+	private final MetricRegistry registry = new MetricRegistry();
+	private final Timer pointWrites = registry.timer("write.point");
+	private final Timer batchWrites = registry.timer("write.batch");
+	private final Histogram batchSizes = registry.histogram("write.batch.size");
+	private final Meter points = registry.meter("write.points");
+
+	/**
+	 * @return start of a single point write, see
+	 *         {@link #pointWritten(long)}
+	 */
+	public long startPoint() {
+		return ThreadLocalRandom.current().nextInt(POINT_SAMPLE) == 0 ? System.nanoTime() : NOT_SAMPLED;
+	}
+
+	/**
+	 * @param start
+	 *            returned by {@link #startPoint()}
+	 */
+	public void pointWritten(long start) {
+		if (start != NOT_SAMPLED) {
+			pointWrites.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+		points.mark();
+	}
+
+	/**
+	 * @param size
+	 *            of the batch
+	 * @param nanos
+	 *            taken to write it
+	 */
+	public void batchWritten(int size, long nanos) {
+		batchWrites.update(nanos, TimeUnit.NANOSECONDS);
+		batchSizes.update(size);
+		points.mark(size);
+	}
+
+	/**
+	 * Register a gauge, replacing the gauge of the same name if any
+	 *
+	 * @param name
+	 * @param gauge
+	 */
+	public <T> void gauge(String name, Gauge<T> gauge) {
+		registry.remove(name);
+		registry.register(name, gauge);
+	}
+
+	/**
+	 * Register gauges for the properties and statistics of a database
+	 *
+	 * @param name
+	 *            prefix of the gauges
+	 * @param source
+	 */
+	public void register(String name, Source source) {
+		for (String property : PROPERTIES) {
+			gauge(name + "." + property, () -> {
+				try {
+					return source.getLongProperty(property);
+				} catch (RocksDBException e) {
+					return -1L;
+				}
+			});
+		}
+		gauge(name + ".rocksdb.stalls", () -> {
+			try {
+				return stalls(source.getProperty("rocksdb.cfstats"));
+			} catch (RocksDBException e) {
+				return -1L;
+			}
+		});
+		gauge(name + ".rocksdb.stall.percent", () -> {
+			try {
+				return stallPercent(source.getProperty("rocksdb.dbstats"));
+			} catch (RocksDBException e) {
+				return -1.0;
+			}
+		});
+		for (TickerType ticker : TICKERS) {
+			gauge(name + ".rocksdb." + ticker.name().toLowerCase(), () -> source.getTickerCount(ticker));
+		}
+		for (HistogramType histogram : HISTOGRAMS) {
+			String prefix = name + ".rocksdb." + histogram.name().toLowerCase();
+			gauge(prefix + ".p50", () -> {
+				HistogramData data = source.getHistogramData(histogram);
+				return data == null ? -1 : data.getMedian();
+			});
+			gauge(prefix + ".p99", () -> {
+				HistogramData data = source.getHistogramData(histogram);
+				return data == null ? -1 : data.getPercentile99();
+			});
+		}
+	}
+
+	/**
+	 * @param cfstats
+	 *            compaction stats of one or more column families
+	 * @return number of writes that were slowed down or stopped, -1 if the
+	 *         stats aren't available
+	 */
+	public static long stalls(String cfstats) {
+		if (cfstats == null) {
+			return -1;
+		}
+		long stalls = 0;
+		Matcher line = STALLS.matcher(cfstats);
+		while (line.find()) {
+			Matcher count = STALL_COUNT.matcher(line.group(1));
+			while (count.find()) {
+				stalls += Long.parseLong(count.group(1));
+			}
+		}
+		return stalls;
+	}
+
+	/**
+	 * @param dbstats
+	 *            database stats
+	 * @return percentage of the uptime writes were stalled, -1 if the stats
+	 *         aren't available
+	 */
+	public static double stallPercent(String dbstats) {
+		if (dbstats == null) {
+			return -1;
+		}
+		Matcher matcher = STALL_PERCENT.matcher(dbstats);
+		return matcher.find() ? Double.parseDouble(matcher.group(1)) : -1;
+	}
+
+	/**
+	 * @return registry of the metrics
+	 */
+	public MetricRegistry getRegistry() {
+		return registry;
+	}
+
+}
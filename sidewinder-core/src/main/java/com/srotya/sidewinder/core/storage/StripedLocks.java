@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed array of locks, a key is mapped to a stripe by hashing its bytes.
+ * Looking up a lock doesn't allocate and the number of locks doesn't grow
+ * with the number of keys.<br>
+ * <br>
+ * Callers that need several stripes at once must acquire them in ascending
+ * stripe order to avoid deadlocks, see {@link #lockAll(int[], int)}.<br>
+ * <br>
+ * Locks taken through {@link #lock(byte[])} and {@link #lockAll(int[], int)}
+ * count the acquisitions that had to wait and the time spent waiting, an
+ * uncontended acquisition isn't timed.
+ *
+ * @author ambudsharma
+ */
+public class StripedLocks {
+
+	private final ReentrantLock[] locks;
+	private final int mask;
+	private final LongAdder contended = new LongAdder();
+	private final LongAdder waitNanos = new LongAdder();
+
+	/**
+	 * @param stripes
+	 *            rounded up to the next power of 2
+	 */
+	public StripedLocks(int stripes) {
+		int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+		locks = new ReentrantLock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * @param key
+	 * @return stripe index for the key
+	 */
+	public int stripe(byte[] key) {
+		int h = 1;
+		for (int i = 0; i < key.length; i++) {
+			h = 31 * h + key[i];
+		}
+		// spread higher bits since only the low bits are used
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h & mask;
+	}
+
+	/**
+	 * @param key
+	 * @return lock for the key
+	 */
+	public ReentrantLock getLock(byte[] key) {
+		return locks[stripe(key)];
+	}
+
+	/**
+	 * Acquire the lock for the key
+	 *
+	 * @param key
+	 * @return the lock, to be released by the caller
+	 */
+	public ReentrantLock lock(byte[] key) {
+		ReentrantLock lock = getLock(key);
+		acquire(lock);
+		return lock;
+	}
+
+	private void acquire(ReentrantLock lock) {
+		if (!lock.tryLock()) {
+			long start = System.nanoTime();
+			lock.lock();
+			waitNanos.add(System.nanoTime() - start);
+			contended.increment();
+		}
+	}
+
+	/**
+	 * @param stripe
+	 * @return lock for the stripe
+	 */
+	public ReentrantLock getLock(int stripe) {
+		return locks[stripe];
+	}
+
+	/**
+	 * Lock the supplied stripes, stripes must be sorted and distinct
+	 *
+	 * @param stripes
+	 * @param length
+	 *            number of valid entries in stripes
+	 */
+	public void lockAll(int[] stripes, int length) {
+		for (int i = 0; i < length; i++) {
+			acquire(locks[stripes[i]]);
+		}
+	}
+
+	/**
+	 * Unlock stripes locked using {@link #lockAll(int[], int)}
+	 *
+	 * @param stripes
+	 * @param length
+	 */
+	public void unlockAll(int[] stripes, int length) {
+		for (int i = length - 1; i >= 0; i--) {
+			locks[stripes[i]].unlock();
+		}
+	}
+
+	/**
+	 * @return number of acquisitions that waited for the lock
+	 */
+	public long getContended() {
+		return contended.sum();
+	}
+
+	/**
+	 * @return total time spent waiting for locks in nanoseconds
+	 */
+	public long getWaitNanos() {
+		return waitNanos.sum();
+	}
+
+	/**
+	 * @return number of stripes
+	 */
+	public int size() {
+		return locks.length;
+	}
+
+}
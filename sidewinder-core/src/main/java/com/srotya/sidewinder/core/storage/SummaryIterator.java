@@ -0,0 +1,46 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streaming cursor over the pre-aggregated windows of a rollup
+ * 
+ * @author ambudsharma
+ */
+public interface SummaryIterator extends Closeable {
+
+	/**
+	 * Advance to the next window
+	 * 
+	 * @return false once there are no more windows
+	 * @throws IOException
+	 */
+	boolean next() throws IOException;
+
+	/**
+	 * @return start of the current window in milliseconds
+	 */
+	long getTimestamp();
+
+	/**
+	 * @return summary of the current window
+	 */
+	RollupSummary getSummary();
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.roaringbitmap.FastAggregation;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Boolean filter over tags, evaluated against the postings of a
+ * {@link PostingsSource} such as the {@link SeriesIndex}. AND and OR filters
+ * intersect and union the postings of their children.
+ * 
+ * @author ambudsharma
+ */
+public abstract class TagFilter {
+
+	/**
+	 * @param index
+	 * @return ids of the series matching this filter, must not be modified
+	 * @throws IOException
+	 */
+	public abstract RoaringBitmap evaluate(PostingsSource index) throws IOException;
+
+	/**
+	 * @param tag
+	 * @return filter matching series carrying the tag
+	 */
+	public static TagFilter tag(final String tag) {
+		return new TagFilter() {
+
+			@Override
+			public RoaringBitmap evaluate(PostingsSource index) throws IOException {
+				return index.getPostings(tag);
+			}
+
+			@Override
+			public String toString() {
+				return tag;
+			}
+		};
+	}
+
+	/**
+	 * @param filters
+	 * @return filter matching series that match all of the filters
+	 */
+	public static TagFilter and(final TagFilter... filters) {
+		final List<TagFilter> children = Arrays.asList(filters);
+		return new TagFilter() {
+
+			@Override
+			public RoaringBitmap evaluate(PostingsSource index) throws IOException {
+				List<RoaringBitmap> bitmaps = new ArrayList<>(children.size());
+				for (TagFilter filter : children) {
+					RoaringBitmap bitmap = filter.evaluate(index);
+					if (bitmap.isEmpty()) {
+						// no need to evaluate the remaining filters
+						return bitmap;
+					}
+					bitmaps.add(bitmap);
+				}
+				return FastAggregation.and(bitmaps.iterator());
+			}
+
+			@Override
+			public String toString() {
+				return "and" + children;
+			}
+		};
+	}
+
+	/**
+	 * @param filters
+	 * @return filter matching series that match any of the filters
+	 */
+	public static TagFilter or(final TagFilter... filters) {
+		final List<TagFilter> children = Arrays.asList(filters);
+		return new TagFilter() {
+
+			@Override
+			public RoaringBitmap evaluate(PostingsSource index) throws IOException {
+				List<RoaringBitmap> bitmaps = new ArrayList<>(children.size());
+				for (TagFilter filter : children) {
+					bitmaps.add(filter.evaluate(index));
+				}
+				return FastAggregation.or(bitmaps.iterator());
+			}
+
+			@Override
+			public String toString() {
+				return "or" + children;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.srotya.sidewinder.core.storage.compression.BitWriter;
+
+/**
+ * Append only columnar encoding of the points in a single time bucket.
+ * Timestamps are stored as delta-of-deltas and values are XOR compressed
+ * against the previous value as described in the Facebook Gorilla paper.
+ * Points are kept in arrival order.<br>
+ * <br>
+ * Serialized layout:
+ *
+ * <pre>
+ * | format (1) | count (4) | last ts (8) | last delta (8) | last value (8) | leading (1) | trailing (1) | bit length (4) | bits ... |
+ * </pre>
+ *
+ * The encoder state is part of the header so that a bucket loaded from disk
+ * can continue to be appended to without decoding the existing points.<br>
+ * <br>
+ * Points written as merge operands (see {@link #encodeMergeOperand(long, long)})
+ * are stored by RocksDB as a delimited list of fixed width raw records,
+ * optionally following an encoded bucket. These are folded into the encoded
+ * form when the bucket is loaded to be appended to, readers walk them in
+ * place. The engine writes folded buckets back once they are closed.
+ *
+ * @author ambudsharma
+ */
+public class TimeSeriesBucket {
+
+	public static final byte FORMAT_GORILLA = 'G';
+	public static final byte FORMAT_RAW = 'R';
+	public static final int HEADER_SIZE = 1 + 4 + 8 + 8 + 8 + 1 + 1 + 4;
+	/**
+	 * Merge operands are a format byte followed by the timestamp and the value
+	 */
+	public static final int OPERAND_SIZE = 1 + 8 + 8;
+	/**
+	 * Delimiter inserted between operands by RocksDB's StringAppendOperator
+	 */
+	public static final byte MERGE_DELIMITER = ',';
+	private static final int DEFAULT_CAPACITY = 128;
+
+	private BitWriter writer;
+	private int count;
+	private long lastTimestamp;
+	private long lastDelta;
+	private long lastValue;
+	private int prevLeading = -1;
+	private int prevTrailing;
+
+	public TimeSeriesBucket() {
+		writer = new BitWriter(DEFAULT_CAPACITY);
+	}
+
+	private TimeSeriesBucket(byte[] bytes) throws IOException {
+		ByteBuffer header = ByteBuffer.wrap(bytes);
+		if (bytes.length < HEADER_SIZE || header.get() != FORMAT_GORILLA) {
+			throw new IOException("Invalid bucket format");
+		}
+		count = header.getInt();
+		lastTimestamp = header.getLong();
+		lastDelta = header.getLong();
+		lastValue = header.getLong();
+		prevLeading = header.get();
+		prevTrailing = header.get();
+		int bitLength = header.getInt();
+		if (BitWriter.byteLength(bitLength) > bytes.length - HEADER_SIZE) {
+			throw new IOException("Bucket truncated, expected " + bitLength + " bits");
+		}
+		writer = new BitWriter(bytes, HEADER_SIZE, bitLength, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Decode a serialized bucket
+	 *
+	 * @param bytes
+	 * @return bucket
+	 * @throws IOException
+	 */
+	public static TimeSeriesBucket fromBytes(byte[] bytes) throws IOException {
+		if (bytes.length == 0) {
+			throw new IOException("Invalid bucket format");
+		}
+		TimeSeriesBucket bucket;
+		int offset;
+		if (bytes[0] == FORMAT_RAW) {
+			bucket = new TimeSeriesBucket();
+			offset = 0;
+		} else {
+			bucket = new TimeSeriesBucket(bytes);
+			offset = HEADER_SIZE + bucket.writer.getByteLength();
+			if (offset < bytes.length) {
+				if (bytes[offset] != MERGE_DELIMITER) {
+					throw new IOException("Invalid merge delimiter at:" + offset);
+				}
+				offset++;
+			}
+		}
+		bucket.appendMergeOperands(bytes, offset);
+		return bucket;
+	}
+
+	/**
+	 * @param bytes
+	 *            serialized bucket
+	 * @return true if merge operands follow, or replace, the encoded bucket
+	 */
+	public static boolean hasMergeOperands(byte[] bytes) {
+		if (bytes.length < HEADER_SIZE || bytes[0] == FORMAT_RAW) {
+			return bytes.length > 0 && bytes[0] == FORMAT_RAW;
+		}
+		return HEADER_SIZE + BitWriter.byteLength(ByteBuffer.wrap(bytes).getInt(HEADER_SIZE - 4)) < bytes.length;
+	}
+
+	private void appendMergeOperands(byte[] bytes, int offset) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		while (offset < bytes.length) {
+			if (bytes.length - offset < OPERAND_SIZE || bytes[offset] != FORMAT_RAW) {
+				throw new IOException("Invalid merge operand at:" + offset);
+			}
+			addDataPoint(buf.getLong(offset + 1), buf.getLong(offset + 9));
+			offset += OPERAND_SIZE;
+			if (offset < bytes.length) {
+				if (bytes[offset] != MERGE_DELIMITER) {
+					throw new IOException("Invalid merge delimiter at:" + offset);
+				}
+				offset++;
+			}
+		}
+	}
+
+	/**
+	 * Encode a point as a fixed width operand that can be appended to a
+	 * bucket using a RocksDB merge
+	 * 
+	 * @param timestamp
+	 * @param value
+	 * @return operand
+	 */
+	public static byte[] encodeMergeOperand(long timestamp, long value) {
+		byte[] operand = new byte[OPERAND_SIZE];
+		ByteBuffer buf = ByteBuffer.wrap(operand);
+		buf.put(FORMAT_RAW);
+		buf.putLong(timestamp);
+		buf.putLong(value);
+		return operand;
+	}
+
+	/**
+	 * Append a point to this bucket
+	 *
+	 * @param timestamp
+	 * @param value
+	 *            raw 64 bits of the value, doubles should be supplied using
+	 *            {@link Double#doubleToLongBits(double)}
+	 */
+	public void addDataPoint(long timestamp, long value) {
+		if (count == 0) {
+			writer.writeBits(timestamp, 64);
+			writer.writeBits(value, 64);
+		} else {
+			long delta = timestamp - lastTimestamp;
+			writeTimestampDelta(delta - lastDelta);
+			writeValue(value ^ lastValue);
+			lastDelta = delta;
+		}
+		lastTimestamp = timestamp;
+		lastValue = value;
+		count++;
+	}
+
+	private void writeTimestampDelta(long dod) {
+		if (dod == 0) {
+			writer.writeBit(false);
+		} else if (dod >= -64 && dod <= 63) {
+			writer.writeBits(0b10, 2);
+			writer.writeBits(dod, 7);
+		} else if (dod >= -256 && dod <= 255) {
+			writer.writeBits(0b110, 3);
+			writer.writeBits(dod, 9);
+		} else if (dod >= -2048 && dod <= 2047) {
+			writer.writeBits(0b1110, 4);
+			writer.writeBits(dod, 12);
+		} else {
+			writer.writeBits(0b1111, 4);
+			writer.writeBits(dod, 64);
+		}
+	}
+
+	private void writeValue(long xor) {
+		if (xor == 0) {
+			writer.writeBit(false);
+			return;
+		}
+		writer.writeBit(true);
+		int leading = Long.numberOfLeadingZeros(xor);
+		int trailing = Long.numberOfTrailingZeros(xor);
+		if (leading > 31) {
+			// leading zero count is encoded in 5 bits
+			leading = 31;
+		}
+		if (prevLeading != -1 && leading >= prevLeading && trailing >= prevTrailing) {
+			writer.writeBit(false);
+			writer.writeBits(xor >>> prevTrailing, 64 - prevLeading - prevTrailing);
+		} else {
+			int significant = 64 - leading - trailing;
+			writer.writeBit(true);
+			writer.writeBits(leading, 5);
+			// significant bits are in the range [1,64], 64 is encoded as 0
+			writer.writeBits(significant, 6);
+			writer.writeBits(xor >>> trailing, significant);
+			prevLeading = leading;
+			prevTrailing = trailing;
+		}
+	}
+
+	/**
+	 * @return serialized form of this bucket
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[HEADER_SIZE + writer.getByteLength()];
+		ByteBuffer header = ByteBuffer.wrap(bytes);
+		header.put(FORMAT_GORILLA);
+		header.putInt(count);
+		header.putLong(lastTimestamp);
+		header.putLong(lastDelta);
+		header.putLong(lastValue);
+		header.put((byte) prevLeading);
+		header.put((byte) prevTrailing);
+		header.putInt(writer.getBitLength());
+		writer.copyTo(bytes, HEADER_SIZE);
+		return bytes;
+	}
+
+	/**
+	 * Position the supplied reader over a serialized bucket, the bucket is
+	 * read in place including any merge operands
+	 * 
+	 * @param bytes
+	 * @param reader
+	 * @return reader
+	 * @throws IOException
+	 */
+	public static BucketReader openReader(byte[] bytes, BucketReader reader) throws IOException {
+		return openReader(ByteBuffer.wrap(bytes), bytes.length, reader);
+	}
+
+	/**
+	 * Position the supplied reader over a serialized bucket held in a
+	 * buffer. The layout is checked up front, no points are decoded.
+	 * 
+	 * @param buf
+	 *            holding the bucket from index 0
+	 * @param length
+	 *            of the bucket
+	 * @param reader
+	 * @return reader
+	 * @throws IOException
+	 *             if the bucket or its merge operands are malformed
+	 */
+	public static BucketReader openReader(ByteBuffer buf, int length, BucketReader reader) throws IOException {
+		if (length == 0) {
+			throw new IOException("Invalid bucket format");
+		}
+		int count = 0;
+		int offset = 0;
+		if (buf.get(0) == FORMAT_GORILLA) {
+			if (length < HEADER_SIZE) {
+				throw new IOException("Invalid bucket format");
+			}
+			count = buf.getInt(1);
+			int bitLength = buf.getInt(HEADER_SIZE - 4);
+			offset = HEADER_SIZE + BitWriter.byteLength(bitLength);
+			if (offset > length) {
+				throw new IOException("Bucket truncated, expected " + bitLength + " bits");
+			}
+			if (offset < length) {
+				if (buf.get(offset) != MERGE_DELIMITER) {
+					throw new IOException("Invalid merge delimiter at:" + offset);
+				}
+				offset++;
+			}
+		} else if (buf.get(0) != FORMAT_RAW) {
+			throw new IOException("Invalid bucket format");
+		}
+		int operands = offset;
+		while (offset < length) {
+			if (length - offset < OPERAND_SIZE || buf.get(offset) != FORMAT_RAW) {
+				throw new IOException("Invalid merge operand at:" + offset);
+			}
+			offset += OPERAND_SIZE;
+			if (offset < length) {
+				if (buf.get(offset) != MERGE_DELIMITER) {
+					throw new IOException("Invalid merge delimiter at:" + offset);
+				}
+				offset++;
+			}
+		}
+		reader.reset(buf, HEADER_SIZE, count, operands, length);
+		return reader;
+	}
+
+	/**
+	 * @return reader over a snapshot of the points written so far
+	 */
+	public BucketReader getReader() {
+		return new BucketReader(writer.getBuffer(), 0, count);
+	}
+
+	/**
+	 * @return number of points in this bucket
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the last timestamp appended
+	 */
+	public long getLastTimestamp() {
+		return lastTimestamp;
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named sets of RocksDB settings for common workloads, selected with
+ * <code>tsdb.profile</code>. Settings of a profile are defaults, any of them
+ * can still be overridden individually. See {@link RocksDBTuning} for the
+ * keys.
+ *
+ * @author ambudsharma
+ */
+public enum TuningProfile {
+
+	/**
+	 * Small memtables and caches with universal compaction
+	 */
+	DEFAULT,
+	/**
+	 * Large memtables and more background threads so that flushes and
+	 * compactions keep up with ingest, LZ4 keeps compression cheap
+	 */
+	WRITE_HEAVY("tsdb.write.buffer.mb", "64", "tsdb.max.write.buffers", "4", "tsdb.min.write.buffers.to.merge", "2",
+			"tsdb.parallelism", String.valueOf(Runtime.getRuntime().availableProcessors()),
+			"tsdb.max.background.compactions", "4", "tsdb.max.background.flushes", "4", "tsdb.compression", "lz4",
+			"tsdb.level0.compaction.trigger", "8", "tsdb.target.file.size.mb", "128", "tsdb.block.cache.mb", "64",
+			"tsdb.rollup.write.buffer.mb", "16", "idxdb.write.buffer.mb", "16"),
+	/**
+	 * Level compaction keeps the number of files a read has to look at low,
+	 * large block caches hold the index and filter blocks next to the data
+	 */
+	READ_HEAVY("tsdb.write.buffer.mb", "16", "tsdb.compaction.style", "level", "tsdb.compression", "lz4",
+			"tsdb.block.cache.mb", "512", "tsdb.block.size.kb", "16", "tsdb.cache.index.and.filter.blocks", "true",
+			"tsdb.cold.block.cache.mb", "64", "tsdb.rollup.block.cache.mb", "128", "tsdb.rollup.compaction.style",
+			"level", "idxdb.block.cache.mb", "128", "idxdb.compaction.style", "level"),
+	/**
+	 * Bounds memory to a few MB per database, index and filter blocks are
+	 * held in the block cache rather than on the heap
+	 */
+	LOW_MEMORY("tsdb.write.buffer.mb", "1", "tsdb.max.write.buffers", "2", "tsdb.parallelism", "1",
+			"tsdb.max.background.compactions", "1", "tsdb.max.background.flushes", "1", "tsdb.mmap.reads", "false",
+			"tsdb.mmap.writes", "false", "tsdb.max.open.files", "256", "tsdb.block.cache.mb", "4",
+			"tsdb.cache.index.and.filter.blocks", "true", "tsdb.cold.block.cache.mb", "1",
+			"tsdb.cold.cache.index.and.filter.blocks", "true", "tsdb.rollup.max.write.buffers", "2",
+			"tsdb.rollup.block.cache.mb", "2", "tsdb.rollup.cache.index.and.filter.blocks", "true",
+			"idxdb.max.write.buffers", "2", "idxdb.parallelism", "1", "idxdb.max.background.compactions", "1",
+			"idxdb.max.background.flushes", "1", "idxdb.mmap.reads", "false", "idxdb.mmap.writes", "false",
+			"idxdb.max.open.files", "256", "idxdb.block.cache.mb", "2", "idxdb.cache.index.and.filter.blocks",
+			"true");
+
+	private final Map<String, String> settings;
+
+	private TuningProfile(String... settings) {
+		Map<String, String> map = new HashMap<>();
+		for (int i = 0; i < settings.length; i += 2) {
+			map.put(settings[i], settings[i + 1]);
+		}
+		this.settings = Collections.unmodifiableMap(map);
+	}
+
+	/**
+	 * @return settings of this profile
+	 */
+	public Map<String, String> getSettings() {
+		return settings;
+	}
+
+	/**
+	 * @param name
+	 *            of the profile, e.g. <code>read-heavy</code>
+	 * @return profile
+	 */
+	public static TuningProfile fromName(String name) {
+		return valueOf(name.trim().toUpperCase().replace('-', '_'));
+	}
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the write batches and entries of the RocksDB write ahead logs in a
+ * directory, these are what RocksDB replays when the database is opened.
+ * Logs are a sequence of 32KB blocks of records:
+ *
+ * <pre>
+ * | checksum (4) | length (2) | type (1) | payload |
+ * </pre>
+ *
+ * Batches larger than a block are fragmented over several records. A batch
+ * starts with an 8 byte sequence number and a 4 byte count of its entries,
+ * both little endian. Record checksums are left to RocksDB which verifies
+ * them during replay, a truncated tail ends the scan of a log.
+ *
+ * @author ambudsharma
+ */
+public class WalScanner {
+
+	private static final int BLOCK_SIZE = 32768;
+	private static final int HEADER_SIZE = 7;
+	private static final int RECYCLABLE_HEADER_SIZE = HEADER_SIZE + 4;
+	private static final int BATCH_HEADER_SIZE = 12;
+	private static final int FULL = 1;
+	private static final int FIRST = 2;
+	private static final int MIDDLE = 3;
+	private static final int LAST = 4;
+	private static final int RECYCLABLE_OFFSET = 4;
+
+	private WalScanner() {
+	}
+
+	/**
+	 * @param directory
+	 *            write ahead log directory
+	 * @param stats
+	 *            updated with the logs found
+	 * @throws IOException
+	 */
+	public static void scan(String directory, RecoveryStats stats) throws IOException {
+		File[] logs = new File(directory).listFiles((dir, name) -> name.endsWith(".log"));
+		if (logs == null) {
+			return;
+		}
+		long bytes = 0;
+		long[] counts = new long[2];
+		for (File log : logs) {
+			bytes += log.length();
+			try (InputStream in = new BufferedInputStream(new FileInputStream(log), BLOCK_SIZE)) {
+				scan(in, counts);
+			}
+		}
+		stats.addWal(logs.length, bytes, counts[0], counts[1]);
+	}
+
+	/**
+	 * @param in
+	 *            a single log
+	 * @param counts
+	 *            batches and entries are added to the first and second
+	 *            element
+	 * @throws IOException
+	 */
+	static void scan(InputStream in, long[] counts) throws IOException {
+		byte[] block = new byte[BLOCK_SIZE];
+		// only the batch header of a fragmented batch is needed
+		byte[] batchHeader = new byte[BATCH_HEADER_SIZE];
+		int batchHeaderLength = 0;
+		int length;
+		while ((length = readFully(in, block)) > 0) {
+			int offset = 0;
+			while (offset + HEADER_SIZE <= length) {
+				int recordLength = (block[offset + 4] & 0xff) | ((block[offset + 5] & 0xff) << 8);
+				int type = block[offset + 6] & 0xff;
+				int headerSize = HEADER_SIZE;
+				if (type > LAST) {
+					type -= RECYCLABLE_OFFSET;
+					headerSize = RECYCLABLE_HEADER_SIZE;
+				}
+				if (type == 0 || type > LAST || offset + headerSize + recordLength > length) {
+					// zero padding of a preallocated log or a torn write
+					break;
+				}
+				int payload = offset + headerSize;
+				if (type == FULL || type == FIRST) {
+					batchHeaderLength = 0;
+				}
+				int copy = Math.min(recordLength, BATCH_HEADER_SIZE - batchHeaderLength);
+				System.arraycopy(block, payload, batchHeader, batchHeaderLength, copy);
+				batchHeaderLength += copy;
+				if ((type == FULL || type == LAST) && batchHeaderLength == BATCH_HEADER_SIZE) {
+					counts[0]++;
+					counts[1] += (batchHeader[8] & 0xff) | ((batchHeader[9] & 0xff) << 8)
+							| ((batchHeader[10] & 0xff) << 16) | ((long) (batchHeader[11] & 0xff) << 24);
+				}
+				offset = payload + recordLength;
+			}
+			if (length < BLOCK_SIZE) {
+				return;
+			}
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] block) throws IOException {
+		int length = 0;
+		int read;
+		while (length < block.length && (read = in.read(block, length, block.length - length)) > 0) {
+			length += read;
+		}
+		return length;
+	}
+
+}
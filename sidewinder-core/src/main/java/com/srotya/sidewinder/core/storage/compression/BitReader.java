@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a bit stream written by {@link BitWriter}. The reader uses absolute
+ * gets on the supplied buffer and never modifies its position.
+ *
+ * @author ambudsharma
+ */
+public class BitReader {
+
+	private ByteBuffer buf;
+	private int offset;
+	private int bitPosition;
+
+	public BitReader() {
+	}
+
+	/**
+	 * @param buf
+	 * @param offset
+	 *            byte offset at which the bit stream starts
+	 */
+	public BitReader(ByteBuffer buf, int offset) {
+		reset(buf, offset);
+	}
+
+	/**
+	 * Point this reader at a new bit stream so that it can be reused
+	 *
+	 * @param buf
+	 * @param offset
+	 */
+	public void reset(ByteBuffer buf, int offset) {
+		this.buf = buf;
+		this.offset = offset;
+		this.bitPosition = 0;
+	}
+
+	/**
+	 * @param bits
+	 * @return the next <code>bits</code> bits as an unsigned value
+	 */
+	public long readBits(int bits) {
+		long value = 0;
+		while (bits > 0) {
+			int used = bitPosition & 7;
+			int available = 8 - used;
+			int n = available < bits ? available : bits;
+			int current = buf.get(offset + (bitPosition >>> 3)) & 0xff;
+			int chunk = (current >>> (available - n)) & ((1 << n) - 1);
+			value = (value << n) | chunk;
+			bits -= n;
+			bitPosition += n;
+		}
+		return value;
+	}
+
+	/**
+	 * @return next bit
+	 */
+	public boolean readBit() {
+		int current = buf.get(offset + (bitPosition >>> 3));
+		boolean bit = ((current >>> (7 - (bitPosition & 7))) & 1) == 1;
+		bitPosition++;
+		return bit;
+	}
+
+	/**
+	 * @return number of bits consumed so far
+	 */
+	public int getBitPosition() {
+		return bitPosition;
+	}
+
+}
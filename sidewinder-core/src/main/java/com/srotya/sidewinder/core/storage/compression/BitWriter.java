@@ -0,0 +1,132 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Append only bit stream backed by a growable off-heap {@link ByteBuffer}.
+ * Bits are written MSB first.
+ *
+ * @author ambudsharma
+ */
+public class BitWriter {
+
+	private ByteBuffer buf;
+	private int bitLength;
+
+	/**
+	 * @param initialCapacity
+	 *            in bytes
+	 */
+	public BitWriter(int initialCapacity) {
+		buf = ByteBuffer.allocateDirect(Math.max(initialCapacity, 8));
+	}
+
+	/**
+	 * Resume writing to a previously serialized bit stream
+	 *
+	 * @param bytes
+	 * @param offset
+	 * @param bitLength
+	 * @param initialCapacity
+	 */
+	public BitWriter(byte[] bytes, int offset, int bitLength, int initialCapacity) {
+		int length = byteLength(bitLength);
+		buf = ByteBuffer.allocateDirect(Math.max(initialCapacity, length * 2));
+		buf.put(bytes, offset, length);
+		this.bitLength = bitLength;
+	}
+
+	/**
+	 * Write the lowest <code>bits</code> bits of the supplied value
+	 *
+	 * @param value
+	 * @param bits
+	 */
+	public void writeBits(long value, int bits) {
+		while (bits > 0) {
+			int byteIndex = bitLength >>> 3;
+			ensureCapacity(byteIndex + 1);
+			int used = bitLength & 7;
+			int free = 8 - used;
+			int n = free < bits ? free : bits;
+			int chunk = (int) ((value >>> (bits - n)) & ((1 << n) - 1));
+			int current = used == 0 ? 0 : buf.get(byteIndex);
+			buf.put(byteIndex, (byte) (current | (chunk << (free - n))));
+			bits -= n;
+			bitLength += n;
+		}
+	}
+
+	/**
+	 * @param bit
+	 */
+	public void writeBit(boolean bit) {
+		writeBits(bit ? 1 : 0, 1);
+	}
+
+	private void ensureCapacity(int bytes) {
+		if (bytes > buf.capacity()) {
+			ByteBuffer expanded = ByteBuffer.allocateDirect(buf.capacity() * 2);
+			ByteBuffer source = buf.duplicate();
+			source.clear();
+			expanded.put(source);
+			buf = expanded;
+		}
+	}
+
+	/**
+	 * Copy the written bytes to the supplied array
+	 *
+	 * @param target
+	 * @param offset
+	 */
+	public void copyTo(byte[] target, int offset) {
+		ByteBuffer source = buf.duplicate();
+		source.clear();
+		source.get(target, offset, byteLength(bitLength));
+	}
+
+	/**
+	 * @return read-only view of the written bytes
+	 */
+	public ByteBuffer getBuffer() {
+		ByteBuffer view = buf.asReadOnlyBuffer();
+		view.clear();
+		view.limit(byteLength(bitLength));
+		return view;
+	}
+
+	/**
+	 * @return number of bits written
+	 */
+	public int getBitLength() {
+		return bitLength;
+	}
+
+	/**
+	 * @return number of bytes needed to hold the written bits
+	 */
+	public int getByteLength() {
+		return byteLength(bitLength);
+	}
+
+	public static int byteLength(int bitLength) {
+		return (bitLength + 7) >>> 3;
+	}
+
+}
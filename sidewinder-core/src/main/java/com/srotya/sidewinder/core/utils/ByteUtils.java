@@ -49,10 +49,10 @@ public class ByteUtils {
 	
 	public static int bytesToIntMSB(byte[] bytes) {
 		int val = 0;
-		val |= ((int)bytes[0])<< 24;
-		val |= ((int)bytes[1])<< 16;
-		val |= ((int)bytes[2])<< 8;
-		val |= ((int)bytes[3]);
+		val |= (bytes[0] & 0xff) << 24;
+		val |= (bytes[1] & 0xff) << 16;
+		val |= (bytes[2] & 0xff) << 8;
+		val |= (bytes[3] & 0xff);
 		return val;
 	}
 
@@ -34,6 +34,30 @@ public class TimeUtils {
 	private TimeUtils() {
 	}
 
+	/**
+	 * @param precision
+	 *            <code>n</code>, <code>u</code>, <code>ms</code> or
+	 *            <code>s</code> as used by InfluxDB, <code>ns</code> and
+	 *            <code>us</code> are accepted too
+	 * @return unit
+	 */
+	public static TimeUnit parsePrecision(String precision) {
+		switch (precision.trim()) {
+		case "n":
+		case "ns":
+			return TimeUnit.NANOSECONDS;
+		case "u":
+		case "us":
+			return TimeUnit.MICROSECONDS;
+		case "ms":
+			return TimeUnit.MILLISECONDS;
+		case "s":
+			return TimeUnit.SECONDS;
+		default:
+			throw new IllegalArgumentException("Unknown precision " + precision);
+		}
+	}
+
 	/**
 	 * Floor long time to supplied Window
 	 * 
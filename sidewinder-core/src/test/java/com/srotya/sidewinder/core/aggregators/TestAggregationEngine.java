@@ -0,0 +1,138 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.RocksDBStorageEngine;
+import com.srotya.sidewinder.core.storage.TagFilter;
+import com.srotya.sidewinder.core.storage.TestRocksDBStorageEngine;
+
+/**
+ * @author ambudsharma
+ */
+public class TestAggregationEngine {
+
+	@Before
+	public void before() throws IOException {
+		TestRocksDBStorageEngine.deleteDirectories();
+	}
+
+	@Test
+	public void testRollupPlanMatchesRaw() throws IOException {
+		long timestamp = (System.currentTimeMillis() / 3600000) * 3600000;
+		Map<AggregationFunction, AggregatedSeries> rollup = aggregateAll(timestamp, "60,3600");
+		Map<AggregationFunction, AggregatedSeries> raw = aggregateAll(timestamp, "");
+		for (AggregationFunction function : rollup.keySet()) {
+			assertArrayEquals(raw.get(function).getTimestamps(), rollup.get(function).getTimestamps());
+			assertArrayEquals(raw.get(function).getValues(), rollup.get(function).getValues(), 1e-6);
+		}
+	}
+
+	private static Map<AggregationFunction, AggregatedSeries> aggregateAll(long timestamp, String rollups)
+			throws IOException {
+		TestRocksDBStorageEngine.deleteDirectories();
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.rollup.windows", rollups);
+		engine.configure(conf);
+		engine.connect();
+		Map<AggregationFunction, AggregatedSeries> results = new EnumMap<>(AggregationFunction.class);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			Random rand = new Random(11);
+			for (int i = 0; i < 3 * 720; i++) {
+				engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp + i * 5000 + 7,
+						rand.nextInt(1000));
+			}
+			AggregationEngine aggregation = new AggregationEngine(engine, pool);
+			for (AggregationFunction function : Arrays.asList(AggregationFunction.SUM, AggregationFunction.MIN,
+					AggregationFunction.MAX, AggregationFunction.COUNT, AggregationFunction.AVG)) {
+				// the range doesn't start or end on a window boundary
+				AggregationQuery query = new AggregationQuery("cpu", TimeUnit.MILLISECONDS, timestamp + 1234567,
+						timestamp + 10000000, 3600, function);
+				List<AggregatedSeries> series = aggregation.aggregate(query);
+				assertEquals(1, series.size());
+				results.put(function, series.get(0));
+			}
+		} finally {
+			pool.shutdown();
+			engine.disconnect();
+		}
+		return results;
+	}
+
+	@Test
+	public void testAggregateAcrossSeries() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		engine.connect();
+		long timestamp = (System.currentTimeMillis() / 3600000) * 3600000;
+		// 50 hosts in 5 dcs, a point every 10 seconds for an hour
+		for (int h = 0; h < 50; h++) {
+			for (int i = 0; i < 360; i++) {
+				engine.writeSeries("cpu", Arrays.asList("host" + h, "dc" + (h % 5)), TimeUnit.MILLISECONDS,
+						timestamp + i * 10000, h + i * 0.5);
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			AggregationEngine aggregation = new AggregationEngine(engine, pool);
+			AggregationQuery query = new AggregationQuery("cpu", TimeUnit.MILLISECONDS, timestamp,
+					timestamp + 3599999, 300, AggregationFunction.AVG).setFilter(TagFilter.tag("dc3")).setFp(true);
+			List<AggregatedSeries> results = aggregation.aggregate(query);
+			assertEquals(10, results.size());
+			for (AggregatedSeries series : results) {
+				int host = Integer.parseInt(series.getTags().get(1).substring(4));
+				assertEquals(3, host % 5);
+				assertEquals(12, series.size());
+				for (int w = 0; w < 12; w++) {
+					assertEquals(timestamp + w * 300000, series.getTimestamps()[w]);
+					// 30 points per window, the average of i * 0.5 over the window
+					assertEquals(host + (w * 30 + 14.5) * 0.5, series.getValues()[w], 1e-9);
+				}
+			}
+
+			query = new AggregationQuery("cpu", TimeUnit.SECONDS, timestamp / 1000, timestamp / 1000 + 3599, 3600,
+					AggregationFunction.COUNT);
+			results = aggregation.aggregate(query);
+			assertEquals(50, results.size());
+			for (AggregatedSeries series : results) {
+				assertArrayEquals(new double[] { 360 }, series.getValues(), 0);
+			}
+			assertEquals(0, aggregation.aggregate(new AggregationQuery("mem", TimeUnit.SECONDS, 0, 60, 60,
+					AggregationFunction.SUM)).size());
+		} finally {
+			pool.shutdown();
+			engine.disconnect();
+		}
+	}
+
+}
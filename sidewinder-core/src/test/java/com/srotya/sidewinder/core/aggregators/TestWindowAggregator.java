@@ -0,0 +1,126 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.aggregators;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.PointBlock;
+
+/**
+ * @author ambudsharma
+ */
+public class TestWindowAggregator {
+
+	private static final long START = 1474000040000L;
+
+	private static AggregatedSeries aggregate(AggregationFunction function, double percentile) {
+		WindowAggregator aggregator = new WindowAggregator(function, 60, (int) (START / 1000),
+				(int) (START / 1000) + 299, percentile);
+		// a point every 10 seconds starting 20 seconds into a one minute
+		// window, the first window is written last
+		for (int i = 6; i < 30; i++) {
+			aggregator.add(START + i * 10000, i);
+		}
+		for (int i = 0; i < 6; i++) {
+			aggregator.add(START + i * 10000, i);
+		}
+		// outside of the range
+		aggregator.add(START - 60000, 1000);
+		aggregator.add(START + 400000, 1000);
+		return aggregator.result(Arrays.asList("host1"));
+	}
+
+	@Test
+	public void testFunctions() {
+		long[] windows = new long[] { 1474000020000L, 1474000080000L, 1474000140000L, 1474000200000L,
+				1474000260000L, 1474000320000L };
+		AggregatedSeries series = aggregate(AggregationFunction.COUNT, 0);
+		assertEquals(Arrays.asList("host1"), series.getTags());
+		assertArrayEquals(windows, series.getTimestamps());
+		assertArrayEquals(new double[] { 4, 6, 6, 6, 6, 2 }, series.getValues(), 0);
+		assertArrayEquals(new double[] { 0 + 1 + 2 + 3, 4 + 5 + 6 + 7 + 8 + 9, 10 + 11 + 12 + 13 + 14 + 15,
+				16 + 17 + 18 + 19 + 20 + 21, 22 + 23 + 24 + 25 + 26 + 27, 28 + 29 },
+				aggregate(AggregationFunction.SUM, 0).getValues(), 0);
+		assertArrayEquals(new double[] { 0, 4, 10, 16, 22, 28 }, aggregate(AggregationFunction.MIN, 0).getValues(), 0);
+		assertArrayEquals(new double[] { 3, 9, 15, 21, 27, 29 }, aggregate(AggregationFunction.MAX, 0).getValues(), 0);
+		assertArrayEquals(new double[] { 1.5, 6.5, 12.5, 18.5, 24.5, 28.5 },
+				aggregate(AggregationFunction.AVG, 0).getValues(), 0);
+		assertArrayEquals(new double[] { 0.1, 0.1, 0.1, 0.1, 0.1, 0.1 }, aggregate(AggregationFunction.RATE, 0).getValues(),
+				1e-9);
+		assertArrayEquals(new double[] { 1, 6, 12, 18, 24, 28 },
+				aggregate(AggregationFunction.PERCENTILE, 50).getValues(), 0);
+		assertArrayEquals(new double[] { 3, 9, 15, 21, 27, 29 },
+				aggregate(AggregationFunction.PERCENTILE, 100).getValues(), 0);
+		assertArrayEquals(new double[] { 0, 4, 10, 16, 22, 28 },
+				aggregate(AggregationFunction.PERCENTILE, 0).getValues(), 0);
+	}
+
+	@Test
+	public void testBlocks() {
+		Random random = new Random(0);
+		long[] timestamps = new long[1000];
+		long[] values = new long[timestamps.length];
+		for (int i = 0; i < timestamps.length; i++) {
+			// mostly in order, some out of order and some out of the range
+			timestamps[i] = random.nextInt(10) == 0 ? START - 60000 + random.nextInt(420000) : START + i * 250;
+			values[i] = Double.doubleToLongBits(random.nextGaussian() * 100);
+		}
+		for (AggregationFunction function : AggregationFunction.values()) {
+			WindowAggregator points = new WindowAggregator(function, 60, (int) (START / 1000),
+					(int) (START / 1000) + 299, 90);
+			WindowAggregator blocks = new WindowAggregator(function, 60, (int) (START / 1000),
+					(int) (START / 1000) + 299, 90);
+			PointBlock block = new PointBlock(16);
+			for (int i = 0; i < timestamps.length; i++) {
+				points.add(timestamps[i], Double.longBitsToDouble(values[i]));
+				block.add(timestamps[i], values[i]);
+				if (block.isFull() || i == timestamps.length - 1) {
+					blocks.add(block, true);
+					block.clear();
+				}
+			}
+			AggregatedSeries expected = points.result(Arrays.asList("host1"));
+			AggregatedSeries actual = blocks.result(Arrays.asList("host1"));
+			assertArrayEquals(function.name(), expected.getTimestamps(), actual.getTimestamps());
+			assertArrayEquals(function.name(), expected.getValues(), actual.getValues(), 0);
+		}
+	}
+
+	@Test
+	public void testRateNeedsTwoPoints() {
+		WindowAggregator aggregator = new WindowAggregator(AggregationFunction.RATE, 60, 0, 119, 0);
+		aggregator.add(1000, 5);
+		aggregator.add(61000, 5);
+		aggregator.add(91000, 35);
+		AggregatedSeries series = aggregator.result(Arrays.asList());
+		assertArrayEquals(new long[] { 60000 }, series.getTimestamps());
+		assertArrayEquals(new double[] { 1 }, series.getValues(), 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTooManyWindows() {
+		new AggregationQuery("cpu", TimeUnit.SECONDS, 0, AggregationQuery.MAX_WINDOWS, 1,
+				AggregationFunction.SUM);
+	}
+
+}
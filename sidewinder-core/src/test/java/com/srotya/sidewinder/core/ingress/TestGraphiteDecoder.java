@@ -0,0 +1,80 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+
+/**
+ * @author ambudsharma
+ */
+public class TestGraphiteDecoder {
+
+	private static ByteBuffer direct(String lines) {
+		byte[] bytes = lines.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+		buf.put(bytes).flip();
+		return buf;
+	}
+
+	@Test
+	public void testDecode() {
+		GraphiteDecoder decoder = new GraphiteDecoder(10);
+		List<DataPoint> points = new ArrayList<>();
+		ByteBuffer buf = direct("servers.h1.cpu 0.5 1500000000\r\n\nservers.h1.cpu\t2  1500000001.5\n"
+				+ "disk;host=h1;dc=east 3 -1\nservers.h1.cpu 4");
+		assertEquals(0, decoder.decode(buf, false, points));
+		assertEquals(3, points.size());
+		// the incomplete last line is left in the buffer
+		assertEquals("servers.h1.cpu 4", StandardCharsets.UTF_8.decode(buf.duplicate()).toString());
+		DataPoint dp = points.get(0);
+		assertEquals("servers.h1.cpu", dp.getSeriesName());
+		assertTrue(dp.getTags().isEmpty());
+		assertEquals(1500000000000L, dp.getTimestamp());
+		assertTrue(dp.isFp());
+		assertEquals(0.5, Double.longBitsToDouble(dp.getValue()), 0);
+		assertEquals(1500000001500L, points.get(1).getTimestamp());
+		assertSame(dp.getTags(), points.get(1).getTags());
+		dp = points.get(2);
+		assertEquals("disk", dp.getSeriesName());
+		assertEquals(Arrays.asList("dc=east", "host=h1"), dp.getTags());
+		assertTrue(Math.abs(dp.getTimestamp() - System.currentTimeMillis()) < 60000);
+		assertEquals(0, decoder.decode(buf, true, points));
+		assertEquals(4, points.size());
+		assertFalse(buf.hasRemaining());
+	}
+
+	@Test
+	public void testRejected() {
+		GraphiteDecoder decoder = new GraphiteDecoder(10);
+		List<DataPoint> points = new ArrayList<>();
+		ByteBuffer buf = direct("a.b\n" + "a.b x 1\n" + "a.b 1 x\n" + "a.b 1 2 3\n" + ";k=v 1\n" + "a;k 1\n"
+				+ "a.b 1 2\n");
+		assertEquals(6, decoder.decode(buf, true, points));
+		assertEquals(1, points.size());
+		assertEquals(2000, points.get(0).getTimestamp());
+	}
+
+}
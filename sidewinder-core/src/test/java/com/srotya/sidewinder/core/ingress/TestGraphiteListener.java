@@ -0,0 +1,154 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+import com.srotya.sidewinder.core.storage.StorageEngine;
+
+/**
+ * @author ambudsharma
+ */
+public class TestGraphiteListener {
+
+	private List<DataPoint> written = Collections.synchronizedList(new ArrayList<>());
+
+	/**
+	 * @param release
+	 *            writes wait for it if not null
+	 * @return engine collecting the written points
+	 */
+	@SuppressWarnings("unchecked")
+	private StorageEngine engine(CountDownLatch release) {
+		return (StorageEngine) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { StorageEngine.class }, (proxy, method, args) -> {
+					if (method.getName().equals("writeBatch")) {
+						if (release != null) {
+							release.await();
+						}
+						written.addAll((Collection<DataPoint>) args[0]);
+					}
+					return null;
+				});
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	private void await(int count) throws InterruptedException {
+		for (int i = 0; i < 500 && written.size() < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testTcp() throws Exception {
+		GraphiteListener listener = new GraphiteListener(engine(null), freePort(), 0, 2, 2, 4, 100, 100);
+		listener.start();
+		try {
+			for (int c = 0; c < 3; c++) {
+				try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), listener.getTcpPort())) {
+					OutputStream out = socket.getOutputStream();
+					for (int i = 0; i < 1000; i++) {
+						// lines split over writes
+						out.write(("servers.h" + c + ".cpu " + i + " ").getBytes(StandardCharsets.UTF_8));
+						out.flush();
+						out.write((i + "\n").getBytes(StandardCharsets.UTF_8));
+					}
+					out.write("bad line\nservers.last 1 1".getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			await(3003);
+		} finally {
+			listener.stop();
+		}
+		assertEquals(3003, written.size());
+		assertEquals(3003, listener.getPoints());
+		assertEquals(3, listener.getRejected());
+		long sum = 0;
+		for (DataPoint dp : written) {
+			sum += dp.getTimestamp();
+		}
+		assertEquals(3 * (999 * 1000 / 2 + 1) * 1000L, sum);
+	}
+
+	@Test
+	public void testUdp() throws Exception {
+		int port;
+		try (DatagramSocket socket = new DatagramSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		GraphiteListener listener = new GraphiteListener(engine(null), 0, port, 1, 1, 4, 100, 100);
+		listener.start();
+		try (DatagramSocket socket = new DatagramSocket()) {
+			byte[] data = "a.b 1 1\na.c;k=v 2 2".getBytes(StandardCharsets.UTF_8);
+			socket.send(new DatagramPacket(data, data.length, InetAddress.getLoopbackAddress(), port));
+			await(2);
+		} finally {
+			listener.stop();
+		}
+		assertEquals(2, written.size());
+		assertEquals(0, listener.getTcpPort());
+	}
+
+	@Test
+	public void testBackpressure() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		GraphiteListener listener = new GraphiteListener(engine(release), freePort(), 0, 1, 1, 1, 10, 100);
+		listener.start();
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), listener.getTcpPort())) {
+			OutputStream out = socket.getOutputStream();
+			StringBuilder lines = new StringBuilder();
+			for (int i = 0; i < 10000; i++) {
+				lines.append("a.b ").append(i).append(' ').append(i).append('\n');
+			}
+			out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+			out.flush();
+			// the writer is blocked, so the event loop has to wait for room
+			for (int i = 0; i < 500 && listener.getStalls() == 0; i++) {
+				Thread.sleep(10);
+			}
+			assertTrue(listener.getStalls() > 0);
+			assertTrue(written.isEmpty());
+			release.countDown();
+		}
+		await(10000);
+		listener.stop();
+		assertEquals(10000, written.size());
+	}
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.ingress;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.srotya.sidewinder.core.storage.DataPoint;
+
+/**
+ * @author ambudsharma
+ */
+public class TestLineProtocolParser {
+
+	private List<DataPoint> points = new ArrayList<>();
+	private int batches;
+
+	private long parse(LineProtocolParser parser, String lines, TimeUnit precision) throws IOException {
+		return parser.parse(new ByteArrayInputStream(lines.getBytes(StandardCharsets.UTF_8)), precision, batch -> {
+			batches++;
+			points.addAll(batch);
+		});
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		LineProtocolParser parser = new LineProtocolParser(100, 100);
+		long count = parse(parser,
+				"cpu,host=h1,dc=east value=0.5 1000\n" + "cpu,host=h1,dc=east user=1i,idle=true,msg=\"a b\" 2000\r\n"
+						+ "\n# comment\n" + "mem free=2.5e3,used=-3",
+				TimeUnit.MILLISECONDS);
+		assertEquals(5, count);
+		assertEquals(0, parser.getRejected());
+		assertEquals(5, points.size());
+		DataPoint dp = points.get(0);
+		assertEquals("cpu", dp.getSeriesName());
+		assertEquals(Arrays.asList("dc=east", "host=h1"), dp.getTags());
+		assertEquals(1000, dp.getTimestamp());
+		assertTrue(dp.isFp());
+		assertEquals(0.5, Double.longBitsToDouble(dp.getValue()), 0);
+		dp = points.get(1);
+		assertEquals("cpu.user", dp.getSeriesName());
+		assertFalse(dp.isFp());
+		assertEquals(1, dp.getValue());
+		assertSame(points.get(0).getTags(), dp.getTags());
+		dp = points.get(2);
+		assertEquals("cpu.idle", dp.getSeriesName());
+		assertEquals(1, dp.getValue());
+		assertEquals(2000, dp.getTimestamp());
+		dp = points.get(3);
+		assertEquals("mem.free", dp.getSeriesName());
+		assertTrue(dp.getTags().isEmpty());
+		assertEquals(2500, Double.longBitsToDouble(dp.getValue()), 0);
+		assertTrue(Math.abs(dp.getTimestamp() - System.currentTimeMillis()) < 60000);
+		assertEquals(-3, Double.longBitsToDouble(points.get(4).getValue()), 0);
+	}
+
+	@Test
+	public void testEscapes() throws IOException {
+		LineProtocolParser parser = new LineProtocolParser(100, 100);
+		parse(parser, "disk\\ io,path=/a\\,b,na\\=me=x\\ y read\\ ops=1 1\n", TimeUnit.SECONDS);
+		assertEquals(0, parser.getRejected());
+		assertEquals(1, points.size());
+		assertEquals("disk io.read ops", points.get(0).getSeriesName());
+		assertEquals(Arrays.asList("na=me=x y", "path=/a,b"), points.get(0).getTags());
+		assertEquals(1000, points.get(0).getTimestamp());
+	}
+
+	@Test
+	public void testPrecision() throws IOException {
+		LineProtocolParser parser = new LineProtocolParser(100, 100);
+		parse(parser, "a value=1 1500000000\nb value=1 1500000000", TimeUnit.NANOSECONDS);
+		parse(parser, "c value=1 1500000", TimeUnit.MICROSECONDS);
+		assertEquals(1500, points.get(0).getTimestamp());
+		assertEquals(1500, points.get(1).getTimestamp());
+		assertEquals(1500, points.get(2).getTimestamp());
+	}
+
+	@Test
+	public void testRejected() throws IOException {
+		LineProtocolParser parser = new LineProtocolParser(100, 100);
+		long count = parse(parser,
+				"cpu value=1 1\n" + "cpu\n" + "cpu,host value=1\n" + "cpu a=1,b=x 1\n" + "cpu a=1 abc\n"
+						+ ",host=a value=1\n" + "cpu a=\"open\n" + "cpu a=1i,b=1.5 2",
+				TimeUnit.MILLISECONDS);
+		assertEquals(3, count);
+		assertEquals(6, parser.getRejected());
+		assertEquals("line 2: missing fields", parser.getFirstRejected());
+		// the valid field of a rejected line isn't written
+		assertEquals(Arrays.asList(1L, 2L, 2L),
+				Arrays.asList(points.get(0).getTimestamp(), points.get(1).getTimestamp(), points.get(2).getTimestamp()));
+		parse(parser, "cpu value=1", TimeUnit.MILLISECONDS);
+		assertEquals(0, parser.getRejected());
+		assertNull(parser.getFirstRejected());
+	}
+
+	@Test
+	public void testBatches() throws IOException {
+		LineProtocolParser parser = new LineProtocolParser(10, 4);
+		StringBuilder lines = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			lines.append("cpu,host=h").append(i % 7).append(" a=").append(i).append(",b=").append(i).append(' ')
+					.append(i).append('\n');
+		}
+		// a stream handing out a few bytes per read so lines span reads
+		byte[] bytes = lines.toString().getBytes(StandardCharsets.UTF_8);
+		InputStream in = new ByteArrayInputStream(bytes) {
+			@Override
+			public synchronized int read(byte[] b, int off, int len) {
+				return super.read(b, off, Math.min(len, 7));
+			}
+		};
+		assertEquals(2000, parser.parse(in, TimeUnit.MILLISECONDS, batch -> {
+			assertTrue(batch.size() <= 11);
+			batches++;
+			points.addAll(batch);
+		}));
+		assertEquals(2000, points.size());
+		assertTrue(batches >= 2000 / 11);
+		for (int i = 0; i < 1000; i++) {
+			DataPoint a = points.get(i * 2);
+			assertEquals("cpu.a", a.getSeriesName());
+			assertEquals(Arrays.asList("host=h" + i % 7), a.getTags());
+			assertEquals(i, a.getTimestamp());
+			assertEquals(i, Double.longBitsToDouble(a.getValue()), 0);
+			assertEquals("cpu.b", points.get(i * 2 + 1).getSeriesName());
+		}
+	}
+
+	@Test
+	public void testLongLines() throws IOException {
+		LineProtocolParser parser = new LineProtocolParser(10, 10);
+		StringBuilder line = new StringBuilder("cpu");
+		for (int i = 0; i < 20000; i++) {
+			line.append(",tag").append(i).append("=v");
+		}
+		line.append(" value=1 1\ncpu value=2 2");
+		assertEquals(2, parse(parser, line.toString(), TimeUnit.MILLISECONDS));
+		assertEquals(20000, points.get(0).getTags().size());
+	}
+
+	@Test
+	public void testParseNumbers() {
+		Random random = new Random(0);
+		for (int i = 0; i < 100000; i++) {
+			String value;
+			switch (i % 4) {
+			case 0:
+				value = Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(20) - 10));
+				break;
+			case 1:
+				value = Double.toString(-random.nextGaussian() * 1000);
+				break;
+			case 2:
+				value = String.format(Locale.ROOT, "%.3f", random.nextDouble() * 100);
+				break;
+			default:
+				value = Long.toString(random.nextInt());
+			}
+			byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+			assertEquals(value, Double.parseDouble(value), LineProtocolParser.parseDouble(b, 0, b.length), 0);
+		}
+		for (String value : new String[] { "0", "-0.0", ".5", "5.", "1e22", "1E-5", "123456789012345678",
+				"0.000000000000000000000000001", "1.7976931348623157E308" }) {
+			byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+			assertEquals(value, Double.parseDouble(value), LineProtocolParser.parseDouble(b, 0, b.length), 0);
+		}
+		for (String value : new String[] { "0", "-1", "+42", String.valueOf(Long.MAX_VALUE),
+				String.valueOf(Long.MIN_VALUE) }) {
+			byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+			assertEquals(Long.parseLong(value), LineProtocolParser.parseLong(b, 0, b.length));
+		}
+		for (String value : new String[] { "", "-", "1a", "9223372036854775808", "-9223372036854775809" }) {
+			byte[] b = value.getBytes(StandardCharsets.US_ASCII);
+			try {
+				LineProtocolParser.parseLong(b, 0, b.length);
+				fail(value);
+			} catch (NumberFormatException e) {
+			}
+		}
+	}
+
+}
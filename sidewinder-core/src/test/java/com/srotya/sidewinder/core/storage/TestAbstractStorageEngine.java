@@ -15,10 +15,14 @@
  */
 package com.srotya.sidewinder.core.storage;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -47,6 +51,34 @@ public class TestAbstractStorageEngine {
 		assertEquals((byte) 't', rowKey[9]);
 	}
 
+	@Test
+	public void testBuildRowKeyDoesNotSortTags() throws IOException {
+		AbstractStorageEngine engine = new TestStorageEngine();
+		long timestamp = System.currentTimeMillis();
+		List<String> tags = Arrays.asList("ten", "one", "five");
+		byte[] rowKey = engine.buildRowKey("testSeries1", tags, TimeUnit.MILLISECONDS, timestamp);
+		assertEquals(Arrays.asList("ten", "one", "five"), tags);
+		assertArrayEquals(rowKey, engine.buildRowKey("testSeries1", Arrays.asList("one", "five", "ten"),
+				TimeUnit.MILLISECONDS, timestamp));
+
+		ByteBuffer buf = ByteBuffer.allocate(64);
+		buf.put((byte) 1);
+		engine.buildRowKey(buf, "testSeries1", tags, TimeUnit.MILLISECONDS, timestamp);
+		assertEquals(1 + AbstractStorageEngine.rowKeyLength(tags), buf.position());
+		assertArrayEquals(rowKey, Arrays.copyOfRange(buf.array(), 1, buf.position()));
+	}
+
+	@Test
+	public void testBuildRowKeyManyTags() throws IOException {
+		AbstractStorageEngine engine = new TestStorageEngine();
+		List<String> tags = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			tags.add("tag" + (1000 + i));
+		}
+		byte[] rowKey = engine.buildRowKey("testSeries1", tags, TimeUnit.MILLISECONDS, System.currentTimeMillis());
+		assertEquals(AbstractStorageEngine.rowKeyLength(tags), rowKey.length);
+	}
+
 	@Test
 	public void testPerfBuildRowKey() throws IOException {
 		AbstractStorageEngine engine = new TestStorageEngine();
@@ -68,10 +100,21 @@ public class TestAbstractStorageEngine {
 		}
 
 		@Override
-		public void writeSeriesPoint(byte[] rowKey, long tsBucketOffset, byte[] value) throws IOException {
+		public void writeSeriesPoint(byte[] rowKey, long timestamp, long value, boolean fp) throws IOException {
 			// do nothing
 		}
 
+		@Override
+		public SeriesIterator queryRows(byte[] prefix, int startBucket, int endBucket, long startTime, long endTime)
+				throws IOException {
+			return EMPTY_ITERATOR;
+		}
+
+		@Override
+		public List<List<String>> findSeries(String seriesName, TagFilter filter) throws IOException {
+			return new ArrayList<>();
+		}
+
 		@Override
 		public void connect() throws IOException {
 		}
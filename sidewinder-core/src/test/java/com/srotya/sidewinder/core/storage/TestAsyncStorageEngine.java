@@ -0,0 +1,120 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestAsyncStorageEngine {
+
+	private List<DataPoint> written = Collections.synchronizedList(new ArrayList<>());
+	private volatile boolean fail;
+
+	@SuppressWarnings("unchecked")
+	private AsyncStorageEngine engine(String ack, int ringSize) throws IOException {
+		StorageEngine delegate = (StorageEngine) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { StorageEngine.class }, (proxy, method, args) -> {
+					if (method.getName().equals("writeBatch")) {
+						if (fail) {
+							throw new IOException("failed");
+						}
+						written.addAll((Collection<DataPoint>) args[0]);
+					}
+					return null;
+				});
+		Map<String, String> conf = new HashMap<>();
+		conf.put("async.writers", "3");
+		conf.put("async.ring.size", String.valueOf(ringSize));
+		conf.put("async.batch.size", "100");
+		conf.put("async.ack", ack);
+		AsyncStorageEngine engine = new AsyncStorageEngine(delegate);
+		engine.configure(conf);
+		engine.connect();
+		return engine;
+	}
+
+	@Test
+	public void testAckNone() throws Exception {
+		AsyncStorageEngine engine = engine("none", 16);
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		for (int t = 0; t < 4; t++) {
+			List<String> tags = Arrays.asList("host=h" + t);
+			es.submit(() -> {
+				for (int i = 0; i < 1000; i++) {
+					engine.writeSeries("cpu", tags, TimeUnit.SECONDS, i, (double) i);
+				}
+				return null;
+			});
+		}
+		es.shutdown();
+		assertTrue(es.awaitTermination(10, TimeUnit.SECONDS));
+		engine.disconnect();
+		assertEquals(4000, written.size());
+		assertEquals(4000, engine.getCommitted());
+		assertEquals(0, engine.getQueueDepth());
+		// every series is written in order by a single writer
+		Map<List<String>, Long> last = new HashMap<>();
+		for (DataPoint dp : written) {
+			Long previous = last.put(dp.getTags(), dp.getTimestamp());
+			assertTrue(previous == null || previous < dp.getTimestamp());
+			assertTrue(dp.isFp());
+		}
+		assertEquals(4, last.size());
+		assertEquals(999000L, (long) last.get(Arrays.asList("host=h0")));
+	}
+
+	@Test
+	public void testAckCommit() throws Exception {
+		AsyncStorageEngine engine = engine("commit", 1024);
+		engine.writeSeries("cpu", Arrays.asList("host=h1"), TimeUnit.MILLISECONDS, 1, 2L);
+		assertEquals(1, written.size());
+		List<DataPoint> batch = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			batch.add(new DataPoint("cpu", Arrays.asList("host=h" + (i % 10)), i, i));
+		}
+		engine.writeBatch(batch);
+		assertEquals(501, written.size());
+		fail = true;
+		try {
+			engine.writeBatch(batch);
+			fail("Failed batches must be reported");
+		} catch (IOException e) {
+		}
+		assertEquals(500, engine.getFailed());
+		fail = false;
+		engine.writeSeries("cpu", Arrays.asList("host=h1"), TimeUnit.MILLISECONDS, 2, 2L);
+		assertEquals(502, written.size());
+		engine.disconnect();
+	}
+
+}
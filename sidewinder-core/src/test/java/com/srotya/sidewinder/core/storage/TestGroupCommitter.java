@@ -0,0 +1,128 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestGroupCommitter {
+
+	@Test
+	public void testConcurrentWritersAreMerged() throws Exception {
+		AtomicInteger commits = new AtomicInteger();
+		AtomicInteger points = new AtomicInteger();
+		GroupCommitter committer = new GroupCommitter((batch) -> {
+			commits.incrementAndGet();
+			points.addAndGet(batch.size());
+		}, 50, 100000);
+		ExecutorService es = Executors.newFixedThreadPool(16);
+		for (int i = 0; i < 16; i++) {
+			es.submit(() -> {
+				committer.write(Arrays.asList(new DataPoint("cpu", Arrays.asList("host1"), 1L, 1L)));
+				return null;
+			});
+		}
+		es.shutdown();
+		es.awaitTermination(10, TimeUnit.SECONDS);
+		committer.close();
+		assertEquals(16, points.get());
+		assertTrue(commits.get() < 16);
+	}
+
+	@Test
+	public void testMaxPoints() throws Exception {
+		AtomicInteger commits = new AtomicInteger();
+		GroupCommitter committer = new GroupCommitter((batch) -> commits.incrementAndGet(), 10000, 1);
+		committer.write(Arrays.asList(new DataPoint("cpu", Arrays.asList("host1"), 1L, 1L)));
+		committer.write(Arrays.asList(new DataPoint("cpu", Arrays.asList("host1"), 2L, 1L)));
+		assertEquals(2, commits.get());
+		committer.close();
+	}
+
+	@Test(expected = IOException.class)
+	public void testCommitFailure() throws Exception {
+		GroupCommitter committer = new GroupCommitter((batch) -> {
+			throw new IOException("failed");
+		}, 1, 100);
+		try {
+			committer.write(Arrays.asList(new DataPoint("cpu", Arrays.asList("host1"), 1L, 1L)));
+		} finally {
+			committer.close();
+		}
+	}
+
+	@Test
+	public void testFailureIsolated() throws Exception {
+		AtomicInteger points = new AtomicInteger();
+		GroupCommitter committer = new GroupCommitter((batch) -> {
+			for (DataPoint dp : batch) {
+				if (dp.getTags().isEmpty()) {
+					throw new IllegalArgumentException("no tags");
+				}
+			}
+			points.addAndGet(batch.size());
+		}, 50, 100000);
+		ExecutorService es = Executors.newFixedThreadPool(16);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < 16; i++) {
+			List<String> tags = i == 0 ? Collections.emptyList() : Arrays.asList("host1");
+			futures.add(es.submit(() -> {
+				committer.write(Arrays.asList(new DataPoint("cpu", tags, 1L, 1L)));
+				return null;
+			}));
+		}
+		es.shutdown();
+		try {
+			futures.get(0).get();
+			fail("Batch must fail");
+		} catch (ExecutionException e) {
+			// not wrapped by the committer
+			assertTrue(e.getCause() instanceof IllegalArgumentException);
+		}
+		for (int i = 1; i < 16; i++) {
+			futures.get(i).get();
+		}
+		committer.close();
+		assertEquals(15, points.get());
+	}
+
+	@Test(expected = IOException.class)
+	public void testWriteAfterClose() throws Exception {
+		GroupCommitter committer = new GroupCommitter((batch) -> {
+		}, 1, 100);
+		committer.close();
+		committer.write(Arrays.asList(new DataPoint("cpu", Arrays.asList("host1"), 1L, 1L)));
+	}
+
+}
@@ -0,0 +1,335 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestHeadBlock {
+
+	private static final List<String> TAGS = Arrays.asList("host1");
+	private static final long BUCKET_MS = AbstractStorageEngine.BUCKET_SIZE * 1000L;
+	private long bucket;
+	/**
+	 * First minute of the bucket, rollup windows don't align with buckets
+	 */
+	private long minute;
+	private long offset;
+
+	@Before
+	public void before() throws IOException {
+		TestRocksDBStorageEngine.deleteDirectories();
+		bucket = System.currentTimeMillis() / BUCKET_MS * BUCKET_MS;
+		minute = (bucket + 59999) / 60000 * 60000;
+		offset = (minute - bucket) / 1000;
+	}
+
+	private static RocksDBStorageEngine engine(boolean flushOnDisconnect) throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.head.enabled", "true");
+		conf.put("tsdb.head.flush.on.disconnect", String.valueOf(flushOnDisconnect));
+		// flushed explicitly
+		conf.put("tsdb.head.flush.interval.ms", "3600000");
+		conf.put("tsdb.rollup.windows", "60");
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		return engine;
+	}
+
+	private static void write(RocksDBStorageEngine engine, long start, int from, int to) throws IOException {
+		for (int i = from; i < to; i++) {
+			long timestamp = start + i * 1000;
+			engine.writeSeries("cpu", TAGS, TimeUnit.MILLISECONDS, timestamp, timestamp % BUCKET_MS / 1000);
+		}
+	}
+
+	/**
+	 * @return number of points, checking they are in order and not repeated
+	 */
+	private static int query(RocksDBStorageEngine engine, long start, long end) throws IOException {
+		int count = 0;
+		long last = -1;
+		try (SeriesIterator itr = engine.queryRange("cpu", TAGS, TimeUnit.MILLISECONDS, start, end)) {
+			while (itr.next()) {
+				assertTrue(itr.getTimestamp() > last);
+				assertEquals(itr.getTimestamp() % BUCKET_MS / 1000, itr.getValue());
+				last = itr.getTimestamp();
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private int storedPoints(RocksDBStorageEngine engine, long timestamp) throws Exception {
+		byte[] rowKey = engine.buildRowKey("cpu", TAGS, TimeUnit.MILLISECONDS, timestamp);
+		return engine.getBucketFromDS(rowKey).getCount();
+	}
+
+	@Test
+	public void testWritesStayInHead() throws Exception {
+		RocksDBStorageEngine engine = engine(true);
+		write(engine, minute, 0, 100);
+		assertEquals(100, engine.getHead().getPoints());
+		assertEquals(0, storedPoints(engine, bucket));
+		assertEquals(100, query(engine, bucket, bucket + BUCKET_MS));
+		assertEquals(10, query(engine, minute + 10000, minute + 19999));
+		// the bucket is still open
+		assertEquals(0, engine.flushHead(bucket + 1000, false));
+		try (SummaryIterator itr = engine.querySummaries("cpu", TAGS, 60, TimeUnit.MILLISECONDS, minute,
+				minute + 119999)) {
+			assertTrue(itr.next());
+			assertEquals(minute, itr.getTimestamp());
+			assertEquals(60, itr.getSummary().getCount());
+			assertTrue(itr.next());
+			assertEquals(40, itr.getSummary().getCount());
+			assertEquals(offset + 99, itr.getSummary().getMax(), 0);
+			assertFalse(itr.next());
+		}
+		engine.disconnect();
+		engine = engine(true);
+		assertEquals(0, engine.getHead().getPoints());
+		assertEquals(100, storedPoints(engine, bucket));
+		assertEquals(100, query(engine, bucket, bucket + BUCKET_MS));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testClosedBucketsFlush() throws Exception {
+		RocksDBStorageEngine engine = engine(true);
+		long old = bucket - 2 * BUCKET_MS;
+		write(engine, old, 0, 50);
+		write(engine, bucket, 0, 50);
+		assertEquals(50, engine.flushHead(bucket + 1000, false));
+		assertEquals(50, engine.getHead().getPoints());
+		assertEquals(50, storedPoints(engine, old));
+		assertEquals(50, query(engine, old, old + BUCKET_MS));
+		assertEquals(50, query(engine, bucket, bucket + BUCKET_MS));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testMergeWithFlushedPoints() throws Exception {
+		RocksDBStorageEngine engine = engine(true);
+		write(engine, minute, 0, 30);
+		assertEquals(30, engine.flushHead(bucket, true));
+		write(engine, minute, 30, 90);
+		assertEquals(30, storedPoints(engine, bucket));
+		// flushed points of the bucket come before the ones in the head
+		assertEquals(90, query(engine, bucket, bucket + BUCKET_MS));
+		try (SummaryIterator itr = engine.querySummaries("cpu", TAGS, 60, TimeUnit.MILLISECONDS, minute,
+				minute + 119999)) {
+			assertTrue(itr.next());
+			assertEquals(60, itr.getSummary().getCount());
+			assertEquals(offset, itr.getSummary().getMin(), 0);
+			assertEquals(offset + 59, itr.getSummary().getMax(), 0);
+			assertTrue(itr.next());
+			assertEquals(30, itr.getSummary().getCount());
+			assertFalse(itr.next());
+		}
+		engine.disconnect();
+	}
+
+	@Test
+	public void testMemoryPressure() throws Exception {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.head.enabled", "true");
+		conf.put("tsdb.head.max.points", "100");
+		conf.put("tsdb.head.flush.interval.ms", "3600000");
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		write(engine, bucket - BUCKET_MS, 0, 60);
+		write(engine, bucket, 0, 60);
+		// oldest buckets first, down to 3/4 of the limit
+		for (int i = 0; i < 100 && engine.getHead().getPoints() > 75; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(60, engine.getHead().getPoints());
+		assertEquals(60, storedPoints(engine, bucket - BUCKET_MS));
+		assertEquals(120, query(engine, bucket - BUCKET_MS, bucket + BUCKET_MS));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testReplay() throws Exception {
+		RocksDBStorageEngine engine = engine(false);
+		write(engine, bucket, 0, 100);
+		engine.disconnect();
+		engine = engine(false);
+		assertEquals(100, engine.getRecoveryStats().getHeadPoints());
+		assertEquals(100, engine.getHead().getPoints());
+		assertEquals(0, storedPoints(engine, bucket));
+		assertEquals(100, query(engine, bucket, bucket + BUCKET_MS));
+		// flushed points are still in the current log segment
+		assertEquals(100, engine.flushHead(bucket, true));
+		write(engine, bucket, 100, 110);
+		engine.disconnect();
+		engine = engine(false);
+		assertEquals(10, engine.getRecoveryStats().getHeadPoints());
+		assertEquals(0, engine.getRecoveryStats().getHeadSkipped());
+		write(engine, bucket, 110, 120);
+		engine.flushHead(bucket, true);
+		write(engine, bucket, 120, 125);
+		engine.disconnect();
+		engine = engine(false);
+		// the segment of the previous session was deleted by the flush, the
+		// flushed points of this one are skipped
+		assertEquals(5, engine.getRecoveryStats().getHeadPoints());
+		assertEquals(10, engine.getRecoveryStats().getHeadSkipped());
+		assertEquals(120, storedPoints(engine, bucket));
+		assertEquals(125, query(engine, bucket, bucket + BUCKET_MS));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testReplayLongKeys() throws Exception {
+		List<String> tags = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			tags.add("tag" + i);
+		}
+		RocksDBStorageEngine engine = engine(false);
+		for (int i = 0; i < 10; i++) {
+			engine.writeSeries("cpu", tags, TimeUnit.MILLISECONDS, bucket + i * 1000, i);
+			engine.writeSeries("cpu", TAGS, TimeUnit.MILLISECONDS, bucket + i * 1000, i);
+		}
+		engine.disconnect();
+		engine = engine(false);
+		assertEquals(20, engine.getRecoveryStats().getHeadPoints());
+		try (SeriesIterator itr = engine.queryRange("cpu", tags, TimeUnit.MILLISECONDS, bucket,
+				bucket + BUCKET_MS)) {
+			for (int i = 0; i < 10; i++) {
+				assertTrue(itr.next());
+				assertEquals(i, itr.getValue());
+			}
+			assertFalse(itr.next());
+		}
+		assertEquals(10, query(engine, bucket, bucket + BUCKET_MS));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testWal() throws Exception {
+		String directory = "target/headw";
+		HeadWal wal = new HeadWal(directory, 100, false);
+		assertEquals(0, wal.replay((seq, rowKey, timestamp, value, fp) -> fail()));
+		wal.open();
+		byte[] rowKey = new byte[] { 1, 2, 3, 4, 5, 6, 7 };
+		for (int i = 0; i < 10; i++) {
+			assertEquals(i, wal.append(rowKey, i, i * 2, i % 2 == 0));
+		}
+		wal.close();
+		// records are 30 bytes, a segment is rolled once it reaches 100
+		assertEquals(3, wal.getSegments());
+		assertEquals(4, wal.deleteBefore(7));
+		wal = new HeadWal(directory, 100, false);
+		long[] next = new long[] { 4 };
+		assertEquals(6, wal.replay((seq, key, timestamp, value, fp) -> {
+			assertEquals(next[0]++, seq);
+			assertArrayEquals(rowKey, key);
+			assertEquals(seq, timestamp);
+			assertEquals(seq * 2, value);
+			assertEquals(seq % 2 == 0, fp);
+		}));
+		wal.open();
+		assertEquals(10, wal.append(rowKey, 10, 20, true));
+		wal.close();
+	}
+
+	@Test
+	public void testSeriesChurn() throws Exception {
+		HeadBlock head = new HeadBlock(null);
+		int bucketSeconds = (int) (bucket / 1000);
+		AtomicBoolean done = new AtomicBoolean();
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			int thread = t;
+			futures.add(es.submit(() -> {
+				// a few series, dropped and re-created as they are flushed
+				for (int i = 0; i < 200000; i++) {
+					byte[] rowKey = ByteBuffer.allocate(10).putShort((short) thread).putInt(i % 8).array();
+					RocksDBSeriesIterator.writeBucket(rowKey, 6, bucketSeconds);
+					head.append(rowKey, bucket + i, i, false);
+				}
+				return null;
+			}));
+		}
+		es.shutdown();
+		long flushed = 0;
+		while (!done.get()) {
+			done.set(es.isTerminated());
+			for (HeadBlock.Chunk chunk : head.select(Long.MAX_VALUE, 0)) {
+				flushed += chunk.close().getCount();
+				head.remove(chunk);
+			}
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		assertEquals(4 * 200000, flushed);
+		assertEquals(0, head.getPoints());
+		// flushed series aren't held
+		assertEquals(0, head.getSeries());
+	}
+
+	@Test
+	public void testWalLongKeys() throws Exception {
+		String directory = "target/headw";
+		HeadWal wal = new HeadWal(directory, 1024 * 1024, false);
+		wal.open();
+		// a series with 200 tags, then short keys after it
+		byte[] longKey = new byte[AbstractStorageEngine.rowKeyLength(Collections.nCopies(200, "tag"))];
+		Arrays.fill(longKey, (byte) 7);
+		byte[] shortKey = new byte[] { 1, 2, 3, 4, 5, 6, 7 };
+		for (int i = 0; i < 10; i++) {
+			wal.append(i % 2 == 0 ? longKey : shortKey, i, i, false);
+		}
+		try {
+			wal.append(new byte[HeadWal.MAX_KEY_LENGTH + 1], 10, 10, false);
+			fail("Row key must be rejected");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(10, wal.getNextSeq());
+		wal.close();
+		wal = new HeadWal(directory, 1024 * 1024, false);
+		assertEquals(10, wal.replay((seq, key, timestamp, value, fp) -> {
+			assertArrayEquals(seq % 2 == 0 ? longKey : shortKey, key);
+			assertEquals(seq, timestamp);
+		}));
+		wal.close();
+	}
+
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+
+/**
+ * @author ambudsharma
+ */
+public class TestIdentifierDictionary {
+
+	private static final String DB_PATH = "target/test-dictionary";
+
+	static {
+		RocksDB.loadLibrary();
+	}
+
+	@Before
+	public void before() throws IOException {
+		FileUtils.deleteDirectory(new File(DB_PATH));
+		new File(DB_PATH).mkdirs();
+	}
+
+	@Test
+	public void testConcurrentRegistration() throws RocksDBException, InterruptedException, IOException {
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			dictionary.load();
+			byte[][][] ids = new byte[16][1000][];
+			ExecutorService es = Executors.newFixedThreadPool(16);
+			for (int t = 0; t < 16; t++) {
+				final int thread = t;
+				es.submit(() -> {
+					for (int i = 0; i < 1000; i++) {
+						ids[thread][i] = dictionary.getOrAllocate("tag" + i);
+					}
+					return null;
+				});
+			}
+			es.shutdown();
+			es.awaitTermination(100, TimeUnit.SECONDS);
+			assertEquals(1000, dictionary.size());
+			BitSet allocated = new BitSet();
+			for (int i = 0; i < 1000; i++) {
+				for (int t = 1; t < 16; t++) {
+					assertArrayEquals(ids[0][i], ids[t][i]);
+				}
+				int id = IdentifierDictionary.toId(ids[0][i], 0);
+				assertTrue(id >= 1 && id <= 1000);
+				allocated.set(id);
+				assertEquals("tag" + i, dictionary.getIdentifier(id));
+			}
+			assertEquals(1000, allocated.cardinality());
+			assertNull(dictionary.getIdentifier(1001));
+		}
+	}
+
+	@Test
+	public void testEviction() throws RocksDBException, IOException {
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 16);
+			for (int i = 0; i < 1000; i++) {
+				dictionary.getOrAllocate("tag" + i);
+			}
+			assertTrue(dictionary.getCacheStats().evictionCount() > 0);
+			// identifiers seen after the cache filled up are still cached
+			long misses = dictionary.getCacheStats().missCount();
+			for (int i = 0; i < 10; i++) {
+				assertEquals(1000, IdentifierDictionary.toId(dictionary.getOrAllocate("tag999"), 0));
+			}
+			assertEquals(misses, dictionary.getCacheStats().missCount());
+		}
+	}
+
+	@Test
+	public void testReload() throws RocksDBException, IOException {
+		byte[] cpu;
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			dictionary.load();
+			cpu = dictionary.getOrAllocate("cpu");
+			dictionary.getOrAllocate("host1");
+		}
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			dictionary.load();
+			assertEquals(2, dictionary.size());
+			assertArrayEquals(cpu, dictionary.getOrAllocate("cpu"));
+			assertEquals(0, dictionary.getCacheStats().missCount());
+			assertEquals(3, IdentifierDictionary.toId(dictionary.getOrAllocate("app1"), 0));
+		}
+	}
+
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestMemStorageEngine {
+
+	private static final long BUCKET_MS = AbstractStorageEngine.BUCKET_SIZE * 1000L;
+
+	private static MemStorageEngine engine(String maxMb) throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("mem.max.mb", maxMb);
+		MemStorageEngine engine = new MemStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		return engine;
+	}
+
+	@Test
+	public void testRowKeys() throws IOException {
+		MemStorageEngine engine = engine("16");
+		long timestamp = System.currentTimeMillis();
+		byte[] rowKey = engine.buildRowKey("cpu", Arrays.asList("ten", "one", "five"), TimeUnit.MILLISECONDS,
+				timestamp);
+		assertArrayEquals(rowKey, engine.buildRowKey("cpu", Arrays.asList("one", "five", "ten"),
+				TimeUnit.MILLISECONDS, timestamp));
+		assertEquals(AbstractStorageEngine.rowKeyLength(Arrays.asList("one", "five", "ten")), rowKey.length);
+		// queries don't register identifiers
+		assertNull(engine.buildRowPrefix("cpu", Arrays.asList("six")));
+		assertNull(engine.lookupIdentifier("six"));
+		assertArrayEquals(Arrays.copyOf(rowKey, rowKey.length - 4),
+				engine.buildRowPrefix("cpu", Arrays.asList("five", "ten", "one")));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testQueryRange() throws IOException {
+		MemStorageEngine engine = engine("16");
+		long timestamp = System.currentTimeMillis() / BUCKET_MS * BUCKET_MS;
+		// 10 points per bucket over 5 buckets
+		for (int i = 0; i < 50; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp + i * 409600, i);
+			// same prefix with an extra tag must not be returned
+			engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, timestamp + i * 409600,
+					i * 1.5);
+		}
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp,
+				timestamp + 50 * 409600)) {
+			for (int i = 0; i < 50; i++) {
+				assertTrue(itr.next());
+				assertEquals(timestamp + i * 409600, itr.getTimestamp());
+				assertEquals(i, itr.getValue());
+			}
+			assertFalse(itr.next());
+		}
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("app1", "host1"), TimeUnit.SECONDS,
+				(timestamp + 15 * 409600) / 1000, (timestamp + 30 * 409600) / 1000)) {
+			for (int i = 15; i <= 30; i++) {
+				assertTrue(itr.next());
+				assertEquals(timestamp + i * 409600, itr.getTimestamp());
+				assertEquals(i * 1.5, itr.getValueAsDouble(), 0);
+			}
+			assertFalse(itr.next());
+		}
+		// blocks end within and across buckets
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("app1", "host1"), TimeUnit.MILLISECONDS,
+				timestamp + 15 * 409600, timestamp + 30 * 409600)) {
+			PointBlock block = new PointBlock(7);
+			int i = 15;
+			for (int size : new int[] { 7, 7, 2, 0, 0 }) {
+				assertEquals(size, itr.nextBlock(block));
+				for (int j = 0; j < size; j++, i++) {
+					assertEquals(timestamp + i * 409600, block.getTimestamps()[j]);
+				}
+			}
+			assertEquals(31, i);
+		}
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host2"), TimeUnit.MILLISECONDS, timestamp,
+				timestamp + 50 * 409600)) {
+			assertFalse(itr.next());
+		}
+		engine.disconnect();
+		assertEquals(0, engine.getAllocatedBytes());
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp,
+				timestamp + 50 * 409600)) {
+			assertFalse(itr.next());
+		}
+	}
+
+	@Test
+	public void testFindSeries() throws IOException {
+		MemStorageEngine engine = engine("16");
+		long timestamp = System.currentTimeMillis();
+		for (int h = 0; h < 1000; h++) {
+			engine.writeSeries("cpu", Arrays.asList("host" + h, "dc" + (h % 10)), TimeUnit.MILLISECONDS, timestamp,
+					h);
+			engine.writeSeries("mem", Arrays.asList("host" + h), TimeUnit.MILLISECONDS, timestamp, h);
+		}
+		List<DataPoint> points = new ArrayList<>();
+		points.add(new DataPoint("cpu", Arrays.asList("host1", "dc2"), timestamp, 1L));
+		engine.writeBatch(points);
+
+		assertEquals(1001, engine.findSeries("cpu", null).size());
+		assertEquals(100, engine.findSeries("cpu", TagFilter.tag("dc1")).size());
+		List<List<String>> series = engine.findSeries("cpu",
+				TagFilter.and(TagFilter.tag("host1"), TagFilter.or(TagFilter.tag("dc1"), TagFilter.tag("dc2"))));
+		assertEquals(2, series.size());
+		assertTrue(series.contains(Arrays.asList("dc1", "host1")));
+		assertTrue(series.contains(Arrays.asList("dc2", "host1")));
+		assertTrue(engine.findSeries("cpu", TagFilter.tag("dc11")).isEmpty());
+		assertTrue(engine.findSeries("disk", null).isEmpty());
+		assertEquals(2001L, engine.getMetrics().getRegistry().meter("write.points").getCount());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testNameTagCollision() throws IOException {
+		MemStorageEngine engine = engine("16");
+		long timestamp = System.currentTimeMillis();
+		engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp, 1L);
+		engine.writeSeries("mem", Arrays.asList("cpu"), TimeUnit.MILLISECONDS, timestamp, 2L);
+		assertEquals(Arrays.asList(Arrays.asList("host1")), engine.findSeries("cpu", null));
+		assertTrue(engine.findSeries("cpu", TagFilter.tag("cpu")).isEmpty());
+		assertEquals(Arrays.asList(Arrays.asList("cpu")), engine.findSeries("mem", TagFilter.tag("cpu")));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testEviction() throws IOException {
+		MemStorageEngine engine = engine("1");
+		long start = System.currentTimeMillis() / BUCKET_MS * BUCKET_MS - 20 * BUCKET_MS;
+		// a point per second over 20 buckets
+		for (int i = 0; i < 20 * AbstractStorageEngine.BUCKET_SIZE; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, start + i * 1000L, i);
+		}
+		assertTrue(engine.getAllocatedBytes() <= 1024 * 1024);
+		long evicted = engine.getEvictedBuckets();
+		assertTrue(evicted > 0);
+		long first = start + evicted * BUCKET_MS;
+		int count = 0;
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, start,
+				start + 20 * BUCKET_MS)) {
+			while (itr.next()) {
+				assertEquals(first + count * 1000L, itr.getTimestamp());
+				assertEquals((first - start) / 1000 + count, itr.getValue());
+				count++;
+			}
+		}
+		assertEquals((20 - evicted) * AbstractStorageEngine.BUCKET_SIZE, count);
+		// evicted buckets don't come back
+		engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, start, 0);
+		assertEquals(1, engine.getDroppedPoints());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testEvictionKeepsNewestBuckets() throws IOException {
+		MemStorageEngine engine = engine("1");
+		long now = System.currentTimeMillis() / BUCKET_MS * BUCKET_MS;
+		// a closed bucket of one series, then a spike of series in the
+		// current bucket
+		for (int i = 0; i < 1000; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host0"), TimeUnit.MILLISECONDS, now - BUCKET_MS + i, i);
+		}
+		engine.writeSeries("cpu", Arrays.asList("host0"), TimeUnit.MILLISECONDS, now, 0);
+		for (int h = 1; h < 2000; h++) {
+			engine.writeSeries("cpu", Arrays.asList("host" + h), TimeUnit.MILLISECONDS, now, h);
+		}
+		assertEquals(1, engine.getEvictedBuckets());
+		assertTrue(engine.getOverflows() > 0);
+		assertTrue(engine.getAllocatedBytes() > 1024 * 1024);
+		// live data is still written and read back
+		engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, now + 1, 2);
+		assertEquals(0, engine.getDroppedPoints());
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, now,
+				now + 1)) {
+			assertTrue(itr.next());
+			assertTrue(itr.next());
+			assertEquals(2, itr.getValue());
+			assertFalse(itr.next());
+		}
+		engine.disconnect();
+	}
+
+	@Test
+	public void testConcurrentWrites() throws Exception {
+		MemStorageEngine engine = engine("64");
+		long start = System.currentTimeMillis() / BUCKET_MS * BUCKET_MS;
+		ExecutorService es = Executors.newFixedThreadPool(4);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			// two threads per series
+			List<String> tags = Arrays.asList("host" + (t % 2));
+			int offset = t / 2;
+			futures.add(es.submit(() -> {
+				for (int i = offset; i < 20000; i += 2) {
+					engine.writeSeries("cpu", tags, TimeUnit.MILLISECONDS, start + i, i);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		es.shutdown();
+		for (int h = 0; h < 2; h++) {
+			boolean[] seen = new boolean[20000];
+			try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host" + h), TimeUnit.MILLISECONDS,
+					start, start + BUCKET_MS)) {
+				while (itr.next()) {
+					assertEquals(itr.getTimestamp() - start, itr.getValue());
+					assertFalse(seen[(int) itr.getValue()]);
+					seen[(int) itr.getValue()] = true;
+				}
+			}
+			for (boolean s : seen) {
+				assertTrue(s);
+			}
+		}
+		engine.disconnect();
+	}
+
+}
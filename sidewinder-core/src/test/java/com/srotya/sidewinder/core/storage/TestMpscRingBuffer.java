@@ -0,0 +1,91 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestMpscRingBuffer {
+
+	@Test
+	public void testCapacity() {
+		try {
+			new MpscRingBuffer<>(12);
+			fail("Capacity must be a power of two");
+		} catch (IllegalArgumentException e) {
+		}
+		MpscRingBuffer<Integer> ring = new MpscRingBuffer<>(4);
+		for (int i = 0; i < 4; i++) {
+			assertEquals(i, ring.offer(i));
+		}
+		assertEquals(-1, ring.offer(4));
+		assertEquals(4, ring.size());
+		List<Integer> out = new ArrayList<>();
+		assertEquals(3, ring.drain(out, 3));
+		assertEquals(3, ring.getHead());
+		assertEquals(4, ring.offer(4));
+		assertEquals(2, ring.drain(out, 10));
+		assertEquals(0, ring.size());
+		assertEquals(0, ring.drain(out, 10));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(i, (int) out.get(i));
+		}
+	}
+
+	@Test
+	public void testProducers() throws Exception {
+		int producers = 4;
+		int count = 100000;
+		MpscRingBuffer<long[]> ring = new MpscRingBuffer<>(1024);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++) {
+			final int id = p;
+			threads[p] = new Thread(() -> {
+				for (int i = 0; i < count; i++) {
+					long[] element = new long[] { id, i };
+					while (ring.offer(element) < 0) {
+						Thread.yield();
+					}
+				}
+			});
+			threads[p].start();
+		}
+		long[] next = new long[producers];
+		List<long[]> out = new ArrayList<>();
+		int total = 0;
+		while (total < producers * count) {
+			out.clear();
+			total += ring.drain(out, 100);
+			for (long[] element : out) {
+				// elements of each producer are seen in the order published
+				assertEquals(next[(int) element[0]]++, element[1]);
+			}
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(producers * count, ring.getHead());
+		assertEquals(0, ring.size());
+	}
+
+}
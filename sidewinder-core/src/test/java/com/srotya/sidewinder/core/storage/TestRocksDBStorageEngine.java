@@ -15,15 +15,33 @@
  */
 package com.srotya.sidewinder.core.storage;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
 import org.junit.Test;
+import org.rocksdb.RocksDBException;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheStats;
 
 /**
  * @author ambudsharma
@@ -31,6 +49,672 @@ import org.junit.Test;
  */
 public class TestRocksDBStorageEngine {
 
+	@Before
+	public void before() throws IOException {
+		deleteDirectories();
+	}
+
+	/**
+	 * Remove the default engine directories, the engine doesn't wipe them on
+	 * start
+	 * 
+	 * @throws IOException
+	 */
+	public static void deleteDirectories() throws IOException {
+		for (String directory : Arrays.asList("target/tsdbw", "target/tsdbm", "target/idxdbw", "target/idxdbm",
+				"target/headw")) {
+			FileUtils.deleteDirectory(new File(directory));
+		}
+	}
+
+	@Test
+	public void testWriteReadBack() throws IOException, RocksDBException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		engine.connect();
+		long timestamp = (System.currentTimeMillis() / 4096000) * 4096000;
+		for (int i = 0; i < 100; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, timestamp + i * 1000, i);
+		}
+		byte[] rowKey = engine.buildRowKey("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, timestamp);
+		TimeSeriesBucket bucket = engine.getBucketFromDS(rowKey);
+		assertEquals(100, bucket.getCount());
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < 100; i++) {
+			assertTrue(reader.next());
+			assertEquals(timestamp + i * 1000, reader.getTimestamp());
+			assertEquals(i, reader.getValue());
+		}
+		assertFalse(reader.next());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testMergeWriteReadBack() throws IOException, RocksDBException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.write.mode", "merge");
+		engine.configure(conf);
+		engine.connect();
+		long timestamp = (System.currentTimeMillis() / 4096000) * 4096000;
+		for (int i = 0; i < 100; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, timestamp + i * 1000,
+					i * 0.5);
+		}
+		byte[] rowKey = engine.buildRowKey("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, timestamp);
+		TimeSeriesBucket bucket = engine.getBucketFromDS(rowKey);
+		assertEquals(100, bucket.getCount());
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < 100; i++) {
+			assertTrue(reader.next());
+			assertEquals(timestamp + i * 1000, reader.getTimestamp());
+			assertEquals(i * 0.5, reader.getValueAsDouble(), 0);
+		}
+		assertFalse(reader.next());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testMergeFold() throws Exception {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.write.mode", "merge");
+		// folded explicitly
+		conf.put("tsdb.merge.fold.interval.seconds", "0");
+		engine.configure(conf);
+		engine.connect();
+		List<String> tags = Arrays.asList("host1");
+		long now = System.currentTimeMillis();
+		long timestamp = (now / 4096000) * 4096000;
+		long old = timestamp - 2 * 4096000;
+		for (int i = 0; i < 100; i++) {
+			engine.writeSeries("cpu", tags, TimeUnit.MILLISECONDS, old + i * 1000, i);
+			engine.writeSeries("cpu", tags, TimeUnit.MILLISECONDS, timestamp + i, i);
+		}
+		// the current bucket is still open
+		assertEquals(1, engine.foldBuckets(now));
+		assertEquals(0, engine.foldBuckets(now));
+		// late points are merged after the folded bucket
+		engine.writeSeries("cpu", tags, TimeUnit.MILLISECONDS, old + 100 * 1000, 100);
+		List<DataPoint> points = new ArrayList<>();
+		points.add(new DataPoint("cpu", tags, old + 101 * 1000, 101L));
+		engine.writeBatch(points);
+		assertEquals(1, engine.foldBuckets(now));
+		assertEquals(0, engine.foldBuckets(now));
+		TimeSeriesBucket bucket = engine
+				.getBucketFromDS(engine.buildRowKey("cpu", tags, TimeUnit.MILLISECONDS, old));
+		assertEquals(102, bucket.getCount());
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < 102; i++) {
+			assertTrue(reader.next());
+			assertEquals(old + i * 1000, reader.getTimestamp());
+			assertEquals(i, reader.getValue());
+		}
+		assertEquals(100, engine.getBucketFromDS(engine.buildRowKey("cpu", tags, TimeUnit.MILLISECONDS, timestamp))
+				.getCount());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testReadBucket() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.write.mode", "merge");
+		engine.configure(conf);
+		engine.connect();
+		long timestamp = (System.currentTimeMillis() / 4096000) * 4096000;
+		// operands take more than the initial buffer of the reader
+		for (int i = 0; i < 2000; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp + i * 1000, i);
+		}
+		BucketReader reader = new BucketReader();
+		assertTrue(engine.readBucket(
+				engine.buildRowKey("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp), reader));
+		assertEquals(2000, reader.remaining());
+		for (int i = 0; i < 2000; i++) {
+			assertTrue(reader.next());
+			assertEquals(timestamp + i * 1000, reader.getTimestamp());
+			assertEquals(i, reader.getValue());
+		}
+		assertFalse(reader.next());
+		assertFalse(engine.readBucket(
+				engine.buildRowKey("cpu", Arrays.asList("host2"), TimeUnit.MILLISECONDS, timestamp), reader));
+		// reads don't create partitions
+		int partitions = engine.getPartitions().size();
+		assertFalse(engine.readBucket(engine.buildRowKey("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS,
+				timestamp - TimeUnit.DAYS.toMillis(90)), reader));
+		assertEquals(partitions, engine.getPartitions().size());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testWriteBatch() throws IOException, RocksDBException {
+		for (String mode : Arrays.asList("put", "merge")) {
+			deleteDirectories();
+			RocksDBStorageEngine engine = new RocksDBStorageEngine();
+			Map<String, String> conf = new HashMap<>();
+			conf.put("tsdb.write.mode", mode);
+			engine.configure(conf);
+			engine.connect();
+			long timestamp = (System.currentTimeMillis() / 4096000) * 4096000;
+			List<DataPoint> points = new ArrayList<>();
+			for (int i = 0; i < 1000; i++) {
+				points.add(new DataPoint("cpu", Arrays.asList("host" + (i % 10)), timestamp + i * 1000, i));
+			}
+			engine.writeBatch(points);
+			for (int h = 0; h < 10; h++) {
+				byte[] rowKey = engine.buildRowKey("cpu", Arrays.asList("host" + h), TimeUnit.MILLISECONDS, timestamp);
+				TimeSeriesBucket bucket = engine.getBucketFromDS(rowKey);
+				assertEquals(100, bucket.getCount());
+				BucketReader reader = bucket.getReader();
+				for (int i = h; i < 1000; i += 10) {
+					assertTrue(reader.next());
+					assertEquals(timestamp + i * 1000, reader.getTimestamp());
+					assertEquals(i, reader.getValue());
+				}
+			}
+			engine.disconnect();
+		}
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.group.commit.enabled", "true");
+		conf.put("tsdb.prefix.extractor.tags", "1");
+		engine.configure(conf);
+		engine.connect();
+		long timestamp = (System.currentTimeMillis() / 4096000) * 4096000;
+		ExecutorService es = Executors.newFixedThreadPool(9);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < 8; t++) {
+			final int thread = t;
+			futures.add(es.submit(() -> {
+				for (int i = 0; i < 100; i++) {
+					engine.writeBatch(Arrays.asList(new DataPoint("cpu", Arrays.asList("host" + thread),
+							timestamp + i * 1000, i)));
+				}
+				return null;
+			}));
+		}
+		// a writer rejected by the engine doesn't fail the others
+		futures.add(es.submit(() -> {
+			for (int i = 0; i < 100; i++) {
+				try {
+					engine.writeBatch(
+							Arrays.asList(new DataPoint("cpu", new ArrayList<>(), timestamp + i * 1000, i)));
+					fail("Series without tags must be rejected");
+				} catch (IllegalArgumentException e) {
+				}
+			}
+			return null;
+		}));
+		es.shutdown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		for (int t = 0; t < 8; t++) {
+			byte[] rowKey = engine.buildRowKey("cpu", Arrays.asList("host" + t), TimeUnit.MILLISECONDS, timestamp);
+			assertEquals(100, engine.getBucketFromDS(rowKey).getCount());
+		}
+		engine.disconnect();
+	}
+
+	@Test
+	public void testIdentifierCache() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		engine.connect();
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, timestamp + i * 1000, i);
+		}
+		CacheStats stats = engine.getIdentifierCacheStats();
+		assertEquals(3, stats.missCount());
+		// the encoded tag set is cached by buildRowKey, only the series name is looked up
+		assertEquals(99, stats.hitCount());
+		assertArrayEquals(engine.indexIdentifier("cpu"), engine.indexIdentifier("cpu"));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testQueryRange() throws IOException {
+		for (String mode : Arrays.asList("put", "merge")) {
+			deleteDirectories();
+			RocksDBStorageEngine engine = new RocksDBStorageEngine();
+			Map<String, String> conf = new HashMap<>();
+			conf.put("tsdb.write.mode", mode);
+			engine.configure(conf);
+			engine.connect();
+			long timestamp = (System.currentTimeMillis() / 4096000) * 4096000;
+			// 10 points per bucket over 5 buckets
+			for (int i = 0; i < 50; i++) {
+				engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp + i * 409600, i);
+				// same prefix with an extra tag must not be returned
+				engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS,
+						timestamp + i * 409600, -i);
+			}
+			try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS,
+					timestamp, timestamp + 50 * 409600)) {
+				for (int i = 0; i < 50; i++) {
+					assertTrue(itr.next());
+					assertEquals(timestamp + i * 409600, itr.getTimestamp());
+					assertEquals(i, itr.getValue());
+				}
+				assertFalse(itr.next());
+			}
+			try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.SECONDS,
+					(timestamp + 15 * 409600) / 1000, (timestamp + 30 * 409600) / 1000)) {
+				for (int i = 15; i <= 30; i++) {
+					assertTrue(itr.next());
+					assertEquals(timestamp + i * 409600, itr.getTimestamp());
+				}
+				assertFalse(itr.next());
+			}
+			// blocks end within and across buckets
+			try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS,
+					timestamp + 15 * 409600, timestamp + 30 * 409600)) {
+				PointBlock block = new PointBlock(7);
+				int i = 15;
+				for (int size : new int[] { 7, 7, 2, 0, 0 }) {
+					assertEquals(size, itr.nextBlock(block));
+					for (int j = 0; j < size; j++, i++) {
+						assertEquals(timestamp + i * 409600, block.getTimestamps()[j]);
+					}
+				}
+				assertEquals(31, i);
+			}
+			try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host2"), TimeUnit.MILLISECONDS,
+					timestamp, timestamp + 50 * 409600)) {
+				assertFalse(itr.next());
+			}
+			try (SeriesIterator itr = engine.queryRange("mem", Arrays.asList("host1"), TimeUnit.MILLISECONDS,
+					timestamp, timestamp + 50 * 409600)) {
+				assertFalse(itr.next());
+			}
+			engine.disconnect();
+		}
+	}
+
+	@Test
+	public void testFindSeries() throws IOException {
+		for (String mode : Arrays.asList("put", "merge")) {
+			deleteDirectories();
+			RocksDBStorageEngine engine = new RocksDBStorageEngine();
+			Map<String, String> conf = new HashMap<>();
+			conf.put("tsdb.write.mode", mode);
+			engine.configure(conf);
+			engine.connect();
+			long timestamp = System.currentTimeMillis();
+			for (int h = 0; h < 1000; h++) {
+				engine.writeSeries("cpu", Arrays.asList("host" + h, "dc" + (h % 10)), TimeUnit.MILLISECONDS,
+						timestamp, h);
+				engine.writeSeries("mem", Arrays.asList("host" + h), TimeUnit.MILLISECONDS, timestamp, h);
+			}
+			// a new tag combination seen by a batch
+			List<DataPoint> points = new ArrayList<>();
+			points.add(new DataPoint("cpu", Arrays.asList("host1", "dc2"), timestamp, 1L));
+			engine.writeBatch(points);
+
+			assertEquals(1001, engine.findSeries("cpu", null).size());
+			assertEquals(100, engine.findSeries("cpu", TagFilter.tag("dc1")).size());
+			assertEquals(201, engine.findSeries("cpu", TagFilter.or(TagFilter.tag("dc1"), TagFilter.tag("dc2")))
+					.size());
+			List<List<String>> series = engine.findSeries("cpu",
+					TagFilter.and(TagFilter.tag("host1"), TagFilter.or(TagFilter.tag("dc1"), TagFilter.tag("dc2"))));
+			assertEquals(2, series.size());
+			assertTrue(series.contains(Arrays.asList("dc1", "host1")));
+			assertTrue(series.contains(Arrays.asList("dc2", "host1")));
+			assertTrue(engine.findSeries("cpu", TagFilter.tag("dc11")).isEmpty());
+			assertTrue(engine.findSeries("disk", null).isEmpty());
+
+			List<byte[]> prefixes = engine.selectSeries("mem", TagFilter.tag("host7"));
+			assertEquals(1, prefixes.size());
+			try (SeriesIterator itr = engine.queryRows(prefixes.get(0), 0, -1, 0, Long.MAX_VALUE)) {
+				assertTrue(itr.next());
+				assertEquals(7, itr.getValue());
+				assertFalse(itr.next());
+			}
+			engine.disconnect();
+		}
+	}
+
+	@Test
+	public void testNameTagCollision() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		engine.connect();
+		long timestamp = System.currentTimeMillis();
+		engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp, 1L);
+		engine.writeSeries("mem", Arrays.asList("cpu"), TimeUnit.MILLISECONDS, timestamp, 2L);
+		assertEquals(Arrays.asList(Arrays.asList("host1")), engine.findSeries("cpu", null));
+		assertTrue(engine.findSeries("cpu", TagFilter.tag("cpu")).isEmpty());
+		assertEquals(Arrays.asList(Arrays.asList("cpu")), engine.findSeries("mem", TagFilter.tag("cpu")));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testRollups() throws IOException {
+		for (String mode : Arrays.asList("put", "merge", "head")) {
+			deleteDirectories();
+			RocksDBStorageEngine engine = new RocksDBStorageEngine();
+			Map<String, String> conf = new HashMap<>();
+			if (mode.equals("head")) {
+				// summaries of points still in the head block
+				conf.put("tsdb.head.enabled", "true");
+			} else {
+				conf.put("tsdb.write.mode", mode);
+			}
+			conf.put("tsdb.rollup.windows", "3600, 60");
+			engine.configure(conf);
+			engine.connect();
+			assertEquals(60, engine.getRollupWindow(300));
+			assertEquals(3600, engine.getRollupWindow(86400));
+			assertEquals(0, engine.getRollupWindow(90));
+			long timestamp = (System.currentTimeMillis() / 3600000) * 3600000;
+			// two hours of points every 10 seconds, half of them in batches
+			List<DataPoint> points = new ArrayList<>();
+			for (int i = 0; i < 720; i++) {
+				if (i % 2 == 0) {
+					engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp + i * 10000,
+							i * 0.5);
+				} else {
+					points.add(new DataPoint("cpu", Arrays.asList("host1"), timestamp + i * 10000, i * 0.5));
+				}
+			}
+			engine.writeBatch(points);
+			try (SummaryIterator itr = engine.querySummaries("cpu", Arrays.asList("host1"), 3600,
+					TimeUnit.MILLISECONDS, timestamp, timestamp + 7199999)) {
+				for (int h = 0; h < 2; h++) {
+					assertTrue(itr.next());
+					assertEquals(timestamp + h * 3600000, itr.getTimestamp());
+					RollupSummary summary = itr.getSummary();
+					assertEquals(360, summary.getCount());
+					assertEquals(h * 180, summary.getMin(), 0);
+					assertEquals(h * 180 + 179.5, summary.getMax(), 0);
+					assertEquals(360 * (h * 180 + 89.75), summary.getSum(), 1e-6);
+				}
+				assertFalse(itr.next());
+			}
+			// only windows starting within the range
+			try (SummaryIterator itr = engine.querySummaries("cpu", Arrays.asList("host1"), 60,
+					TimeUnit.MILLISECONDS, timestamp + 1, timestamp + 600000)) {
+				int windows = 0;
+				while (itr.next()) {
+					assertEquals(6, itr.getSummary().getCount());
+					windows++;
+				}
+				assertEquals(10, windows);
+			}
+			engine.disconnect();
+		}
+	}
+
+	@Test
+	public void testReconnect() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		engine.connect();
+		long timestamp = System.currentTimeMillis();
+		engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, timestamp, 1L);
+		engine.disconnect();
+
+		engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		engine.connect();
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS,
+				timestamp, timestamp)) {
+			assertTrue(itr.next());
+			assertEquals(1, itr.getValue());
+		}
+		engine.disconnect();
+
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.wipe.on.start", "true");
+		engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		assertTrue(engine.findSeries("cpu", null).isEmpty());
+		engine.disconnect();
+	}
+
+	@Test
+	public void testRetention() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.retention.hours.cpu", "2");
+		conf.put("tsdb.rollup.windows", "3600");
+		conf.put("tsdb.rollup.retention.hours", "3");
+		engine.configure(conf);
+		engine.connect();
+		long now = (System.currentTimeMillis() / 4096000) * 4096000;
+		// 10 hours of points every 10 minutes
+		for (int i = 0; i <= 60; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, now - i * 600000, i);
+			engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, now - i * 600000, i);
+			engine.writeSeries("mem", Arrays.asList("host1"), TimeUnit.MILLISECONDS, now - i * 600000, i);
+		}
+		assertTrue(engine.enforceRetention(now) > 0);
+		long cutoff = now - 7200000;
+		for (List<String> tags : Arrays.asList(Arrays.asList("host1"), Arrays.asList("host1", "app1"))) {
+			int count = 0;
+			try (SeriesIterator itr = engine.queryRange("cpu", tags, TimeUnit.MILLISECONDS, 0, now)) {
+				while (itr.next()) {
+					// whole buckets are expired
+					assertTrue(itr.getTimestamp() >= cutoff - 4096000);
+					count++;
+				}
+			}
+			assertTrue(count >= 13);
+			assertTrue(count < 61);
+		}
+		try (SeriesIterator itr = engine.queryRange("mem", Arrays.asList("host1"), TimeUnit.MILLISECONDS, 0, now)) {
+			int count = 0;
+			while (itr.next()) {
+				count++;
+			}
+			assertEquals(61, count);
+		}
+		try (SummaryIterator itr = engine.querySummaries("mem", Arrays.asList("host1"), 3600,
+				TimeUnit.MILLISECONDS, 0, now)) {
+			int windows = 0;
+			while (itr.next()) {
+				assertTrue(itr.getTimestamp() >= now - 3 * 3600000 - 3600000);
+				windows++;
+			}
+			// the oldest window may be partially expired
+			assertTrue(windows >= 3 && windows <= 4);
+		}
+		// nothing left to expire
+		assertEquals(0, engine.enforceRetention(now));
+		engine.disconnect();
+	}
+
+	@Test
+	public void testPrefixExtractor() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.prefix.extractor.tags", "1");
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		long now = System.currentTimeMillis();
+		// 50 buckets of each series
+		for (int i = 199; i >= 0; i--) {
+			long ts = now - i * 1024000L;
+			engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, ts, i);
+			engine.writeSeries("cpu", Arrays.asList("host1", "app1"), TimeUnit.MILLISECONDS, ts, i);
+			engine.writeSeries("cpu", Arrays.asList("host2"), TimeUnit.MILLISECONDS, ts, i);
+		}
+		try {
+			engine.writeSeries("cpu", new ArrayList<>(), TimeUnit.MILLISECONDS, now, 1);
+			assertTrue(false);
+		} catch (IllegalArgumentException e) {
+		}
+		engine.disconnect();
+
+		// reopening flushes the memtables, reads go through the filters
+		engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		for (List<String> tags : Arrays.asList(Arrays.asList("host1"), Arrays.asList("host1", "app1"),
+				Arrays.asList("host2"))) {
+			try (SeriesIterator itr = engine.queryRange("cpu", tags, TimeUnit.MILLISECONDS, 0, now)) {
+				int count = 0;
+				while (itr.next()) {
+					assertEquals(199 - count, itr.getValue());
+					count++;
+				}
+				assertEquals(200, count);
+			}
+		}
+		try (SeriesIterator itr = engine.queryRange("cpu", new ArrayList<>(), TimeUnit.MILLISECONDS, 0, now)) {
+			assertFalse(itr.next());
+		}
+		engine.disconnect();
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.recovery.verify", "true");
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		assertEquals(0, engine.getRecoveryStats().getWalEntries());
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host" + i % 10), TimeUnit.MILLISECONDS, now - i * 60000L, i);
+		}
+		engine.disconnect();
+
+		engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		RecoveryStats stats = engine.getRecoveryStats();
+		assertTrue(stats.getWalFiles() > 0);
+		// every point is a put of its bucket
+		assertTrue(stats.getWalEntries() >= 100);
+		assertEquals(10, stats.getSeries());
+		assertEquals(11, stats.getIdentifiers());
+		assertTrue(stats.getWarmedBuckets() > 0);
+		assertTrue(stats.getVerifiedBuckets() >= 10);
+		assertEquals(0, stats.getCorruptBuckets());
+		int count = 0;
+		for (int i = 0; i < 10; i++) {
+			try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host" + i), TimeUnit.MILLISECONDS, 0,
+					now)) {
+				while (itr.next()) {
+					count++;
+				}
+			}
+		}
+		assertEquals(100, count);
+		engine.disconnect();
+	}
+
+	@Test
+	public void testPartitions() throws IOException {
+		Map<String, String> conf = new HashMap<>();
+		conf.put("tsdb.partition.hours", "24");
+		conf.put("tsdb.retention.hours", "48");
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		long now = System.currentTimeMillis();
+		// 5 days of hourly points
+		for (int i = 119; i >= 0; i--) {
+			engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, now - i * 3600000L, i);
+		}
+		int partitions = engine.getPartitions().size();
+		assertTrue(partitions >= 5 && partitions <= 6);
+		assertEquals(120, count(engine, now - 119 * 3600000L, now));
+		assertEquals(10, count(engine, now - 60 * 3600000L, now - 51 * 3600000L));
+		engine.disconnect();
+
+		engine = new RocksDBStorageEngine();
+		engine.configure(conf);
+		engine.connect();
+		assertEquals(partitions, engine.getPartitions().size());
+		assertEquals(120, count(engine, 0, now));
+		engine.enforceRetention(now);
+		// partitions that ended before the cutoff are gone, the sweep
+		// expires the rest of the buckets
+		long cutoff = now - 48 * 3600000L;
+		for (int partition : engine.getPartitions()) {
+			assertTrue((partition + 24 * 3600 + AbstractStorageEngine.BUCKET_SIZE) * 1000L > cutoff);
+		}
+		assertTrue(engine.getPartitions().size() < partitions);
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, 0, now)) {
+			int count = 0;
+			long last = 0;
+			while (itr.next()) {
+				assertTrue(itr.getTimestamp() > last);
+				assertTrue(itr.getTimestamp() >= cutoff - AbstractStorageEngine.BUCKET_SIZE * 1000L);
+				last = itr.getTimestamp();
+				count++;
+			}
+			assertTrue(count >= 48 && count < 120);
+		}
+		// points of a dropped partition recreate it
+		engine.writeSeries("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, now - 119 * 3600000L, 119);
+		assertEquals(1, count(engine, now - 119 * 3600000L, now - 118 * 3600000L));
+		byte[] rowKey = engine.buildRowKey("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS,
+				now - 200 * 3600000L);
+		engine.disconnect();
+		// writes after disconnect fail instead of creating a partition
+		try {
+			engine.writeSeriesPoint(rowKey, now - 200 * 3600000L, 1, false);
+			fail("Write to a closed engine must fail");
+		} catch (IOException e) {
+		}
+		assertTrue(engine.getPartitions().isEmpty());
+	}
+
+	private static int count(RocksDBStorageEngine engine, long start, long end) throws IOException {
+		int count = 0;
+		try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host1"), TimeUnit.MILLISECONDS, start, end)) {
+			while (itr.next()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testMetrics() throws IOException {
+		RocksDBStorageEngine engine = new RocksDBStorageEngine();
+		engine.configure(new HashMap<>());
+		MetricRegistry registry = engine.getMetrics().getRegistry();
+		Map<String, Gauge> gauges = registry.getGauges();
+		// gauges don't touch the databases unless they are open
+		assertEquals(-1L, gauges.get("tsdb.rocksdb.cur-size-all-mem-tables").getValue());
+		engine.connect();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			engine.writeSeries("cpu", Arrays.asList("host" + i % 10), TimeUnit.MILLISECONDS, now + i, i);
+		}
+		engine.writeBatch(Arrays.asList(new DataPoint("cpu", Arrays.asList("host1"), now + 100, 1),
+				new DataPoint("cpu", Arrays.asList("host2"), now + 100, 2)));
+		// single point writes are sampled
+		assertTrue(registry.timer("write.point").getCount() < 100);
+		assertEquals(1, registry.timer("write.batch").getCount());
+		assertEquals(102, registry.meter("write.points").getCount());
+		assertEquals(2, registry.histogram("write.batch.size").getSnapshot().getMax());
+		assertTrue((Long) gauges.get("tsdb.rocksdb.cur-size-all-mem-tables").getValue() > 0);
+		assertTrue((Long) gauges.get("idxdb.rocksdb.cur-size-all-mem-tables").getValue() > 0);
+		assertEquals(0L, gauges.get("tsdb.rocksdb.stalls").getValue());
+		assertEquals(0.0, gauges.get("tsdb.rocksdb.stall.percent").getValue());
+		assertTrue((Double) gauges.get("tsdb.rocksdb.db_write.p99").getValue() > 0);
+		assertTrue((Double) gauges.get("cache.bucket.hit.rate").getValue() > 0);
+		assertTrue((Double) gauges.get("cache.identifier.hit.rate").getValue() > 0);
+		engine.disconnect();
+		assertEquals(-1L, gauges.get("tsdb.rocksdb.stalls").getValue());
+		assertEquals(-1L, gauges.get("idxdb.rocksdb.block_cache_hit").getValue());
+		assertEquals(3, StorageMetrics.stalls("Stalls(count): 1 level0_slowdown, 0 level0_numfiles, "
+				+ "2 stop for pending_compaction_bytes, interval 7 total count"));
+	}
+
 	@Test
 	public void testBaseTimeSeriesWrites() throws IOException, InterruptedException {
 		AbstractStorageEngine engine = new RocksDBStorageEngine();
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.rocksdb.CompressionType;
+
+/**
+ * @author ambudsharma
+ */
+public class TestRocksDBTuning {
+
+	@Test
+	public void testResolve() {
+		Map<String, String> conf = new HashMap<>();
+		assertEquals("1", RocksDBTuning.resolve(conf).get("tsdb.write.buffer.mb"));
+		assertEquals("zlib", RocksDBTuning.resolve(conf).get("tsdb.cold.compression"));
+		conf.put(RocksDBTuning.PROFILE, "write-heavy");
+		assertEquals("64", RocksDBTuning.resolve(conf).get("tsdb.write.buffer.mb"));
+		conf.put("tsdb.write.buffer.mb", "32");
+		Map<String, String> resolved = RocksDBTuning.resolve(conf);
+		assertEquals("32", resolved.get("tsdb.write.buffer.mb"));
+		assertEquals("lz4", resolved.get("tsdb.compression"));
+		assertEquals(CompressionType.LZ4_COMPRESSION, RocksDBTuning.compressionType("lz4"));
+		assertEquals(CompressionType.NO_COMPRESSION, RocksDBTuning.compressionType("none"));
+	}
+
+	@Test
+	public void testProfiles() throws IOException {
+		long now = System.currentTimeMillis();
+		for (TuningProfile profile : TuningProfile.values()) {
+			TestRocksDBStorageEngine.deleteDirectories();
+			Map<String, String> conf = new HashMap<>();
+			conf.put(RocksDBTuning.PROFILE, profile.name().toLowerCase().replace('_', '-'));
+			RocksDBStorageEngine engine = new RocksDBStorageEngine();
+			engine.configure(conf);
+			engine.connect();
+			for (int i = 0; i < 100; i++) {
+				engine.writeSeries("cpu", Arrays.asList("host" + i % 10), TimeUnit.MILLISECONDS, now - i * 1000, i);
+			}
+			engine.disconnect();
+
+			engine = new RocksDBStorageEngine();
+			engine.configure(conf);
+			engine.connect();
+			int count = 0;
+			for (int i = 0; i < 10; i++) {
+				try (SeriesIterator itr = engine.queryRange("cpu", Arrays.asList("host" + i), TimeUnit.MILLISECONDS,
+						0, now)) {
+					while (itr.next()) {
+						count++;
+					}
+				}
+			}
+			assertEquals(profile.name(), 100, count);
+			engine.disconnect();
+		}
+	}
+
+}
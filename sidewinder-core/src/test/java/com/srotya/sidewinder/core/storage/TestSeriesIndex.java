@@ -0,0 +1,141 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.WriteOptions;
+
+/**
+ * @author ambudsharma
+ */
+public class TestSeriesIndex {
+
+	private static final String DB_PATH = "target/test-series-index";
+
+	static {
+		RocksDB.loadLibrary();
+	}
+
+	@Before
+	public void before() throws IOException {
+		FileUtils.deleteDirectory(new File(DB_PATH));
+		new File(DB_PATH).mkdirs();
+	}
+
+	@Test
+	public void testIndexAndFilter() throws RocksDBException, IOException {
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			SeriesIndex index = new SeriesIndex(db, writeOptions, dictionary, 16);
+			// 100 hosts each running one of 4 apps
+			for (int h = 0; h < 100; h++) {
+				byte[] rowKey = rowKey(dictionary, "cpu", "host" + h, "app" + (h % 4));
+				for (int i = 0; i < 3; i++) {
+					index.index(rowKey, rowKey.length - 4);
+				}
+			}
+			assertEquals(100, index.size());
+			assertEquals(100, index.getSeriesPostings("cpu").getCardinality());
+			assertEquals(25, index.getPostings("app1").getCardinality());
+			assertTrue(index.getPostings("unknown").isEmpty());
+
+			RoaringBitmap ids = TagFilter.and(TagFilter.tag("app1"), TagFilter.or(TagFilter.tag("host1"),
+					TagFilter.tag("host2"), TagFilter.tag("host5"))).evaluate(index);
+			assertEquals(2, ids.getCardinality());
+			assertTrue(TagFilter.and(TagFilter.tag("app1"), TagFilter.tag("unknown")).evaluate(index).isEmpty());
+			byte[] prefix = index.getSeriesPrefix(ids.select(0));
+			assertEquals(9, prefix.length);
+			assertEquals("cpu", dictionary.getIdentifier(IdentifierDictionary.toId(prefix, 0)));
+		}
+	}
+
+	@Test
+	public void testNameTagCollision() throws RocksDBException, IOException {
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			SeriesIndex index = new SeriesIndex(db, writeOptions, dictionary, 16);
+			// the tag of mem is the name of the other series
+			byte[] cpu = rowKey(dictionary, "cpu", "host1");
+			byte[] mem = rowKey(dictionary, "mem", "cpu");
+			index.index(cpu, cpu.length - 4);
+			index.index(mem, mem.length - 4);
+			assertEquals(RoaringBitmap.bitmapOf(1), index.getSeriesPostings("cpu"));
+			assertEquals(RoaringBitmap.bitmapOf(2), index.getPostings("cpu"));
+			assertTrue(index.getPostings("mem").isEmpty());
+			assertTrue(index.getSeriesPostings("host1").isEmpty());
+		}
+	}
+
+	@Test
+	public void testReload() throws RocksDBException, IOException {
+		byte[] rowKey;
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			SeriesIndex index = new SeriesIndex(db, writeOptions, dictionary, 16);
+			rowKey = rowKey(dictionary, "cpu", "host1", "app1");
+			index.index(rowKey, rowKey.length - 4);
+		}
+		try (Options options = new Options().setCreateIfMissing(true);
+				WriteOptions writeOptions = new WriteOptions();
+				RocksDB db = RocksDB.open(options, DB_PATH)) {
+			IdentifierDictionary dictionary = new IdentifierDictionary(db, writeOptions, 100);
+			dictionary.load();
+			SeriesIndex index = new SeriesIndex(db, writeOptions, dictionary, 16);
+			index.load();
+			assertEquals(1, index.size());
+			index.index(rowKey, rowKey.length - 4);
+			assertEquals(1, index.size());
+			byte[] other = rowKey(dictionary, "cpu", "host2", "app1");
+			index.index(other, other.length - 4);
+			assertEquals(2, index.size());
+			assertEquals(RoaringBitmap.bitmapOf(1, 2), index.getPostings("app1"));
+			assertArrayEquals(new byte[] { rowKey[0], rowKey[1], rowKey[2], rowKey[3], rowKey[4], rowKey[5],
+					rowKey[6], rowKey[7], rowKey[8] }, index.getSeriesPrefix(1));
+		}
+	}
+
+	private static byte[] rowKey(IdentifierDictionary dictionary, String series, String... tags)
+			throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(3 * (tags.length + 1) + 4);
+		buf.put(dictionary.getOrAllocate(series));
+		for (String tag : tags) {
+			buf.put(dictionary.getOrAllocate(tag));
+		}
+		buf.putInt(1);
+		return buf.array();
+	}
+
+}
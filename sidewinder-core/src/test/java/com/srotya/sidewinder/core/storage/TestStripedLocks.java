@@ -0,0 +1,144 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestStripedLocks {
+
+	private static final int KEYS = 100;
+	private static final int OPS_PER_THREAD = 200000;
+
+	@Test
+	public void testStripeRange() {
+		StripedLocks locks = new StripedLocks(1000);
+		assertEquals(1024, locks.size());
+		Random rand = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			byte[] key = new byte[16];
+			rand.nextBytes(key);
+			int stripe = locks.stripe(key);
+			assertTrue(stripe >= 0 && stripe < locks.size());
+			assertEquals(stripe, locks.stripe(key.clone()));
+		}
+		assertEquals(1, new StripedLocks(1).size());
+	}
+
+	@Test
+	public void testContention() throws InterruptedException {
+		for (int threads : new int[] { 1, 8, 32 }) {
+			StripedLocks locks = new StripedLocks(1024);
+			byte[][] keys = buildKeys();
+			long[] counters = new long[KEYS];
+			ExecutorService es = Executors.newFixedThreadPool(threads);
+			long start = System.nanoTime();
+			for (int t = 0; t < threads; t++) {
+				final int seed = t;
+				es.submit(() -> {
+					Random rand = new Random(seed);
+					for (int i = 0; i < OPS_PER_THREAD; i++) {
+						int k = rand.nextInt(KEYS);
+						ReentrantLock lock = locks.getLock(keys[k]);
+						lock.lock();
+						try {
+							counters[k]++;
+						} finally {
+							lock.unlock();
+						}
+					}
+				});
+			}
+			es.shutdown();
+			es.awaitTermination(100, TimeUnit.SECONDS);
+			long elapsed = System.nanoTime() - start;
+			long total = 0;
+			for (long counter : counters) {
+				total += counter;
+			}
+			assertEquals((long) threads * OPS_PER_THREAD, total);
+			System.out.println("Striped locks threads:" + threads + " ops/s:"
+					+ (total * TimeUnit.SECONDS.toNanos(1) / elapsed));
+		}
+	}
+
+	@Test
+	public void testLockAll() throws InterruptedException {
+		StripedLocks locks = new StripedLocks(16);
+		long[] counter = new long[1];
+		ExecutorService es = Executors.newFixedThreadPool(8);
+		for (int t = 0; t < 8; t++) {
+			es.submit(() -> {
+				int[] stripes = new int[] { 0, 3, 7, 15 };
+				for (int i = 0; i < 10000; i++) {
+					locks.lockAll(stripes, stripes.length);
+					try {
+						counter[0]++;
+					} finally {
+						locks.unlockAll(stripes, stripes.length);
+					}
+				}
+			});
+		}
+		es.shutdown();
+		es.awaitTermination(100, TimeUnit.SECONDS);
+		assertEquals(80000, counter[0]);
+		for (int i = 0; i < locks.size(); i++) {
+			assertTrue(!locks.getLock(i).isLocked());
+		}
+	}
+
+	@Test
+	public void testWaitCounters() throws InterruptedException {
+		StripedLocks locks = new StripedLocks(16);
+		byte[] key = new byte[] { 1, 2, 3 };
+		locks.lock(key).unlock();
+		assertEquals(0, locks.getContended());
+		ReentrantLock lock = locks.lock(key);
+		Thread waiter = new Thread(() -> locks.lock(key).unlock());
+		waiter.start();
+		while (!lock.hasQueuedThreads()) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(10);
+		lock.unlock();
+		waiter.join();
+		assertEquals(1, locks.getContended());
+		assertTrue(locks.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(10));
+	}
+
+	private static byte[][] buildKeys() {
+		byte[][] keys = new byte[KEYS][];
+		for (int i = 0; i < KEYS; i++) {
+			// 3 byte series, 2 tags and the time bucket
+			keys[i] = new byte[] { 's', 'e', (byte) i, 't', 'a', 'g', 't', 'b', (byte) (i * 7), 0x57, (byte) 0xd8,
+					0x10, 0x00 };
+		}
+		return keys;
+	}
+
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestTimeSeriesBucket {
+
+	@Test
+	public void testLongRoundTrip() {
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		long ts = System.currentTimeMillis();
+		for (int i = 0; i < 1000; i++) {
+			bucket.addDataPoint(ts + i * 1000, i);
+		}
+		assertEquals(1000, bucket.getCount());
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(reader.next());
+			assertEquals(ts + i * 1000, reader.getTimestamp());
+			assertEquals(i, reader.getValue());
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testIrregularDoubleRoundTrip() {
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		Random rand = new Random(7);
+		long[] timestamps = new long[5000];
+		double[] values = new double[5000];
+		long ts = System.currentTimeMillis();
+		for (int i = 0; i < timestamps.length; i++) {
+			// include out of order and large jumps
+			ts += rand.nextInt(10) == 0 ? -rand.nextInt(100000) : rand.nextInt(5000);
+			timestamps[i] = ts;
+			values[i] = rand.nextInt(3) == 0 ? values[Math.max(0, i - 1)] : rand.nextDouble() * 1000;
+			bucket.addDataPoint(timestamps[i], Double.doubleToLongBits(values[i]));
+		}
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < timestamps.length; i++) {
+			assertTrue(reader.next());
+			assertEquals(timestamps[i], reader.getTimestamp());
+			assertEquals(values[i], reader.getValueAsDouble(), 0);
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testAppendAfterDeserialization() throws IOException {
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		long ts = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++) {
+			bucket.addDataPoint(ts + i * 60000, Long.MAX_VALUE - i);
+		}
+		byte[] bytes = bucket.toBytes();
+		bucket = TimeSeriesBucket.fromBytes(bytes);
+		for (int i = 100; i < 200; i++) {
+			bucket.addDataPoint(ts + i * 60000, Long.MAX_VALUE - i);
+		}
+		bucket = TimeSeriesBucket.fromBytes(bucket.toBytes());
+		assertEquals(200, bucket.getCount());
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < 200; i++) {
+			assertTrue(reader.next());
+			assertEquals(ts + i * 60000, reader.getTimestamp());
+			assertEquals(Long.MAX_VALUE - i, reader.getValue());
+		}
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testCompression() {
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		long ts = 1474000000000L;
+		for (int i = 0; i < 4096; i++) {
+			bucket.addDataPoint(ts + i * 1000, 42);
+		}
+		// regular intervals and constant values need 2 bits per point
+		assertTrue(bucket.toBytes().length <= TimeSeriesBucket.HEADER_SIZE + 16 + 4096 / 4 + 4);
+	}
+
+	@Test
+	public void testMergeOperands() throws IOException {
+		long ts = System.currentTimeMillis();
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		for (int i = 0; i < 10; i++) {
+			bucket.addDataPoint(ts + i, i);
+		}
+		ByteArrayOutputStream merged = new ByteArrayOutputStream();
+		merged.write(bucket.toBytes());
+		assertFalse(TimeSeriesBucket.hasMergeOperands(merged.toByteArray()));
+		for (int i = 10; i < 20; i++) {
+			// StringAppendOperator delimits each operand
+			merged.write(TimeSeriesBucket.MERGE_DELIMITER);
+			merged.write(TimeSeriesBucket.encodeMergeOperand(ts + i, i));
+		}
+		assertTrue(TimeSeriesBucket.hasMergeOperands(merged.toByteArray()));
+		bucket = TimeSeriesBucket.fromBytes(merged.toByteArray());
+		assertEquals(20, bucket.getCount());
+		assertFalse(TimeSeriesBucket.hasMergeOperands(bucket.toBytes()));
+		BucketReader reader = bucket.getReader();
+		for (int i = 0; i < 20; i++) {
+			assertTrue(reader.next());
+			assertEquals(ts + i, reader.getTimestamp());
+			assertEquals(i, reader.getValue());
+		}
+
+		merged.reset();
+		merged.write(TimeSeriesBucket.encodeMergeOperand(ts, 1));
+		merged.write(TimeSeriesBucket.MERGE_DELIMITER);
+		merged.write(TimeSeriesBucket.encodeMergeOperand(ts + 1, 2));
+		assertTrue(TimeSeriesBucket.hasMergeOperands(merged.toByteArray()));
+		bucket = TimeSeriesBucket.fromBytes(merged.toByteArray());
+		assertEquals(2, bucket.getCount());
+		reader = bucket.getReader();
+		assertTrue(reader.next());
+		assertEquals(1, reader.getValue());
+		assertTrue(reader.next());
+		assertEquals(ts + 1, reader.getTimestamp());
+		assertFalse(reader.next());
+	}
+
+	@Test
+	public void testReadInPlace() throws IOException {
+		long ts = System.currentTimeMillis();
+		TimeSeriesBucket bucket = new TimeSeriesBucket();
+		for (int i = 0; i < 10; i++) {
+			bucket.addDataPoint(ts + i, i);
+		}
+		ByteArrayOutputStream merged = new ByteArrayOutputStream();
+		merged.write(bucket.toBytes());
+		for (int i = 10; i < 20; i++) {
+			merged.write(TimeSeriesBucket.MERGE_DELIMITER);
+			merged.write(TimeSeriesBucket.encodeMergeOperand(ts + i, i));
+		}
+		byte[] bytes = merged.toByteArray();
+		// read from a direct buffer with trailing garbage
+		ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length + 8);
+		buf.put(bytes);
+		BucketReader reader = TimeSeriesBucket.openReader(buf, bytes.length, new BucketReader());
+		assertEquals(20, reader.remaining());
+		for (int i = 0; i < 20; i++) {
+			assertTrue(reader.next());
+			assertEquals(ts + i, reader.getTimestamp());
+			assertEquals(i, reader.getValue());
+			assertEquals(19 - i, reader.remaining());
+		}
+		assertFalse(reader.next());
+
+		// only merge operands
+		byte[] operands = Arrays.copyOfRange(bytes, bucket.toBytes().length + 1, bytes.length);
+		TimeSeriesBucket.openReader(operands, reader);
+		assertEquals(10, reader.remaining());
+		assertTrue(reader.next());
+		assertEquals(ts + 10, reader.getTimestamp());
+		assertEquals(10, reader.getValue());
+
+		try {
+			TimeSeriesBucket.openReader(Arrays.copyOf(bytes, bytes.length - 1), reader);
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidMergeOperand() throws IOException {
+		byte[] operand = TimeSeriesBucket.encodeMergeOperand(1, 1);
+		TimeSeriesBucket.fromBytes(Arrays.copyOf(operand, operand.length + 2));
+	}
+
+	@Test(expected = IOException.class)
+	public void testInvalidFormat() throws IOException {
+		TimeSeriesBucket.fromBytes(new byte[] { 1, 2, 3 });
+	}
+
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2016 Ambud Sharma
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * 		http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.srotya.sidewinder.core.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * @author ambudsharma
+ */
+public class TestWalScanner {
+
+	@Test
+	public void testFragmentedBatches() throws IOException {
+		ByteBuffer log = ByteBuffer.allocate(32768 * 3).order(ByteOrder.LITTLE_ENDIAN);
+		record(log, 1, batch(5, 100));
+		// a batch spanning three blocks
+		int offset = 32768 - log.position() - 7;
+		byte[] large = batch(7, 70000);
+		record(log, 2, slice(large, 0, offset));
+		record(log, 3, slice(large, offset, 32768 - 7));
+		record(log, 4, slice(large, offset + 32768 - 7, large.length - offset - 32768 + 7));
+		record(log, 1, batch(3, 12));
+		long[] counts = new long[2];
+		WalScanner.scan(new ByteArrayInputStream(log.array(), 0, log.position()), counts);
+		assertEquals(3, counts[0]);
+		assertEquals(15, counts[1]);
+
+		// a torn write at the tail is ignored
+		counts = new long[2];
+		WalScanner.scan(new ByteArrayInputStream(log.array(), 0, log.position() - 1), counts);
+		assertEquals(2, counts[0]);
+		assertEquals(12, counts[1]);
+	}
+
+	private static byte[] batch(int entries, int length) {
+		ByteBuffer batch = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		batch.putLong(1);
+		batch.putInt(entries);
+		return batch.array();
+	}
+
+	private static byte[] slice(byte[] bytes, int offset, int length) {
+		byte[] slice = new byte[length];
+		System.arraycopy(bytes, offset, slice, 0, length);
+		return slice;
+	}
+
+	private static void record(ByteBuffer log, int type, byte[] payload) {
+		log.putInt(0);
+		log.putShort((short) payload.length);
+		log.put((byte) type);
+		log.put(payload);
+	}
+
+}
@@ -35,5 +35,18 @@ public class TestTimeUtils {
 		assertEquals((timestamp/1000/3600)*3600, time.getBucket());
 		assertEquals(timestamp, time.getOffset());
 	}
+
+	@Test
+	public void testParsePrecision() {
+		assertEquals(TimeUnit.NANOSECONDS, TimeUtils.parsePrecision("n"));
+		assertEquals(TimeUnit.MICROSECONDS, TimeUtils.parsePrecision("us"));
+		assertEquals(TimeUnit.MILLISECONDS, TimeUtils.parsePrecision("ms"));
+		assertEquals(TimeUnit.SECONDS, TimeUtils.parsePrecision("s"));
+		try {
+			TimeUtils.parsePrecision("h");
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
 	
 }
\ No newline at end of file